@@ -0,0 +1,121 @@
+package pacman.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pacman.algorithms.AbstractAlgorithm;
+import pacman.algorithms.AlgorithmFactory;
+import pacman.algorithms.AlgorithmFactory.SupportedAlgorithms;
+import pacman.model.Coordinate;
+import pacman.model.Direction;
+import pacman.model.Maze;
+import pacman.model.MazeFactory.PreConfiguredMaze;
+
+/**
+ * Measures one decision of each algorithm, for a pacman and for a ghost, at the
+ * start of a game on each pre-configured maze. The searches with a time budget
+ * (Monte Carlo tree search, expectimax) take about their budget by design; what to
+ * watch for them is the allocation rate.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AlgorithmBenchmark {
+    /** Contains the name of the algorithm. */
+    @Param({
+        SupportedAlgorithms.NULL_ALGORITHM,
+        SupportedAlgorithms.RANDOM_ALGORITHM,
+        SupportedAlgorithms.DFS_ALGORITHM,
+        SupportedAlgorithms.A_STAR_ALGORITHM,
+        SupportedAlgorithms.MCTS_ALGORITHM,
+        SupportedAlgorithms.EXPECTIMAX_ALGORITHM,
+        SupportedAlgorithms.GHOST_TEAM_ALGORITHM
+    })
+    public String algorithmName;
+
+    /** Contains the name of the maze. */
+    @Param({
+        PreConfiguredMaze.PELLET_CLASSIC_NAME,
+        PreConfiguredMaze.SMALL_CLASSIC_NAME,
+        PreConfiguredMaze.CONTEST_CLASSIC_NAME,
+        PreConfiguredMaze.MEDIUM_CLASSIC_NAME,
+        PreConfiguredMaze.TRICKY_CLASSIC_NAME,
+        PreConfiguredMaze.ORIGINAL_CLASSIC_NAME,
+        PreConfiguredMaze.EMPTY_MAZE_NAME
+    })
+    public String mazeName;
+
+    /** Contains the algorithm. */
+    private AbstractAlgorithm algorithm;
+
+    /** Contains the location of the pacman. */
+    private Coordinate pacman;
+
+    /** Contains the name of the ghost; {@code null} if the maze has no ghost. */
+    private String ghostName;
+
+    /** Contains the location of the ghost. */
+    private Coordinate ghost;
+
+    /**
+     * Loads the maze and creates the algorithm.
+     *
+     * @throws IOException if the maze cannot be parsed
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Maze maze = BenchmarkMazes.load(mazeName);
+        AlgorithmFactory factory = new AlgorithmFactory(maze);
+        for (String name: maze.snapshot().getGhostLocations().keySet()) {
+            factory.bindGhost(name, SupportedAlgorithms.A_STAR_ALGORITHM);
+        }
+        algorithm = factory.createAlgorithm(algorithmName);
+        pacman = maze.getPacmanStartLocation()[0];
+        Coordinate[] ghosts = maze.getGhostsStartLocation();
+        if (ghosts.length > 0) {
+            ghostName = BenchmarkMazes.GHOST_NAMES[0] + 0;
+            ghost = ghosts[0];
+        }
+    }
+
+    /**
+     * Measures one decision of the pacman.
+     *
+     * @return the decision
+     */
+    @Benchmark
+    public Direction getPacmanAction() {
+        return algorithm.getPacmanAction(0, pacman.getX(), pacman.getY(),
+            Direction.STOP);
+    }
+
+    /**
+     * Measures one decision of a ghost.
+     *
+     * @return the decision
+     */
+    @Benchmark
+    public Direction getGhostAction() {
+        if (ghostName == null) {
+            return Direction.STOP;
+        }
+        return algorithm.getGhostAction(ghostName, ghost.getX(), ghost.getY(),
+            Direction.STOP, false);
+    }
+}
@@ -0,0 +1,47 @@
+package pacman.benchmarks;
+
+import java.io.IOException;
+import pacman.model.Coordinate;
+import pacman.model.Maze;
+import pacman.model.MazeFactory;
+
+/**
+ * Contains the mazes the benchmarks run on.
+ *
+ * @version 1.0
+ */
+final class BenchmarkMazes {
+    /** Contains the names given to the ghosts placed in the mazes. */
+    static final String[] GHOST_NAMES = {"blinky", "pinky", "inky", "clyde"};
+
+    /** Hide the constructor. */
+    private BenchmarkMazes() {}
+
+    /**
+     * Loads a pre-configured maze with the pacmen and the ghosts at their start
+     * locations, as at the start of a game.
+     *
+     * @param name the name of the maze, a key of
+     *             {@link MazeFactory.PreConfiguredMaze#ITEMS}
+     * @return the maze
+     * @throws IOException if the maze cannot be parsed
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    static Maze load(String name) throws IOException, IllegalArgumentException {
+        String text = MazeFactory.PreConfiguredMaze.ITEMS.get(name);
+        if (text == null) {
+            throw new IllegalArgumentException("Unknown maze \"" + name + "\"");
+        }
+        Maze maze = MazeFactory.readBoardFromString(text);
+        Coordinate[] pacmen = maze.getPacmanStartLocation();
+        for (int i = 0; i < pacmen.length; i++) {
+            maze.pacmanVisit(i, pacmen[i].getX(), pacmen[i].getY());
+        }
+        Coordinate[] ghosts = maze.getGhostsStartLocation();
+        for (int i = 0; i < ghosts.length; i++) {
+            maze.ghostVisit(GHOST_NAMES[i % GHOST_NAMES.length] + i, ghosts[i].getX(),
+                ghosts[i].getY());
+        }
+        return maze;
+    }
+}
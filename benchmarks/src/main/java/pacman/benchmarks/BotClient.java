@@ -0,0 +1,373 @@
+package pacman.benchmarks;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import pacman.agents.PacmanAgent;
+import pacman.controller.NetworkController;
+import pacman.model.Coordinate;
+import pacman.model.Direction;
+import pacman.model.Maze;
+import pacman.network.SimpleP2PServer;
+import pacman.util.Metrics;
+
+/**
+ * This class is a headless client of a game, for load tests. It connects to a host,
+ * selects an agent and, at every {@link #step()}, walks the agent one block through
+ * the maze, sending the messages the game sends for a player: a {@code [LOCATION]}
+ * for every block and a {@code [DIRECTION]} for every turn.
+ *
+ * <p>Each message carries one more token than the game sends, the
+ * {@link System#nanoTime()} it was sent at, which the game ignores. The bots run in
+ * the same process, so a bot receiving a message relayed by the host records how long
+ * it took from the bot that sent it.
+ *
+ * @version 1.0
+ */
+public final class BotClient implements NetworkController {
+    /** Contains the probability of going on in the same direction at a junction. */
+    private static final double KEEP_DIRECTION = 0.8;
+
+    /** Contains the connection to the host. */
+    private final SimpleP2PServer server;
+
+    /** Contains the name of the agent selected. */
+    private final String agentName;
+
+    /** Contains the maze walked, which is only read. */
+    private final Maze maze;
+
+    /** Contains the random generator choosing the turns. */
+    private final Random random;
+
+    /** Contains the latency of the messages received from the other bots. */
+    private final Metrics.Histogram latency;
+
+    /** Contains the number of messages sent. */
+    private final AtomicLong sent = new AtomicLong();
+
+    /** Contains the number of moves received from the other bots. */
+    private final AtomicLong received = new AtomicLong();
+
+    /** Contains the number of turns sent. */
+    private final AtomicLong turnsSent = new AtomicLong();
+
+    /** Contains the number of turns received from the other bots. */
+    private final AtomicLong turnsReceived = new AtomicLong();
+
+    /** Contains the address of the host; {@code null} if not connected. */
+    private volatile SocketAddress host;
+
+    /** Contains whether the host gave the agent to this bot. */
+    private volatile boolean ready;
+
+    /** Contains the reason the host refused the agent; {@code null} if it did not. */
+    private volatile String failure;
+
+    /** Contains the x coordinate of the agent. */
+    private int x;
+
+    /** Contains the y coordinate of the agent. */
+    private int y;
+
+    /** Contains the direction the agent goes. */
+    private Direction direction = Direction.STOP;
+
+    /**
+     * Creates a bot. It does nothing until connected.
+     *
+     * @param agentName the name of the agent to select
+     * @param maze the maze to walk, which is only read
+     * @param start where the agent starts
+     * @param seed the seed of the turns of the agent
+     * @param latency where the latency of the messages received is recorded
+     */
+    public BotClient(String agentName, Maze maze, Coordinate start, long seed,
+                     Metrics.Histogram latency) {
+        this.server = new SimpleP2PServer(this, 2);
+        this.agentName = agentName;
+        this.maze = maze;
+        this.random = new Random(seed);
+        this.latency = latency;
+        this.x = start.getX();
+        this.y = start.getY();
+    }
+
+    /**
+     * Opens a UDP channel for the moves, used if the host opens one too.
+     *
+     * @throws IOException if the channel cannot be opened
+     */
+    public void openUdp() throws IOException {
+        server.openUdp();
+    }
+
+    /**
+     * Connects to a host and selects the agent.
+     *
+     * @param address the address of the host
+     * @param port the port of the host
+     * @throws IOException if the host is unreachable
+     */
+    public void connect(String address, int port) throws IOException {
+        host = server.connectTo(address, port);
+        server.send(host, "[SELECT]", agentName);
+    }
+
+    /**
+     * Walks the agent one block, turning at random at the junctions, and sends the
+     * messages of the move. Does nothing until the host gave the agent.
+     */
+    public synchronized void step() {
+        if (!ready) {
+            return;
+        }
+        List<Direction> legal = maze.getLegalActions(x, y);
+        if (legal.isEmpty()) {
+            return;
+        }
+        Direction next = direction;
+        if (!legal.contains(direction) || random.nextDouble() > KEEP_DIRECTION) {
+            next = legal.get(random.nextInt(legal.size()));
+            if (next == direction.reverse() && legal.size() > 1) {
+                next = legal.get(random.nextInt(legal.size()));
+            }
+        }
+        String name = agentName.equals(PacmanAgent.NAMES[0]) ? "0" : agentName;
+        try {
+            if (next != direction) {
+                direction = next;
+                server.broadcastUnreliable("[DIRECTION]" + name, "[DIRECTION]",
+                    direction.name(), name, String.valueOf(x), String.valueOf(y),
+                    String.valueOf(System.nanoTime()));
+                sent.incrementAndGet();
+                turnsSent.incrementAndGet();
+            }
+            x += direction.getDirectionX();
+            y += direction.getDirectionY();
+            server.broadcastUnreliable("[LOCATION]" + name, "[LOCATION]", name,
+                String.valueOf(x), String.valueOf(y), String.valueOf(System.nanoTime()));
+            sent.incrementAndGet();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the port listened to.
+     *
+     * @return the local port
+     */
+    @Override
+    public int getLocalPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Checks if the host gave the agent to this bot.
+     *
+     * @return true if the bot moves at every step
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Gets why the host refused the agent.
+     *
+     * @return the reason; {@code null} if the host did not refuse it
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Gets the number of messages sent.
+     *
+     * @return the number of messages sent
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Gets the number of moves received from the other bots.
+     *
+     * @return the number of moves received
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Gets the number of turns sent, each a {@code [DIRECTION]}.
+     *
+     * @return the number of turns sent
+     */
+    public long getTurnsSent() {
+        return turnsSent.get();
+    }
+
+    /**
+     * Gets the number of turns received from the other bots.
+     *
+     * @return the number of turns received
+     */
+    public long getTurnsReceived() {
+        return turnsReceived.get();
+    }
+
+    /**
+     * Disconnects from the host.
+     */
+    public void close() {
+        ready = false;
+        host = null;
+        try {
+            server.closeAllConnection();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        server.closeUdp();
+    }
+
+    // ==================================================================================
+    //                                  NETWORK CONTROLLER
+    // ==================================================================================
+
+    /**
+     * Checks if this bot listens for connections.
+     *
+     * @return {@code false}, as a bot only connects
+     */
+    @Override
+    public boolean isServerStarted() {
+        return false;
+    }
+
+    /**
+     * Checks if this bot is connected to the host.
+     *
+     * @return {@code true} if connected
+     */
+    @Override
+    public boolean isConnected() {
+        return server.hasConnection();
+    }
+
+    /**
+     * Changes the port listened to, which a bot does not.
+     *
+     * @param port the new port
+     * @param confirm if the user is asked
+     * @return {@code false}
+     */
+    @Override
+    public boolean changePort(String port, boolean confirm) {
+        return false;
+    }
+
+    /**
+     * Refuses an incoming connection, as a bot does not listen.
+     *
+     * @param remoteSocketAddress the address of the remote side
+     * @param port the port of the remote side
+     * @return {@code false}
+     */
+    @Override
+    public boolean incomingConnection(SocketAddress remoteSocketAddress, int port) {
+        return false;
+    }
+
+    /**
+     * Closes the server, which a bot does not start.
+     */
+    @Override
+    public void closeServer() {
+        // Never listens
+    }
+
+    /**
+     * Connects to a host and selects the agent.
+     *
+     * @param address the address of the host
+     * @param port the port of the host
+     * @param updateViewer ignored, as a bot has no view
+     * @return if the connection is created
+     */
+    @Override
+    public boolean connectTo(String address, String port, boolean updateViewer) {
+        try {
+            connect(address, Integer.parseInt(port));
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Disconnects from the host.
+     */
+    @Override
+    public void hostCloseConnection() {
+        close();
+    }
+
+    /**
+     * Stops moving when the host closes the connection.
+     *
+     * @param remoteSocketAddress the address of the host
+     */
+    @Override
+    public void remoteCloseConnection(SocketAddress remoteSocketAddress) {
+        ready = false;
+        host = null;
+    }
+
+    /**
+     * Handles a message of the host: the answer to the selection, or a move of another
+     * bot, whose latency is recorded.
+     *
+     * @param from the address of the host
+     * @param message the message content
+     */
+    @Override
+    public void receiveRemoteMessage(SocketAddress from, String message) {
+        String[] tokens = message.split(",");
+        switch (tokens[0]) {
+            case "[SELECT_GOOD]":
+                ready = true;
+                break;
+            case "[SELECT_FAIL]":
+                failure = tokens.length < 3 ? "unknown" : tokens[2];
+                break;
+            case "[DIRECTION]":
+                received.incrementAndGet();
+                turnsReceived.incrementAndGet();
+                if (tokens.length > 5) {
+                    latency.recordSince(Long.parseLong(tokens[5]));
+                }
+                break;
+            case "[LOCATION]":
+                received.incrementAndGet();
+                if (tokens.length > 4) {
+                    latency.recordSince(Long.parseLong(tokens[4]));
+                }
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Gets the connections of this bot.
+     *
+     * @return a set containing the address of the host, if connected
+     */
+    @Override
+    public Set<SocketAddress> getClientList() {
+        return server.getClientList();
+    }
+}
@@ -0,0 +1,280 @@
+package pacman.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import pacman.model.Coordinate;
+import pacman.model.DistanceField;
+import pacman.model.Maze;
+import pacman.model.MazeFactory;
+
+/**
+ * Checks that the distance fields of a {@link Maze}, which are repaired incrementally,
+ * always match a full BFS. On random mazes, walls and items included, it makes random
+ * updates (eating and putting back foods and pellets, moving and scaring ghosts) and
+ * after every update compares each block of the food, pellet and ghost fields with a
+ * BFS from the current sources: the distances must be equal, and the closest source of
+ * a block must be a source no further than its distance.
+ *
+ * <p>Usage: {@code java -cp benchmarks/target/benchmarks.jar
+ * pacman.benchmarks.DistanceFieldCheck [--mazes 300] [--updates 200] [--seed 1]}. It
+ * prints the first mismatch and exits with 1, or prints the number of blocks checked.
+ *
+ * @version 1.0
+ */
+public final class DistanceFieldCheck {
+    /** Contains the number of ghosts placed in each maze. */
+    private static final int GHOSTS = 4;
+
+    /** Contains the random generator of the mazes and the updates. */
+    private final Random random;
+
+    /** Contains the number of blocks compared. */
+    private long checked;
+
+    /**
+     * Creates a check.
+     *
+     * @param seed the seed of the mazes and the updates
+     */
+    private DistanceFieldCheck(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Runs the check.
+     *
+     * @param args the options, see the documentation of the class
+     * @throws IOException if a maze cannot be parsed
+     */
+    public static void main(String[] args) throws IOException {
+        int mazes = 300;
+        int updates = 200;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--mazes":
+                    mazes = Integer.parseInt(args[++i]);
+                    break;
+                case "--updates":
+                    updates = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        DistanceFieldCheck check = new DistanceFieldCheck(seed);
+        for (int m = 0; m < mazes; m++) {
+            String mismatch = check.run(updates);
+            if (mismatch != null) {
+                System.out.println("Maze " + m + ": " + mismatch);
+                System.exit(1);
+            }
+        }
+        System.out.printf("%d mazes, %d updates each: %d blocks match%n", mazes, updates,
+            check.checked);
+    }
+
+    /**
+     * Makes updates on a random maze, comparing the fields after each.
+     *
+     * @param updates the number of updates
+     * @return the first mismatch; {@code null} if the fields always match
+     * @throws IOException if the maze cannot be parsed
+     */
+    private String run(int updates) throws IOException {
+        int width = 5 + random.nextInt(24);
+        int height = 5 + random.nextInt(16);
+        Maze maze = MazeFactory.readBoardFromString(randomBoard(width, height));
+        List<Coordinate> open = new ArrayList<>();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (maze.isValidBlock(x, y)) {
+                    open.add(new Coordinate(x, y));
+                }
+            }
+        }
+        if (open.isEmpty()) {
+            return null;
+        }
+        for (int g = 0; g < GHOSTS; g++) {
+            Coordinate c = open.get(random.nextInt(open.size()));
+            maze.ghostVisit("ghost" + g, c.getX(), c.getY());
+        }
+        String mismatch = compareAll(maze);
+        for (int u = 0; u < updates && mismatch == null; u++) {
+            Coordinate c = open.get(random.nextInt(open.size()));
+            String ghost = "ghost" + random.nextInt(GHOSTS);
+            switch (random.nextInt(5)) {
+                case 0:
+                    maze.clearBlock(c.getX(), c.getY());
+                    break;
+                case 1:
+                    maze.restoreBlock(c.getX(), c.getY(), Maze.FOOD);
+                    break;
+                case 2:
+                    maze.restoreBlock(c.getX(), c.getY(), Maze.PELLET);
+                    break;
+                case 3:
+                    maze.ghostVisit(ghost, c.getX(), c.getY());
+                    break;
+                default:
+                    maze.setGhostScaredTime(ghost, random.nextBoolean() ? 5 : 0);
+            }
+            mismatch = compareAll(maze);
+            if (mismatch != null) {
+                mismatch = "update " + u + ": " + mismatch;
+            }
+        }
+        return mismatch;
+    }
+
+    /**
+     * Compares the three fields of a maze with a BFS from their sources.
+     *
+     * @param maze the maze
+     * @return the first mismatch; {@code null} if the fields match
+     */
+    private String compareAll(Maze maze) {
+        List<Coordinate> ghosts = new ArrayList<>();
+        Map<String, Integer> scaredTimes = maze.getGhostScaredTimes();
+        for (Map.Entry<String, Coordinate> ghost: maze.getGhostsLocation().entrySet()) {
+            if (scaredTimes.getOrDefault(ghost.getKey(), 0) <= 0) {
+                ghosts.add(ghost.getValue());
+            }
+        }
+        String mismatch = compare(maze, "food", maze.getFoodDistanceField(),
+            maze.getFoods());
+        if (mismatch == null) {
+            mismatch = compare(maze, "pellet", maze.getPelletDistanceField(),
+                Arrays.asList(maze.getPellets()));
+        }
+        if (mismatch == null) {
+            mismatch = compare(maze, "ghost", maze.getGhostDistanceField(), ghosts);
+        }
+        return mismatch;
+    }
+
+    /**
+     * Compares a field with a BFS from its sources.
+     *
+     * @param maze the maze
+     * @param name the name of the field
+     * @param field the field
+     * @param sources the sources of the field
+     * @return the first mismatch; {@code null} if the field matches
+     */
+    private String compare(Maze maze, String name, DistanceField field,
+                           Collection<Coordinate> sources) {
+        int width = maze.getWidth();
+        int height = maze.getHeight();
+        int[] expected = bfs(maze, sources);
+        Set<Coordinate> sourceSet = new HashSet<>(sources);
+        DistanceField.View view = field.view();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                checked++;
+                int actual = view.get(x, y);
+                if (actual != expected[y * width + x]) {
+                    return String.format("%s distance at (%d, %d) is %d instead of %d",
+                        name, x, y, actual, expected[y * width + x]);
+                }
+                Coordinate closest = view.getClosestSource(x, y);
+                if (actual == DistanceField.UNREACHABLE || closest == null) {
+                    continue;
+                }
+                if (!sourceSet.contains(closest)) {
+                    return String.format("%s closest source of (%d, %d) is %s, not a "
+                        + "source", name, x, y, closest);
+                }
+                int manhattan = Math.abs(closest.getX() - x)
+                    + Math.abs(closest.getY() - y);
+                if (manhattan > actual) {
+                    return String.format("%s closest source of (%d, %d) is %s, further "
+                        + "than %d", name, x, y, closest, actual);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the distances from the sources with a multi-source BFS.
+     *
+     * @param maze the maze
+     * @param sources the sources
+     * @return the distance of each block (y * width + x);
+     *      {@link DistanceField#UNREACHABLE} for walls and unreachable blocks
+     */
+    private static int[] bfs(Maze maze, Collection<Coordinate> sources) {
+        int width = maze.getWidth();
+        int[] distance = new int[width * maze.getHeight()];
+        Arrays.fill(distance, DistanceField.UNREACHABLE);
+        ArrayDeque<Coordinate> queue = new ArrayDeque<>();
+        for (Coordinate c: sources) {
+            if (maze.isValidBlock(c.getX(), c.getY())
+                    && distance[c.getY() * width + c.getX()] != 0) {
+                distance[c.getY() * width + c.getX()] = 0;
+                queue.add(c);
+            }
+        }
+        int[][] steps = {{0, -1}, {0, 1}, {-1, 0}, {1, 0}};
+        while (!queue.isEmpty()) {
+            Coordinate c = queue.poll();
+            int d = distance[c.getY() * width + c.getX()];
+            for (int[] step: steps) {
+                int x = c.getX() + step[0];
+                int y = c.getY() + step[1];
+                if (maze.isValidBlock(x, y)
+                        && distance[y * width + x] == DistanceField.UNREACHABLE) {
+                    distance[y * width + x] = d + 1;
+                    queue.add(new Coordinate(x, y));
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Makes the text of a random maze: a border of walls around random walls, foods
+     * and pellets, with one pacman.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @return the text of the maze
+     */
+    private String randomBoard(int width, int height) {
+        StringBuilder text = new StringBuilder();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double r = random.nextDouble();
+                if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                    text.append('%');
+                } else if (x == 1 && y == 1) {
+                    text.append('P');
+                } else if (r < 0.25) {
+                    text.append('%');
+                } else if (r < 0.55) {
+                    text.append('.');
+                } else if (r < 0.6) {
+                    text.append('o');
+                } else {
+                    text.append(' ');
+                }
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,78 @@
+package pacman.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pacman.replay.EventJournal;
+
+/**
+ * Measures recording into the {@link EventJournal}, which the game does at every
+ * visit of every agent and for every network message, to check that it stays a small
+ * part of the time of a tick ({@code MazeBenchmark} and {@code AlgorithmBenchmark}).
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventJournalBenchmark {
+    /** Contains the file of the journal. */
+    private File file;
+
+    /** Contains the peer of the messages. */
+    private final InetSocketAddress peer = new InetSocketAddress("127.0.0.1", 8080);
+
+    /** Contains the x coordinate of the next visit. */
+    private int x;
+
+    /**
+     * Opens a journal in a temporary file.
+     *
+     * @throws IOException if the file cannot be created
+     */
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("benchmark", ".journal");
+        EventJournal.open(file, EventJournal.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Closes the journal and deletes its file.
+     */
+    @TearDown
+    public void tearDown() {
+        EventJournal.close();
+        file.delete();
+    }
+
+    /**
+     * Records a visit.
+     */
+    @Benchmark
+    public void visit() {
+        EventJournal.record(EventJournal.TYPE_VISIT, "blinky0", x++ & 31, 7, 10);
+    }
+
+    /**
+     * Records a message sent.
+     */
+    @Benchmark
+    public void message() {
+        EventJournal.recordMessage(EventJournal.TYPE_NET_OUT, "[DIRECTION]", 28, peer);
+    }
+}
@@ -0,0 +1,446 @@
+package pacman.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import pacman.agents.GhostAgent;
+import pacman.agents.PacmanAgent;
+import pacman.controller.Lobby;
+import pacman.controller.NetworkController;
+import pacman.model.Coordinate;
+import pacman.model.Maze;
+import pacman.model.MazeFactory.PreConfiguredMaze;
+import pacman.network.ConnectionThreads;
+import pacman.network.SimpleP2PServer;
+import pacman.util.Metrics;
+
+/**
+ * Runs a soak test of a host over loopback: for each number of clients, it connects
+ * that many {@link BotClient}s to a host, lets them move for a while and reports the
+ * CPU used by the host, the throughput and the latency of the moves from one bot to
+ * the others.
+ *
+ * <p>The host is a {@link SimpleP2PServer} with a {@link Lobby}, as in the game, and a
+ * headless controller relaying the moves of each agent from the client controlling it
+ * to the other clients, as {@code PacmanController} does. Past the agents of a maze,
+ * the bots take numbered copies of the ghosts, so the host can be loaded with more
+ * clients than a game has. The CPU of the host is the CPU time of the threads running
+ * its controller, in percent of one core; the bots run in the same process on their
+ * own threads.
+ *
+ * <p>Usage: {@code java -cp benchmarks/target/benchmarks.jar
+ * pacman.benchmarks.LoadHarness [--clients 1,2,4,8] [--rate 10] [--seconds 10]
+ * [--udp] [--virtual]}, where the rate is the blocks per second each bot moves and
+ * {@code --virtual} serves the connections with virtual threads, on Java 21 and later.
+ *
+ * @version 1.0
+ */
+public final class LoadHarness {
+    /** Contains the longest time in milliseconds the bots take to get their agents. */
+    private static final long READY_TIMEOUT = 10_000;
+
+    /**
+     * This class contains the headless controller of the host.
+     */
+    private static final class Host implements NetworkController {
+        /** Contains the server of the host. */
+        private final SimpleP2PServer server;
+
+        /** Contains who controls each agent. */
+        private final Lobby lobby = new Lobby();
+
+        /** Contains the ids of the threads running this controller. */
+        private final Set<Long> threads = ConcurrentHashMap.newKeySet();
+
+        /** Contains the number of moves received. */
+        private final AtomicLong received = new AtomicLong();
+
+        /** Contains the number of moves relayed to the clients. */
+        private final AtomicLong relayed = new AtomicLong();
+
+        /**
+         * Creates the host, with the agents of a lobby.
+         *
+         * @param agentNames the names of the agents
+         * @throws IOException if the server cannot be created
+         */
+        Host(List<String> agentNames) throws IOException {
+            this.server = new SimpleP2PServer(this);
+            lobby.reset(agentNames);
+        }
+
+        /**
+         * Gets the CPU time used by the threads of this controller.
+         *
+         * @param bean the bean measuring the threads
+         * @return the CPU time in nanoseconds
+         */
+        long getCpuTime(ThreadMXBean bean) {
+            long total = 0;
+            for (long id: threads) {
+                total += Math.max(0, bean.getThreadCpuTime(id));
+            }
+            return total;
+        }
+
+        /**
+         * Gets the port listened to.
+         *
+         * @return the local port
+         */
+        @Override
+        public int getLocalPort() {
+            return server.getLocalPort();
+        }
+
+        /**
+         * Checks if the host listens for connections.
+         *
+         * @return {@code true} if listening
+         */
+        @Override
+        public boolean isServerStarted() {
+            return server.isListening();
+        }
+
+        /**
+         * Checks if a client is connected.
+         *
+         * @return {@code true} if connected
+         */
+        @Override
+        public boolean isConnected() {
+            return server.hasConnection();
+        }
+
+        /**
+         * Changes the port listened to, which the harness does not.
+         *
+         * @param port the new port
+         * @param confirm if the user is asked
+         * @return {@code false}
+         */
+        @Override
+        public boolean changePort(String port, boolean confirm) {
+            return false;
+        }
+
+        /**
+         * Lets in a client.
+         *
+         * @param remoteSocketAddress the address of the client
+         * @param port the port of the client
+         * @return {@code true}
+         */
+        @Override
+        public boolean incomingConnection(SocketAddress remoteSocketAddress, int port) {
+            lobby.join(remoteSocketAddress);
+            try {
+                server.confirmConnection(remoteSocketAddress);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+
+        /**
+         * Stops listening.
+         */
+        @Override
+        public void closeServer() {
+            server.closeServer();
+        }
+
+        /**
+         * Connects to another host, which the harness does not.
+         *
+         * @param address the address of the remote host
+         * @param port the port of the remote host
+         * @param updateViewer ignored, as the host has no view
+         * @return {@code false}
+         */
+        @Override
+        public boolean connectTo(String address, String port, boolean updateViewer) {
+            return false;
+        }
+
+        /**
+         * Disconnects all the clients.
+         */
+        @Override
+        public void hostCloseConnection() {
+            try {
+                server.closeAllConnection();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        /**
+         * Frees the agent of a client that disconnected.
+         *
+         * @param remoteSocketAddress the address of the client
+         */
+        @Override
+        public void remoteCloseConnection(SocketAddress remoteSocketAddress) {
+            lobby.leave(remoteSocketAddress);
+        }
+
+        /**
+         * Handles a message of a client: gives it an agent, or relays a move of its
+         * agent to the other clients.
+         *
+         * @param from the address of the client
+         * @param message the message content
+         */
+        @Override
+        public void receiveRemoteMessage(SocketAddress from, String message) {
+            threads.add(Thread.currentThread().getId());
+            String[] tokens = message.split(",");
+            String agentName;
+            switch (tokens[0]) {
+                case "[SELECT]":
+                    if (tokens.length < 2) {
+                        return;
+                    }
+                    try {
+                        if (lobby.select(from, tokens[1]) == Lobby.Result.SELECTED) {
+                            server.send(from, "[SELECT_GOOD]", tokens[1]);
+                        } else {
+                            server.send(from, "[SELECT_FAIL]", tokens[1],
+                                String.valueOf(lobby.getOwner(tokens[1])));
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    return;
+                case "[DIRECTION]":
+                    if (tokens.length < 5) {
+                        return;
+                    }
+                    agentName = tokens[2];
+                    break;
+                case "[LOCATION]":
+                    if (tokens.length < 4) {
+                        return;
+                    }
+                    agentName = tokens[1];
+                    break;
+                default:
+                    return;
+            }
+            received.incrementAndGet();
+            String owned = agentName.equals("0") ? PacmanAgent.NAMES[0] : agentName;
+            if (!from.equals(lobby.getOwner(owned))) {
+                return;
+            }
+            for (SocketAddress connection: server.getClientList()) {
+                if (!connection.equals(from)) {
+                    try {
+                        server.sendUnreliable(connection, tokens[0] + agentName,
+                            message);
+                        relayed.incrementAndGet();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Gets the connected clients.
+         *
+         * @return a set containing the addresses of all connected clients
+         */
+        @Override
+        public Set<SocketAddress> getClientList() {
+            return server.getClientList();
+        }
+    }
+
+    /** Hide the constructor. */
+    private LoadHarness() {}
+
+    /**
+     * Runs the soak test and prints one line per number of clients.
+     *
+     * @param args the options, see the documentation of the class
+     * @throws Exception if the host cannot be started or the maze loaded
+     */
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = {1, 2, 4, 8, 16, 32};
+        int rate = 10;
+        int seconds = 10;
+        boolean udp = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--clients":
+                    String[] counts = args[++i].split(",");
+                    clientCounts = new int[counts.length];
+                    for (int j = 0; j < counts.length; j++) {
+                        clientCounts[j] = Integer.parseInt(counts[j].trim());
+                    }
+                    break;
+                case "--rate":
+                    rate = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--udp":
+                    udp = true;
+                    break;
+                case "--virtual":
+                    if (!ConnectionThreads.useVirtualThreads()) {
+                        System.err.println("Virtual threads need Java 21 or later");
+                    }
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        int maxClients = 0;
+        for (int count: clientCounts) {
+            maxClients = Math.max(maxClients, count);
+        }
+        Maze maze = BenchmarkMazes.load(PreConfiguredMaze.ORIGINAL_CLASSIC_NAME);
+        List<String> agentNames = agentNames(maxClients);
+        Host host = new Host(agentNames);
+        host.server.startListening(0);
+        if (udp) {
+            host.server.openUdp();
+        }
+        ScheduledExecutorService ticker = Executors.newScheduledThreadPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+                Thread thread = new Thread(r, "bot-step");
+                thread.setDaemon(true);
+                return thread;
+            });
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        System.out.printf("%d moves per second per client for %d s over %s, %s threads%n",
+            rate, seconds, udp ? "UDP" : "TCP",
+            ConnectionThreads.isVirtual() ? "virtual" : "platform");
+        System.out.printf("%7s %8s %10s %10s %9s %9s %9s %9s %7s%n", "clients",
+            "host cpu", "in/s", "out/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "turns");
+        for (int count: clientCounts) {
+            runStep(host, maze, agentNames, count, rate, seconds, udp, ticker, bean);
+        }
+        ticker.shutdownNow();
+        System.exit(0);
+    }
+
+    /**
+     * Runs the test with a number of clients and prints its line.
+     *
+     * @param host the host
+     * @param maze the maze the bots walk
+     * @param agentNames the names of the agents of the lobby
+     * @param count the number of clients
+     * @param rate the blocks per second each bot moves
+     * @param seconds how long the bots move
+     * @param udp if the bots send their moves over UDP
+     * @param ticker the executor moving the bots
+     * @param bean the bean measuring the CPU time of the host
+     * @throws IOException if a bot cannot connect
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void runStep(Host host, Maze maze, List<String> agentNames,
+                                int count, int rate, int seconds, boolean udp,
+                                ScheduledExecutorService ticker, ThreadMXBean bean)
+            throws IOException, InterruptedException {
+        Metrics.Histogram latency = new Metrics.Histogram();
+        Coordinate[] ghosts = maze.getGhostsStartLocation();
+        List<BotClient> bots = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BotClient bot = new BotClient(agentNames.get(i), maze,
+                i == 0 ? maze.getPacmanStartLocation()[0] : ghosts[i % ghosts.length], i,
+                latency);
+            if (udp) {
+                bot.openUdp();
+            }
+            bot.connect("127.0.0.1", host.server.getLocalPort());
+            bots.add(bot);
+        }
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        for (BotClient bot: bots) {
+            while (!bot.isReady() && System.currentTimeMillis() < deadline) {
+                if (bot.getFailure() != null) {
+                    throw new IllegalStateException("Agent taken by " + bot.getFailure());
+                }
+                Thread.sleep(10);
+            }
+            if (!bot.isReady()) {
+                throw new IllegalStateException("The host did not let in " + count
+                    + " clients");
+            }
+        }
+        long period = TimeUnit.SECONDS.toNanos(1) / Math.max(1, rate);
+        List<ScheduledFuture<?>> steps = new ArrayList<>();
+        for (int i = 0; i < bots.size(); i++) {
+            // Spread the bots over the period, as players do not move in step
+            steps.add(ticker.scheduleAtFixedRate(bots.get(i)::step,
+                period * i / bots.size(), period, TimeUnit.NANOSECONDS));
+        }
+        long received = host.received.get();
+        long relayed = host.relayed.get();
+        long cpu = host.getCpuTime(bean);
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long cpuUsed = host.getCpuTime(bean) - cpu;
+        for (ScheduledFuture<?> step: steps) {
+            step.cancel(false);
+        }
+        // Let the last moves arrive, then count the turns every other bot received
+        Thread.sleep(100);
+        long turnsSent = 0;
+        long turnsReceived = 0;
+        for (BotClient bot: bots) {
+            turnsSent += bot.getTurnsSent() * (bots.size() - 1);
+            turnsReceived += bot.getTurnsReceived();
+        }
+        System.out.printf("%7d %7.1f%% %10.0f %10.0f %9.3f %9.3f %9.3f %9.3f %6.1f%%%n",
+            count, cpuUsed / 1e9 / elapsed * 100,
+            (host.received.get() - received) / elapsed,
+            (host.relayed.get() - relayed) / elapsed, latency.getPercentile(50) / 1e6,
+            latency.getPercentile(90) / 1e6, latency.getPercentile(99) / 1e6,
+            latency.getMax() / 1e6,
+            turnsSent == 0 ? 100.0 : turnsReceived * 100.0 / turnsSent);
+        for (BotClient bot: bots) {
+            bot.close();
+        }
+        deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        while (host.server.hasConnection() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Gets the agents of the lobby: the pacman and the ghosts, then numbered copies of
+     * the ghosts.
+     *
+     * @param count the number of agents needed
+     * @return the names of the agents
+     */
+    private static List<String> agentNames(int count) {
+        List<String> names = new ArrayList<>();
+        names.add(PacmanAgent.NAMES[0]);
+        for (int i = 0; names.size() < count; i++) {
+            String ghost = GhostAgent.NAMES[i % GhostAgent.NAMES.length];
+            names.add(i < GhostAgent.NAMES.length ? ghost
+                : ghost + (i / GhostAgent.NAMES.length));
+        }
+        return names;
+    }
+}
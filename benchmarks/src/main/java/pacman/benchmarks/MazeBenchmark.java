@@ -0,0 +1,102 @@
+package pacman.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pacman.model.Coordinate;
+import pacman.model.Direction;
+import pacman.model.Maze;
+import pacman.model.MazeFactory.PreConfiguredMaze;
+
+/**
+ * Measures the operations of the maze called at every move of every agent.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MazeBenchmark {
+    /** Contains the name of the maze. */
+    @Param({
+        PreConfiguredMaze.PELLET_CLASSIC_NAME,
+        PreConfiguredMaze.SMALL_CLASSIC_NAME,
+        PreConfiguredMaze.CONTEST_CLASSIC_NAME,
+        PreConfiguredMaze.MEDIUM_CLASSIC_NAME,
+        PreConfiguredMaze.TRICKY_CLASSIC_NAME,
+        PreConfiguredMaze.ORIGINAL_CLASSIC_NAME,
+        PreConfiguredMaze.EMPTY_MAZE_NAME
+    })
+    public String mazeName;
+
+    /** Contains the maze. */
+    private Maze maze;
+
+    /** Contains the open blocks of the maze, visited in turn. */
+    private Coordinate[] blocks;
+
+    /** Contains the index of the next block in {@link #blocks}. */
+    private int next;
+
+    /**
+     * Loads the maze and lists its open blocks. The maze is loaded again at every
+     * iteration, so that the pacman always finds food to eat.
+     *
+     * @throws IOException if the maze cannot be parsed
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        maze = BenchmarkMazes.load(mazeName);
+        List<Coordinate> open = new ArrayList<>();
+        for (int y = 0; y < maze.getHeight(); y++) {
+            for (int x = 0; x < maze.getWidth(); x++) {
+                if (maze.isValidBlock(x, y)) {
+                    open.add(new Coordinate(x, y));
+                }
+            }
+        }
+        blocks = open.toArray(new Coordinate[0]);
+        next = 0;
+    }
+
+    /**
+     * Measures getting the legal actions of a block.
+     *
+     * @return the legal actions
+     */
+    @Benchmark
+    public List<Direction> getLegalActions() {
+        Coordinate c = blocks[next];
+        next = next + 1 == blocks.length ? 0 : next + 1;
+        return maze.getLegalActions(c.getX(), c.getY());
+    }
+
+    /**
+     * Measures moving the pacman to a block, eating what is there. The pacman sweeps
+     * the open blocks, so the first sweep of an iteration eats the food.
+     *
+     * @return the scores earned
+     */
+    @Benchmark
+    public int pacmanVisit() {
+        Coordinate c = blocks[next];
+        next = next + 1 == blocks.length ? 0 : next + 1;
+        return maze.pacmanVisit(0, c.getX(), c.getY());
+    }
+}
@@ -0,0 +1,66 @@
+package pacman.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pacman.model.Maze;
+import pacman.model.MazeFactory;
+import pacman.model.MazeFactory.PreConfiguredMaze;
+
+/**
+ * Measures parsing each pre-configured maze, which is done every time a level is
+ * loaded.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MazeFactoryBenchmark {
+    /** Contains the name of the maze. */
+    @Param({
+        PreConfiguredMaze.PELLET_CLASSIC_NAME,
+        PreConfiguredMaze.SMALL_CLASSIC_NAME,
+        PreConfiguredMaze.CONTEST_CLASSIC_NAME,
+        PreConfiguredMaze.MEDIUM_CLASSIC_NAME,
+        PreConfiguredMaze.TRICKY_CLASSIC_NAME,
+        PreConfiguredMaze.ORIGINAL_CLASSIC_NAME,
+        PreConfiguredMaze.EMPTY_MAZE_NAME
+    })
+    public String mazeName;
+
+    /** Contains the text of the maze. */
+    private String text;
+
+    /**
+     * Gets the text of the maze.
+     */
+    @Setup
+    public void setUp() {
+        text = PreConfiguredMaze.ITEMS.get(mazeName);
+    }
+
+    /**
+     * Measures parsing the maze.
+     *
+     * @return the maze
+     * @throws IOException if the maze cannot be parsed
+     */
+    @Benchmark
+    public Maze readBoardFromString() throws IOException {
+        return MazeFactory.readBoardFromString(text);
+    }
+}
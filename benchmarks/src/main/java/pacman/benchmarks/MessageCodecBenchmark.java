@@ -0,0 +1,152 @@
+package pacman.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pacman.algorithms.AlgorithmFactory.SupportedAlgorithms;
+import pacman.model.Direction;
+import pacman.model.MazeFactory.PreConfiguredMaze;
+
+/**
+ * Measures encoding and decoding the network messages the way the game does: the
+ * tokens are joined by commas and written with {@link DataOutputStream#writeUTF} by
+ * {@code SimpleP2PServer.send}, then read with {@link DataInputStream#readUTF} and
+ * split by {@code PacmanController.receiveRemoteMessage}. A direction message is sent
+ * at every turn of every agent; a start message once per game.
+ *
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCodecBenchmark {
+    /** Contains the buffer the messages are written to. */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+
+    /** Contains the stream writing to {@link #buffer}. */
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    /** Contains the start message as its tokens. */
+    private String[] startTokens;
+
+    /** Contains an encoded direction message. */
+    private byte[] directionBytes;
+
+    /** Contains an encoded start message. */
+    private byte[] startBytes;
+
+    /** Contains the coordinate encoded in the direction message. */
+    private int coordinate;
+
+    /**
+     * Encodes the messages to decode.
+     *
+     * @throws IOException never, since the messages are written to memory
+     */
+    @Setup
+    public void setUp() throws IOException {
+        List<String> start = new ArrayList<>();
+        start.add("[START]");
+        start.add(PreConfiguredMaze.ORIGINAL_CLASSIC_NAME);
+        start.add(String.join("~", "0", "9", "11", SupportedAlgorithms.A_STAR_ALGORITHM));
+        for (int i = 0; i < BenchmarkMazes.GHOST_NAMES.length; i++) {
+            start.add(String.join("~", BenchmarkMazes.GHOST_NAMES[i] + i,
+                String.valueOf(8 + i), "5", SupportedAlgorithms.MCTS_ALGORITHM));
+        }
+        startTokens = start.toArray(new String[0]);
+        directionBytes = encodeDirection();
+        startBytes = encode(startTokens);
+    }
+
+    /**
+     * Encodes a message as {@code SimpleP2PServer.send} does.
+     *
+     * @param tokens the tokens of the message
+     * @return the bytes sent
+     * @throws IOException never, since the messages are written to memory
+     */
+    private byte[] encode(String... tokens) throws IOException {
+        buffer.reset();
+        out.writeUTF(String.join(",", tokens));
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Encodes a direction message as {@code PacmanController.notifyDirectionChange}
+     * does.
+     *
+     * @return the bytes sent
+     * @throws IOException never, since the messages are written to memory
+     */
+    @Benchmark
+    public byte[] encodeDirection() throws IOException {
+        coordinate = (coordinate + 1) & 31;
+        return encode("[DIRECTION]", Direction.LEFT.name(),
+            BenchmarkMazes.GHOST_NAMES[0] + 0, String.valueOf(coordinate),
+            String.valueOf(coordinate));
+    }
+
+    /**
+     * Decodes a direction message as {@code PacmanController.receiveRemoteMessage}
+     * does.
+     *
+     * @return the sum of the coordinates read
+     * @throws IOException never, since the messages are read from memory
+     */
+    @Benchmark
+    public int decodeDirection() throws IOException {
+        String message = new DataInputStream(new ByteArrayInputStream(directionBytes))
+            .readUTF();
+        String[] tokens = message.split(",");
+        Direction d = Direction.valueOf(tokens[1]);
+        return d.ordinal() + Integer.parseInt(tokens[3]) + Integer.parseInt(tokens[4]);
+    }
+
+    /**
+     * Encodes a start message.
+     *
+     * @return the bytes sent
+     * @throws IOException never, since the messages are written to memory
+     */
+    @Benchmark
+    public byte[] encodeStart() throws IOException {
+        return encode(startTokens);
+    }
+
+    /**
+     * Decodes a start message, splitting the information of every agent.
+     *
+     * @return the sum of the coordinates read
+     * @throws IOException never, since the messages are read from memory
+     */
+    @Benchmark
+    public int decodeStart() throws IOException {
+        String message = new DataInputStream(new ByteArrayInputStream(startBytes))
+            .readUTF();
+        String[] tokens = message.split(",");
+        int sum = 0;
+        for (int i = 2; i < tokens.length; i++) {
+            String[] agent = tokens[i].split("~");
+            sum += Integer.parseInt(agent[1]) + Integer.parseInt(agent[2]);
+        }
+        return sum;
+    }
+}
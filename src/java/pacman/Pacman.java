@@ -1,6 +1,13 @@
 package pacman;
 
+import java.io.File;
+import java.io.IOException;
 import pacman.controller.PacmanController;
+import pacman.network.ConnectionThreads;
+import pacman.network.SpectatorHub;
+import pacman.replay.EventJournal;
+import pacman.util.Logger;
+import pacman.util.Metrics;
 import pacman.viewer.GUIViewer;
 
 /**
@@ -9,14 +16,115 @@ import pacman.viewer.GUIViewer;
  * @version 1.0
  */
 public class Pacman {
+    /**
+     * Contains the system property naming the file the metrics are dumped to; the
+     * metrics are not dumped if it is not set.
+     */
+    public static final String METRICS_FILE_PROPERTY = "pacman.metrics.file";
+
+    /**
+     * Contains the system property of the period of the dump in milliseconds; the
+     * metrics are not dumped if it is 0 or less.
+     */
+    public static final String METRICS_PERIOD_PROPERTY = "pacman.metrics.period";
+
+    /**
+     * Contains the system property of the lowest level of the logs printed, one of
+     * {@link Logger.Level}; the logs are not printed if it is not set.
+     */
+    public static final String LOG_LEVEL_PROPERTY = "pacman.log";
+
+    /** Contains the system property telling if the callers are printed in the logs. */
+    public static final String LOG_DETAIL_PROPERTY = "pacman.log.detail";
+
+    /**
+     * Contains the system property naming the file of the {@link EventJournal}, by
+     * default {@value #JOURNAL_FILE_NAME} in the temporary directory.
+     */
+    public static final String JOURNAL_FILE_PROPERTY = "pacman.journal";
+
+    /** Contains the system property telling if the events are journaled, by default. */
+    public static final String JOURNAL_ENABLED_PROPERTY = "pacman.journal.enabled";
+
+    /** Contains the name of the default file of the journal, reused by every launch. */
+    public static final String JOURNAL_FILE_NAME = "pacman.journal";
+
+    /**
+     * Contains the system property of the port the games are streamed to spectators
+     * on; the games are not streamed if it is not set, unless spectating.
+     */
+    public static final String SPECTATORS_PORT_PROPERTY = "pacman.spectators.port";
+
+    /** Contains the system property of the number of spectators streamed to directly. */
+    public static final String SPECTATORS_FAN_OUT_PROPERTY = "pacman.spectators.fanout";
+
+    /**
+     * Contains the system property of the {@code address:port} of the game to watch
+     * instead of playing.
+     */
+    public static final String SPECTATE_PROPERTY = "pacman.spectate";
+
+    /**
+     * Contains the system property telling if the connections are served by virtual
+     * threads, on Java 21 and later.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "pacman.virtualThreads";
+
     /**
      * Main method to start the application.
      *
      * @param args the command line arguments
      */
     public static void main(String[] args) {
+        String logLevel = System.getProperty(LOG_LEVEL_PROPERTY);
+        if (logLevel != null) {
+            try {
+                Logger.LOG_LEVEL = Logger.Level.valueOf(logLevel.toUpperCase());
+                Logger.LOG_ENABLED = true;
+                Logger.LOG_DETAIL = Boolean.parseBoolean(
+                    System.getProperty(LOG_DETAIL_PROPERTY, "true"));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown log level \"" + logLevel + "\"");
+            }
+        }
+        String metricsFile = System.getProperty(METRICS_FILE_PROPERTY);
+        if (metricsFile != null) {
+            Metrics.startDump(new File(metricsFile),
+                Long.getLong(METRICS_PERIOD_PROPERTY, 10_000));
+        }
+        if (Boolean.parseBoolean(System.getProperty(JOURNAL_ENABLED_PROPERTY, "true"))) {
+            String journalFile = System.getProperty(JOURNAL_FILE_PROPERTY,
+                new File(System.getProperty("java.io.tmpdir"), JOURNAL_FILE_NAME)
+                    .getPath());
+            try {
+                EventJournal.open(new File(journalFile), EventJournal.DEFAULT_CAPACITY);
+            } catch (IOException e) {
+                Logger.println("ERROR:" + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)
+                && !ConnectionThreads.useVirtualThreads()) {
+            System.err.println("Virtual threads need Java 21 or later");
+        }
         PacmanController controller = new PacmanController();
         GUIViewer viewer = new GUIViewer(controller);
         controller.setView(viewer);
+        String spectate = System.getProperty(SPECTATE_PROPERTY);
+        if (spectate != null || System.getProperty(SPECTATORS_PORT_PROPERTY) != null) {
+            controller.startSpectatorHub(Integer.getInteger(SPECTATORS_PORT_PROPERTY, 0),
+                Integer.getInteger(SPECTATORS_FAN_OUT_PROPERTY,
+                    SpectatorHub.DEFAULT_FAN_OUT));
+        }
+        if (spectate != null) {
+            int colon = spectate.lastIndexOf(':');
+            try {
+                controller.spectate(spectate.substring(0, colon),
+                    Integer.parseInt(spectate.substring(colon + 1)));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                System.err.println("Expected address:port to spectate, got \""
+                    + spectate + "\"");
+            }
+        }
     }
 }
@@ -5,6 +5,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.LinkedList;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import javax.swing.AbstractAction;
 import javax.swing.ImageIcon;
 import javax.swing.JLabel;
@@ -15,15 +17,24 @@ import pacman.controller.PacmanMazeController;
 import pacman.model.Coordinate;
 import pacman.model.Direction;
 import pacman.model.Maze;
+import pacman.util.GameEvents;
 import pacman.util.Logger;
+import pacman.util.Metrics;
 
 /**
  * This is a component that shows a character (ghost/pacman) in the game with moving
  * animations.
  *
- * @version 1.0
+ * @version 1.1
  */
 public abstract class AbstractAgent extends JLabel {
+    /** Contains the time taken by each tick of every agent. */
+    private static final Metrics.Histogram TICK_TIME = Metrics.histogram("agent.tick");
+
+    /** Contains the number of decisions of every agent replaced by a fallback. */
+    private static final Metrics.Counter LATE_DECISIONS =
+        Metrics.counter("agent.decision.late");
+
     /** Contains the controller of the application. */
     private final PacmanMazeController controller;
 
@@ -95,10 +106,37 @@ public abstract class AbstractAgent extends JLabel {
 
     private java.util.Timer hold;
 
+    /**
+     * Contains the commands (new directions and locations) waiting to be applied at
+     * the start of the next tick.
+     */
+    private final AgentCommandQueue commands = new AgentCommandQueue();
+
+    /** Contains the number of ticks (calls to {@link #move()}) of this agent. */
+    private long ticks;
+
+    /** Contains the listener notified every time a command is applied. */
+    private AgentCommand.Listener commandListener;
+
+    /**
+     * Contains the decision being computed for the block the agent is moving into;
+     * {@code null} if none.
+     */
+    private CompletableFuture<Direction> nextDecision;
+
+    /** Contains the x coordinate of the block {@link #nextDecision} is for. */
+    private int decisionX;
+
+    /** Contains the y coordinate of the block {@link #nextDecision} is for. */
+    private int decisionY;
+
+    /** Contains the number of decisions not ready in time and replaced by a fallback. */
+    private long lateDecisions;
+
     /**
      * Contains an Action object that applied when the user inputs a new direction. It
-     * checks if that direction can be applied immediately: if so, it changes to that
-     * direction; otherwise, it puts the direction into a queue.
+     * queues the direction as a command, which is applied at the start of the next
+     * tick.
      */
     class NewDirectionAction extends AbstractAction {
         /**
@@ -121,18 +159,7 @@ public abstract class AbstractAgent extends JLabel {
          */
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (direction != newDirection) {
-                if (direction.reverse() == newDirection
-                        || maze.isValidDirection(coordinateX, coordinateY, newDirection)) {
-                    changeDirection(newDirection);
-                } else {
-                    if (pendingDirections.isEmpty()) {
-                        pendingDirections.add(newDirection);
-                    } else if (pendingDirections.getLast() != newDirection) {
-                        pendingDirections.add(newDirection);
-                    }
-                }
-            }
+            submitCommand(AgentCommand.keyboard(newDirection));
         }
     }
 
@@ -216,7 +243,9 @@ public abstract class AbstractAgent extends JLabel {
             animation.stop();
         }
         autoMoving.stop();
+        commands.clear();
         pendingDirections.clear();
+        cancelDecision();
         direction = Direction.STOP;
         setVisible(false);
         hold = new java.util.Timer();
@@ -236,6 +265,13 @@ public abstract class AbstractAgent extends JLabel {
                     controller.notifyLocationChange(coordinateX, coordinateY,
                         AbstractAgent.this);
                     setVisible(true);
+                    GameEvents.Respawn respawn = new GameEvents.Respawn();
+                    if (respawn.shouldCommit()) {
+                        respawn.agent = getAgentName();
+                        respawn.x = coordinateX;
+                        respawn.y = coordinateY;
+                        respawn.commit();
+                    }
                     controller.agentVisit(AbstractAgent.this, coordinateX, coordinateY);
                     autoMoving.start();
                 }).start();
@@ -248,6 +284,12 @@ public abstract class AbstractAgent extends JLabel {
      * Moves the image for a block following the current direction.
      */
     public void move() {
+        long start = System.nanoTime();
+        GameEvents.Tick event = new GameEvents.Tick();
+        event.begin();
+        ticks++;
+        applyCommands();
+
         // Update image based on direction changes
         final Direction currDirection = direction;
         if (directionChanged) {
@@ -288,6 +330,12 @@ public abstract class AbstractAgent extends JLabel {
                 coordinateX += currDirection.getDirectionX();
                 coordinateY += currDirection.getDirectionY();
                 controller.agentVisit(this, coordinateX, coordinateY);
+
+                // Decide the move out of the new block while moving into it
+                cancelDecision();
+                nextDecision = requestDecision(currDirection);
+                decisionX = coordinateX;
+                decisionY = coordinateY;
             } else {
                 // Stop if the next block is a wall
                 changeDirection(Direction.STOP);
@@ -295,6 +343,14 @@ public abstract class AbstractAgent extends JLabel {
         } else {
             checkPossibleNextDirection(currDirection);
         }
+        TICK_TIME.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.agent = getAgentName();
+            event.tick = ticks;
+            event.direction = currDirection.name();
+            event.commit();
+        }
     }
 
     /**
@@ -337,6 +393,79 @@ public abstract class AbstractAgent extends JLabel {
      */
     protected abstract void checkPossibleNextDirection(final Direction currDirection);
 
+    /**
+     * Gets the name of the agent, as shown in the recordings of the game.
+     *
+     * @return the index of a pacman or the name of a ghost
+     */
+    public abstract String getAgentName();
+
+    /**
+     * Starts computing the move out of the current block, called as soon as the agent
+     * starts moving into it. The result is taken by {@link #takeDecision} when the
+     * agent reaches the block.
+     *
+     * @param currDirection the current direction
+     * @return the decision being computed; {@code null} if the agent decides at the
+     *      block itself
+     */
+    protected CompletableFuture<Direction> requestDecision(Direction currDirection) {
+        return null;
+    }
+
+    /**
+     * Takes the decision asked by {@link #requestDecision} for the current block
+     * without waiting for it. If it is not ready, the fallback of the algorithm is
+     * used instead; if none was asked for this block, the decision is computed here.
+     *
+     * @param currDirection the current direction
+     * @param decide computes the decision at once
+     * @return the direction to go for next state
+     * @requires None
+     * @modifies nextDecision, lateDecisions
+     * @effects the decision asked for the current block is consumed
+     */
+    protected Direction takeDecision(Direction currDirection,
+                                     Supplier<Direction> decide) {
+        CompletableFuture<Direction> decision = nextDecision;
+        nextDecision = null;
+        if (decision == null || decisionX != coordinateX || decisionY != coordinateY) {
+            if (decision != null) {
+                decision.cancel(false);
+            }
+            return decide.get();
+        }
+        Direction next = decision.getNow(null);
+        if (next == null) {
+            decision.cancel(false);
+            lateDecisions++;
+            LATE_DECISIONS.increment();
+            Logger.printlnf("Decision of %s is late, falling back", this);
+            return algorithm.getFallbackAction(coordinateX, coordinateY, currDirection);
+        }
+        return next;
+    }
+
+    /**
+     * Drops the decision being computed, if any.
+     */
+    private void cancelDecision() {
+        if (nextDecision != null) {
+            nextDecision.cancel(false);
+            nextDecision = null;
+        }
+    }
+
+    /**
+     * Gets the number of decisions that were not ready when the agent reached the
+     * block, so the fallback of the algorithm was used.
+     *
+     * @return the number of late decisions
+     */
+    public long getLateDecisions() {
+        return lateDecisions;
+    }
+
     /**
      * Change the current moving direction.
      *
@@ -350,6 +479,96 @@ public abstract class AbstractAgent extends JLabel {
         }
     }
 
+    /**
+     * Queues a command that changes the state of the agent. Safe to be called from
+     * any thread: the command is applied in order at the start of the next tick, or
+     * on the event dispatch thread right away if the agent is not moving.
+     *
+     * @param command the command
+     */
+    public void submitCommand(AgentCommand command) {
+        commands.offer(command);
+        if (!autoMoving.isRunning()) {
+            SwingUtilities.invokeLater(this::applyCommands);
+        }
+    }
+
+    /**
+     * Sets the listener notified every time a command is applied to this agent.
+     *
+     * @param listener the listener; {@code null} to remove it
+     */
+    public void setCommandListener(AgentCommand.Listener listener) {
+        this.commandListener = listener;
+    }
+
+    /**
+     * Gets the latency of the last applied command.
+     *
+     * @return the time between creating and applying the last command in nanoseconds
+     */
+    public long getLastInputLatency() {
+        return commands.getLastLatency();
+    }
+
+    /**
+     * Gets the largest latency of all applied commands.
+     *
+     * @return the largest time between creating and applying a command in nanoseconds
+     */
+    public long getMaxInputLatency() {
+        return commands.getMaxLatency();
+    }
+
+    /**
+     * Applies all the queued commands in order.
+     */
+    private void applyCommands() {
+        commands.drain(command -> {
+            switch (command.getType()) {
+                case DIRECTION:
+                    if (command.getSource() == AgentCommand.Source.NETWORK) {
+                        networkChangeDirection(command.getDirection(), command.getX(),
+                            command.getY());
+                    } else if (command.getSource() == AgentCommand.Source.KEYBOARD) {
+                        userChangeDirection(command.getDirection());
+                    } else {
+                        changeDirection(command.getDirection());
+                    }
+                    break;
+                case LOCATION:
+                    networkChangeLocation(command.getX(), command.getY());
+                    break;
+                default:
+            }
+            if (commandListener != null) {
+                commandListener.commandApplied(this, ticks, command);
+            }
+        });
+    }
+
+    /**
+     * Applies a direction inputted by the user. It checks if that direction can be
+     * applied immediately: if so, it changes to that direction; otherwise, it puts the
+     * direction into a queue.
+     *
+     * @param newDirection the user specified new direction
+     */
+    private void userChangeDirection(Direction newDirection) {
+        if (direction != newDirection) {
+            if (direction.reverse() == newDirection
+                    || maze.isValidDirection(coordinateX, coordinateY, newDirection)) {
+                changeDirection(newDirection);
+            } else {
+                if (pendingDirections.isEmpty()) {
+                    pendingDirections.add(newDirection);
+                } else if (pendingDirections.getLast() != newDirection) {
+                    pendingDirections.add(newDirection);
+                }
+            }
+        }
+    }
+
     /**
      * Change the current moving direction immediately.
      *
@@ -357,13 +576,13 @@ public abstract class AbstractAgent extends JLabel {
      * @param x the new x coordinate
      * @param y the new y coordinate
      */
-    public void networkChangeDirection(Direction d, String x, String y) {
+    private void networkChangeDirection(Direction d, int x, int y) {
         if (animation != null) {
             animation.stop();
         }
-        setMazeLocation(Integer.parseInt(x), Integer.parseInt(y));
-        coordinateX = Integer.parseInt(x);
-        coordinateY = Integer.parseInt(y);
+        setMazeLocation(x, y);
+        coordinateX = x;
+        coordinateY = y;
         controller.agentVisit(this, coordinateX, coordinateY);
         autoMoving.start();
         direction = d;
@@ -376,14 +595,14 @@ public abstract class AbstractAgent extends JLabel {
      * @param x the new x coordinate
      * @param y the new y coordinate
      */
-    public void networkChangeLocation(final String x, final String y) {
+    private void networkChangeLocation(final int x, final int y) {
         if (hold != null) {
             hold.cancel();
         }
-        setMazeLocation(Integer.parseInt(x), Integer.parseInt(y));
+        setMazeLocation(x, y);
         setVisible(true);
-        coordinateX = Integer.parseInt(x);
-        coordinateY = Integer.parseInt(y);
+        coordinateX = x;
+        coordinateY = y;
         controller.agentVisit(this, coordinateX, coordinateY);
         if (hold != null) {
             autoMoving.start();
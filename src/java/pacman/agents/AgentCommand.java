@@ -0,0 +1,194 @@
+package pacman.agents;
+
+import pacman.model.Direction;
+
+/**
+ * This class represents a command that changes the state of an agent: either a new
+ * direction or a new location. Commands are produced by the keyboard, the network
+ * and the algorithms, queued in the agent and applied in order at the start of the
+ * agent's next tick (see {@link AbstractAgent#submitCommand(AgentCommand)}).
+ *
+ * @version 1.0
+ */
+public final class AgentCommand {
+    /**
+     * Contains the kinds of command.
+     */
+    public enum Type {
+        /** Changes the direction of the agent. */
+        DIRECTION,
+        /** Moves the agent to another block. */
+        LOCATION
+    }
+
+    /**
+     * Contains the producers of commands.
+     */
+    public enum Source {
+        /** The local user pressed an arrow key. */
+        KEYBOARD,
+        /** A remote side sent the command. */
+        NETWORK,
+        /** The algorithm of the agent made a decision. */
+        AI
+    }
+
+    /**
+     * This interface is notified every time a command is applied to an agent, for
+     * example to record the stream of commands for a replay.
+     */
+    public interface Listener {
+        /**
+         * Gets called after a command is applied to an agent.
+         *
+         * @param agent the agent that applied the command
+         * @param tick the tick of the agent when the command is applied
+         * @param command the command that is applied
+         */
+        void commandApplied(AbstractAgent agent, long tick, AgentCommand command);
+    }
+
+    /** Contains the kind of the command. */
+    private final Type type;
+
+    /** Contains the producer of the command. */
+    private final Source source;
+
+    /** Contains the new direction; {@code null} for location commands. */
+    private final Direction direction;
+
+    /** Contains the x coordinate; -1 if the command is not bound to a block. */
+    private final int x;
+
+    /** Contains the y coordinate; -1 if the command is not bound to a block. */
+    private final int y;
+
+    /** Contains the value of {@link System#nanoTime()} when the command is created. */
+    private final long createdAt;
+
+    /**
+     * Creates a new command.
+     *
+     * @param type the kind of the command
+     * @param source the producer of the command
+     * @param direction the new direction
+     * @param x the x coordinate
+     * @param y the y coordinate
+     */
+    private AgentCommand(Type type, Source source, Direction direction, int x, int y) {
+        this.type = type;
+        this.source = source;
+        this.direction = direction;
+        this.x = x;
+        this.y = y;
+        this.createdAt = System.nanoTime();
+    }
+
+    /**
+     * Creates a direction command produced by the keyboard.
+     *
+     * @param direction the new direction
+     * @return a new command
+     */
+    public static AgentCommand keyboard(Direction direction) {
+        return new AgentCommand(Type.DIRECTION, Source.KEYBOARD, direction, -1, -1);
+    }
+
+    /**
+     * Creates a direction command produced by the algorithm of the agent.
+     *
+     * @param direction the new direction
+     * @return a new command
+     */
+    public static AgentCommand decision(Direction direction) {
+        return new AgentCommand(Type.DIRECTION, Source.AI, direction, -1, -1);
+    }
+
+    /**
+     * Creates a direction command received from the network, which also moves the
+     * agent to the block where the remote side changed its direction.
+     *
+     * @param direction the new direction
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return a new command
+     */
+    public static AgentCommand networkDirection(Direction direction, int x, int y) {
+        return new AgentCommand(Type.DIRECTION, Source.NETWORK, direction, x, y);
+    }
+
+    /**
+     * Creates a location command received from the network.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return a new command
+     */
+    public static AgentCommand networkLocation(int x, int y) {
+        return new AgentCommand(Type.LOCATION, Source.NETWORK, null, x, y);
+    }
+
+    /**
+     * Gets the kind of the command.
+     *
+     * @return the kind of the command
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the producer of the command.
+     *
+     * @return the producer of the command
+     */
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the new direction.
+     *
+     * @return the new direction; {@code null} for location commands
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * Gets the x coordinate.
+     *
+     * @return the x coordinate; -1 if the command is not bound to a block
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Gets the y coordinate.
+     *
+     * @return the y coordinate; -1 if the command is not bound to a block
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Gets the time when the command is created.
+     *
+     * @return the value of {@link System#nanoTime()} when the command is created
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * Returns a string representation of the command.
+     *
+     * @return a string representation of the command
+     */
+    @Override
+    public String toString() {
+        return String.format("%s{%s %s @ %d, %d}", type, source, direction, x, y);
+    }
+}
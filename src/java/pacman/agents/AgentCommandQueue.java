@@ -0,0 +1,133 @@
+package pacman.agents;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * This class is a lock-free, unbounded, multi-producer single-consumer queue of
+ * {@link AgentCommand}. Any thread (the EDT, a network reader, an algorithm worker)
+ * can {@link #offer(AgentCommand)} a command, while only the agent's own tick
+ * {@link #drain(Consumer)}s it. Each offer costs one allocation and one atomic swap.
+ *
+ * <p>The queue also measures the input latency, which is the time between the
+ * creation of a command and its application.
+ *
+ * @version 1.0
+ */
+public class AgentCommandQueue {
+    /**
+     * Contains a node in the linked list of the queue.
+     */
+    private static final class Node {
+        /** Contains the command; cleared once consumed. */
+        private AgentCommand command;
+
+        /** Contains the next node. */
+        private volatile Node next;
+
+        /**
+         * Creates a new node.
+         *
+         * @param command the command held by the node
+         */
+        Node(AgentCommand command) {
+            this.command = command;
+        }
+    }
+
+    /** Contains the most recently offered node, shared by all producers. */
+    private final AtomicReference<Node> tail;
+
+    /** Contains the last consumed node, owned by the consumer. */
+    private Node head;
+
+    /** Contains the latency of the last applied command in nanoseconds. */
+    private volatile long lastLatency;
+
+    /** Contains the largest latency of all applied commands in nanoseconds. */
+    private volatile long maxLatency;
+
+    /**
+     * Creates an empty queue.
+     */
+    public AgentCommandQueue() {
+        Node stub = new Node(null);
+        this.head = stub;
+        this.tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Adds a command to the queue. Safe to be called from any thread.
+     *
+     * @param command the command
+     */
+    public void offer(AgentCommand command) {
+        Node node = new Node(command);
+        Node prev = tail.getAndSet(node);
+        prev.next = node;
+    }
+
+    /**
+     * Checks if the queue is empty.
+     *
+     * @return {@code true} if there is no command waiting
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * Applies all the commands in the order they are offered. Must only be called by
+     * the consumer thread.
+     *
+     * @param action the action applied to each command
+     * @return the number of commands applied
+     */
+    public int drain(Consumer<AgentCommand> action) {
+        int count = 0;
+        Node next;
+        while ((next = head.next) != null) {
+            AgentCommand command = next.command;
+            next.command = null;
+            head = next;
+            long latency = System.nanoTime() - command.getCreatedAt();
+            lastLatency = latency;
+            if (latency > maxLatency) {
+                maxLatency = latency;
+            }
+            action.accept(command);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Drops all the commands waiting in the queue. Must only be called by the
+     * consumer thread.
+     */
+    public void clear() {
+        Node next;
+        while ((next = head.next) != null) {
+            next.command = null;
+            head = next;
+        }
+    }
+
+    /**
+     * Gets the latency of the last applied command.
+     *
+     * @return the latency of the last applied command in nanoseconds
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * Gets the largest latency of all applied commands.
+     *
+     * @return the largest latency of all applied commands in nanoseconds
+     */
+    public long getMaxLatency() {
+        return maxLatency;
+    }
+}
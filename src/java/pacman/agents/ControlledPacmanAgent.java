@@ -1,6 +1,7 @@
 package pacman.agents;
 
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
 import pacman.algorithms.AbstractAlgorithm;
 import pacman.controller.PacmanMazeController;
 import pacman.model.Direction;
@@ -65,6 +66,19 @@ public class ControlledPacmanAgent extends PacmanAgent implements KeyboardContro
         }
     }
 
+    /**
+     * Starts computing the move out of the current block, only if the AI has taken
+     * over from the user.
+     *
+     * @param currDirection the current direction
+     * @return the decision being computed; {@code null} if the agent decides at the
+     *      block itself
+     */
+    @Override
+    protected CompletableFuture<Direction> requestDecision(Direction currDirection) {
+        return aiTakeOver ? super.requestDecision(currDirection) : null;
+    }
+
     /**
      * Let AI takes over from the user.
      *
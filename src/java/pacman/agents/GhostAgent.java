@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.ImageIcon;
 import pacman.algorithms.AbstractAlgorithm;
 import pacman.controller.PacmanMazeController;
@@ -102,8 +103,26 @@ public class GhostAgent extends AbstractAgent {
      */
     @Override
     protected void checkPossibleNextDirection(final Direction currDirection) {
-        changeDirection(this.algorithm.getGhostAction(name, coordinateX,
-                coordinateY, currDirection, isScared));
+        submitCommand(AgentCommand.decision(takeDecision(currDirection,
+            () -> this.algorithm.decideGhostAction(name, coordinateX, coordinateY,
+                currDirection, isScared))));
+    }
+
+    /**
+     * Starts computing the move out of the current block if the algorithm is slow
+     * enough to be pipelined.
+     *
+     * @param currDirection the current direction
+     * @return the decision being computed; {@code null} if the agent decides at the
+     *      block itself
+     */
+    @Override
+    protected CompletableFuture<Direction> requestDecision(Direction currDirection) {
+        if (!this.algorithm.isPipelined()) {
+            return null;
+        }
+        return this.algorithm.getGhostActionAsync(name, coordinateX, coordinateY,
+            currDirection, isScared);
     }
 
     /**
@@ -114,6 +133,7 @@ public class GhostAgent extends AbstractAgent {
      * @modifies None
      * @effects None
      */
+    @Override
     public String getAgentName() {
         return this.name;
     }
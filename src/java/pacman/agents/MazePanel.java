@@ -9,9 +9,13 @@ import java.awt.BasicStroke;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.util.Map;
 import javax.swing.JPanel;
 import javax.swing.plaf.ComponentUI;
+import pacman.model.Coordinate;
 import pacman.model.Maze;
+import pacman.util.GameEvents;
+import pacman.util.Metrics;
 import pacman.util.PacmanTheme;
 
 /**
@@ -20,6 +24,8 @@ import pacman.util.PacmanTheme;
  * @version 1.0
  */
 public class MazePanel extends JPanel {
+    /** Contains the time taken to paint the maze. */
+    private static final Metrics.Histogram PAINT_TIME = Metrics.histogram("maze.paint");
 
     /**
      * Contains the maze of the game.
@@ -41,6 +47,12 @@ public class MazePanel extends JPanel {
      */
     public static final int PELLETS_RADIUS = 18;
 
+    /**
+     * Contains if the locations of the agents in the maze are drawn as markers, for
+     * example when there are no agent components in a replay.
+     */
+    private boolean agentMarkersVisible;
+
     /**
      * Creates a panel that contains the maze.
      *
@@ -99,6 +111,38 @@ public class MazePanel extends JPanel {
         }
     }
 
+    /**
+     * Draws a marker at the location of each pacman/ghost in the maze.
+     *
+     * @param g2d the <code>Graphics</code> object to protect
+     */
+    private void drawAgentMarkers(Graphics2D g2d) {
+        int size = BLOCK_SIZE * 3 / 4;
+        int offset = (BLOCK_SIZE - size) / 2;
+        g2d.setColor(PacmanTheme.PACMAN_MARKER);
+        for (Coordinate pacman: maze.getPacmanLocation().values()) {
+            g2d.fillOval(pacman.getX() * BLOCK_SIZE + offset,
+                pacman.getY() * BLOCK_SIZE + offset, size, size);
+        }
+        Map<String, Integer> scaredTimes = maze.getGhostScaredTimes();
+        for (Map.Entry<String, Coordinate> ghost: maze.getGhostsLocation().entrySet()) {
+            g2d.setColor(scaredTimes.getOrDefault(ghost.getKey(), 0) > 0
+                ? PacmanTheme.SCARED_GHOST_MARKER : PacmanTheme.GHOST_MARKER);
+            g2d.fillOval(ghost.getValue().getX() * BLOCK_SIZE + offset,
+                ghost.getValue().getY() * BLOCK_SIZE + offset, size, size);
+        }
+    }
+
+    /**
+     * Sets if the locations of the agents in the maze are drawn as markers.
+     *
+     * @param visible if the markers are drawn
+     */
+    public void setAgentMarkersVisible(boolean visible) {
+        this.agentMarkersVisible = visible;
+        repaint();
+    }
+
     /**
      * Adds a pacman/ghost to the panel.
      *
@@ -140,7 +184,20 @@ public class MazePanel extends JPanel {
      */
     @Override
     public void paintComponent(Graphics g) {
+        long start = System.nanoTime();
+        GameEvents.Repaint event = new GameEvents.Repaint();
+        event.begin();
         super.paintComponent(g);
         drawMaze((Graphics2D) g);
+        if (agentMarkersVisible) {
+            drawAgentMarkers((Graphics2D) g);
+        }
+        PAINT_TIME.recordSince(start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.width = getWidth();
+            event.height = getHeight();
+            event.commit();
+        }
     }
 }
@@ -4,6 +4,7 @@ import static pacman.agents.MazePanel.BLOCK_SIZE;
 
 import java.awt.Dimension;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import pacman.algorithms.AbstractAlgorithm;
 import pacman.controller.PacmanMazeController;
 import pacman.model.Direction;
@@ -62,8 +63,26 @@ public class PacmanAgent extends AbstractAgent {
      */
     @Override
     protected void checkPossibleNextDirection(final Direction currDirection) {
-        changeDirection(this.algorithm.getPacmanAction(index, coordinateX,
-                coordinateY, currDirection));
+        submitCommand(AgentCommand.decision(takeDecision(currDirection,
+            () -> this.algorithm.decidePacmanAction(index, coordinateX, coordinateY,
+                currDirection))));
+    }
+
+    /**
+     * Starts computing the move out of the current block if the algorithm is slow
+     * enough to be pipelined.
+     *
+     * @param currDirection the current direction
+     * @return the decision being computed; {@code null} if the agent decides at the
+     *      block itself
+     */
+    @Override
+    protected CompletableFuture<Direction> requestDecision(Direction currDirection) {
+        if (!this.algorithm.isPipelined()) {
+            return null;
+        }
+        return this.algorithm.getPacmanActionAsync(index, coordinateX, coordinateY,
+            currDirection);
     }
 
     /**
@@ -75,6 +94,16 @@ public class PacmanAgent extends AbstractAgent {
         return index;
     }
 
+    /**
+     * Gets the name of the pacman: its index.
+     *
+     * @return the index of the pacman
+     */
+    @Override
+    public String getAgentName() {
+        return String.valueOf(index);
+    }
+
     /**
      * Returns a string representation of this component and its values.
      * @return    a string representation of this component
@@ -1,8 +1,5 @@
 package pacman.algorithms;
 
-import java.util.Map;
-import java.util.Set;
-import pacman.model.Coordinate;
 import pacman.model.Maze;
 
 
@@ -42,84 +39,39 @@ public class AStarAlgorithm extends GreedyAlgorithm {
      * @return the evaluation score of the action
      */
     protected double pacmanEvaluationFunction(int pacmanIndex, int x, int y) {
-        final Set<Coordinate> currFood = maze.getFoods();
-        final Coordinate[] pellets = maze.getPellets();
-        final Map<String, Coordinate> currGhostStates = maze.getGhostsLocation();
-        final Map<String, Integer> currScaredTimes = maze.getGhostScaredTimes();
+        final EvaluationContext context = getEvaluationContext();
         // check if the current state is the final winning state
-        if (maze.isLose(x, y)) {
+        if (context.isLose(x, y)) {
             // Lose
             return Integer.MIN_VALUE;
-        } else if (maze.isWin(x, y)) {
+        } else if (context.isWin(x, y)) {
             // Win
             return Integer.MAX_VALUE;
         }
 
         // find the closest / farthest point
-        int closestFoodDist = Integer.MAX_VALUE;
-        for (Coordinate foodCoordinate : currFood) {
-            int currFoodDist = AlgorithmsUtility.manhattanDistance(
-                    new Coordinate(x, y), foodCoordinate);
-            if (currFoodDist < closestFoodDist) {
-                closestFoodDist = currFoodDist;
-            }
-        }
-
-        int closestPelletsDist = Integer.MAX_VALUE;
-        for (Coordinate pelletCoordinate : pellets) {
-            int currPelletDist = AlgorithmsUtility.manhattanDistance(
-                    new Coordinate(x, y), pelletCoordinate);
-            if (currPelletDist < closestFoodDist) {
-                closestPelletsDist = currPelletDist;
-            }
-        }
+        int closestFoodDist = context.foodDistance(x, y);
+        int closestPelletsDist = context.pelletDistance(x, y);
 
         int closestGhostDist = 0;
         int closestGhostScaredDist = 0;
-        if (currGhostStates.size() > 0) {
-            closestGhostDist = Integer.MAX_VALUE;
-            for (String ghostName : currGhostStates.keySet()) {
-                if (currScaredTimes.get(ghostName) <= 0) {
-                    Coordinate ghostCoordinate = currGhostStates.get(ghostName);
-                    int currGhostDist = AlgorithmsUtility.manhattanDistance(
-                            new Coordinate(x, y), ghostCoordinate);
-                    if (currGhostDist < closestGhostDist) {
-                        closestGhostDist = currGhostDist;
-                    }
-                }
-            }
-
+        if (context.hasGhosts()) {
+            closestGhostDist = context.ghostDistance(x, y);
             // get scared ghosts information
-            boolean isScared = currScaredTimes.values().stream().anyMatch(i -> i > 0);
-
-            closestGhostScaredDist = Integer.MAX_VALUE;
-            if (isScared) {
-                for (String ghostName : currGhostStates.keySet()) {
-                    if (currScaredTimes.get(ghostName) > 0) {
-                        Coordinate ghostCoordinate = currGhostStates.get(ghostName);
-                        int currGhostDist = AlgorithmsUtility.manhattanDistance(
-                                        new Coordinate(x, y), ghostCoordinate);
-                        if (currGhostDist < closestGhostScaredDist) {
-                            closestGhostScaredDist = currGhostDist;
-                        }
-                    }
-                }
-            } else {
-                closestGhostScaredDist = 0;
+            if (context.hasScaredGhosts()) {
+                closestGhostScaredDist = context.scaredGhostDistance(x, y);
             }
         }
 
         // calculate the score
-        int score = maze.getPacmanScores().getOrDefault(pacmanIndex, 0);
-        for (int scaredTime : currScaredTimes.values()) {
-            score += scaredTime;
-        }
+        int score = context.getPacmanScores(pacmanIndex);
+        score += context.getScaredTimeSum();
         score -= 2 * closestFoodDist;
         score -= 3 * closestPelletsDist;
         score -= 4 * closestGhostScaredDist;
         score -= 5 * (1.0 / closestGhostDist);
-        score -= 6 * maze.getFoodsNum();
-        score -= 7 * maze.getPelletsNum();
+        score -= 6 * context.getFoodsNum();
+        score -= 7 * context.getPelletsNum();
         return score;
     }
 }
@@ -1,18 +1,49 @@
 package pacman.algorithms;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import pacman.model.Direction;
 import pacman.model.Maze;
+import pacman.util.GameEvents;
+import pacman.util.Metrics;
 
 /**
  * Contains the algorithm of pacman and ghost in the maze. The search is mainly
  * BFS and A star.
  *
- * @version 1.0
+ * <p>Algorithms whose decisions take a noticeable time (a search with a time budget)
+ * should return true from {@link #isPipelined()}. The agents then ask for their
+ * decisions with {@link #getPacmanActionAsync} and {@link #getGhostActionAsync} as soon
+ * as they start moving into a block, so the search runs on a worker thread while the
+ * move is animated, and fall back to {@link #getFallbackAction} if the decision is
+ * not ready when they reach the block.
+ *
+ * @version 1.2
  */
 public abstract class AbstractAlgorithm {
+    /** Contains the number of the next thread of {@link #DECISIONS}. */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /** Contains the worker threads computing the decisions asked asynchronously. */
+    private static final ExecutorService DECISIONS = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "decision-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /** Contains the number of nodes expanded by the decision running on each thread. */
+    private static final ThreadLocal<long[]> EXPANDED =
+        ThreadLocal.withInitial(() -> new long[1]);
+
     /** The maze of the game. */
     protected Maze maze;
 
+    /** Contains the latency of the decisions of this algorithm. */
+    private final Metrics.Histogram decisionTime;
+
     /**
      * Creates a search algorithm utility.
      *
@@ -20,6 +51,7 @@ public abstract class AbstractAlgorithm {
      */
     public AbstractAlgorithm(Maze maze) {
         this.maze = maze;
+        this.decisionTime = Metrics.histogram("algorithm." + getClass().getSimpleName());
     }
 
     /**
@@ -46,4 +78,149 @@ public abstract class AbstractAlgorithm {
      */
     public abstract Direction getGhostAction(String ghostName, int x, int y,
                                              Direction current, boolean isScared);
+
+    /**
+     * Gets the next move of a pacman with {@link #getPacmanAction}, recording how long
+     * it took in the metrics of the algorithm and in a {@link GameEvents.Decision}.
+     *
+     * @param pacmanIndex the index of pacman
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param current current direction
+     * @return the direction to go for next state
+     */
+    public final Direction decidePacmanAction(int pacmanIndex, int x, int y,
+                                              Direction current) {
+        GameEvents.Decision event = new GameEvents.Decision();
+        event.begin();
+        long[] expanded = EXPANDED.get();
+        expanded[0] = 0;
+        long start = System.nanoTime();
+        Direction next = getPacmanAction(pacmanIndex, x, y, current);
+        decisionTime.recordSince(start);
+        commit(event, String.valueOf(pacmanIndex), expanded[0], next);
+        return next;
+    }
+
+    /**
+     * Gets the next move of a ghost with {@link #getGhostAction}, recording how long it
+     * took in the metrics of the algorithm and in a {@link GameEvents.Decision}.
+     *
+     * @param ghostName the name of the ghost
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param current current direction
+     * @param isScared if the ghost is scared
+     * @return the direction to go for next state
+     */
+    public final Direction decideGhostAction(String ghostName, int x, int y,
+                                             Direction current, boolean isScared) {
+        GameEvents.Decision event = new GameEvents.Decision();
+        event.begin();
+        long[] expanded = EXPANDED.get();
+        expanded[0] = 0;
+        long start = System.nanoTime();
+        Direction next = getGhostAction(ghostName, x, y, current, isScared);
+        decisionTime.recordSince(start);
+        commit(event, ghostName, expanded[0], next);
+        return next;
+    }
+
+    /**
+     * Records the number of nodes a search expanded for the decision running on the
+     * current thread, for the {@link GameEvents.Decision} event of the decision.
+     *
+     * @param nodes the number of nodes expanded
+     */
+    protected static void addExpandedNodes(long nodes) {
+        EXPANDED.get()[0] += nodes;
+    }
+
+    /**
+     * Ends and commits the event of a decision, if it is recorded.
+     *
+     * @param event the event begun before the decision
+     * @param agent the index of the pacman or the name of the ghost
+     * @param nodesExpanded the number of nodes expanded
+     * @param decision the move chosen
+     */
+    private void commit(GameEvents.Decision event, String agent, long nodesExpanded,
+                        Direction decision) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.agent = agent;
+            event.algorithm = getClass().getSimpleName();
+            event.nodesExpanded = nodesExpanded;
+            event.decision = String.valueOf(decision);
+            event.commit();
+        }
+    }
+
+    /**
+     * Tells if the decisions of this algorithm are slow enough to be computed on a
+     * worker thread while the agent moves. Cheap algorithms are better called at the
+     * block itself, where they see the latest state of the maze.
+     *
+     * @return true if the agents should ask for the decisions ahead of time
+     */
+    public boolean isPipelined() {
+        return false;
+    }
+
+    /**
+     * Starts computing the next move of a pacman on a worker thread.
+     *
+     * @param pacmanIndex the index of pacman
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param current current direction
+     * @return the direction to go for next state, once computed
+     */
+    public CompletableFuture<Direction> getPacmanActionAsync(int pacmanIndex, int x,
+                                                             int y, Direction current) {
+        return CompletableFuture.supplyAsync(
+            () -> decidePacmanAction(pacmanIndex, x, y, current), DECISIONS);
+    }
+
+    /**
+     * Starts computing the next move of a ghost on a worker thread.
+     *
+     * @param ghostName the name of the ghost
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param current current direction
+     * @param isScared if the ghost is scared
+     * @return the direction to go for next state, once computed
+     */
+    public CompletableFuture<Direction> getGhostActionAsync(String ghostName, int x,
+                                                            int y, Direction current,
+                                                            boolean isScared) {
+        return CompletableFuture.supplyAsync(
+            () -> decideGhostAction(ghostName, x, y, current, isScared), DECISIONS);
+    }
+
+    /**
+     * Gets a move at once, used when a decision asked ahead of time is late. It keeps
+     * the current direction if possible; otherwise it turns into the first legal
+     * direction that does not go back.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param current current direction
+     * @return the direction to go for next state
+     */
+    public Direction getFallbackAction(int x, int y, Direction current) {
+        int mask = maze.getLegalMask(x, y);
+        if ((mask & current.getMask() & Direction.MOVES_MASK) != 0) {
+            return current;
+        }
+        Direction[] legal = Direction.fromMask(mask);
+        for (Direction d: legal) {
+            if (current == Direction.STOP
+                    || d.ordinal() != SimulatedGame.REVERSE[current.ordinal()]) {
+                return d;
+            }
+        }
+        return legal.length > 0 ? legal[0] : Direction.STOP;
+    }
 }
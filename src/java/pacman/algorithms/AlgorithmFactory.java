@@ -4,13 +4,24 @@ import static pacman.util.MapBuilder.entry;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.function.Function;
 import pacman.model.Maze;
+import pacman.util.Logger;
 import pacman.util.MapBuilder;
 
 /**
  * Defines an utility for creating algorithms.
  *
+ * <p>One instance of each algorithm is made per maze and shared by all the agents
+ * using it. What an algorithm precomputes from the walls of the maze is immutable and
+ * shared by all the algorithms of the maze ({@link MazeTables}); what a decision
+ * writes to is borrowed from a {@link ScratchPool} for the time of the decision, and
+ * what an agent keeps between its decisions is held under its name. So the memory
+ * used does not grow with the number of agents, and no state is used by two threads
+ * at the same time.
+ *
  * @version 1.0
  */
 public class AlgorithmFactory {
@@ -20,6 +31,9 @@ public class AlgorithmFactory {
     /** Applying the Interning Pattern and stores existing instances. */
     private final HashMap<String, AbstractAlgorithm> library;
 
+    /** Contains the policy of each ghost, as told by {@link #bindGhost}. */
+    private final HashMap<String, GhostPolicy> ghostPolicies;
+
     /**
      * Contains the list of supported algorithms in this application.
      */
@@ -94,6 +108,44 @@ public class AlgorithmFactory {
         private static final Function<Maze, AbstractAlgorithm> MINIMAX_ALG_GENERATOR =
             MinimaxAlgorithm::new;
 
+        /**
+         * An algorithm that let the agent applies Monte Carlo tree search at each
+         * step.
+         */
+        public static final String MCTS_ALGORITHM = "Monte Carlo tree search";
+
+        /**
+         * Creator of an algorithm that let the agent applies Monte Carlo tree search
+         * at each step.
+         */
+        private static final Function<Maze, AbstractAlgorithm> MCTS_ALG_GENERATOR =
+            MctsAlgorithm::new;
+
+        /**
+         * An algorithm that let the pacman applies expectimax search at each step,
+         * modelling how each ghost chooses its moves.
+         */
+        public static final String EXPECTIMAX_ALGORITHM = "Expectimax search";
+
+        /**
+         * Creator of an algorithm that let the pacman applies expectimax search at
+         * each step.
+         */
+        private static final Function<Maze, AbstractAlgorithm> EXPECTIMAX_ALG_GENERATOR =
+            ExpectimaxAlgorithm::new;
+
+        /**
+         * An algorithm that let the ghosts hunt the pacman as a team, sharing one plan
+         * made each time the pacman moves.
+         */
+        public static final String GHOST_TEAM_ALGORITHM = "Ghost team planner";
+
+        /**
+         * Creator of an algorithm that let the ghosts hunt the pacman as a team.
+         */
+        private static final Function<Maze, AbstractAlgorithm> GHOST_TEAM_ALG_GENERATOR =
+            GhostTeamAlgorithm::new;
+
         /**
          * Contains a map to get the generators.
          */
@@ -102,10 +154,31 @@ public class AlgorithmFactory {
             entry(NULL_ALGORITHM, NULL_ARG_GENERATOR),
             entry(RANDOM_ALGORITHM, RANDOM_ALG_GENERATOR),
             entry(DFS_ALGORITHM, DFS_ALG_GENERATOR),
-            entry(A_STAR_ALGORITHM, A_STAR_ALG_GENERATOR)
+            entry(A_STAR_ALGORITHM, A_STAR_ALG_GENERATOR),
+            entry(MCTS_ALGORITHM, MCTS_ALG_GENERATOR),
+            entry(EXPECTIMAX_ALGORITHM, EXPECTIMAX_ALG_GENERATOR),
+            entry(GHOST_TEAM_ALGORITHM, GHOST_TEAM_ALG_GENERATOR)
             // entry(GREEDY_ALGORITHM, GREEDY_ALG_GENERATOR),
             // entry(MINIMAX_ALGORITHM, MINIMAX_ALG_GENERATOR)  // Not supported
         );
+
+        // Adds the algorithms of the providers found on the class path
+        static {
+            try {
+                for (AlgorithmProvider provider
+                        : ServiceLoader.load(AlgorithmProvider.class)) {
+                    if (values.containsKey(provider.getName())) {
+                        Logger.printlnf("Algorithm \"%s\" is already defined",
+                            provider.getName());
+                    } else {
+                        values.put(provider.getName(), provider::create);
+                    }
+                }
+            } catch (ServiceConfigurationError e) {
+                Logger.println("ERROR:" + e.getMessage());
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
@@ -116,6 +189,7 @@ public class AlgorithmFactory {
     public AlgorithmFactory(Maze maze) {
         this.maze = maze;
         this.library = new HashMap<>();
+        this.ghostPolicies = new HashMap<>();
     }
 
     /**
@@ -130,7 +204,31 @@ public class AlgorithmFactory {
         if (!SupportedAlgorithms.values.containsKey(name)) {
             throw new IllegalArgumentException("Unknown algorithm name.");
         }
-        return library.computeIfAbsent(name,
+        AbstractAlgorithm algorithm = library.computeIfAbsent(name,
             k -> SupportedAlgorithms.values.get(k).apply(maze));
+        if (algorithm instanceof ExpectimaxAlgorithm) {
+            ghostPolicies.forEach(((ExpectimaxAlgorithm) algorithm)::setGhostPolicy);
+        }
+        return algorithm;
+    }
+
+    /**
+     * Tells the algorithms that model the ghosts which algorithm a ghost uses.
+     *
+     * @param ghostName the name of the ghost
+     * @param algorithmName the name of the algorithm of the ghost; {@code null} if the
+     *                      ghost is controlled by a player
+     * @requires None
+     * @modifies ghostPolicies, library
+     * @effects the ghost is modelled by {@link GhostPolicy#forAlgorithm(String)}
+     */
+    public void bindGhost(String ghostName, String algorithmName) {
+        GhostPolicy policy = GhostPolicy.forAlgorithm(algorithmName);
+        ghostPolicies.put(ghostName, policy);
+        for (AbstractAlgorithm algorithm: library.values()) {
+            if (algorithm instanceof ExpectimaxAlgorithm) {
+                ((ExpectimaxAlgorithm) algorithm).setGhostPolicy(ghostName, policy);
+            }
+        }
     }
 }
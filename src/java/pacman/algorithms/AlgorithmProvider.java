@@ -0,0 +1,33 @@
+package pacman.algorithms;
+
+import pacman.model.Maze;
+
+/**
+ * Defines a provider of an algorithm that is not part of this application. Providers
+ * are found with {@link java.util.ServiceLoader}: a jar on the class path lists its
+ * implementations in {@code META-INF/services/pacman.algorithms.AlgorithmProvider},
+ * and each of them is added to {@link AlgorithmFactory.SupportedAlgorithms#values}
+ * under its name.
+ *
+ * <p>An algorithm whose decisions take a noticeable time should return true from
+ * {@link AbstractAlgorithm#isPipelined()}, so it is run on a worker thread while the
+ * agents move.
+ *
+ * @version 1.0
+ */
+public interface AlgorithmProvider {
+    /**
+     * Gets the name of the algorithm, shown to the user.
+     *
+     * @return the name of the algorithm
+     */
+    String getName();
+
+    /**
+     * Creates the algorithm for a maze.
+     *
+     * @param maze the maze of the game
+     * @return a search algorithm for the maze
+     */
+    AbstractAlgorithm create(Maze maze);
+}
@@ -0,0 +1,381 @@
+package pacman.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import pacman.model.Coordinate;
+import pacman.model.DistanceField;
+import pacman.model.Maze;
+
+/**
+ * This class contains everything an evaluation function needs from the state of the
+ * maze, computed once and shared by every agent using the same algorithm instance.
+ * Distances to the closest food, pellet and normal ghost are read from views of the
+ * {@link DistanceField}s the maze keeps up to date; distances to the closest pacman
+ * and scared ghost are Manhattan distances to the few agents. So building a context
+ * only copies the agents, and evaluating a block costs a few array reads no matter
+ * how much food is left.
+ *
+ * <p>A context is read consistently from the maze and stays valid while the agents,
+ * their scores and scared times and the items left are the same, even if the version
+ * of the maze changed.
+ *
+ * @version 1.0
+ */
+final class EvaluationContext {
+    /** Contains the distance of a field with no source. */
+    static final int NONE = DistanceField.UNREACHABLE;
+
+    /** Contains the latest version of the maze this context is valid for. */
+    private volatile long version;
+
+    /** Contains the width of the maze. */
+    private final int width;
+
+    /** Contains the location of each pacman. */
+    private final Map<Integer, Coordinate> pacmanLocations;
+
+    /** Contains the scores of each pacman. */
+    private final Map<Integer, Integer> pacmanScores;
+
+    /** Contains the location of each ghost. */
+    private final Map<String, Coordinate> ghostLocations;
+
+    /** Contains the scared time of each ghost. */
+    private final Map<String, Integer> ghostScaredTimes;
+
+    /** Contains the hash of the items left, see {@link Maze#getItemHash()}. */
+    private final long itemHash;
+
+    /** Contains the number of foods left. */
+    private final int foodsNum;
+
+    /** Contains the number of pellets left. */
+    private final int pelletsNum;
+
+    /** Contains the locations of the pacman. */
+    private final Coordinate[] pacmen;
+
+    /** Contains the locations of the scared ghosts. */
+    private final Coordinate[] scaredGhosts;
+
+    /** Contains the sum of the scared time of all ghosts. */
+    private final int scaredTimeSum;
+
+    /** Contains the distance from each block to the closest food. */
+    private final DistanceField.View foodDistance;
+
+    /** Contains the distance from each block to the closest pellet. */
+    private final DistanceField.View pelletDistance;
+
+    /** Contains the distance from each block to the closest normal ghost. */
+    private final DistanceField.View ghostDistance;
+
+    /** Contains the distance from each block to the closest ghost start location. */
+    private final int[] ghostStartDistance;
+
+    /**
+     * Gets the context of the current state of a maze.
+     *
+     * @param maze the maze of the game
+     * @param previous the previous context of the same maze; {@code null} if none
+     * @return the previous context if the state it depends on is unchanged, or a new
+     *         context
+     */
+    static EvaluationContext of(Maze maze, EvaluationContext previous) {
+        if (previous != null && previous.version == maze.getVersion()) {
+            return previous;
+        }
+        EvaluationContext curr = maze.readConsistently(
+            () -> new EvaluationContext(maze, previous));
+        if (previous != null && previous.sameState(curr)) {
+            previous.version = curr.version;
+            return previous;
+        }
+        return curr;
+    }
+
+    /**
+     * Computes the context of the current state of a maze. It must run inside
+     * {@link Maze#readConsistently}.
+     *
+     * @param maze the maze of the game
+     * @param previous the previous context of the same maze; {@code null} if none
+     */
+    private EvaluationContext(Maze maze, EvaluationContext previous) {
+        this.version = maze.getVersion();
+        this.width = maze.getWidth();
+        int height = maze.getHeight();
+        this.pacmanLocations = maze.getPacmanLocation();
+        this.pacmanScores = maze.getPacmanScores();
+        this.ghostLocations = maze.getGhostsLocation();
+        this.ghostScaredTimes = maze.getGhostScaredTimes();
+        this.itemHash = maze.getItemHash();
+        this.foodsNum = maze.getFoodsNum();
+        this.pelletsNum = maze.getPelletsNum();
+        this.foodDistance = maze.getFoodDistanceField().view();
+        this.pelletDistance = maze.getPelletDistanceField().view();
+        this.ghostDistance = maze.getGhostDistanceField().view();
+        this.ghostStartDistance = previous != null && previous.width == width
+            ? previous.ghostStartDistance
+            : distanceField(Arrays.asList(maze.getGhostsStartLocation()), width, height);
+        this.pacmen = pacmanLocations.values().toArray(new Coordinate[0]);
+
+        List<Coordinate> scared = new ArrayList<>();
+        for (Map.Entry<String, Coordinate> ghost: ghostLocations.entrySet()) {
+            if (ghostScaredTimes.getOrDefault(ghost.getKey(), 0) > 0) {
+                scared.add(ghost.getValue());
+            }
+        }
+        int scaredSum = 0;
+        for (int scaredTime: ghostScaredTimes.values()) {
+            scaredSum += scaredTime;
+        }
+        this.scaredGhosts = scared.toArray(new Coordinate[0]);
+        this.scaredTimeSum = scaredSum;
+    }
+
+    /**
+     * Checks if another context is computed from the same state of the maze, so that
+     * every distance and count of it is the same.
+     *
+     * @param other the other context
+     * @return {@code true} if the agents, their scores and scared times and the items
+     *         left are the same
+     */
+    private boolean sameState(EvaluationContext other) {
+        return itemHash == other.itemHash && foodsNum == other.foodsNum
+            && pelletsNum == other.pelletsNum
+            && pacmanLocations.equals(other.pacmanLocations)
+            && pacmanScores.equals(other.pacmanScores)
+            && ghostLocations.equals(other.ghostLocations)
+            && ghostScaredTimes.equals(other.ghostScaredTimes);
+    }
+
+    /**
+     * Gets the Manhattan distance from a block to the closest of a few locations.
+     *
+     * @param locations the locations
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the distance; {@link #NONE} if there is no location
+     */
+    private static int closest(Coordinate[] locations, int x, int y) {
+        int best = NONE;
+        for (Coordinate c: locations) {
+            best = Math.min(best, Math.abs(c.getX() - x) + Math.abs(c.getY() - y));
+        }
+        return best;
+    }
+
+    /**
+     * Creates a field with no source.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @return a field filled with {@link #NONE}
+     */
+    private static int[] newField(int width, int height) {
+        int[] field = new int[width * height];
+        Arrays.fill(field, NONE);
+        return field;
+    }
+
+    /**
+     * Computes the Manhattan distance from each block to the closest source.
+     *
+     * @param sources the sources
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @return the distance field
+     */
+    private static int[] distanceField(Collection<Coordinate> sources, int width,
+                                       int height) {
+        int[] field = newField(width, height);
+        for (Coordinate c: sources) {
+            field[c.getY() * width + c.getX()] = 0;
+        }
+        transform(field, width, height);
+        return field;
+    }
+
+    /**
+     * Turns a field of sources (0) into a Manhattan distance field in two passes:
+     * top-left to bottom-right, then back. Walls are ignored, same as
+     * {@link AlgorithmsUtility#manhattanDistance(Coordinate, Coordinate)}.
+     *
+     * @param field the field, modified in place
+     * @param width the width of the maze
+     * @param height the height of the maze
+     */
+    private static void transform(int[] field, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (x > 0 && field[i - 1] != NONE && field[i - 1] + 1 < field[i]) {
+                    field[i] = field[i - 1] + 1;
+                }
+                if (y > 0 && field[i - width] != NONE && field[i - width] + 1 < field[i]) {
+                    field[i] = field[i - width] + 1;
+                }
+            }
+        }
+        for (int y = height - 1; y >= 0; y--) {
+            for (int x = width - 1; x >= 0; x--) {
+                int i = y * width + x;
+                if (x < width - 1 && field[i + 1] != NONE && field[i + 1] + 1 < field[i]) {
+                    field[i] = field[i + 1] + 1;
+                }
+                if (y < height - 1 && field[i + width] != NONE
+                        && field[i + width] + 1 < field[i]) {
+                    field[i] = field[i + width] + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the scores of a pacman.
+     *
+     * @param pacmanIndex the index of the pacman
+     * @return the scores; 0 if the pacman is not in the maze
+     */
+    int getPacmanScores(int pacmanIndex) {
+        return pacmanScores.getOrDefault(pacmanIndex, 0);
+    }
+
+    /**
+     * Gets the number of foods left.
+     *
+     * @return the number of foods left
+     */
+    int getFoodsNum() {
+        return foodsNum;
+    }
+
+    /**
+     * Gets the number of pellets left.
+     *
+     * @return the number of pellets left
+     */
+    int getPelletsNum() {
+        return pelletsNum;
+    }
+
+    /**
+     * Gets the sum of the scared time of all ghosts.
+     *
+     * @return the sum of the scared time of all ghosts
+     */
+    int getScaredTimeSum() {
+        return scaredTimeSum;
+    }
+
+    /**
+     * Checks if there is any ghost in the maze.
+     *
+     * @return {@code true} if there is any ghost
+     */
+    boolean hasGhosts() {
+        return !ghostLocations.isEmpty();
+    }
+
+    /**
+     * Checks if there is any scared ghost in the maze.
+     *
+     * @return {@code true} if there is any scared ghost
+     */
+    boolean hasScaredGhosts() {
+        return scaredGhosts.length > 0;
+    }
+
+    /**
+     * Gets the distance from a block to the closest food.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the distance; {@link #NONE} if there is no food
+     */
+    int foodDistance(int x, int y) {
+        return foodDistance.get(x, y);
+    }
+
+    /**
+     * Gets the distance from a block to the closest pellet.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the distance; {@link #NONE} if there is no pellet
+     */
+    int pelletDistance(int x, int y) {
+        return pelletDistance.get(x, y);
+    }
+
+    /**
+     * Gets the distance from a block to the closest pacman.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the distance; {@link #NONE} if there is no pacman
+     */
+    int pacmanDistance(int x, int y) {
+        return closest(pacmen, x, y);
+    }
+
+    /**
+     * Gets the distance from a block to the closest normal ghost.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the distance; {@link #NONE} if there is no normal ghost
+     */
+    int ghostDistance(int x, int y) {
+        return ghostDistance.get(x, y);
+    }
+
+    /**
+     * Gets the distance from a block to the closest scared ghost.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the distance; {@link #NONE} if there is no scared ghost
+     */
+    int scaredGhostDistance(int x, int y) {
+        return closest(scaredGhosts, x, y);
+    }
+
+    /**
+     * Gets the distance from a block to the closest ghost start location.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the distance; {@link #NONE} if there is no start location
+     */
+    int ghostStartDistance(int x, int y) {
+        return ghostStartDistance[y * width + x];
+    }
+
+    /**
+     * Checks if the pacman loses at a block, which is when a normal ghost is there.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return {@code true} if the pacman loses and {@code false} otherwise
+     */
+    boolean isLose(int x, int y) {
+        return ghostDistance(x, y) == 0;
+    }
+
+    /**
+     * Checks if the pacman wins at a block, which is when it is the last food.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return {@code true} if the pacman wins and {@code false} otherwise
+     */
+    boolean isWin(int x, int y) {
+        return foodsNum == 1 && foodDistance(x, y) == 0;
+    }
+}
@@ -0,0 +1,703 @@
+package pacman.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import pacman.model.Coordinate;
+import pacman.model.Direction;
+import pacman.model.DistanceField;
+import pacman.model.Maze;
+import pacman.model.MazeSnapshot;
+
+/**
+ * Defines an algorithm that let the pacman applies expectimax search at each step.
+ *
+ * <p>Ghosts using {@link RandomSelectionAlgorithm} or {@link DfsAlgorithm} do not try
+ * to catch the pacman, so searching as if they did is too pessimistic. Instead, every
+ * ghost is a chance node following its {@link GhostPolicy}, which is given by
+ * {@link #setGhostPolicy(String, GhostPolicy)} and defaults to
+ * {@link GhostPolicy#GREEDY}. The moves of a policy from a block are computed once
+ * and cached as a {@link Transition}, and the value of a chance node is memoised for
+ * the rest of the decision, since different orders of moves often reach the same
+ * state.
+ *
+ * <p>The search deepens one pacman move at a time until the time budget or
+ * {@link #MAX_DEPTH} is reached, and the move of the deepest complete search is
+ * chosen. Ghosts move on the plies where they would move in the game, given their
+ * speed, and ghosts too far away to reach the pacman before the horizon are assumed
+ * to stay.
+ *
+ * <p>Ghosts are driven by {@link GreedyAlgorithm}.
+ *
+ * @version 1.0
+ */
+public class ExpectimaxAlgorithm extends GreedyAlgorithm {
+    /** Contains the default time budget of each decision in milliseconds. */
+    public static final long DEFAULT_BUDGET_MILLIS = 20;
+
+    /** Contains the maximum number of pacman moves searched. */
+    public static final int MAX_DEPTH = 8;
+
+    /** Contains the value of a state where the pacman dies. */
+    private static final double LOSE = -10000;
+
+    /** Contains the value of a state where the pacman eats everything. */
+    private static final double WIN = 10000;
+
+    /** Contains the value of each step to the closest food or pellet. */
+    private static final double STEP = 2;
+
+    /** Contains the difference under which two values are the same. */
+    private static final double EPSILON = 1e-6;
+
+    /** Contains the number of cached greedy transitions before the cache is reset. */
+    private static final int MAX_GREEDY_TRANSITIONS = 1 << 16;
+
+    /** Contains the transition of a ghost that does not move. */
+    private static final Transition NO_MOVE = new Transition(new int[] {-1},
+        new double[] {1});
+
+    /**
+     * This class contains the distribution of the next move of a ghost.
+     */
+    static final class Transition {
+        /** Contains the moves, indexes of {@link SimulatedGame#MOVES}; -1 to stay. */
+        final int[] moves;
+
+        /** Contains the probability of each move. */
+        final double[] probabilities;
+
+        /**
+         * Creates a distribution.
+         *
+         * @param moves the moves
+         * @param probabilities the probability of each move
+         */
+        Transition(int[] moves, double[] probabilities) {
+            this.moves = moves;
+            this.probabilities = probabilities;
+        }
+
+        /**
+         * Creates a uniform distribution.
+         *
+         * @param moves the moves
+         * @return the distribution
+         */
+        static Transition uniform(List<Integer> moves) {
+            int[] m = new int[moves.size()];
+            double[] p = new double[moves.size()];
+            for (int i = 0; i < m.length; i++) {
+                m[i] = moves.get(i);
+                p[i] = 1.0 / m.length;
+            }
+            return new Transition(m, p);
+        }
+    }
+
+    /** Contains the topology of the maze. */
+    private final SimulatedGame.Topology topology;
+
+    /** Contains the number of blocks in the maze. */
+    private final int blocks;
+
+    /** Contains the time budget of each decision in nanoseconds. */
+    private final long budget;
+
+    /** Contains the policy of each ghost. */
+    private final Map<String, GhostPolicy> ghostPolicies;
+
+    /** Contains the last block of each ghost, to know where it is heading. */
+    private final Map<String, Integer> lastGhostBlocks;
+
+    /** Contains the last move of each ghost. */
+    private final Map<String, Integer> lastGhostMoves;
+
+    /** Contains the transitions of random ghosts, indexed by block. */
+    private final Transition[] randomTransitions;
+
+    /** Contains the transitions of DFS ghosts, indexed by block * 5 + move + 1. */
+    private final Transition[] dfsTransitions;
+
+    /**
+     * Contains the transitions of greedy ghosts, indexed by
+     * (block * blocks + pacman block) * 2 + scared.
+     */
+    private final Map<Integer, Transition> greedyTransitions;
+
+    /** Contains the state of the decisions, lent to one decision at a time. */
+    private final ScratchPool<Search> searches = new ScratchPool<>(Search::new);
+
+    /**
+     * Creates a search algorithm utility with the default time budget.
+     *
+     * @param maze the maze of the game.
+     */
+    public ExpectimaxAlgorithm(Maze maze) {
+        this(maze, DEFAULT_BUDGET_MILLIS);
+    }
+
+    /**
+     * Creates a search algorithm utility.
+     *
+     * @param maze the maze of the game.
+     * @param budgetMillis the time budget of each decision in milliseconds
+     */
+    public ExpectimaxAlgorithm(Maze maze, long budgetMillis) {
+        super(maze);
+        this.topology = MazeTables.of(maze).topology;
+        this.blocks = topology.next.length / 4;
+        this.budget = budgetMillis * 1_000_000L;
+        this.ghostPolicies = new ConcurrentHashMap<>();
+        this.lastGhostBlocks = new ConcurrentHashMap<>();
+        this.lastGhostMoves = new ConcurrentHashMap<>();
+        this.randomTransitions = new Transition[blocks];
+        this.dfsTransitions = new Transition[blocks * 5];
+        this.greedyTransitions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets how a ghost chooses its moves.
+     *
+     * @param ghostName the name of the ghost
+     * @param policy the policy of the ghost
+     * @requires None
+     * @modifies ghostPolicies
+     * @effects the ghost is modelled by the policy in the next decisions
+     */
+    public void setGhostPolicy(String ghostName, GhostPolicy policy) {
+        ghostPolicies.put(ghostName, policy);
+    }
+
+    /**
+     * Tells if the decisions of this algorithm are slow enough to be computed on a
+     * worker thread while the agent moves.
+     *
+     * @return true, since every decision uses its whole time budget
+     */
+    @Override
+    public boolean isPipelined() {
+        return true;
+    }
+
+    /**
+     * Gets the distribution of the next move of a ghost.
+     *
+     * @param policy the policy of the ghost
+     * @param game the game
+     * @param ghost the index of the ghost
+     * @return the distribution of the next move
+     */
+    private Transition transition(GhostPolicy policy, SimulatedGame game, int ghost) {
+        int block = game.ghosts[ghost];
+        switch (policy) {
+            case STAY:
+                return NO_MOVE;
+            case RANDOM:
+                if (randomTransitions[block] == null) {
+                    randomTransitions[block] = randomTransition(block);
+                }
+                return randomTransitions[block];
+            case DFS:
+                int key = block * 5 + game.ghostDirections[ghost] + 1;
+                if (dfsTransitions[key] == null) {
+                    dfsTransitions[key] = dfsTransition(block,
+                        game.ghostDirections[ghost]);
+                }
+                return dfsTransitions[key];
+            default:
+                boolean scared = game.isScared(ghost);
+                int greedyKey = (block * blocks + game.pacman) * 2 + (scared ? 1 : 0);
+                Transition t = greedyTransitions.get(greedyKey);
+                if (t == null) {
+                    if (greedyTransitions.size() > MAX_GREEDY_TRANSITIONS) {
+                        greedyTransitions.clear();
+                    }
+                    t = greedyTransition(game, block, scared);
+                    greedyTransitions.put(greedyKey, t);
+                }
+                return t;
+        }
+    }
+
+    /**
+     * Computes the moves of a {@link RandomSelectionAlgorithm} ghost: any legal
+     * action including stop, with the same probability.
+     *
+     * @param block the block of the ghost
+     * @return the distribution of the next move
+     */
+    private Transition randomTransition(int block) {
+        List<Integer> moves = new ArrayList<>();
+        for (int m = 0; m < 4; m++) {
+            if (topology.next[block * 4 + m] >= 0) {
+                moves.add(m);
+            }
+        }
+        moves.add(-1);
+        return Transition.uniform(moves);
+    }
+
+    /**
+     * Computes the move of a {@link DfsAlgorithm} ghost, following
+     * {@link DfsAlgorithm#getDfsDirection(int, int, Direction)}.
+     *
+     * @param block the block of the ghost
+     * @param direction the last move of the ghost; -1 if none
+     * @return the distribution of the next move
+     */
+    private Transition dfsTransition(int block, int direction) {
+        Direction current = direction < 0 ? Direction.STOP
+            : SimulatedGame.MOVES[direction];
+        List<Direction> nextDirections = maze.getLegalActions(block % topology.width,
+            block / topology.width);
+        Direction next = Direction.STOP;
+        if (nextDirections.contains(current)) {
+            next = current;
+        } else if (!nextDirections.isEmpty()) {
+            next = nextDirections.get(0);
+            for (Direction nextDirection: nextDirections) {
+                if (nextDirection.reverse() != current) {
+                    next = nextDirection;
+                    break;
+                }
+            }
+        }
+        List<Integer> moves = new ArrayList<>();
+        moves.add(next.ordinal() < 4 ? next.ordinal() : -1);
+        return Transition.uniform(moves);
+    }
+
+    /**
+     * Computes the moves of a greedy ghost: towards the pacman, or away from it when
+     * scared. Moves that are equally good have the same probability.
+     *
+     * @param game the game
+     * @param block the block of the ghost
+     * @param scared if the ghost is scared
+     * @return the distribution of the next move
+     */
+    private Transition greedyTransition(SimulatedGame game, int block, boolean scared) {
+        List<Integer> moves = new ArrayList<>();
+        int bestDist = 0;
+        for (int m = 0; m < 4; m++) {
+            int to = topology.next[block * 4 + m];
+            if (to < 0) {
+                continue;
+            }
+            int dist = game.distance(to, game.pacman);
+            if (moves.isEmpty() || (scared ? dist > bestDist : dist < bestDist)) {
+                moves.clear();
+                bestDist = dist;
+            }
+            if (dist == bestDist) {
+                moves.add(m);
+            }
+        }
+        if (moves.isEmpty()) {
+            moves.add(-1);
+        }
+        return Transition.uniform(moves);
+    }
+
+    /**
+     * This class contains the state of one decision. It is reused by the next
+     * decisions through {@link #searches}.
+     */
+    private final class Search {
+        /** Contains the policy of each ghost. */
+        private GhostPolicy[] policies = new GhostPolicy[0];
+
+        /** Contains the scratch games, indexed by ply and ghost. */
+        private SimulatedGame[][] scratch;
+
+        /** Contains the values of the chance nodes searched so far. */
+        private final Map<Long, Double> memo = new HashMap<>();
+
+        /** Contains the value of each first move at each depth, indexed by depth - 1. */
+        private final double[][] values = new double[MAX_DEPTH][4];
+
+        /**
+         * Contains the distance from each block to the closest food and to the closest
+         * pellet of the maze, which the search may have eaten.
+         */
+        private final DistanceField.View[] itemFields = new DistanceField.View[2];
+
+        /** Contains the queue of the search for the closest item left. */
+        private int[] queue = new int[0];
+
+        /** Contains the stamp of each block seen by the search for the closest item. */
+        private int[] seen = new int[0];
+
+        /** Contains the stamp of the last search for the closest item. */
+        private int stamp;
+
+        /** Contains the value of {@link System#nanoTime()} when to stop. */
+        private long deadline;
+
+        /** Contains if the search may stop at the deadline. */
+        private boolean mayTimeout;
+
+        /** Contains if the search ran out of time. */
+        private boolean timeout;
+
+        /** Contains the number of max and chance nodes searched. */
+        private long expanded;
+
+        /**
+         * Prepares the state for a new decision, keeping the scratch games if they
+         * have the shape of the root.
+         *
+         * @param root the current state of the game
+         * @param deadline the value of {@link System#nanoTime()} when to stop
+         */
+        void reset(SimulatedGame root, long deadline) {
+            if (policies.length != root.ghosts.length) {
+                policies = new GhostPolicy[root.ghosts.length];
+            }
+            for (int i = 0; i < policies.length; i++) {
+                policies[i] = ghostPolicies.getOrDefault(root.ghostNames[i],
+                    GhostPolicy.GREEDY);
+            }
+            if (scratch == null || !scratch[0][0].sameShape(root)) {
+                scratch = new SimulatedGame[MAX_DEPTH][root.ghosts.length + 1];
+                for (SimulatedGame[] games: scratch) {
+                    for (int i = 0; i < games.length; i++) {
+                        games[i] = root.newScratch();
+                    }
+                }
+            }
+            for (double[] row: values) {
+                Arrays.fill(row, 0);
+            }
+            memo.clear();
+            this.itemFields[0] = maze.getFoodDistanceField().view();
+            this.itemFields[1] = maze.getPelletDistanceField().view();
+            int size = topology.next.length / 4;
+            if (queue.length != size) {
+                queue = new int[size];
+                seen = new int[size];
+                stamp = 0;
+            }
+            this.deadline = deadline;
+            this.mayTimeout = false;
+            this.timeout = false;
+            this.expanded = 0;
+        }
+
+        /**
+         * Searches the best move of the pacman.
+         *
+         * @param game the game, with the pacman to move
+         * @param depth the number of pacman moves left
+         * @param ply the number of pacman moves already made
+         * @return the value of the best move
+         */
+        double max(SimulatedGame game, int depth, int ply) {
+            expanded++;
+            if (game.isOver() || depth == 0) {
+                return evaluate(game);
+            }
+            double best = Double.NEGATIVE_INFINITY;
+            SimulatedGame child = scratch[ply][0];
+            for (int m = 0; m < 4 && !timeout; m++) {
+                if (topology.next[game.pacman * 4 + m] >= 0) {
+                    best = Math.max(best, chance(move(child, game, m), 0, depth, ply));
+                }
+            }
+            return best == Double.NEGATIVE_INFINITY ? evaluate(game) : best;
+        }
+
+        /**
+         * Moves the pacman in a scratch game.
+         *
+         * @param child the scratch game
+         * @param game the game
+         * @param move the move of the pacman
+         * @return the scratch game
+         */
+        SimulatedGame move(SimulatedGame child, SimulatedGame game, int move) {
+            child.copyFrom(game);
+            child.time += SimulatedGame.PACMAN_PERIOD;
+            child.movePacman(move);
+            return child;
+        }
+
+        /**
+         * Computes the expected value of the moves of the ghosts.
+         *
+         * @param game the game, with the ghost to move
+         * @param ghost the index of the ghost to move
+         * @param depth the number of pacman moves left, including the current one
+         * @param ply the number of pacman moves already made, excluding the current one
+         * @return the expected value
+         */
+        double chance(SimulatedGame game, int ghost, int depth, int ply) {
+            expanded++;
+            if (mayTimeout && System.nanoTime() > deadline) {
+                timeout = true;
+                return 0;
+            }
+            if (game.isOver()) {
+                return evaluate(game);
+            }
+            if (ghost == game.ghosts.length) {
+                return max(game, depth - 1, ply + 1);
+            }
+            long key = 0;
+            if (ghost == 0) {
+                key = hash(game, depth);
+                Double value = memo.get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+            double value;
+            if (!ghostMoves(game.time) || !canReach(game, ghost, depth)) {
+                value = chance(game, ghost + 1, depth, ply);
+            } else if (game.ghosts[ghost] < 0) {
+                SimulatedGame child = scratch[ply][ghost + 1];
+                child.copyFrom(game);
+                child.moveGhost(ghost, -1);
+                value = chance(child, ghost + 1, depth, ply);
+            } else {
+                Transition t = transition(policies[ghost], game, ghost);
+                SimulatedGame child = scratch[ply][ghost + 1];
+                value = 0;
+                for (int i = 0; i < t.moves.length && !timeout; i++) {
+                    child.copyFrom(game);
+                    child.moveGhost(ghost, t.moves[i]);
+                    value += t.probabilities[i] * chance(child, ghost + 1, depth, ply);
+                }
+            }
+            if (ghost == 0 && !timeout) {
+                memo.put(key, value);
+            }
+            return value;
+        }
+
+        /**
+         * Checks if the ghosts move during a pacman move, given that they first move
+         * half a period after the start, then every {@link SimulatedGame#GHOST_PERIOD}.
+         *
+         * @param time the time after the pacman move
+         * @return {@code true} if the ghosts move
+         */
+        private boolean ghostMoves(int time) {
+            int first = SimulatedGame.GHOST_PERIOD / 2;
+            return Math.floorDiv(time - first, SimulatedGame.GHOST_PERIOD)
+                != Math.floorDiv(time - SimulatedGame.PACMAN_PERIOD - first,
+                    SimulatedGame.GHOST_PERIOD);
+        }
+
+        /**
+         * Checks if a ghost may meet the pacman before the end of the search.
+         *
+         * @param game the game
+         * @param ghost the index of the ghost
+         * @param depth the number of pacman moves left, including the current one
+         * @return {@code false} if the ghost is too far to matter
+         */
+        private boolean canReach(SimulatedGame game, int ghost, int depth) {
+            if (game.ghosts[ghost] < 0) {
+                return game.time >= game.ghostNext[ghost];
+            }
+            // Both the pacman and the ghost may walk towards each other
+            return game.distance(game.ghosts[ghost], game.pacman) <= 2 * depth;
+        }
+
+        /**
+         * Evaluates a state: the scores earned, minus the distance to the closest
+         * food or pellet left in the game.
+         *
+         * @param game the game
+         * @return the value of the state
+         */
+        private double evaluate(SimulatedGame game) {
+            if (game.dead) {
+                return LOSE + game.scores;
+            }
+            if (game.itemsLeft == 0) {
+                return WIN + game.scores;
+            }
+            int dist = itemDistance(game);
+            return game.scores - (dist == DistanceField.UNREACHABLE ? 0 : STEP * dist);
+        }
+
+        /**
+         * Gets the distance from the pacman to the closest item left in the game. The
+         * distance fields of the maze give it at once unless the search ate the item
+         * they point to, in which case the game is searched from the pacman.
+         *
+         * @param game the game
+         * @return the number of steps; {@link DistanceField#UNREACHABLE} if no item
+         *         can be reached
+         */
+        private int itemDistance(SimulatedGame game) {
+            int x = game.pacman % topology.width;
+            int y = game.pacman / topology.width;
+            int best = DistanceField.UNREACHABLE;
+            int eaten = DistanceField.UNREACHABLE;
+            for (DistanceField.View field: itemFields) {
+                Coordinate source = field.getClosestSource(x, y);
+                if (source == null) {
+                    continue;
+                }
+                if (game.hasItem(topology.block(source.getX(), source.getY()))) {
+                    best = Math.min(best, field.get(x, y));
+                } else {
+                    eaten = Math.min(eaten, field.get(x, y));
+                }
+            }
+            // The items of the game are a subset of the maze, so an eaten item only
+            // matters if it was closer than the closest one left
+            return eaten < best ? closestItem(game) : best;
+        }
+
+        /**
+         * Searches the game from the pacman for the closest item left.
+         *
+         * @param game the game
+         * @return the number of steps; {@link DistanceField#UNREACHABLE} if no item
+         *         can be reached
+         */
+        private int closestItem(SimulatedGame game) {
+            stamp++;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = game.pacman;
+            seen[game.pacman] = stamp;
+            for (int dist = 0; head < tail; dist++) {
+                for (int end = tail; head < end; head++) {
+                    int block = queue[head];
+                    if (game.hasItem(block)) {
+                        return dist;
+                    }
+                    for (int m = 0; m < 4; m++) {
+                        int to = topology.next[block * 4 + m];
+                        if (to >= 0 && seen[to] != stamp) {
+                            seen[to] = stamp;
+                            queue[tail++] = to;
+                        }
+                    }
+                }
+            }
+            return DistanceField.UNREACHABLE;
+        }
+
+        /**
+         * Hashes the state of a chance node.
+         *
+         * @param game the game
+         * @param depth the number of pacman moves left
+         * @return the hash
+         */
+        private long hash(SimulatedGame game, int depth) {
+            long h = game.pacman;
+            h = h * 31 + depth;
+            h = h * 31 + game.time;
+            h = h * 31 + game.scores;
+            h = h * 31 + game.itemsLeft;
+            h = h * 31 + game.itemHash;
+            for (int i = 0; i < game.ghosts.length; i++) {
+                h = h * 31 + game.ghosts[i];
+                h = h * 31 + game.ghostDirections[i];
+                h = h * 31 + (game.isScared(i) ? 1 : 0);
+            }
+            // Mix the bits (SplitMix64 finalizer)
+            h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+            h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+            return h ^ (h >>> 31);
+        }
+    }
+
+    /**
+     * Gets the next move based on the algorithm chosen.
+     *
+     * @param pacmanIndex the index of pacman
+     * @param x           the x coordinate
+     * @param y           the y coordinate
+     * @param current current direction
+     * @return the direction to go for next state
+     */
+    @Override
+    public Direction getPacmanAction(int pacmanIndex, int x, int y,
+                                     Direction current) {
+        MazeSnapshot state = maze.snapshot();
+        SimulatedGame root = SimulatedGame.of(topology, state, pacmanIndex, null);
+        if (root == null) {
+            return Direction.STOP;
+        }
+        root.pacman = topology.block(x, y);
+        for (int i = 0; i < root.ghosts.length; i++) {
+            root.ghostDirections[i] = lastMove(root.ghostNames[i], root.ghosts[i]);
+        }
+        Search search = searches.acquire();
+        search.reset(root, System.nanoTime() + budget);
+        double[][] values = search.values;
+        int searched = 0;
+        // The root loop stands for the pacman move of the first ply
+        SimulatedGame child = search.scratch[0][0];
+        for (int depth = 1; depth <= MAX_DEPTH && !search.timeout; depth++) {
+            for (int m = 0; m < 4 && !search.timeout; m++) {
+                if (topology.next[root.pacman * 4 + m] >= 0) {
+                    values[depth - 1][m] = search.chance(search.move(child, root, m), 0,
+                        depth, 0);
+                }
+            }
+            if (!search.timeout) {
+                searched = depth;
+            }
+            // The first move is always searched to the end, then the budget applies
+            search.mayTimeout = true;
+            search.memo.clear();
+        }
+
+        // Choose the best move of the deepest search; on a tie, the best move of the
+        // shallower searches, which gets the same scores sooner
+        int best = -1;
+        for (int m = 0; m < 4; m++) {
+            if (topology.next[root.pacman * 4 + m] < 0) {
+                continue;
+            }
+            int depth = searched - 1;
+            while (best >= 0 && depth > 0
+                    && Math.abs(values[depth][m] - values[depth][best]) < EPSILON) {
+                depth--;
+            }
+            if (best < 0 || values[depth][m] > values[depth][best] + EPSILON) {
+                best = m;
+            }
+        }
+        addExpandedNodes(search.expanded);
+        searches.release(search);
+        return best < 0 ? Direction.STOP : SimulatedGame.MOVES[best];
+    }
+
+    /**
+     * Gets the last move of a ghost from where it was at the previous decision.
+     *
+     * @param ghostName the name of the ghost
+     * @param block the current block of the ghost
+     * @return the last move of the ghost; -1 if unknown
+     * @modifies lastGhostBlocks, lastGhostMoves
+     */
+    private int lastMove(String ghostName, int block) {
+        Integer last = lastGhostBlocks.put(ghostName, block);
+        int move = -1;
+        if (last != null && last == block) {
+            move = lastGhostMoves.getOrDefault(ghostName, -1);
+        } else if (last != null) {
+            for (int m = 0; m < 4; m++) {
+                if (topology.next[last * 4 + m] == block) {
+                    move = m;
+                }
+            }
+        }
+        lastGhostMoves.put(ghostName, move);
+        return move;
+    }
+}
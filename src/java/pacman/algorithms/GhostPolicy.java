@@ -0,0 +1,57 @@
+package pacman.algorithms;
+
+import pacman.algorithms.AlgorithmFactory.SupportedAlgorithms;
+
+/**
+ * Contains the ways a ghost can choose its moves, as modelled by
+ * {@link ExpectimaxAlgorithm}.
+ *
+ * @version 1.0
+ */
+public enum GhostPolicy {
+    /** The ghost never moves ({@link NullAlgorithm}). */
+    STAY,
+
+    /**
+     * The ghost chooses uniformly among the legal actions including stop
+     * ({@link RandomSelectionAlgorithm}).
+     */
+    RANDOM,
+
+    /**
+     * The ghost keeps its direction and only turns when it has to
+     * ({@link DfsAlgorithm}).
+     */
+    DFS,
+
+    /**
+     * The ghost moves towards the pacman, or away from it when scared
+     * ({@link GreedyAlgorithm} and its subclasses). Also used for ghosts controlled
+     * by a player, who are assumed to be adversarial.
+     */
+    GREEDY;
+
+    /**
+     * Gets the policy of a ghost using an algorithm.
+     *
+     * @param algorithmName the name of the algorithm, one of
+     *                      {@link SupportedAlgorithms#values}; {@code null} if the
+     *                      ghost is controlled by a player
+     * @return the policy of the ghost
+     */
+    public static GhostPolicy forAlgorithm(String algorithmName) {
+        if (algorithmName == null) {
+            return GREEDY;
+        }
+        switch (algorithmName) {
+            case SupportedAlgorithms.NULL_ALGORITHM:
+                return STAY;
+            case SupportedAlgorithms.RANDOM_ALGORITHM:
+                return RANDOM;
+            case SupportedAlgorithms.DFS_ALGORITHM:
+                return DFS;
+            default:
+                return GREEDY;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package pacman.algorithms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import pacman.model.Coordinate;
+import pacman.model.Direction;
+import pacman.model.DistanceField;
+import pacman.model.Maze;
+
+/**
+ * Defines an algorithm that let the ghosts hunt the pacman as a team.
+ *
+ * <p>Instead of every ghost searching on its own, the team makes one plan each time
+ * the pacman moves: it walks from the pacman to the junction ahead of it and to the
+ * junction behind it, which are the targets of the roles {@link Role#CHASE},
+ * {@link Role#CUT_OFF} and {@link Role#AMBUSH}, and gives each role to the ghost
+ * that makes the whole team closest to its targets. A ghost checks without a lock
+ * that the plan is still for the block of the pacman and the ghosts hunting, reading
+ * where the agents are but not the items, and then only has to step towards the
+ * target of its role, reading the distances from the table shared by the maze
+ * ({@link MazeTables}), which costs a few array reads.
+ *
+ * <p>Scared ghosts are left out of the plan and run away from the pacman. Pacmen are
+ * driven by {@link GreedyAlgorithm}.
+ *
+ * @version 1.0
+ */
+public class GhostTeamAlgorithm extends GreedyAlgorithm {
+    /** Contains the number of blocks looked ahead of the pacman for a junction. */
+    private static final int LOOKAHEAD = 8;
+
+    /** Contains the bonus of a ghost keeping its role, to stop roles from flipping. */
+    private static final int ROLE_BONUS = 2;
+
+    /**
+     * Contains the roles of the ghosts in a plan.
+     */
+    public enum Role {
+        /** Goes straight to the pacman. */
+        CHASE,
+
+        /** Goes to the junction the pacman is heading to. */
+        CUT_OFF,
+
+        /** Goes to the junction the pacman comes from, to close the corridor. */
+        AMBUSH
+    }
+
+    /**
+     * This class contains the plan of the team for one position of the pacman. It is
+     * immutable, so ghosts can read it while a new one is being made.
+     */
+    private static final class Plan {
+        /** Contains the block of the pacman hunted. */
+        private final int pacman;
+
+        /** Contains the names of the ghosts in the plan, sorted. */
+        private final List<String> hunters;
+
+        /** Contains the target block of each role, indexed by ordinal. */
+        private final int[] targets;
+
+        /** Contains the role of each ghost in the plan. */
+        private final Map<String, Role> roles;
+
+        /**
+         * Creates a plan.
+         *
+         * @param pacman the block of the pacman hunted
+         * @param hunters the names of the ghosts in the plan, sorted
+         * @param targets the target block of each role
+         * @param roles the role of each ghost in the plan
+         */
+        Plan(int pacman, List<String> hunters, int[] targets, Map<String, Role> roles) {
+            this.pacman = pacman;
+            this.hunters = hunters;
+            this.targets = targets;
+            this.roles = roles;
+        }
+
+        /**
+         * Checks if the ghosts hunting are those of the plan.
+         *
+         * @param ghosts the location of each ghost
+         * @param scaredTimes the scared time of each ghost
+         * @return true if every ghost not scared, and no other, is in the plan
+         */
+        boolean isHuntedBy(Map<String, Coordinate> ghosts,
+                           Map<String, Integer> scaredTimes) {
+            int count = 0;
+            for (String name: ghosts.keySet()) {
+                if (scaredTimes.getOrDefault(name, 0) <= 0) {
+                    if (!roles.containsKey(name)) {
+                        return false;
+                    }
+                    count++;
+                }
+            }
+            return count == hunters.size();
+        }
+    }
+
+    /** Contains the tables of the maze. */
+    private final MazeTables tables;
+
+    /** Contains the topology of the maze. */
+    private final SimulatedGame.Topology topology;
+
+    /** Contains the current plan; {@code null} if none yet. */
+    private volatile Plan plan;
+
+    /** Contains the block of the pacman at the last plan. Guarded by this. */
+    private int lastPacman = -1;
+
+    /** Contains the last move of the pacman; -1 if unknown. Guarded by this. */
+    private int pacmanDirection = -1;
+
+    /** Contains the number of plans made. Guarded by this. */
+    private long planCount;
+
+    /**
+     * Creates a search algorithm utility.
+     *
+     * @param maze the maze of the game.
+     */
+    public GhostTeamAlgorithm(Maze maze) {
+        super(maze);
+        this.tables = MazeTables.of(maze);
+        this.topology = tables.topology;
+    }
+
+    /**
+     * Gets the number of plans made so far, which is the number of searches done for
+     * all the ghosts together.
+     *
+     * @return the number of plans made
+     */
+    public synchronized long getPlanCount() {
+        return planCount;
+    }
+
+    /**
+     * Gets the role of a ghost in the current plan.
+     *
+     * @param ghostName the name of the ghost
+     * @return the role of the ghost; {@code null} if it is not in the plan
+     */
+    public Role getRole(String ghostName) {
+        Plan curr = plan;
+        return curr == null ? null : curr.roles.get(ghostName);
+    }
+
+    /**
+     * Gets the plan for the current state of the maze, making a new one if the
+     * pacman moved or the hunting ghosts changed since the last one.
+     *
+     * @return the plan; {@code null} if there is no pacman
+     */
+    private Plan getPlan() {
+        Map<String, Coordinate> ghosts = maze.getGhostsLocation();
+        Map<String, Integer> scaredTimes = maze.getGhostScaredTimes();
+        int pacman = huntedPacman(maze.getPacmanLocation().values(), ghosts);
+        if (pacman < 0) {
+            return null;
+        }
+        Plan curr = plan;
+        if (curr != null && curr.pacman == pacman
+                && curr.isHuntedBy(ghosts, scaredTimes)) {
+            return curr;
+        }
+        return makePlan(pacman, ghosts, scaredTimes);
+    }
+
+    /**
+     * Makes the plan for a block of the pacman and the ghosts hunting, unless another
+     * ghost just made it.
+     *
+     * @param pacman the block of the pacman hunted
+     * @param ghosts the location of each ghost
+     * @param scaredTimes the scared time of each ghost
+     * @return the plan
+     */
+    private synchronized Plan makePlan(int pacman, Map<String, Coordinate> ghosts,
+                                       Map<String, Integer> scaredTimes) {
+        List<String> hunters = new ArrayList<>();
+        for (String name: new TreeSet<>(ghosts.keySet())) {
+            if (scaredTimes.getOrDefault(name, 0) <= 0) {
+                hunters.add(name);
+            }
+        }
+        Plan curr = plan;
+        if (curr != null && curr.pacman == pacman && curr.hunters.equals(hunters)) {
+            return curr;
+        }
+
+        // Guess where the pacman is heading
+        if (lastPacman >= 0 && lastPacman != pacman) {
+            pacmanDirection = -1;
+            for (int m = 0; m < 4; m++) {
+                if (topology.next[lastPacman * 4 + m] == pacman) {
+                    pacmanDirection = m;
+                }
+            }
+        }
+        lastPacman = pacman;
+        int ahead = pacmanDirection >= 0 ? pacmanDirection : towardsFood(pacman);
+        int[] targets = new int[Role.values().length];
+        targets[Role.CHASE.ordinal()] = pacman;
+        targets[Role.CUT_OFF.ordinal()] = walk(pacman, ahead);
+        targets[Role.AMBUSH.ordinal()] = ahead < 0 ? pacman
+            : walk(pacman, SimulatedGame.REVERSE[ahead]);
+
+        // Give the roles to the ghosts so that the team is closest to its targets
+        int[] blocks = new int[hunters.size()];
+        Role[] previous = new Role[hunters.size()];
+        for (int i = 0; i < blocks.length; i++) {
+            Coordinate c = ghosts.get(hunters.get(i));
+            blocks[i] = topology.block(c.getX(), c.getY());
+            previous[i] = curr == null ? null : curr.roles.get(hunters.get(i));
+        }
+        Role[] best = new Role[blocks.length];
+        assign(targets, blocks, previous, 0, new Role[blocks.length], 0,
+            new long[] {Long.MAX_VALUE}, best);
+        Map<String, Role> roles = new HashMap<>();
+        for (int i = 0; i < best.length; i++) {
+            roles.put(hunters.get(i), best[i]);
+        }
+        planCount++;
+        plan = new Plan(pacman, hunters, targets, roles);
+        return plan;
+    }
+
+    /**
+     * Chooses the pacman to hunt: the one closest to the ghosts.
+     *
+     * @param pacmen the location of each pacman
+     * @param ghosts the location of each ghost
+     * @return the block of the pacman; -1 if there is no pacman
+     */
+    private int huntedPacman(Collection<Coordinate> pacmen,
+                             Map<String, Coordinate> ghosts) {
+        int best = -1;
+        long bestDist = Long.MAX_VALUE;
+        for (Coordinate p: pacmen) {
+            long dist = 0;
+            for (Coordinate g: ghosts.values()) {
+                dist += AlgorithmsUtility.manhattanDistance(p, g);
+            }
+            if (dist < bestDist) {
+                best = topology.block(p.getX(), p.getY());
+                bestDist = dist;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the move from a block towards the closest food or pellet.
+     *
+     * @param block the block
+     * @return the move; -1 if there is nothing to eat
+     */
+    private int towardsFood(int block) {
+        int best = -1;
+        int bestDist = DistanceField.UNREACHABLE;
+        for (int m = 0; m < 4; m++) {
+            int to = topology.next[block * 4 + m];
+            if (to >= 0) {
+                int x = to % topology.width;
+                int y = to / topology.width;
+                int dist = Math.min(maze.getFoodDistanceField().get(x, y),
+                    maze.getPelletDistanceField().get(x, y));
+                if (dist < bestDist) {
+                    best = m;
+                    bestDist = dist;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Walks along a corridor until a junction, a dead end or {@link #LOOKAHEAD}
+     * blocks.
+     *
+     * @param block the block to start from
+     * @param move the first move; -1 to stay
+     * @return the block where the walk stops
+     */
+    private int walk(int block, int move) {
+        for (int i = 0; i < LOOKAHEAD && move >= 0; i++) {
+            int to = topology.next[block * 4 + move];
+            if (to < 0) {
+                break;
+            }
+            block = to;
+            // Follow the corridor: the only way out that is not going back
+            int exit = -1;
+            int exits = 0;
+            for (int m = 0; m < 4; m++) {
+                if (m != SimulatedGame.REVERSE[move] && topology.next[block * 4 + m] >= 0) {
+                    exit = m;
+                    exits++;
+                }
+            }
+            move = exits == 1 ? exit : -1;
+        }
+        return block;
+    }
+
+    /**
+     * Finds the roles of the ghosts that minimize the total distance to their targets,
+     * trying every assignment where each role is taken before any is taken twice.
+     *
+     * @param targets the target block of each role
+     * @param blocks the block of each ghost
+     * @param previous the role of each ghost in the previous plan
+     * @param ghost the index of the ghost to assign
+     * @param roles the roles assigned so far
+     * @param cost the cost of the roles assigned so far
+     * @param bestCost the lowest total cost found, updated in place
+     * @param best the roles of the lowest total cost, updated in place
+     */
+    private void assign(int[] targets, int[] blocks, Role[] previous, int ghost,
+                        Role[] roles, long cost, long[] bestCost, Role[] best) {
+        if (cost >= bestCost[0]) {
+            return;
+        }
+        if (ghost == blocks.length) {
+            bestCost[0] = cost;
+            System.arraycopy(roles, 0, best, 0, roles.length);
+            return;
+        }
+        // Every role is taken once before a role is taken twice
+        int round = ghost / Role.values().length;
+        for (Role role: Role.values()) {
+            int taken = 0;
+            for (int i = 0; i < ghost; i++) {
+                taken += roles[i] == role ? 1 : 0;
+            }
+            if (taken > round) {
+                continue;
+            }
+            long dist = tables.distance(blocks[ghost], targets[role.ordinal()]);
+            long bonus = role == previous[ghost] ? ROLE_BONUS : 0;
+            roles[ghost] = role;
+            assign(targets, blocks, previous, ghost + 1, roles, cost + dist - bonus,
+                bestCost, best);
+        }
+    }
+
+    /**
+     * Gets the next move based on the algorithm chosen.
+     *
+     * @param ghostName the name of the ghost
+     * @param x         the x coordinate
+     * @param y         the y coordinate
+     * @param current current direction
+     * @param isScared  if the ghost is scared
+     * @return the direction to go for next state
+     */
+    @Override
+    public Direction getGhostAction(String ghostName, int x, int y,
+                                    Direction current, boolean isScared) {
+        Plan curr = getPlan();
+        if (curr == null) {
+            return Direction.STOP;
+        }
+        Role role = curr.roles.get(ghostName);
+        int target = curr.targets[(role == null ? Role.CHASE : role).ordinal()];
+        boolean flee = isScared;
+        int block = topology.block(x, y);
+        Direction best = Direction.STOP;
+        long bestValue = Long.MAX_VALUE;
+        for (int m = 0; m < 4; m++) {
+            int to = topology.next[block * 4 + m];
+            if (to < 0) {
+                continue;
+            }
+            long dist = tables.distance(to, target);
+            long value = flee ? -dist : dist;
+            // Keep going the same way on a tie
+            if (value < bestValue || (value == bestValue
+                    && SimulatedGame.MOVES[m] == current)) {
+                best = SimulatedGame.MOVES[m];
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+}
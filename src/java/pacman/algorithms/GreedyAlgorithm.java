@@ -1,13 +1,5 @@
 package pacman.algorithms;
 
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.IntStream;
-import pacman.model.Coordinate;
 import pacman.model.Direction;
 import pacman.model.Maze;
 
@@ -27,6 +19,27 @@ public class GreedyAlgorithm extends AbstractAlgorithm  {
         super(maze);
     }
 
+    /**
+     * Contains the evaluation context of the latest state of the maze, shared by all
+     * the agents using this algorithm.
+     */
+    private volatile EvaluationContext context;
+
+    /**
+     * Gets the evaluation context of the current state of the maze, computing it if
+     * the agents or the items changed since the last call.
+     *
+     * @return the evaluation context of the current state of the maze
+     */
+    EvaluationContext getEvaluationContext() {
+        EvaluationContext curr = context;
+        EvaluationContext next = EvaluationContext.of(maze, curr);
+        if (next != curr) {
+            context = next;
+        }
+        return next;
+    }
+
     /**
      * A evaluation function that let the pacman chase only the food.
      *
@@ -36,34 +49,22 @@ public class GreedyAlgorithm extends AbstractAlgorithm  {
      * @return the evaluation score of the action
      */
     protected double pacmanEvaluationFunction(int pacmanIndex, int x, int y) {
-        final Set<Coordinate> currFood = maze.getFoods();
-        final Coordinate[] pellets = maze.getPellets();
-        final Map<String, Coordinate> currGhostStates = maze.getGhostsLocation();
-        final Map<String, Integer> currScaredTimes = maze.getGhostScaredTimes();
+        final EvaluationContext context = getEvaluationContext();
         // check if the current state is the final winning state
-        if (maze.isLose(x, y)) {
+        if (context.isLose(x, y)) {
             // Lose
             return Integer.MIN_VALUE;
-        } else if (maze.isWin(x, y)) {
+        } else if (context.isWin(x, y)) {
             // Win
             return Integer.MAX_VALUE;
         }
 
         // find the closest / farthest point
-        int closestFoodDist = Integer.MAX_VALUE;
-        for (Coordinate foodCoordinate : currFood) {
-            int currFoodDist = AlgorithmsUtility.manhattanDistance(
-                new Coordinate(x, y), foodCoordinate);
-            if (currFoodDist < closestFoodDist) {
-                closestFoodDist = currFoodDist;
-            }
-        }
+        int closestFoodDist = context.foodDistance(x, y);
 
         // calculate the score
-        int score = maze.getPacmanScores().getOrDefault(pacmanIndex, 0);
-        for (int scaredTime : currScaredTimes.values()) {
-            score += scaredTime;
-        }
+        int score = context.getPacmanScores(pacmanIndex);
+        score += context.getScaredTimeSum();
         score -= 2 * closestFoodDist;
         return score;
     }
@@ -81,18 +82,17 @@ public class GreedyAlgorithm extends AbstractAlgorithm  {
     @Override
     public Direction getPacmanAction(int pacmanIndex, int x, int y,
         Direction current) {
-        List<Direction> nextDirections = maze.getLegalActions(x, y);
-        Map<Coordinate, Direction> actions = new HashMap<>();
-        nextDirections.forEach((d) ->
-            actions.put(new Coordinate(x + d.getDirectionX(), y + d.getDirectionY()), d));
-        Coordinate bestAction = actions.keySet().stream().max(
-            Comparator.comparing(i ->
-                pacmanEvaluationFunction(0, i.getX(), i.getY()))).orElse(null);
-        if (bestAction != null) {
-            return actions.get(bestAction);
-        } else {
-            return Direction.STOP;
+        Direction bestAction = Direction.STOP;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (Direction d: Direction.fromMask(maze.getLegalMask(x, y))) {
+            double score = pacmanEvaluationFunction(0, x + d.getDirectionX(),
+                y + d.getDirectionY());
+            if (bestAction == Direction.STOP || score > bestScore) {
+                bestAction = d;
+                bestScore = score;
+            }
         }
+        return bestAction;
     }
 
     /**
@@ -105,39 +105,19 @@ public class GreedyAlgorithm extends AbstractAlgorithm  {
      * @return the evaluation score of the action
      */
     protected int ghostEvaluationFunction(String ghostName, int x, int y, boolean isScared) {
+        final EvaluationContext context = getEvaluationContext();
         int score = 100;
-        if (maze.getPacmanNum() > 0) {
-            IntStream pacmanDists = maze.getPacmanLocation().values().stream()
-                .mapToInt(pacmanCoordinate
-                    -> AlgorithmsUtility.manhattanDistance(new Coordinate(x, y),
-                    pacmanCoordinate));
-
-            int closestPacmanDist = pacmanDists.min().orElse(-1);
-
-            if (closestPacmanDist > 0) {
-                if (isScared) {
-                    score += closestPacmanDist;
-                } else {
-                    score -= closestPacmanDist;
-                }
-            }
-        } else {
-            // If no pacman on the board, go to the start position
-            IntStream starterDists = Arrays.stream(maze.getGhostsStartLocation())
-                .mapToInt(startCoordinate
-                    -> AlgorithmsUtility.manhattanDistance(new Coordinate(x, y),
-                    startCoordinate));
-
-            int closestStartDist = starterDists.min().orElse(-1);
-
-            if (closestStartDist > 0) {
-                if (isScared) {
-                    score += closestStartDist;
-                } else {
-                    score -= closestStartDist;
-                }
+        // If no pacman on the board, go to the start position
+        int closestDist = context.pacmanDistance(x, y);
+        if (closestDist == EvaluationContext.NONE) {
+            closestDist = context.ghostStartDistance(x, y);
+        }
+        if (closestDist > 0 && closestDist != EvaluationContext.NONE) {
+            if (isScared) {
+                score += closestDist;
+            } else {
+                score -= closestDist;
             }
-
         }
         return score;
     }
@@ -155,19 +135,17 @@ public class GreedyAlgorithm extends AbstractAlgorithm  {
     @Override
     public Direction getGhostAction(String ghostName, int x, int y,
         Direction current, boolean isScared) {
-        List<Direction> nextDirections = maze.getLegalActions(x, y);
-        Map<Coordinate, Direction> actions = new HashMap<>();
-        nextDirections.forEach((d) ->
-            actions.put(new Coordinate(x + d.getDirectionX(), y + d.getDirectionY()), d));
-        Coordinate bestAction = actions.keySet().stream().max(
-            Comparator.comparing(i ->
-                ghostEvaluationFunction(ghostName, i.getX(), i.getY(), isScared)))
-            .orElse(null);
-        if (bestAction != null) {
-            return actions.get(bestAction);
-        } else {
-            return Direction.STOP;
+        Direction bestAction = Direction.STOP;
+        int bestScore = Integer.MIN_VALUE;
+        for (Direction d: Direction.fromMask(maze.getLegalMask(x, y))) {
+            int score = ghostEvaluationFunction(ghostName, x + d.getDirectionX(),
+                y + d.getDirectionY(), isScared);
+            if (bestAction == Direction.STOP || score > bestScore) {
+                bestAction = d;
+                bestScore = score;
+            }
         }
+        return bestAction;
     }
 
 }
@@ -0,0 +1,548 @@
+package pacman.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import pacman.model.Coordinate;
+import pacman.model.Direction;
+import pacman.model.Maze;
+
+/**
+ * This class is a compressed graph of a maze, where the nodes are the junctions and
+ * dead ends and the edges are the corridors between them, with their lengths and
+ * blocks. A maze is mostly corridors, so searching over this graph expands one node
+ * per junction instead of one per block.
+ *
+ * <p>Besides the graph, every block knows where each of its moves leads: the node at
+ * the end of the corridor and the number of steps to it. So an agent anywhere in the
+ * maze can be moved from decision to decision in O(1).
+ *
+ * <p>The graph is built once per maze and never changes, so it is safe to share
+ * between threads.
+ *
+ * @version 1.0
+ */
+public final class JunctionGraph {
+    /** Contains the topology of the maze. */
+    private final SimulatedGame.Topology topology;
+
+    /** Contains the node index of each block; -1 if it is not a node. */
+    private final int[] nodeIndex;
+
+    /** Contains the block of each node. */
+    private final int[] nodes;
+
+    /**
+     * Contains the node reached by each move of each block ({@code block * 4 + move})
+     * and following the corridor; -1 if the move is not legal.
+     */
+    private final int[] end;
+
+    /** Contains the number of steps of each move of each block to its node. */
+    private final int[] length;
+
+    /** Contains the edge taken by each move of each block; -1 if not legal. */
+    private final int[] edgeAt;
+
+    /**
+     * Contains if each move of each block walks its edge from the first node to the
+     * last one.
+     */
+    private final boolean[] ascending;
+
+    /** Contains the first node of each edge. */
+    private final int[] edgeFrom;
+
+    /** Contains the last node of each edge. */
+    private final int[] edgeTo;
+
+    /** Contains the blocks between the first and the last node of each edge. */
+    private final int[][] edgeCells;
+
+    /** Contains the edge of each block inside a corridor; -1 for the nodes. */
+    private final int[] edgeOf;
+
+    /** Contains the number of steps from the first node of its edge to each block. */
+    private final int[] edgeOffset;
+
+    /**
+     * Creates the junction graph of a maze.
+     *
+     * @param maze the maze of the game
+     */
+    public JunctionGraph(Maze maze) {
+        this(new SimulatedGame.Topology(maze));
+    }
+
+    /**
+     * Creates the junction graph of a topology.
+     *
+     * @param topology the topology of the maze
+     */
+    JunctionGraph(SimulatedGame.Topology topology) {
+        this.topology = topology;
+        int size = topology.next.length / 4;
+        this.nodeIndex = new int[size];
+        Arrays.fill(nodeIndex, -1);
+
+        // Junctions and dead ends are nodes
+        List<Integer> nodeList = new ArrayList<>();
+        boolean[] open = new boolean[size];
+        for (int b = 0; b < size; b++) {
+            int degree = Integer.bitCount(moves(b));
+            open[b] = degree > 0;
+            if (degree > 0 && degree != 2) {
+                nodeIndex[b] = nodeList.size();
+                nodeList.add(b);
+            }
+        }
+        // A loop with no junction gets one node, so every corridor has ends
+        boolean[] seen = new boolean[size];
+        for (int b = 0; b < size; b++) {
+            if (!open[b] || seen[b]) {
+                continue;
+            }
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            boolean hasNode = false;
+            queue[tail++] = b;
+            seen[b] = true;
+            while (head < tail) {
+                int i = queue[head++];
+                hasNode |= nodeIndex[i] >= 0;
+                for (int m = 0; m < 4; m++) {
+                    int n = topology.next[i * 4 + m];
+                    if (n >= 0 && !seen[n]) {
+                        seen[n] = true;
+                        queue[tail++] = n;
+                    }
+                }
+            }
+            if (!hasNode) {
+                nodeIndex[b] = nodeList.size();
+                nodeList.add(b);
+            }
+        }
+        this.nodes = new int[nodeList.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = nodeList.get(i);
+        }
+
+        // Walk every move of every block to the next node
+        this.end = new int[size * 4];
+        this.length = new int[size * 4];
+        this.edgeAt = new int[size * 4];
+        this.ascending = new boolean[size * 4];
+        this.edgeOf = new int[size];
+        this.edgeOffset = new int[size];
+        Arrays.fill(end, -1);
+        Arrays.fill(edgeAt, -1);
+        Arrays.fill(edgeOf, -1);
+        List<int[]> edges = new ArrayList<>();
+        List<int[]> cells = new ArrayList<>();
+        for (int node: nodes) {
+            for (int m = 0; m < 4; m++) {
+                if (topology.next[node * 4 + m] < 0 || edgeAt[node * 4 + m] >= 0) {
+                    continue;
+                }
+                List<Integer> corridor = new ArrayList<>();
+                int b = topology.next[node * 4 + m];
+                int last = m;
+                while (nodeIndex[b] < 0) {
+                    corridor.add(b);
+                    last = follow(b, last);
+                    b = topology.next[b * 4 + last];
+                }
+                int id = edges.size();
+                edges.add(new int[] {node, b});
+                int[] c = new int[corridor.size()];
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = corridor.get(i);
+                    edgeOf[c[i]] = id;
+                    edgeOffset[c[i]] = i + 1;
+                }
+                cells.add(c);
+                edgeAt[node * 4 + m] = id;
+                ascending[node * 4 + m] = true;
+                edgeAt[b * 4 + SimulatedGame.REVERSE[last]] = id;
+            }
+        }
+        this.edgeFrom = new int[edges.size()];
+        this.edgeTo = new int[edges.size()];
+        this.edgeCells = cells.toArray(new int[0][]);
+        for (int e = 0; e < edgeFrom.length; e++) {
+            edgeFrom[e] = edges.get(e)[0];
+            edgeTo[e] = edges.get(e)[1];
+        }
+        for (int b = 0; b < size; b++) {
+            for (int m = 0; m < 4; m++) {
+                int n = topology.next[b * 4 + m];
+                if (n < 0) {
+                    continue;
+                }
+                int steps = 1;
+                int last = m;
+                while (nodeIndex[n] < 0) {
+                    last = follow(n, last);
+                    n = topology.next[n * 4 + last];
+                    steps++;
+                }
+                end[b * 4 + m] = n;
+                length[b * 4 + m] = steps;
+                if (nodeIndex[b] < 0) {
+                    int next = topology.next[b * 4 + m];
+                    edgeAt[b * 4 + m] = edgeOf[b];
+                    ascending[b * 4 + m] = nodeIndex[next] < 0
+                        ? edgeOffset[next] > edgeOffset[b]
+                        : edgeOffset[b] == edgeCells[edgeOf[b]].length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the legal moves of a block.
+     *
+     * @param block the block
+     * @return a bitmask of the legal moves (bit {@code m} for
+     *      {@code SimulatedGame.MOVES[m]})
+     */
+    private int moves(int block) {
+        int mask = 0;
+        for (int m = 0; m < 4; m++) {
+            if (topology.next[block * 4 + m] >= 0) {
+                mask |= 1 << m;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the move that keeps following a corridor.
+     *
+     * @param block a block inside a corridor
+     * @param last the move that entered the block
+     * @return the move leaving the block without going back; -1 if the block is a
+     *      node or there is none
+     */
+    int follow(int block, int last) {
+        if (nodeIndex[block] >= 0) {
+            return -1;
+        }
+        int back = last < 0 ? -1 : SimulatedGame.REVERSE[last];
+        for (int m = 0; m < 4; m++) {
+            if (m != back && topology.next[block * 4 + m] >= 0) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a block is a node.
+     *
+     * @param block the block
+     * @return {@code true} if the block is a junction, a dead end or the node of a
+     *      loop
+     */
+    boolean isNode(int block) {
+        return block >= 0 && nodeIndex[block] >= 0;
+    }
+
+    /**
+     * Gets the node reached by a move and following the corridor.
+     *
+     * @param block the block
+     * @param move the move, an index of {@link SimulatedGame#MOVES}
+     * @return the block of the node; -1 if the move is not legal
+     */
+    int end(int block, int move) {
+        return end[block * 4 + move];
+    }
+
+    /**
+     * Gets the number of steps of a move and following the corridor.
+     *
+     * @param block the block
+     * @param move the move, an index of {@link SimulatedGame#MOVES}
+     * @return the number of steps to the node; 0 if the move is not legal
+     */
+    int length(int block, int move) {
+        return length[block * 4 + move];
+    }
+
+    /**
+     * Gets the number of nodes.
+     *
+     * @return the number of junctions and dead ends
+     */
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * Gets the number of edges.
+     *
+     * @return the number of corridors
+     */
+    public int getEdgeCount() {
+        return edgeFrom.length;
+    }
+
+    /**
+     * Checks if a block is a junction or a dead end, where an agent has a decision to
+     * make.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return {@code true} if the block is a node of the graph
+     */
+    public boolean isJunction(int x, int y) {
+        return isNode(topology.block(x, y));
+    }
+
+    /**
+     * Gets the end of the corridor taken by a move.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param d the direction of the move
+     * @return the coordinate of the junction or dead end at the end of the corridor;
+     *      {@code null} if the move is not legal
+     */
+    public Coordinate getCorridorEnd(int x, int y, Direction d) {
+        if (d == Direction.STOP) {
+            return null;
+        }
+        int b = end(topology.block(x, y), d.ordinal());
+        return b < 0 ? null : new Coordinate(b % topology.width, b / topology.width);
+    }
+
+    /**
+     * Gets the length of the corridor taken by a move.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param d the direction of the move
+     * @return the number of steps to the end of the corridor; 0 if the move is not
+     *      legal
+     */
+    public int getCorridorLength(int x, int y, Direction d) {
+        return d == Direction.STOP ? 0 : length(topology.block(x, y), d.ordinal());
+    }
+
+    /**
+     * Gets the blocks of the corridor taken by a move.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param d the direction of the move
+     * @return the blocks walked, ending with the junction or dead end; empty if the
+     *      move is not legal
+     */
+    public List<Coordinate> getCorridor(int x, int y, Direction d) {
+        List<Coordinate> corridor = new ArrayList<>();
+        int b = topology.block(x, y);
+        int m = d == Direction.STOP ? -1 : d.ordinal();
+        if (m < 0 || topology.next[b * 4 + m] < 0) {
+            return corridor;
+        }
+        do {
+            b = topology.next[b * 4 + m];
+            corridor.add(new Coordinate(b % topology.width, b / topology.width));
+            m = follow(b, m);
+        } while (m >= 0);
+        return corridor;
+    }
+
+    /**
+     * Gets the length of the shortest walk between two blocks.
+     *
+     * @param from the first block
+     * @param to the second block
+     * @return the number of steps; -1 if there is no walk
+     */
+    public int distance(Coordinate from, Coordinate to) {
+        long result = search(topology.block(from.getX(), from.getY()),
+            topology.block(to.getX(), to.getY()));
+        return result < 0 ? -1 : (int) (result >> 3);
+    }
+
+    /**
+     * Gets the first move of the shortest walk between two blocks.
+     *
+     * @param from the first block
+     * @param to the second block
+     * @return the first move; {@link Direction#STOP} if the blocks are the same or
+     *      there is no walk
+     */
+    public Direction firstMove(Coordinate from, Coordinate to) {
+        long result = search(topology.block(from.getX(), from.getY()),
+            topology.block(to.getX(), to.getY()));
+        int move = result < 0 ? 4 : (int) (result & 7);
+        return move < 4 ? SimulatedGame.MOVES[move] : Direction.STOP;
+    }
+
+    /**
+     * Runs A* over the graph from a block to another, with the Manhattan distance as
+     * heuristic. Blocks inside corridors are reached through the nodes at both ends of
+     * their corridor.
+     *
+     * @param from the first block
+     * @param to the second block
+     * @return the number of steps shifted left by 3, or'ed with the first move (4 if
+     *      none); -1 if there is no walk
+     */
+    long search(int from, int to) {
+        if (from == to) {
+            return 4;
+        }
+        if (nodeIndex[from] < 0 && edgeOf[from] < 0
+                || nodeIndex[to] < 0 && edgeOf[to] < 0) {
+            return -1;
+        }
+        long best = Long.MAX_VALUE;
+        int[] cost = new int[nodes.length];
+        int[] first = new int[nodes.length];
+        Arrays.fill(cost, Integer.MAX_VALUE);
+        // Open list of (f << 32 | node), as a binary heap
+        long[] heap = new long[Math.max(4, edgeFrom.length * 2 + 4)];
+        int heapSize = 0;
+
+        // Leave the first block along each of its moves
+        for (int m = 0; m < 4; m++) {
+            int n = end[from * 4 + m];
+            if (n < 0) {
+                continue;
+            }
+            int along = along(from, m, to);
+            if (along > 0) {
+                best = Math.min(best, ((long) along << 3) | m);
+            }
+            int i = nodeIndex[n];
+            int g = length[from * 4 + m];
+            if (g < cost[i]) {
+                cost[i] = g;
+                first[i] = m;
+                heap = push(heap, heapSize++, ((long) (g + heuristic(n, to)) << 32) | i);
+            }
+        }
+        while (heapSize > 0) {
+            long top = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+            int i = (int) top;
+            int f = (int) (top >>> 32);
+            int g = cost[i];
+            if (f - heuristic(nodes[i], to) != g) {
+                continue;
+            }
+            if ((long) f << 3 >= best) {
+                break;
+            }
+            int u = nodes[i];
+            if (u == to) {
+                best = Math.min(best, ((long) g << 3) | first[i]);
+                break;
+            }
+            for (int m = 0; m < 4; m++) {
+                int n = end[u * 4 + m];
+                if (n < 0) {
+                    continue;
+                }
+                int along = along(u, m, to);
+                if (along > 0) {
+                    best = Math.min(best, ((long) (g + along) << 3) | first[i]);
+                }
+                int j = nodeIndex[n];
+                int gn = g + length[u * 4 + m];
+                if (gn < cost[j]) {
+                    cost[j] = gn;
+                    first[j] = first[i];
+                    long entry = ((long) (gn + heuristic(n, to)) << 32) | j;
+                    heap = push(heap, heapSize++, entry);
+                }
+            }
+        }
+        return best == Long.MAX_VALUE ? -1 : best;
+    }
+
+    /**
+     * Gets the number of steps to a block inside the corridor taken by a move.
+     *
+     * @param block the block where the move starts
+     * @param move the move
+     * @param target the block looked for
+     * @return the number of steps to the target; 0 if the target is not inside the
+     *      corridor ahead
+     */
+    private int along(int block, int move, int target) {
+        int e = edgeOf[target];
+        if (e < 0 || edgeAt[block * 4 + move] != e) {
+            return 0;
+        }
+        boolean up = ascending[block * 4 + move];
+        int start = nodeIndex[block] < 0 ? edgeOffset[block]
+            : up ? 0 : edgeCells[e].length + 1;
+        int steps = up ? edgeOffset[target] - start : start - edgeOffset[target];
+        return Math.max(0, steps);
+    }
+
+    /**
+     * Gets the Manhattan distance between two blocks, which never overestimates the
+     * length of a walk.
+     *
+     * @param a the first block
+     * @param b the second block
+     * @return the Manhattan distance
+     */
+    private int heuristic(int a, int b) {
+        int width = topology.width;
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+    }
+
+    /**
+     * Pushes an entry to a binary heap, growing it if needed.
+     *
+     * @param heap the heap
+     * @param size the size of the heap before the push
+     * @param entry the entry
+     * @return the heap
+     */
+    private static long[] push(long[] heap, int size, long entry) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        int i = size;
+        while (i > 0 && heap[(i - 1) / 2] > entry) {
+            heap[i] = heap[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        heap[i] = entry;
+        return heap;
+    }
+
+    /**
+     * Moves the first entry of a binary heap down to its place.
+     *
+     * @param heap the heap
+     * @param size the size of the heap
+     */
+    private static void siftDown(long[] heap, int size) {
+        int i = 0;
+        long entry = heap[0];
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[child] >= entry) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+    }
+}
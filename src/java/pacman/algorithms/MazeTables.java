@@ -0,0 +1,155 @@
+package pacman.algorithms;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import pacman.model.DistanceField;
+import pacman.model.Maze;
+
+/**
+ * This class contains what the algorithms precompute from the walls of a maze: the
+ * {@link SimulatedGame.Topology}, the {@link JunctionGraph} and a table of the
+ * distance between any two blocks. The walls never change during a game, so the
+ * tables are immutable once built and are shared by every algorithm and every agent
+ * of the maze, on any thread; {@link #of(Maze)} builds them once per maze.
+ *
+ * <p>What changes during a decision lives in the algorithms, in scratch objects
+ * borrowed from a {@link ScratchPool}, so that the memory used does not grow with the
+ * number of agents.
+ *
+ * @version 1.0
+ */
+final class MazeTables {
+    /**
+     * Contains the largest number of open blocks for which the distance table is
+     * built; larger mazes search the junction graph instead.
+     */
+    static final int MAX_TABLE_BLOCKS = 2048;
+
+    /** Contains the tables of each maze, dropped with the maze. */
+    private static final Map<Maze, MazeTables> CACHE = new WeakHashMap<>();
+
+    /** Contains the topology of the maze. */
+    final SimulatedGame.Topology topology;
+
+    /** Contains the junction graph of the maze. */
+    final JunctionGraph graph;
+
+    /** Contains the index of each block in the distance table; -1 for walls. */
+    private final int[] tableIndex;
+
+    /** Contains the number of open blocks. */
+    private final int openBlocks;
+
+    /**
+     * Contains the distance between open blocks, indexed by
+     * {@code tableIndex[from] * openBlocks + tableIndex[to]}; -1 if unreachable.
+     * {@code null} until first needed, or if the maze is too large.
+     */
+    private volatile short[] distances;
+
+    /**
+     * Builds the tables of a maze.
+     *
+     * @param maze the maze of the game
+     */
+    private MazeTables(Maze maze) {
+        this.topology = new SimulatedGame.Topology(maze);
+        this.graph = new JunctionGraph(topology);
+        int blocks = topology.next.length / 4;
+        this.tableIndex = new int[blocks];
+        Arrays.fill(tableIndex, -1);
+        int open = 0;
+        for (int block = 0; block < blocks; block++) {
+            if (maze.isValidBlock(block % topology.width, block / topology.width)) {
+                tableIndex[block] = open++;
+            }
+        }
+        this.openBlocks = open;
+    }
+
+    /**
+     * Gets the tables of a maze, building them on the first call.
+     *
+     * @param maze the maze of the game
+     * @return the tables of the maze
+     */
+    static MazeTables of(Maze maze) {
+        synchronized (CACHE) {
+            return CACHE.computeIfAbsent(maze, MazeTables::new);
+        }
+    }
+
+    /**
+     * Gets the length of the shortest walk between two blocks.
+     *
+     * @param from the block to start from
+     * @param to the block to go to
+     * @return the distance; {@link DistanceField#UNREACHABLE} if there is no walk
+     */
+    int distance(int from, int to) {
+        if (tableIndex[from] < 0 || tableIndex[to] < 0) {
+            return from == to ? 0 : DistanceField.UNREACHABLE;
+        }
+        short[] table = distanceTable();
+        if (table == null) {
+            long found = graph.search(from, to);
+            return found < 0 ? DistanceField.UNREACHABLE : (int) (found >> 3);
+        }
+        short dist = table[tableIndex[from] * openBlocks + tableIndex[to]];
+        return dist < 0 ? DistanceField.UNREACHABLE : dist;
+    }
+
+    /**
+     * Gets the distance table, computing it with one BFS per open block on the first
+     * call.
+     *
+     * @return the distance table; {@code null} if the maze is too large
+     */
+    private short[] distanceTable() {
+        short[] table = distances;
+        if (table != null || openBlocks > MAX_TABLE_BLOCKS) {
+            return table;
+        }
+        synchronized (this) {
+            if (distances == null) {
+                table = new short[openBlocks * openBlocks];
+                Arrays.fill(table, (short) -1);
+                int[] queue = new int[openBlocks];
+                for (int source = 0; source < tableIndex.length; source++) {
+                    if (tableIndex[source] >= 0) {
+                        bfs(source, table, queue);
+                    }
+                }
+                distances = table;
+            }
+            return distances;
+        }
+    }
+
+    /**
+     * Fills the row of a block in the distance table.
+     *
+     * @param source the block
+     * @param table the distance table
+     * @param queue a queue of {@link #openBlocks} blocks
+     */
+    private void bfs(int source, short[] table, int[] queue) {
+        int row = tableIndex[source] * openBlocks;
+        int head = 0;
+        int tail = 0;
+        table[row + tableIndex[source]] = 0;
+        queue[tail++] = source;
+        while (head < tail) {
+            int block = queue[head++];
+            short dist = table[row + tableIndex[block]];
+            for (int m = 0; m < 4; m++) {
+                int to = topology.next[block * 4 + m];
+                if (to >= 0 && table[row + tableIndex[to]] < 0) {
+                    table[row + tableIndex[to]] = (short) (dist + 1);
+                    queue[tail++] = to;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package pacman.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import pacman.model.Direction;
+import pacman.model.Maze;
+import pacman.model.MazeSnapshot;
+import pacman.util.Logger;
+
+/**
+ * Defines an algorithm that let the agent applies Monte Carlo tree search (UCT) at
+ * each step.
+ *
+ * <p>The search is open loop: a node of the tree is a sequence of moves of the agent,
+ * and the other agents are played by a {@link SimulatedGame.HeuristicPolicy} every
+ * time the node is visited, so the statistics of a node average over what the others
+ * may do. The search is root parallel: every worker of a {@link ForkJoinPool} grows
+ * its own tree until the time budget runs out, with nothing shared but the starting
+ * state, and the visits of the first moves are summed to make the decision. It
+ * therefore scales with the number of cores.
+ *
+ * <p>Below the root, a move of the tree follows the corridor to the next junction of
+ * a {@link JunctionGraph}, since there is nothing to decide in between. So the tree
+ * branches at junctions only and looks much further ahead for the same number of
+ * nodes. The first moves of a new tree are single steps, as they are what the agent
+ * does next.
+ *
+ * <p>Every node knows the block its move takes the agent to. After a decision the
+ * trees are kept, and the next decision of the same agent reuses the child of each
+ * root for the block the agent reached as the new root, with the moves it was grown
+ * with. A tree is only grown anew if no child reached that block, such as after a
+ * corridor move the agent is still in the middle of.
+ *
+ * @version 1.0
+ */
+public class MctsAlgorithm extends AbstractAlgorithm {
+    /** Contains the default time budget of each decision in milliseconds. */
+    public static final long DEFAULT_BUDGET_MILLIS = 15;
+
+    /** Contains the exploration constant of UCB1. */
+    private static final double EXPLORATION = Math.sqrt(2);
+
+    /** Contains the number of moves of a rollout after leaving the tree. */
+    private static final int ROLLOUT_DEPTH = 40;
+
+    /** Contains the pool running the searches of all the MCTS algorithms. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(
+        Runtime.getRuntime().availableProcessors());
+
+    /** Contains the policy of the agents that are not driven by the search. */
+    private static final SimulatedGame.Policy POLICY =
+        new SimulatedGame.HeuristicPolicy(0.8);
+
+    /**
+     * Contains a node of a search tree.
+     */
+    private static final class Node {
+        /** Contains the children, indexed by move; {@code null} if not expanded. */
+        private final Node[] children = new Node[4];
+
+        /** Contains the number of times the node is visited. */
+        private int visits;
+
+        /** Contains the sum of the rewards of the node for the agent. */
+        private double rewards;
+
+        /** Contains the block the move of the node takes the agent to. */
+        private int block = -1;
+
+        /** Contains whether the moves from the node are single steps. */
+        private boolean stepping;
+
+        /**
+         * Finds the node for a block among this node and its children.
+         *
+         * @param at the block
+         * @return the node; {@code null} if none reached the block
+         */
+        private Node find(int at) {
+            if (block == at) {
+                return this;
+            }
+            for (Node child: children) {
+                if (child != null && child.block == at) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Contains the scratch state of a worker growing a tree.
+     */
+    private static final class Rollout {
+        /** Contains the game played from the root at each iteration. */
+        private SimulatedGame game;
+
+        /** Contains the nodes visited at each iteration. */
+        private final Node[] path = new Node[64];
+    }
+
+    /** Contains the topology of the maze. */
+    private final SimulatedGame.Topology topology;
+
+    /** Contains the junction graph of the maze. */
+    private final JunctionGraph graph;
+
+    /** Contains the time budget of each decision in nanoseconds. */
+    private final long budget;
+
+    /** Contains the number of trees grown in parallel. */
+    private final int workers;
+
+    /** Contains the trees of each agent ("pacman" + index, or the ghost name). */
+    private final Map<String, Node[]> searches = new ConcurrentHashMap<>();
+
+    /** Contains the scratch state of the workers. */
+    private final ScratchPool<Rollout> rollouts = new ScratchPool<>(Rollout::new);
+
+    /**
+     * Creates a search algorithm utility with the default time budget that uses every
+     * core.
+     *
+     * @param maze the maze of the game.
+     */
+    public MctsAlgorithm(Maze maze) {
+        this(maze, DEFAULT_BUDGET_MILLIS, POOL.getParallelism());
+    }
+
+    /**
+     * Creates a search algorithm utility.
+     *
+     * @param maze the maze of the game.
+     * @param budgetMillis the time budget of each decision in milliseconds
+     * @param workers the number of trees grown in parallel
+     */
+    public MctsAlgorithm(Maze maze, long budgetMillis, int workers) {
+        super(maze);
+        MazeTables tables = MazeTables.of(maze);
+        this.topology = tables.topology;
+        this.graph = tables.graph;
+        this.budget = budgetMillis * 1_000_000L;
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * Tells if the decisions of this algorithm are slow enough to be computed on a
+     * worker thread while the agent moves.
+     *
+     * @return true, since every decision uses its whole time budget
+     */
+    @Override
+    public boolean isPipelined() {
+        return true;
+    }
+
+    /**
+     * Runs the search for an agent and chooses its next move.
+     *
+     * @param key the key of the agent in {@link #searches}
+     * @param root the current state of the game
+     * @return the next move of the agent
+     */
+    private Direction decide(String key, SimulatedGame root) {
+        if (root == null || root.controlledMoves() == 0) {
+            return Direction.STOP;
+        }
+        // Take the trees of the agent for the time of the decision, so that a decision
+        // still running for the same agent starts from new trees
+        Node[] previous = searches.remove(key);
+        int block = root.controlledBlock();
+        final long deadline = System.nanoTime() + budget;
+        List<Callable<Node>> tasks = new ArrayList<>(workers);
+        long reusedVisits = 0;
+        for (int w = 0; w < workers; w++) {
+            Node found = previous == null || previous.length != workers
+                || previous[w] == null ? null : previous[w].find(block);
+            if (found == null) {
+                found = new Node();
+                found.block = block;
+                found.stepping = true;
+            }
+            reusedVisits += found.visits;
+            final Node start = found;
+            final long seed = System.nanoTime() ^ ((long) w << 32) ^ key.hashCode();
+            tasks.add(() -> grow(start, root, deadline, new SplittableRandom(seed)));
+        }
+        Node[] trees = new Node[workers];
+        int w = 0;
+        for (Future<Node> future: POOL.invokeAll(tasks)) {
+            try {
+                trees[w++] = future.get();
+            } catch (Exception e) {
+                Logger.err("MCTS search failed: %s", e);
+                return Direction.STOP;
+            }
+        }
+        long iterations = -reusedVisits;
+        for (Node tree: trees) {
+            iterations += tree.visits;
+        }
+        addExpandedNodes(iterations);
+
+        // Choose the most visited move over all the trees
+        int best = -1;
+        long bestVisits = -1;
+        int moves = root.controlledMoves();
+        for (int m = 0; m < 4; m++) {
+            if ((moves & (1 << m)) == 0) {
+                continue;
+            }
+            long visits = 0;
+            for (Node tree: trees) {
+                visits += tree.children[m] == null ? 0 : tree.children[m].visits;
+            }
+            if (visits > bestVisits) {
+                best = m;
+                bestVisits = visits;
+            }
+        }
+        searches.put(key, trees);
+        return SimulatedGame.MOVES[best];
+    }
+
+    /**
+     * Grows a tree until the deadline.
+     *
+     * @param tree the root of the tree
+     * @param root the state of the game at the root
+     * @param deadline the value of {@link System#nanoTime()} when to stop
+     * @param random the random generator of the worker
+     * @return the root of the tree
+     */
+    private Node grow(Node tree, SimulatedGame root, long deadline,
+                      SplittableRandom random) {
+        Rollout scratch = rollouts.acquire();
+        if (scratch.game == null || !scratch.game.sameShape(root)) {
+            scratch.game = root.newScratch();
+        }
+        SimulatedGame game = scratch.game;
+        Node[] path = scratch.path;
+        boolean isPacman = root.controlled < 0;
+        do {
+            game.copyFrom(root);
+            int depth = 0;
+            Node node = tree;
+            path[depth++] = node;
+            // Selection and expansion
+            while (!game.isOver() && depth < path.length) {
+                int moves = game.controlledMoves();
+                if (moves == 0) {
+                    break;
+                }
+                int untried = 0;
+                for (int m = 0; m < 4; m++) {
+                    if ((moves & (1 << m)) != 0 && node.children[m] == null) {
+                        untried |= 1 << m;
+                    }
+                }
+                int move;
+                if (untried != 0) {
+                    move = SimulatedGame.pick(untried, random);
+                    node.children[move] = new Node();
+                } else {
+                    move = select(node, moves);
+                }
+                if (node.stepping) {
+                    game.advance(move, POLICY, random);
+                } else {
+                    game.advanceCorridor(move, POLICY, random, graph);
+                }
+                node = node.children[move];
+                if (node.block < 0) {
+                    node.block = game.controlledBlock();
+                }
+                path[depth++] = node;
+                if (untried != 0) {
+                    break;
+                }
+            }
+            // Rollout
+            for (int i = 0; i < ROLLOUT_DEPTH && !game.isOver(); i++) {
+                int move = isPacman ? POLICY.pacmanMove(game, random)
+                    : POLICY.ghostMove(game, game.controlled, random);
+                game.advance(move, POLICY, random);
+            }
+            // Backpropagation
+            double reward = isPacman ? game.pacmanReward() : 1 - game.pacmanReward();
+            for (int i = 0; i < depth; i++) {
+                path[i].visits++;
+                path[i].rewards += reward;
+            }
+        } while (System.nanoTime() < deadline);
+        Arrays.fill(path, null);
+        rollouts.release(scratch);
+        return tree;
+    }
+
+    /**
+     * Selects the child maximizing UCB1.
+     *
+     * @param node the node
+     * @param moves a bitmask of the legal moves
+     * @return the selected move
+     */
+    private static int select(Node node, int moves) {
+        double logVisits = Math.log(Math.max(1, node.visits));
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int m = 0; m < 4; m++) {
+            if ((moves & (1 << m)) == 0) {
+                continue;
+            }
+            Node child = node.children[m];
+            double value = child.visits == 0 ? Double.POSITIVE_INFINITY
+                : child.rewards / child.visits
+                    + EXPLORATION * Math.sqrt(logVisits / child.visits);
+            if (value > bestValue) {
+                best = m;
+                bestValue = value;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the next move based on the algorithm chosen.
+     *
+     * @param pacmanIndex the index of pacman
+     * @param x           the x coordinate
+     * @param y           the y coordinate
+     * @param current current direction
+     * @return the direction to go for next state
+     */
+    @Override
+    public Direction getPacmanAction(int pacmanIndex, int x, int y,
+                                     Direction current) {
+        MazeSnapshot state = maze.snapshot();
+        SimulatedGame root = SimulatedGame.of(topology, state, pacmanIndex, null);
+        if (root != null) {
+            root.pacman = topology.block(x, y);
+        }
+        return decide("pacman" + pacmanIndex, root);
+    }
+
+    /**
+     * Gets the next move based on the algorithm chosen.
+     *
+     * @param ghostName the name of the ghost
+     * @param x         the x coordinate
+     * @param y         the y coordinate
+     * @param current current direction
+     * @param isScared  if the ghost is scared
+     * @return the direction to go for next state
+     */
+    @Override
+    public Direction getGhostAction(String ghostName, int x, int y,
+                                    Direction current, boolean isScared) {
+        MazeSnapshot state = maze.snapshot();
+        SimulatedGame root = SimulatedGame.of(topology, state, -1, ghostName);
+        if (root != null) {
+            root.ghosts[root.controlled] = topology.block(x, y);
+        }
+        return decide(ghostName, root);
+    }
+}
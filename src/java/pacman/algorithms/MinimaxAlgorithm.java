@@ -1,11 +1,14 @@
 package pacman.algorithms;
 
+import pacman.model.Coordinate;
 import pacman.model.Direction;
 import pacman.model.Maze;
 
 /**
  * Defines an algorithm that let the agent applies the minimax algorithm at each
- * step.
+ * step. Each move of the search follows the corridor to the next junction of a
+ * {@link JunctionGraph}, so a ply is a decision instead of a block, unless the game
+ * ends on the way: the move stops at the first block that loses or wins.
  *
  * @version 1.0
  */
@@ -13,6 +16,9 @@ public class MinimaxAlgorithm extends AStarAlgorithm {
     /** Contains the depths of the search. */
     private int depth = 2;
 
+    /** Contains the junction graph of the maze. */
+    private final JunctionGraph graph;
+
     /**
      * Creates a search algorithm utility.
      *
@@ -20,6 +26,29 @@ public class MinimaxAlgorithm extends AStarAlgorithm {
      */
     public MinimaxAlgorithm(Maze maze) {
         super(maze);
+        this.graph = MazeTables.of(maze).graph;
+    }
+
+    /**
+     * Follows the corridor taken by a move, stopping at the first block where a ghost
+     * catches the pacman or the last food is eaten.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param d the direction of the move, which is legal
+     * @return the junction or dead end at the end of the corridor, or the block where
+     *      the game ends
+     */
+    private Coordinate jump(int x, int y, Direction d) {
+        Coordinate last = new Coordinate(x, y);
+        for (Coordinate block: graph.getCorridor(x, y, d)) {
+            last = block;
+            if (maze.isLose(block.getX(), block.getY())
+                    || maze.isWin(block.getX(), block.getY())) {
+                break;
+            }
+        }
+        return last;
     }
 
     /** A constant used in the algorithm. */
@@ -63,15 +92,17 @@ public class MinimaxAlgorithm extends AStarAlgorithm {
         if (isMaximizing) {              // maximizing
             double value = Double.MIN_VALUE;
             for (Direction action : maze.getLegalActions(x, y)) {
-                value = Math.min(value, minimax(x + action.getDirectionX(),
-                    y + action.getDirectionY(), currDepth - 1, MAX, agentIndex));
+                Coordinate next = jump(x, y, action);
+                value = Math.min(value, minimax(next.getX(), next.getY(),
+                    currDepth - 1, MAX, agentIndex));
             }
             return value;
         } else {                         // minimizing
             double value = Double.MAX_VALUE;
             for (Direction action : maze.getLegalActions(x, y)) {
-                value = Math.max(value, minimax(x + action.getDirectionX(),
-                    y + action.getDirectionY(), currDepth - 1, MIN, agentIndex));
+                Coordinate next = jump(x, y, action);
+                value = Math.max(value, minimax(next.getX(), next.getY(),
+                    currDepth - 1, MIN, agentIndex));
             }
             return value;
         }
@@ -113,17 +144,17 @@ public class MinimaxAlgorithm extends AStarAlgorithm {
         if (isMaximizing) {              // maximizing
             double value = Double.MIN_VALUE;
             for (Direction action : maze.getLegalActions(x, y)) {
-                value = Math.min(value, minimax(x + action.getDirectionX(),
-                    y + action.getDirectionY(), currDepth - 1, MAX, agentName,
-                    isScared));
+                Coordinate next = jump(x, y, action);
+                value = Math.min(value, minimax(next.getX(), next.getY(),
+                    currDepth - 1, MAX, agentName, isScared));
             }
             return value;
         } else {                         // minimizing
             double value = Double.MAX_VALUE;
             for (Direction action : maze.getLegalActions(x, y)) {
-                value = Math.max(value, minimax(x + action.getDirectionX(),
-                    y + action.getDirectionY(), currDepth - 1, MIN, agentName,
-                    isScared));
+                Coordinate next = jump(x, y, action);
+                value = Math.max(value, minimax(next.getX(), next.getY(),
+                    currDepth - 1, MIN, agentName, isScared));
             }
             return value;
         }
@@ -144,7 +175,8 @@ public class MinimaxAlgorithm extends AStarAlgorithm {
         Direction ret = Direction.STOP;
         double score = 0;
         for (Direction d: maze.getLegalActions(x, y)) {
-            if (minimax(x + d.getDirectionX(), y + d.getDirectionY(), depth, MIN,
+            Coordinate next = jump(x, y, d);
+            if (minimax(next.getX(), next.getY(), depth, MIN,
                 pacmanIndex) > score) {
                 ret = d;
             }
@@ -168,7 +200,8 @@ public class MinimaxAlgorithm extends AStarAlgorithm {
         Direction ret = Direction.STOP;
         double score = 0;
         for (Direction d: maze.getLegalActions(x, y)) {
-            if (minimax(x + d.getDirectionX(), y + d.getDirectionY(), depth, MIN,
+            Coordinate next = jump(x, y, d);
+            if (minimax(next.getX(), next.getY(), depth, MIN,
                 ghostName, isScared) > score) {
                 ret = d;
             }
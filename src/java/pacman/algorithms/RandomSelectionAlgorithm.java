@@ -1,7 +1,6 @@
 package pacman.algorithms;
 
-import epidemics.model.EpidemicUtilities;
-import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import pacman.model.Direction;
 import pacman.model.Maze;
 
@@ -21,6 +20,20 @@ public class RandomSelectionAlgorithm extends AbstractAlgorithm {
         super(maze);
     }
 
+    /**
+     * Selects a random direction from a mask.
+     *
+     * @param mask a mask of directions
+     * @return a random direction of the mask; {@code null} if the mask is empty
+     */
+    private static Direction randomSelect(int mask) {
+        Direction[] directions = Direction.fromMask(mask);
+        if (directions.length == 0) {
+            return null;
+        }
+        return directions[ThreadLocalRandom.current().nextInt(directions.length)];
+    }
+
     /**
      * Gets the next move based on the algorithm chosen.
      *
@@ -33,8 +46,7 @@ public class RandomSelectionAlgorithm extends AbstractAlgorithm {
     @Override
     public Direction getPacmanAction(int pacmanIndex, int x, int y,
                                      Direction current) {
-        List<Direction> nextDirections = maze.getLegalActionsIncludeStop(x, y);
-        return EpidemicUtilities.randomSelect(nextDirections);
+        return randomSelect(maze.getLegalMaskIncludeStop(x, y));
     }
 
     /**
@@ -50,7 +62,6 @@ public class RandomSelectionAlgorithm extends AbstractAlgorithm {
     @Override
     public Direction getGhostAction(String ghostName, int x, int y,
                                     Direction current, boolean isScared) {
-        List<Direction> nextDirections = maze.getLegalActionsIncludeStop(x, y);
-        return EpidemicUtilities.randomSelect(nextDirections);
+        return randomSelect(maze.getLegalMaskIncludeStop(x, y));
     }
 }
@@ -0,0 +1,78 @@
+package pacman.algorithms;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * This class contains the scratch objects of an algorithm, lent to one decision at a
+ * time. A decision borrows one with {@link #acquire()} and gives it back with
+ * {@link #release(Object)} once done, so no two threads use the same scratch object,
+ * and the number of scratch objects follows the number of decisions running at the
+ * same time rather than the number of agents.
+ *
+ * @param <T> the type of the scratch objects
+ * @version 1.0
+ */
+final class ScratchPool<T> {
+    /** Contains the largest number of idle scratch objects kept. */
+    private static final int MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Contains the creator of new scratch objects. */
+    private final Supplier<T> factory;
+
+    /** Contains the idle scratch objects. */
+    private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+
+    /** Contains the number of idle scratch objects. */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /** Contains the number of scratch objects created. */
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param factory the creator of new scratch objects
+     */
+    ScratchPool(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Borrows a scratch object, creating one if none is idle.
+     *
+     * @return a scratch object used by no other thread
+     */
+    T acquire() {
+        T scratch = idle.poll();
+        if (scratch != null) {
+            idleCount.decrementAndGet();
+            return scratch;
+        }
+        created.incrementAndGet();
+        return factory.get();
+    }
+
+    /**
+     * Gives back a scratch object. It must not be used after.
+     *
+     * @param scratch the scratch object
+     */
+    void release(T scratch) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(scratch);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the number of scratch objects created so far.
+     *
+     * @return the number of scratch objects created
+     */
+    int getCreated() {
+        return created.get();
+    }
+}
@@ -0,0 +1,676 @@
+package pacman.algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import pacman.model.Coordinate;
+import pacman.model.Direction;
+import pacman.model.Maze;
+import pacman.model.MazeSnapshot;
+
+/**
+ * This class is a lightweight, mutable copy of a game used by search algorithms to
+ * play moves ahead without touching the real {@link Maze}. Blocks are indexed by
+ * {@code y * width + x}, foods and pellets are bitmaps, and agents are plain arrays,
+ * so copying a game into a scratch instance does not allocate.
+ *
+ * <p>The simulation is driven by time: the pacman moves one block every
+ * {@link #PACMAN_PERIOD} milliseconds and the ghosts every {@link #GHOST_PERIOD},
+ * like the agents in the game. One call to {@link #advance(int, Policy,
+ * SplittableRandom)} plays until the controlled agent has moved one block. Only one
+ * pacman is simulated: the controlled one, or the one closest to the controlled
+ * ghost.
+ *
+ * @version 1.0
+ */
+final class SimulatedGame {
+    /** Contains the moves of the simulation, indexed by move. */
+    static final Direction[] MOVES = {Direction.UP, Direction.DOWN, Direction.LEFT,
+        Direction.RIGHT};
+
+    /** Contains the reverse of each move. */
+    static final int[] REVERSE = {1, 0, 3, 2};
+
+    /** Contains the number of milliseconds for a pacman to move one block. */
+    static final int PACMAN_PERIOD = 150;
+
+    /** Contains the number of milliseconds for a ghost to move one block. */
+    static final int GHOST_PERIOD = 250;
+
+    /** Contains the number of milliseconds an eaten ghost stays out of the maze. */
+    static final int GHOST_RESPAWN = 2000;
+
+    /** Contains the default scared time in milliseconds. */
+    static final int SCARED_TIME = 10000;
+
+    /**
+     * This interface chooses the move of an agent that is not driven by the search.
+     */
+    interface Policy {
+        /**
+         * Chooses the move of the pacman.
+         *
+         * @param game the game
+         * @param random the random generator of the caller
+         * @return the move, an index of {@link #MOVES}; -1 to stay
+         */
+        int pacmanMove(SimulatedGame game, SplittableRandom random);
+
+        /**
+         * Chooses the move of a ghost.
+         *
+         * @param game the game
+         * @param ghost the index of the ghost
+         * @param random the random generator of the caller
+         * @return the move, an index of {@link #MOVES}; -1 to stay
+         */
+        int ghostMove(SimulatedGame game, int ghost, SplittableRandom random);
+    }
+
+    /**
+     * This class is the default policy of the agents that are not driven by the
+     * search: the pacman avoids the normal ghosts and prefers blocks with food; the
+     * ghosts chase the pacman, or run away from it when scared, most of the time.
+     * Nobody turns back unless it is a dead end.
+     */
+    static final class HeuristicPolicy implements Policy {
+        /** Contains the probability of following the heuristic instead of walking. */
+        private final double greed;
+
+        /**
+         * Creates a heuristic policy.
+         *
+         * @param greed the probability of following the heuristic instead of walking
+         *              randomly
+         */
+        HeuristicPolicy(double greed) {
+            this.greed = greed;
+        }
+
+        /**
+         * Chooses the move of the pacman.
+         *
+         * @param game the game
+         * @param random the random generator of the caller
+         * @return the move, an index of {@link #MOVES}; -1 to stay
+         */
+        @Override
+        public int pacmanMove(SimulatedGame game, SplittableRandom random) {
+            int moves = forward(game.legalMoves(game.pacman), game.pacmanDirection);
+            int safe = 0;
+            int tasty = 0;
+            for (int m = 0; m < 4; m++) {
+                if ((moves & (1 << m)) == 0) {
+                    continue;
+                }
+                int to = game.topology.next[game.pacman * 4 + m];
+                boolean danger = false;
+                for (int i = 0; i < game.ghosts.length; i++) {
+                    if (game.ghosts[i] >= 0 && !game.isScared(i)
+                            && game.distance(game.ghosts[i], to) <= 1) {
+                        danger = true;
+                    }
+                }
+                if (!danger) {
+                    safe |= 1 << m;
+                    if (game.hasItem(to)) {
+                        tasty |= 1 << m;
+                    }
+                }
+            }
+            if (tasty != 0 && random.nextDouble() < greed) {
+                return pick(tasty, random);
+            }
+            return pick(safe != 0 ? safe : moves, random);
+        }
+
+        /**
+         * Chooses the move of a ghost.
+         *
+         * @param game the game
+         * @param ghost the index of the ghost
+         * @param random the random generator of the caller
+         * @return the move, an index of {@link #MOVES}; -1 to stay
+         */
+        @Override
+        public int ghostMove(SimulatedGame game, int ghost, SplittableRandom random) {
+            int from = game.ghosts[ghost];
+            int moves = forward(game.legalMoves(from), game.ghostDirections[ghost]);
+            if (moves == 0 || random.nextDouble() >= greed) {
+                return pick(moves, random);
+            }
+            boolean scared = game.isScared(ghost);
+            int best = -1;
+            int bestDist = 0;
+            for (int m = 0; m < 4; m++) {
+                if ((moves & (1 << m)) != 0) {
+                    int dist = game.distance(game.topology.next[from * 4 + m], game.pacman);
+                    if (best < 0 || (scared ? dist > bestDist : dist < bestDist)) {
+                        best = m;
+                        bestDist = dist;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Removes turning back from the moves, unless it is the only one.
+         *
+         * @param moves a bitmask of moves
+         * @param direction the last move; -1 if none
+         * @return the bitmask without turning back
+         */
+        private static int forward(int moves, int direction) {
+            if (direction < 0) {
+                return moves;
+            }
+            int withoutReverse = moves & ~(1 << REVERSE[direction]);
+            return withoutReverse != 0 ? withoutReverse : moves;
+        }
+    }
+
+    /**
+     * Picks a random move from a bitmask.
+     *
+     * @param moves a bitmask of moves
+     * @param random the random generator
+     * @return the move; -1 if the bitmask is empty
+     */
+    static int pick(int moves, SplittableRandom random) {
+        if (moves == 0) {
+            return -1;
+        }
+        int k = random.nextInt(Integer.bitCount(moves));
+        for (int m = 0; m < 4; m++) {
+            if ((moves & (1 << m)) != 0 && k-- == 0) {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This class contains the parts of a maze that never change during a game.
+     */
+    static final class Topology {
+        /** Contains the width of the maze. */
+        final int width;
+
+        /** Contains the neighbor through each move ({@code block * 4 + move}), or -1. */
+        final int[] next;
+
+        /** Contains the blocks where ghosts start. */
+        final int[] ghostStarts;
+
+        /**
+         * Creates the topology of a maze.
+         *
+         * @param maze the maze of the game
+         */
+        Topology(Maze maze) {
+            this.width = maze.getWidth();
+            int size = width * maze.getHeight();
+            this.next = new int[size * 4];
+            for (int y = 0; y < maze.getHeight(); y++) {
+                for (int x = 0; x < width; x++) {
+                    for (int m = 0; m < 4; m++) {
+                        int nx = x + MOVES[m].getDirectionX();
+                        int ny = y + MOVES[m].getDirectionY();
+                        next[(y * width + x) * 4 + m] = maze.isValidBlock(x, y)
+                            && maze.isValidBlock(nx, ny) ? ny * width + nx : -1;
+                    }
+                }
+            }
+            Coordinate[] starts = maze.getGhostsStartLocation();
+            this.ghostStarts = new int[Math.max(1, starts.length)];
+            for (int i = 0; i < starts.length; i++) {
+                ghostStarts[i] = starts[i].getY() * width + starts[i].getX();
+            }
+        }
+
+        /**
+         * Gets the block of a coordinate.
+         *
+         * @param x the x coordinate
+         * @param y the y coordinate
+         * @return the index of the block
+         */
+        int block(int x, int y) {
+            return y * width + x;
+        }
+    }
+
+    /** Contains the topology of the maze. */
+    final Topology topology;
+
+    /** Contains the blocks having a food. */
+    final long[] foods;
+
+    /** Contains the blocks having a pellet. */
+    final long[] pellets;
+
+    /** Contains the number of foods and pellets left. */
+    int itemsLeft;
+
+    /**
+     * Contains the hash of the foods and pellets left, with the keys of
+     * {@link Maze#itemKey(int, int, int)}.
+     */
+    long itemHash;
+
+    /** Contains the block of the pacman. */
+    int pacman;
+
+    /** Contains the last move of the pacman; -1 if none. */
+    int pacmanDirection;
+
+    /** Contains the time of the next move of the pacman. */
+    int pacmanNext;
+
+    /** Contains the block of each ghost; -1 if eaten and not back yet. */
+    final int[] ghosts;
+
+    /** Contains the last move of each ghost; -1 if none. */
+    final int[] ghostDirections;
+
+    /** Contains the time of the next move of each ghost. */
+    final int[] ghostNext;
+
+    /** Contains the time until which each ghost is scared. */
+    final int[] scaredUntil;
+
+    /** Contains the name of each ghost. */
+    final String[] ghostNames;
+
+    /** Contains the index of the controlled ghost; -1 if the pacman is controlled. */
+    final int controlled;
+
+    /** Contains the current time in milliseconds since the start of the simulation. */
+    int time;
+
+    /** Contains the scores earned since the start of the simulation. */
+    int scores;
+
+    /** Contains if the pacman died. */
+    boolean dead;
+
+    /**
+     * Creates a simulation of the current state of the maze.
+     *
+     * @param topology the topology of the maze
+     * @param state the state of the maze
+     * @param pacmanIndex the index of the simulated pacman; -1 to choose the one closest
+     *                    to the controlled ghost
+     * @param controlledGhost the name of the controlled ghost; {@code null} if the
+     *                        pacman is controlled
+     * @return the simulated game; {@code null} if there is nothing to simulate
+     */
+    static SimulatedGame of(Topology topology, MazeSnapshot state, int pacmanIndex,
+                            String controlledGhost) {
+        // Sort the ghosts so that the same state always gives the same game
+        Map<String, Coordinate> ghostLocations = new TreeMap<>(state.getGhostLocations());
+        List<String> names = new ArrayList<>(ghostLocations.keySet());
+        int controlled = controlledGhost == null ? -1 : names.indexOf(controlledGhost);
+        if (controlledGhost != null && controlled < 0) {
+            return null;
+        }
+        Coordinate pacman = state.getPacmanLocations().get(pacmanIndex);
+        if (pacman == null) {
+            Coordinate from = controlled >= 0 ? ghostLocations.get(controlledGhost) : null;
+            int best = Integer.MAX_VALUE;
+            for (Coordinate c: state.getPacmanLocations().values()) {
+                int dist = from == null ? 0 : AlgorithmsUtility.manhattanDistance(from, c);
+                if (dist < best) {
+                    best = dist;
+                    pacman = c;
+                }
+            }
+        }
+        if (pacman == null) {
+            return null;
+        }
+        SimulatedGame game = new SimulatedGame(topology, names.toArray(new String[0]),
+            controlled);
+        for (Coordinate c: state.getFoods()) {
+            SimulatedGame.set(game.foods, topology.block(c.getX(), c.getY()));
+            game.itemHash ^= Maze.itemKey(c.getX(), c.getY(), Maze.FOOD);
+        }
+        for (Coordinate c: state.getPellets()) {
+            SimulatedGame.set(game.pellets, topology.block(c.getX(), c.getY()));
+            game.itemHash ^= Maze.itemKey(c.getX(), c.getY(), Maze.PELLET);
+        }
+        game.itemsLeft = state.getFoods().size() + state.getPellets().size();
+        game.pacman = topology.block(pacman.getX(), pacman.getY());
+        // The agents that are not deciding now are assumed to be half way to the next
+        // block
+        game.pacmanNext = controlled < 0 ? 0 : PACMAN_PERIOD / 2;
+        for (int i = 0; i < names.size(); i++) {
+            Coordinate c = ghostLocations.get(names.get(i));
+            game.ghosts[i] = topology.block(c.getX(), c.getY());
+            game.ghostNext[i] = i == controlled ? 0 : GHOST_PERIOD / 2;
+            game.scaredUntil[i] = 1000
+                * Math.max(0, state.getGhostScaredTimes().getOrDefault(names.get(i), 0));
+        }
+        return game;
+    }
+
+    /**
+     * Creates an empty simulation.
+     *
+     * @param topology the topology of the maze
+     * @param ghostNames the name of each ghost
+     * @param controlled the index of the controlled ghost; -1 if the pacman is
+     *                   controlled
+     */
+    private SimulatedGame(Topology topology, String[] ghostNames, int controlled) {
+        this.topology = topology;
+        this.ghostNames = ghostNames;
+        int ghostNum = ghostNames.length;
+        int words = (topology.next.length / 4 + 63) / 64;
+        this.foods = new long[words];
+        this.pellets = new long[words];
+        this.ghosts = new int[ghostNum];
+        this.ghostDirections = new int[ghostNum];
+        this.ghostNext = new int[ghostNum];
+        this.scaredUntil = new int[ghostNum];
+        this.controlled = controlled;
+        this.pacmanDirection = -1;
+        Arrays.fill(ghostDirections, -1);
+    }
+
+    /**
+     * Creates a scratch game of the same shape, to be filled by
+     * {@link #copyFrom(SimulatedGame)}.
+     *
+     * @return a new game of the same shape
+     */
+    SimulatedGame newScratch() {
+        return new SimulatedGame(topology, ghostNames, controlled);
+    }
+
+    /**
+     * Checks if another game has the same shape as this game, so that one can be
+     * copied into the other.
+     *
+     * @param other the other game
+     * @return {@code true} if both games simulate the same maze, the same number of
+     *      ghosts and the same controlled agent
+     */
+    boolean sameShape(SimulatedGame other) {
+        return topology == other.topology && ghosts.length == other.ghosts.length
+            && controlled == other.controlled;
+    }
+
+    /**
+     * Copies the state of another game of the same shape into this game.
+     *
+     * @param other the other game
+     */
+    void copyFrom(SimulatedGame other) {
+        System.arraycopy(other.foods, 0, foods, 0, foods.length);
+        System.arraycopy(other.pellets, 0, pellets, 0, pellets.length);
+        System.arraycopy(other.ghosts, 0, ghosts, 0, ghosts.length);
+        System.arraycopy(other.ghostDirections, 0, ghostDirections, 0,
+            ghostDirections.length);
+        System.arraycopy(other.ghostNext, 0, ghostNext, 0, ghostNext.length);
+        System.arraycopy(other.scaredUntil, 0, scaredUntil, 0, scaredUntil.length);
+        itemsLeft = other.itemsLeft;
+        itemHash = other.itemHash;
+        pacman = other.pacman;
+        pacmanDirection = other.pacmanDirection;
+        pacmanNext = other.pacmanNext;
+        time = other.time;
+        scores = other.scores;
+        dead = other.dead;
+    }
+
+    /**
+     * Sets a block in a bitmap.
+     *
+     * @param bits the bitmap
+     * @param block the block
+     */
+    private static void set(long[] bits, int block) {
+        bits[block >>> 6] |= 1L << block;
+    }
+
+    /**
+     * Clears a block in a bitmap.
+     *
+     * @param bits the bitmap
+     * @param block the block
+     * @return if the block was set
+     */
+    private static boolean clear(long[] bits, int block) {
+        long mask = 1L << block;
+        boolean wasSet = (bits[block >>> 6] & mask) != 0;
+        bits[block >>> 6] &= ~mask;
+        return wasSet;
+    }
+
+    /**
+     * Checks if a block has a food or a pellet.
+     *
+     * @param block the block
+     * @return {@code true} if the block has a food or a pellet
+     */
+    boolean hasItem(int block) {
+        return ((foods[block >>> 6] | pellets[block >>> 6]) & (1L << block)) != 0;
+    }
+
+    /**
+     * Checks if the game is over.
+     *
+     * @return {@code true} if the pacman died or ate everything
+     */
+    boolean isOver() {
+        return dead || itemsLeft == 0;
+    }
+
+    /**
+     * Checks if a ghost is scared.
+     *
+     * @param ghost the index of the ghost
+     * @return {@code true} if the ghost is scared
+     */
+    boolean isScared(int ghost) {
+        return scaredUntil[ghost] > time;
+    }
+
+    /**
+     * Gets the block of the controlled agent.
+     *
+     * @return the block of the controlled agent; -1 if it is out of the maze
+     */
+    int controlledBlock() {
+        return controlled < 0 ? pacman : ghosts[controlled];
+    }
+
+    /**
+     * Gets the moves the controlled agent can make.
+     *
+     * @return a bitmask of the legal moves (bit {@code m} for {@code MOVES[m]})
+     */
+    int controlledMoves() {
+        return legalMoves(controlledBlock());
+    }
+
+    /**
+     * Gets the moves that can be made from a block.
+     *
+     * @param block the block
+     * @return a bitmask of the legal moves (bit {@code m} for {@code MOVES[m]})
+     */
+    int legalMoves(int block) {
+        if (block < 0) {
+            return 0;
+        }
+        int mask = 0;
+        for (int m = 0; m < 4; m++) {
+            if (topology.next[block * 4 + m] >= 0) {
+                mask |= 1 << m;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Gets the Manhattan distance between two blocks.
+     *
+     * @param a the first block
+     * @param b the second block
+     * @return the Manhattan distance
+     */
+    int distance(int a, int b) {
+        int width = topology.width;
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+    }
+
+    /**
+     * Plays until the controlled agent has moved one block.
+     *
+     * @param move the move of the controlled agent, an index of {@link #MOVES}; -1 to
+     *             stay
+     * @param policy the policy of the other agents
+     * @param random the random generator of the caller
+     */
+    void advance(int move, Policy policy, SplittableRandom random) {
+        boolean moved = false;
+        while (!moved && !isOver()) {
+            // Find the next agent to move: -1 for the pacman
+            int agent = -1;
+            int when = pacmanNext;
+            for (int i = 0; i < ghosts.length; i++) {
+                if (ghostNext[i] < when) {
+                    when = ghostNext[i];
+                    agent = i;
+                }
+            }
+            time = when;
+            if (agent < 0) {
+                int m = controlled < 0 ? move : policy.pacmanMove(this, random);
+                movePacman(m);
+                pacmanNext += PACMAN_PERIOD;
+                moved = controlled < 0;
+            } else {
+                int m = agent == controlled ? move : policy.ghostMove(this, agent, random);
+                moveGhost(agent, m);
+                ghostNext[agent] += GHOST_PERIOD;
+                moved = agent == controlled;
+            }
+        }
+    }
+
+    /**
+     * Plays until the controlled agent has moved one block, then keeps following the
+     * corridor it is in until it reaches a junction or a dead end of a graph.
+     *
+     * @param move the move of the controlled agent, an index of {@link #MOVES}; -1 to
+     *             stay
+     * @param policy the policy of the other agents
+     * @param random the random generator of the caller
+     * @param graph the junction graph of the maze
+     */
+    void advanceCorridor(int move, Policy policy, SplittableRandom random,
+                         JunctionGraph graph) {
+        advance(move, policy, random);
+        while (!isOver()) {
+            int block = controlledBlock();
+            int last = controlled < 0 ? pacmanDirection : ghostDirections[controlled];
+            int next = block < 0 ? -1 : graph.follow(block, last);
+            if (next < 0) {
+                break;
+            }
+            advance(next, policy, random);
+        }
+    }
+
+    /**
+     * Moves the pacman and resolves what it meets.
+     *
+     * @param move the move, an index of {@link #MOVES}; -1 to stay
+     */
+    void movePacman(int move) {
+        int to = move < 0 ? -1 : topology.next[pacman * 4 + move];
+        if (to >= 0) {
+            pacman = to;
+            pacmanDirection = move;
+        }
+        if (clear(foods, pacman)) {
+            scores += Maze.SCORES[Maze.FOOD];
+            itemsLeft--;
+            itemHash ^= Maze.itemKey(pacman % topology.width, pacman / topology.width,
+                Maze.FOOD);
+        } else if (clear(pellets, pacman)) {
+            scores += Maze.SCORES[Maze.PELLET];
+            itemsLeft--;
+            itemHash ^= Maze.itemKey(pacman % topology.width, pacman / topology.width,
+                Maze.PELLET);
+            Arrays.fill(scaredUntil, time + SCARED_TIME);
+        }
+        for (int i = 0; i < ghosts.length && !dead; i++) {
+            if (ghosts[i] == pacman) {
+                meet(i);
+            }
+        }
+    }
+
+    /**
+     * Moves a ghost and resolves meeting the pacman.
+     *
+     * @param ghost the index of the ghost
+     * @param move the move, an index of {@link #MOVES}; -1 to stay
+     */
+    void moveGhost(int ghost, int move) {
+        if (ghosts[ghost] < 0) {
+            // Back from being eaten
+            ghosts[ghost] = topology.ghostStarts[ghost % topology.ghostStarts.length];
+        } else {
+            int to = move < 0 ? -1 : topology.next[ghosts[ghost] * 4 + move];
+            if (to >= 0) {
+                ghosts[ghost] = to;
+                ghostDirections[ghost] = move;
+            }
+        }
+        if (ghosts[ghost] == pacman) {
+            meet(ghost);
+        }
+    }
+
+    /**
+     * Resolves the pacman and a ghost on the same block.
+     *
+     * @param ghost the index of the ghost
+     */
+    private void meet(int ghost) {
+        if (isScared(ghost)) {
+            scores += Maze.SCORES[Maze.SCARED_GHOST];
+            ghosts[ghost] = -1;
+            ghostDirections[ghost] = -1;
+            scaredUntil[ghost] = 0;
+            ghostNext[ghost] = time + GHOST_RESPAWN;
+        } else {
+            dead = true;
+        }
+    }
+
+    /**
+     * Gets the outcome of the game for the pacman: 0 if it died, 1 if it ate
+     * everything, and in between the more scores it earned.
+     *
+     * @return the outcome of the game for the pacman, between 0 and 1
+     */
+    double pacmanReward() {
+        if (dead) {
+            return 0;
+        }
+        if (itemsLeft == 0) {
+            return 1;
+        }
+        return 0.3 + 0.6 * scores / (scores + 100.0);
+    }
+}
@@ -0,0 +1,140 @@
+package pacman.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import pacman.util.Metrics;
+
+/**
+ * This class finds out when the maze of a client has diverged from the maze of the
+ * server, by comparing the item hashes of the two (see
+ * {@link pacman.model.Maze#getItemHash()}).
+ *
+ * <p>The hashes cannot be compared as they arrive: the server is behind the client
+ * for the agent the client controls and ahead of it for the others. As the items are
+ * only eaten, the number of items left tells how far each side is, so the client
+ * remembers its hash at each of its last {@value #HISTORY} numbers of items left, and
+ * compares the hash of the server with its own at the same number, at once if it
+ * has been there, or once it gets there.
+ *
+ * @version 1.0
+ */
+public final class DivergenceDetector {
+    /** Contains the number of past states remembered. */
+    public static final int HISTORY = 64;
+
+    /** Contains the number of hashes compared. */
+    private static final Metrics.Counter CHECKS = Metrics.counter("network.hash.checks");
+
+    /** Contains the number of hashes found different. */
+    private static final Metrics.Counter DIVERGED =
+        Metrics.counter("network.hash.diverged");
+
+    /** Contains the hashes found different per thousand compared. */
+    private static final Metrics.Gauge DIVERGENCE_RATE =
+        Metrics.gauge("network.hash.divergence");
+
+    /** Contains the hash of the local maze at each number of items left, oldest first. */
+    private final Map<Integer, Long> history = new LinkedHashMap<Integer, Long>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+            return size() > HISTORY;
+        }
+    };
+
+    /** Contains what runs when the maze has diverged. */
+    private final Runnable onDivergence;
+
+    /** Contains the number of items left of the hash of the server not compared yet. */
+    private int pendingItems = -1;
+
+    /** Contains the hash of the server not compared yet. */
+    private long pendingHash;
+
+    /** Contains the number of items left of the local maze. */
+    private int localItems = -1;
+
+    /**
+     * Creates a detector.
+     *
+     * @param onDivergence what runs when the maze has diverged, such as asking the
+     *                     server for a snapshot
+     */
+    public DivergenceDetector(Runnable onDivergence) {
+        this.onDivergence = onDivergence;
+    }
+
+    /**
+     * Forgets the past states, when a game starts or the maze is replaced.
+     */
+    public synchronized void clear() {
+        history.clear();
+        pendingItems = -1;
+        localItems = -1;
+    }
+
+    /**
+     * Remembers the state of the local maze, comparing it with the hash of the server
+     * waiting for it.
+     *
+     * @param itemsLeft the number of items left
+     * @param hash the item hash
+     */
+    public void record(int itemsLeft, long hash) {
+        boolean diverged = false;
+        synchronized (this) {
+            if (itemsLeft == localItems) {
+                return;
+            }
+            localItems = itemsLeft;
+            history.remove(itemsLeft);
+            history.put(itemsLeft, hash);
+            if (pendingItems == itemsLeft) {
+                pendingItems = -1;
+                diverged = compare(hash, pendingHash);
+            }
+        }
+        if (diverged) {
+            onDivergence.run();
+        }
+    }
+
+    /**
+     * Compares a hash of the server with the local one at the same number of items
+     * left, now or once the local maze gets there.
+     *
+     * @param itemsLeft the number of items left on the server
+     * @param hash the item hash on the server
+     */
+    public void expect(int itemsLeft, long hash) {
+        boolean diverged = false;
+        synchronized (this) {
+            Long local = history.get(itemsLeft);
+            if (local != null) {
+                diverged = compare(local, hash);
+            } else if (localItems >= 0 && itemsLeft < localItems) {
+                pendingItems = itemsLeft;
+                pendingHash = hash;
+            }
+            // Otherwise the local maze has gone past what it remembers
+        }
+        if (diverged) {
+            onDivergence.run();
+        }
+    }
+
+    /**
+     * Compares two hashes, counting the result.
+     *
+     * @param local the local hash
+     * @param remote the hash of the server
+     * @return true if they differ
+     */
+    private static boolean compare(long local, long remote) {
+        CHECKS.increment();
+        if (local != remote) {
+            DIVERGED.increment();
+        }
+        DIVERGENCE_RATE.set(DIVERGED.get() * 1000 / CHECKS.get());
+        return local != remote;
+    }
+}
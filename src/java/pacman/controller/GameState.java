@@ -0,0 +1,350 @@
+package pacman.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import pacman.model.Coordinate;
+import pacman.model.Maze;
+import pacman.model.MazeSnapshot;
+import pacman.util.StringUtilities;
+
+/**
+ * This class contains the full state of a game sent by the server to a client that
+ * joins late or has diverged: the foods and pellets eaten, where the agents are, the
+ * scores, the lives and how long the ghosts stay scared.
+ *
+ * <p>The foods and pellets are sent as a delta against the maze as loaded, which both
+ * sides have: one bit per item of the pristine maze, in the order of
+ * {@link #itemsOf(Maze)}, set if the item is eaten. The bits are deflated and
+ * encoded in Base64, so a whole maze takes a few dozen characters. A snapshot is
+ * written as the tokens {@code <score>, <lives>, <item count>, <eaten items>} followed
+ * by one token per agent, {@code <pacman index>~<x>~<y>~<score>} or
+ * {@code <ghost name>~<x>~<y>~<scared time>}.
+ *
+ * @version 1.0
+ */
+public final class GameState {
+    /** Contains the total score. */
+    private final int score;
+
+    /** Contains the lives left. */
+    private final int lives;
+
+    /** Contains the number of items of the pristine maze. */
+    private final int itemCount;
+
+    /** Contains, for each item of the pristine maze, if it is eaten. */
+    private final BitSet eaten;
+
+    /** Contains the location of each pacman. */
+    private final Map<Integer, Coordinate> pacmanLocations;
+
+    /** Contains the score of each pacman. */
+    private final Map<Integer, Integer> pacmanScores;
+
+    /** Contains the location of each ghost. */
+    private final Map<String, Coordinate> ghostLocations;
+
+    /** Contains the scared time left of each ghost. */
+    private final Map<String, Integer> ghostScaredTimes;
+
+    /**
+     * Creates a state.
+     *
+     * @param score the total score
+     * @param lives the lives left
+     * @param itemCount the number of items of the pristine maze
+     * @param eaten for each item of the pristine maze, if it is eaten
+     * @param pacmanLocations the location of each pacman
+     * @param pacmanScores the score of each pacman
+     * @param ghostLocations the location of each ghost
+     * @param ghostScaredTimes the scared time left of each ghost
+     */
+    private GameState(int score, int lives, int itemCount, BitSet eaten,
+                      Map<Integer, Coordinate> pacmanLocations,
+                      Map<Integer, Integer> pacmanScores,
+                      Map<String, Coordinate> ghostLocations,
+                      Map<String, Integer> ghostScaredTimes) {
+        this.score = score;
+        this.lives = lives;
+        this.itemCount = itemCount;
+        this.eaten = eaten;
+        this.pacmanLocations = Collections.unmodifiableMap(pacmanLocations);
+        this.pacmanScores = Collections.unmodifiableMap(pacmanScores);
+        this.ghostLocations = Collections.unmodifiableMap(ghostLocations);
+        this.ghostScaredTimes = Collections.unmodifiableMap(ghostScaredTimes);
+    }
+
+    /**
+     * Takes the state of a game.
+     *
+     * @param pristine the maze as loaded, before any agent moved
+     * @param snapshot the current state of the maze
+     * @param score the total score
+     * @param lives the lives left
+     * @return the state of the game
+     */
+    public static GameState capture(Maze pristine, MazeSnapshot snapshot, int score,
+                                    int lives) {
+        List<Coordinate> items = itemsOf(pristine);
+        BitSet eaten = new BitSet(items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Coordinate item = items.get(i);
+            if (!snapshot.getFoods().contains(item)
+                    && !snapshot.getPellets().contains(item)) {
+                eaten.set(i);
+            }
+        }
+        return new GameState(score, lives, items.size(), eaten,
+            new LinkedHashMap<>(snapshot.getPacmanLocations()),
+            new LinkedHashMap<>(snapshot.getPacmanScores()),
+            new LinkedHashMap<>(snapshot.getGhostLocations()),
+            new LinkedHashMap<>(snapshot.getGhostScaredTimes()));
+    }
+
+    /**
+     * Reads a state from the tokens of a message.
+     *
+     * @param tokens the tokens of the message
+     * @param offset the index of the first token of the state
+     * @return the state of the game
+     * @throws IllegalArgumentException if the tokens are not a state
+     */
+    public static GameState decode(String[] tokens, int offset) {
+        if (tokens.length < offset + 4) {
+            throw new IllegalArgumentException("Snapshot too short");
+        }
+        int itemCount = Integer.parseInt(tokens[offset + 2]);
+        BitSet eaten = BitSet.valueOf(inflate(
+            Base64.getDecoder().decode(tokens[offset + 3]), (itemCount + 7) / 8));
+        Map<Integer, Coordinate> pacmanLocations = new LinkedHashMap<>();
+        Map<Integer, Integer> pacmanScores = new LinkedHashMap<>();
+        Map<String, Coordinate> ghostLocations = new LinkedHashMap<>();
+        Map<String, Integer> ghostScaredTimes = new LinkedHashMap<>();
+        for (int i = offset + 4; i < tokens.length; i++) {
+            String[] agent = tokens[i].split("~");
+            if (agent.length < 4) {
+                throw new IllegalArgumentException("Illegal agent \"" + tokens[i] + "\"");
+            }
+            Coordinate location = new Coordinate(Integer.parseInt(agent[1]),
+                Integer.parseInt(agent[2]));
+            int value = Integer.parseInt(agent[3]);
+            if (StringUtilities.isInteger(agent[0])) {
+                pacmanLocations.put(Integer.parseInt(agent[0]), location);
+                pacmanScores.put(Integer.parseInt(agent[0]), value);
+            } else {
+                ghostLocations.put(agent[0], location);
+                ghostScaredTimes.put(agent[0], value);
+            }
+        }
+        return new GameState(Integer.parseInt(tokens[offset]),
+            Integer.parseInt(tokens[offset + 1]), itemCount, eaten, pacmanLocations,
+            pacmanScores, ghostLocations, ghostScaredTimes);
+    }
+
+    /**
+     * Writes the state as the tokens of a message.
+     *
+     * @return the tokens
+     */
+    public List<String> encode() {
+        List<String> tokens = new ArrayList<>();
+        tokens.add(String.valueOf(score));
+        tokens.add(String.valueOf(lives));
+        tokens.add(String.valueOf(itemCount));
+        tokens.add(Base64.getEncoder().withoutPadding().encodeToString(
+            deflate(eaten.toByteArray())));
+        for (Map.Entry<Integer, Coordinate> pacman: pacmanLocations.entrySet()) {
+            tokens.add(agentToken(String.valueOf(pacman.getKey()), pacman.getValue(),
+                pacmanScores.getOrDefault(pacman.getKey(), 0)));
+        }
+        for (Map.Entry<String, Coordinate> ghost: ghostLocations.entrySet()) {
+            tokens.add(agentToken(ghost.getKey(), ghost.getValue(),
+                ghostScaredTimes.getOrDefault(ghost.getKey(), 0)));
+        }
+        return tokens;
+    }
+
+    /**
+     * Makes the foods and pellets of a maze those of this state, eating or putting
+     * back the items that differ.
+     *
+     * @param pristine the maze as loaded, before any agent moved
+     * @param maze the maze to change
+     * @throws IllegalArgumentException if the state is of another maze
+     * @modifies maze
+     * @effects the items of the maze are those of the state
+     */
+    public void applyItems(Maze pristine, Maze maze) {
+        List<Coordinate> items = itemsOf(pristine);
+        if (items.size() != itemCount) {
+            throw new IllegalArgumentException("The snapshot is of another maze");
+        }
+        for (int i = 0; i < items.size(); i++) {
+            Coordinate item = items.get(i);
+            int content = maze.get(item);
+            if (eaten.get(i)) {
+                if (content == Maze.FOOD || content == Maze.PELLET) {
+                    maze.clearBlock(item.getX(), item.getY());
+                }
+            } else if (content != pristine.get(item)) {
+                maze.restoreBlock(item.getX(), item.getY(), pristine.get(item));
+            }
+        }
+    }
+
+    /**
+     * Gets the items of a maze in the order of the bits of a state.
+     *
+     * @param pristine the maze as loaded, before any agent moved
+     * @return the locations of the foods and pellets, sorted
+     */
+    public static List<Coordinate> itemsOf(Maze pristine) {
+        Set<Coordinate> items = new TreeSet<>(pristine.getFoods());
+        Collections.addAll(items, pristine.getPellets());
+        return new ArrayList<>(items);
+    }
+
+    /**
+     * Gets the total score.
+     *
+     * @return the total score
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Gets the lives left.
+     *
+     * @return the lives left
+     */
+    public int getLives() {
+        return lives;
+    }
+
+    /**
+     * Gets the number of items eaten.
+     *
+     * @return the number of foods and pellets eaten
+     */
+    public int getEatenCount() {
+        return eaten.cardinality();
+    }
+
+    /**
+     * Gets the location of each pacman.
+     *
+     * @return the location of each pacman
+     */
+    public Map<Integer, Coordinate> getPacmanLocations() {
+        return pacmanLocations;
+    }
+
+    /**
+     * Gets the score of each pacman.
+     *
+     * @return the score of each pacman
+     */
+    public Map<Integer, Integer> getPacmanScores() {
+        return pacmanScores;
+    }
+
+    /**
+     * Gets the location of each ghost.
+     *
+     * @return the location of each ghost
+     */
+    public Map<String, Coordinate> getGhostLocations() {
+        return ghostLocations;
+    }
+
+    /**
+     * Gets the scared time left of each ghost.
+     *
+     * @return the scared time left of each ghost
+     */
+    public Map<String, Integer> getGhostScaredTimes() {
+        return ghostScaredTimes;
+    }
+
+    /**
+     * Writes an agent as a token.
+     *
+     * @param name the index of the pacman or the name of the ghost
+     * @param location the location of the agent
+     * @param value the score of the pacman or the scared time of the ghost
+     * @return the token
+     */
+    private static String agentToken(String name, Coordinate location, int value) {
+        return String.join("~", name, String.valueOf(location.getX()),
+            String.valueOf(location.getY()), String.valueOf(value));
+    }
+
+    /**
+     * Compresses bytes.
+     *
+     * @param input the bytes
+     * @return the compressed bytes
+     */
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length + 16);
+            byte[] buffer = new byte[256];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses bytes.
+     *
+     * @param input the compressed bytes
+     * @param maxLength the largest number of bytes expected
+     * @return the bytes
+     * @throws IllegalArgumentException if the bytes are corrupt or too many
+     */
+    private static byte[] inflate(byte[] input, int maxLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            // One more byte to tell a longer output from an exact one
+            byte[] output = new byte[maxLength + 1];
+            int length = 0;
+            while (!inflater.finished() && length < output.length) {
+                int n = inflater.inflate(output, length, output.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated snapshot");
+                }
+                length += n;
+            }
+            if (length > maxLength) {
+                throw new IllegalArgumentException("Snapshot of too many items");
+            }
+            byte[] result = new byte[length];
+            System.arraycopy(output, 0, result, 0, length);
+            return result;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt snapshot: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
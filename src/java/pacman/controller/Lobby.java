@@ -0,0 +1,350 @@
+package pacman.controller;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * This class contains the lobby of a multiplayer game on the host: the agents of the
+ * maze, the connected clients and who controls each agent.
+ *
+ * <p>The lobby is a state machine: it is {@link Phase#CLOSED} until a maze is chosen,
+ * {@link Phase#OPEN} while the players choose their agents, and
+ * {@link Phase#STARTED} during the game, when the agents cannot change hands.
+ *
+ * <p>The whole state is one immutable object swapped with compare-and-set, so it is
+ * changed from the network threads and read from the event dispatch thread without
+ * locks: every operation, such as a client giving up its agent for another one, is
+ * atomic, and a reader always sees a consistent state.
+ *
+ * @version 1.0
+ */
+public final class Lobby {
+    /** Contains the owner standing for the player of the host. */
+    public static final SocketAddress HOST =
+        InetSocketAddress.createUnresolved("host", 0);
+
+    /**
+     * This enum contains the phases of the lobby.
+     */
+    public enum Phase {
+        /** No maze is chosen. */
+        CLOSED,
+
+        /** The players choose their agents. */
+        OPEN,
+
+        /** The game is running. */
+        STARTED
+    }
+
+    /**
+     * This enum contains the results of a selection.
+     */
+    public enum Result {
+        /** The agent is now controlled by the owner. */
+        SELECTED,
+
+        /** The agent is controlled by someone else. */
+        TAKEN,
+
+        /** The maze has no such agent. */
+        UNKNOWN_AGENT,
+
+        /** The agents cannot be chosen now. */
+        CLOSED
+    }
+
+    /**
+     * This class contains a state of the lobby. It is never changed once built.
+     */
+    private static final class State {
+        /** Contains the phase. */
+        private final Phase phase;
+
+        /** Contains the owner of each agent of the maze; {@code null} if free. */
+        private final Map<String, SocketAddress> owners;
+
+        /** Contains the agent of each client and of the host; {@code null} if none. */
+        private final Map<SocketAddress, String> agents;
+
+        /**
+         * Creates a state.
+         *
+         * @param phase the phase
+         * @param owners the owner of each agent of the maze
+         * @param agents the agent of each client and of the host
+         */
+        State(Phase phase, Map<String, SocketAddress> owners,
+              Map<SocketAddress, String> agents) {
+            this.phase = phase;
+            this.owners = owners;
+            this.agents = agents;
+        }
+
+        /**
+         * Copies the state with another phase.
+         *
+         * @param newPhase the phase
+         * @return the new state
+         */
+        State with(Phase newPhase) {
+            return new State(newPhase, owners, agents);
+        }
+    }
+
+    /** Contains the current state. */
+    private final AtomicReference<State> state = new AtomicReference<>(
+        new State(Phase.CLOSED, Collections.emptyMap(), Collections.emptyMap()));
+
+    /**
+     * Opens the lobby for a new maze: all its agents are free. The clients stay.
+     *
+     * @param agentNames the names of the agents of the maze
+     * @modifies state
+     * @effects the phase is {@link Phase#OPEN} and no agent is controlled
+     */
+    public void reset(Collection<String> agentNames) {
+        Map<String, SocketAddress> owners = new LinkedHashMap<>();
+        for (String agentName: agentNames) {
+            owners.put(agentName, null);
+        }
+        update(s -> {
+            Map<SocketAddress, String> agents = new LinkedHashMap<>();
+            for (SocketAddress client: s.agents.keySet()) {
+                if (!client.equals(HOST)) {
+                    agents.put(client, null);
+                }
+            }
+            return new State(Phase.OPEN, owners, agents);
+        });
+    }
+
+    /**
+     * Adds a client without an agent, if not in the lobby yet.
+     *
+     * @param client the address of the client
+     */
+    public void join(SocketAddress client) {
+        update(s -> {
+            if (s.agents.containsKey(client)) {
+                return s;
+            }
+            Map<SocketAddress, String> agents = new LinkedHashMap<>(s.agents);
+            agents.put(client, null);
+            return new State(s.phase, s.owners, agents);
+        });
+    }
+
+    /**
+     * Removes a client, freeing its agent.
+     *
+     * @param client the address of the client
+     * @return the agent the client controlled; {@code null} if none
+     */
+    public String leave(SocketAddress client) {
+        State old = update(s -> {
+            if (!s.agents.containsKey(client)) {
+                return s;
+            }
+            Map<SocketAddress, String> agents = new LinkedHashMap<>(s.agents);
+            String agentName = agents.remove(client);
+            return new State(s.phase, free(s.owners, agentName), agents);
+        });
+        return old.agents.get(client);
+    }
+
+    /**
+     * Moves a client coming back on a new connection to its previous place, with the
+     * agent it controlled. It works in every phase, as the agent does not change hands.
+     *
+     * @param previous the address of the previous connection of the client
+     * @param client the address of the new connection
+     * @return the agent the client controls; {@code null} if none or if the previous
+     *         connection is not in the lobby
+     */
+    public String rejoin(SocketAddress previous, SocketAddress client) {
+        State old = update(s -> {
+            if (!s.agents.containsKey(previous)) {
+                return s;
+            }
+            Map<SocketAddress, String> agents = new LinkedHashMap<>(s.agents);
+            String agentName = agents.remove(previous);
+            agents.put(client, agentName);
+            Map<String, SocketAddress> owners = new LinkedHashMap<>(s.owners);
+            if (agentName != null && owners.containsKey(agentName)) {
+                owners.put(agentName, client);
+            }
+            return new State(s.phase, owners, agents);
+        });
+        return old.agents.get(previous);
+    }
+
+    /**
+     * Gives an agent to an owner, freeing the agent the owner had, unless someone else
+     * controls it. Selecting the agent the owner has already succeeds.
+     *
+     * @param owner the address of the client, or {@link #HOST}
+     * @param agentName the name of the agent
+     * @return the result of the selection
+     */
+    public Result select(SocketAddress owner, String agentName) {
+        Result[] result = new Result[1];
+        update(s -> {
+            if (s.phase != Phase.OPEN) {
+                result[0] = Result.CLOSED;
+                return s;
+            }
+            if (!s.owners.containsKey(agentName)) {
+                result[0] = Result.UNKNOWN_AGENT;
+                return s;
+            }
+            SocketAddress current = s.owners.get(agentName);
+            if (current != null) {
+                result[0] = current.equals(owner) ? Result.SELECTED : Result.TAKEN;
+                return s;
+            }
+            result[0] = Result.SELECTED;
+            Map<String, SocketAddress> owners = free(s.owners, s.agents.get(owner));
+            owners.put(agentName, owner);
+            Map<SocketAddress, String> agents = new LinkedHashMap<>(s.agents);
+            agents.put(owner, agentName);
+            return new State(s.phase, owners, agents);
+        });
+        return result[0];
+    }
+
+    /**
+     * Frees the agent of an owner, if any.
+     *
+     * @param owner the address of the client, or {@link #HOST}
+     */
+    public void release(SocketAddress owner) {
+        update(s -> {
+            String agentName = s.agents.get(owner);
+            if (agentName == null) {
+                return s;
+            }
+            Map<SocketAddress, String> agents = new LinkedHashMap<>(s.agents);
+            agents.put(owner, null);
+            return new State(s.phase, free(s.owners, agentName), agents);
+        });
+    }
+
+    /**
+     * Starts the game, freezing who controls which agent.
+     *
+     * @return true if the lobby was open; false if it was closed or already started
+     */
+    public boolean start() {
+        return update(s -> s.phase == Phase.OPEN ? s.with(Phase.STARTED) : s).phase
+            == Phase.OPEN;
+    }
+
+    /**
+     * Lets the players choose their agents again after a game, keeping their agents.
+     */
+    public void reopen() {
+        update(s -> s.phase == Phase.STARTED ? s.with(Phase.OPEN) : s);
+    }
+
+    /**
+     * Gets the phase of the lobby.
+     *
+     * @return the phase
+     */
+    public Phase getPhase() {
+        return state.get().phase;
+    }
+
+    /**
+     * Gets who controls an agent.
+     *
+     * @param agentName the name of the agent
+     * @return the address of the client, or {@link #HOST}; {@code null} if nobody
+     */
+    public SocketAddress getOwner(String agentName) {
+        return agentName == null ? null : state.get().owners.get(agentName);
+    }
+
+    /**
+     * Checks if an agent is controlled by a client.
+     *
+     * @param agentName the name of the agent
+     * @return true if a client, not the host, controls the agent
+     */
+    public boolean isRemote(String agentName) {
+        SocketAddress owner = getOwner(agentName);
+        return owner != null && !owner.equals(HOST);
+    }
+
+    /**
+     * Gets the agent of a client.
+     *
+     * @param client the address of the client, or {@link #HOST}
+     * @return the name of the agent; {@code null} if none
+     */
+    public String getAgent(SocketAddress client) {
+        return state.get().agents.get(client);
+    }
+
+    /**
+     * Gets the clients that have not chosen an agent.
+     *
+     * @return the addresses of the clients
+     */
+    public Set<SocketAddress> getUnreadyClients() {
+        Set<SocketAddress> unready = new LinkedHashSet<>();
+        for (Map.Entry<SocketAddress, String> entry: state.get().agents.entrySet()) {
+            if (entry.getValue() == null && !entry.getKey().equals(HOST)) {
+                unready.add(entry.getKey());
+            }
+        }
+        return unready;
+    }
+
+    @Override
+    public String toString() {
+        State s = state.get();
+        return s.phase + " " + s.owners;
+    }
+
+    /**
+     * Changes the state atomically, retrying if another thread changed it meanwhile.
+     *
+     * @param change the change, without side effects other than its result, as it may
+     *               run several times
+     * @return the state before the change
+     */
+    private State update(UnaryOperator<State> change) {
+        while (true) {
+            State old = state.get();
+            if (state.compareAndSet(old, change.apply(old))) {
+                return old;
+            }
+        }
+    }
+
+    /**
+     * Copies the owners of the agents, freeing an agent.
+     *
+     * @param owners the owners of the agents
+     * @param agentName the name of the agent to free; {@code null} if none
+     * @return the new owners
+     */
+    private static Map<String, SocketAddress> free(Map<String, SocketAddress> owners,
+                                                   String agentName) {
+        Map<String, SocketAddress> copy = new LinkedHashMap<>(owners);
+        if (agentName != null && copy.containsKey(agentName)) {
+            copy.put(agentName, null);
+        }
+        return copy;
+    }
+}
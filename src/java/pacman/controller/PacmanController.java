@@ -1,29 +1,47 @@
 package pacman.controller;
 
 import golgui.components.GuiMessenger;
+import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.prefs.Preferences;
 import pacman.agents.AbstractAgent;
+import pacman.agents.AgentCommand;
 import pacman.agents.GhostAgent;
 import pacman.agents.PacmanAgent;
 import pacman.algorithms.AlgorithmFactory;
-import pacman.algorithms.AStarAlgorithm;
+import pacman.algorithms.AlgorithmFactory.SupportedAlgorithms;
 import pacman.model.Coordinate;
 import pacman.model.Direction;
 import pacman.model.Maze;
 import pacman.model.MazeFactory;
 import pacman.network.SimpleP2PServer;
+import pacman.network.SpectatorClient;
+import pacman.network.SpectatorHub;
+import pacman.replay.EventJournal;
+import pacman.replay.ReplayRecorder;
+import pacman.util.GameEvents;
 import pacman.util.Logger;
+import pacman.util.Metrics;
 import pacman.util.StringUtilities;
 import pacman.viewer.AgentItemPanel;
 import pacman.viewer.GUIViewer;
@@ -35,6 +53,17 @@ import pacman.viewer.GUIViewer;
  * @version 1.0
  */
 public class PacmanController implements PacmanMazeController, NetworkController {
+    /** Contains the least time in nanoseconds between two requests of a snapshot. */
+    private static final long RESYNC_INTERVAL = 1_000_000_000L;
+
+    /** Contains the time in milliseconds between two tries to reconnect to the host. */
+    private static final long RESUME_RETRY = 500;
+
+    /** Contains the number of events a client receives between two acknowledgements. */
+    private static final int ACK_INTERVAL = 8;
+
+    /** Contains the number of snapshots applied. */
+    private static final Metrics.Counter RESYNCS = Metrics.counter("network.resync");
 
     /** Settings of the application. */
     private final Preferences settings;
@@ -66,13 +95,81 @@ public class PacmanController implements PacmanMazeController, NetworkController
     /** Contains the maze of the game. */
     private Maze maze;
 
+    /**
+     * Contains the algorithms of the loaded maze. Agents using the same algorithm share
+     * one instance, and so share its evaluation context.
+     */
+    private AlgorithmFactory algorithmFactory;
+
+    /** Contains the text of the loaded maze, used to record replays. */
+    private String mazeText;
+
+    /** Contains the loaded maze as it was before the game, to send snapshots. */
+    private Maze pristineMaze;
+
+    /** Contains the start message of the game, when this host is the server. */
+    private String[] startMessage;
+
+    /** Contains the time in nanoseconds a snapshot was last requested. */
+    private long lastResyncRequest;
+
+    /** Contains the detector comparing the maze with the server, on a client. */
+    private final DivergenceDetector divergence =
+        new DivergenceDetector(this::requestResync);
+
+    /** Contains the number of visits since the game started, on the server. */
+    private final AtomicInteger visits = new AtomicInteger();
+
+    /** Contains the number of visits between two item hashes sent to the clients. */
+    private int hashInterval;
+
+    /** Contains the seed of {@link #random} for the current game. */
+    private long seed;
+
+    /** Contains the random generator used to place the agents. */
+    private Random random;
+
+    /** Contains the recorder of the current game; {@code null} if not recording. */
+    private volatile ReplayRecorder recorder;
+
     /** Contains a flag if the start of game is with additional parameters. */
     private boolean isAdvancedStart = false;
 
     /** The center host of the game. */
     private SocketAddress center;
-    private final HashMap<String, SocketAddress> agentNameClientAddressMap;
-    private final HashMap<SocketAddress, String> clientAddressToAgentNameMap;
+
+    /** Contains who controls each agent, when this host is the server. */
+    private final Lobby lobby;
+
+    /** Contains the hub streaming the game to spectators; {@code null} if none. */
+    private SpectatorHub spectatorHub;
+
+    /** Contains the stream of the game watched; {@code null} if not spectating. */
+    private SpectatorClient spectator;
+
+    /** Contains the sessions of the clients, when this host is the server. */
+    private final SessionTable sessions = new SessionTable();
+
+    /** Contains the timer closing the sessions of the clients that did not come back. */
+    private final Timer sessionTimer = new Timer("session-expiry", true);
+
+    /** Contains the token of the session with the host; {@code null} if none. */
+    private volatile String sessionToken;
+
+    /** Contains how long the host keeps the session after a drop, in milliseconds. */
+    private long sessionGrace;
+
+    /** Contains the number of events of the session received from the host. */
+    private final AtomicLong sessionEvents = new AtomicLong();
+
+    /** Contains the address of the host connected to, to come back to it. */
+    private String centerAddress;
+
+    /** Contains the port of the host connected to, to come back to it. */
+    private int centerPort;
+
+    /** Contains whether this client is reconnecting to the host after a drop. */
+    private volatile boolean resuming;
     private String localhostSelectedAgentName;
     private boolean networkMapLoaded = false;
     private String prevSelectedAgentName;
@@ -119,6 +216,34 @@ public class PacmanController implements PacmanMazeController, NetworkController
 
         /** GAME_OVER, {pacman_wins}. */
         static final String GAME_OVER = "[GAME_OVER]";
+
+        /** SNAPSHOT, {score}, {lives}, {item_count}, {eaten_items}, {agent}~{x}~{y}~... */
+        static final String SNAPSHOT = "[SNAPSHOT]";
+
+        /** RESYNC. */
+        static final String RESYNC = "[RESYNC]";
+
+        /** HASH, {items_left}, {item_hash}. */
+        static final String HASH = "[HASH]";
+
+        /** SESSION, {token}, {grace_millis}. */
+        static final String SESSION = "[SESSION]";
+
+        /** ACK, {events_received}. */
+        static final String ACK = "[ACK]";
+
+        /** RESUME, {token}, {events_received}. */
+        static final String RESUME = "[RESUME]";
+
+        /** RESUME_GOOD, {agent_name}, {events_before_replay}. */
+        static final String RESUME_GOOD = "[RESUME_GOOD]";
+
+        /** RESUME_FAIL, {reason}. */
+        static final String RESUME_FAIL = "[RESUME_FAIL]";
+
+        /** Contains the tags of the events kept for a client while it reconnects. */
+        static final Set<String> SESSION_EVENTS = new HashSet<>(
+            Arrays.asList(SCARE, EAT, DIE, GAME_OVER));
     }
 
     /**
@@ -132,14 +257,19 @@ public class PacmanController implements PacmanMazeController, NetworkController
         this.lives = new AtomicInteger(totalLives);
         try {
             this.server = new SimpleP2PServer(this);
+            if (settings.getBoolean("UseUdp", false)) {
+                this.server.openUdp();
+            }
         } catch (IOException | SecurityException e) {
             (new GuiMessenger(null)).notification("Trying to connect to the "
                 + "internet...");
             (new GuiMessenger(null)).alert("Network connection failed. "
                 + "Please check your network and firewall settings");
         }
-        agentNameClientAddressMap = new HashMap<>();
-        clientAddressToAgentNameMap = new HashMap<>();
+        lobby = new Lobby();
+        // Flush the replay even if the game is killed rather than closed
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stopRecording,
+            "replay-flush"));
     }
 
     /**
@@ -173,11 +303,16 @@ public class PacmanController implements PacmanMazeController, NetworkController
         }
         try {
             if (!preConfiguredMazeName.equals(MazeFactory.CUSTOM_MAZE_NAME)) {
-                this.maze = MazeFactory.readBoardFromString(
-                    MazeFactory.PreConfiguredMaze.ITEMS.get(preConfiguredMazeName));
+                this.mazeText = MazeFactory.PreConfiguredMaze.ITEMS.get(preConfiguredMazeName);
             } else {
-                this.maze = MazeFactory.readBoardFromFile(filename);
+                this.mazeText = new String(Files.readAllBytes(Paths.get(filename)),
+                    StandardCharsets.UTF_8);
             }
+            this.maze = MazeFactory.readBoardFromString(mazeText);
+            this.pristineMaze = MazeFactory.readBoardFromString(mazeText);
+            this.algorithmFactory = new AlgorithmFactory(maze);
+            this.seed = ThreadLocalRandom.current().nextLong();
+            this.random = new Random(seed);
             return true;
         } catch (IOException e) {
             if (this.view != null) {
@@ -209,9 +344,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
         boolean ret = this.load(preConfiguredMazeName, filename);
         if (ret) {
             networkMapLoaded = true;
-            agentNameClientAddressMap.clear();
-            clientAddressToAgentNameMap.clear();
-            updateAgentNameMap();
+            resetLobby();
             if (isServerStarted()) {
                 try {
                     server.broadcast(Tags.MAP, preConfiguredMazeName);
@@ -256,7 +389,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
      */
     @Override
     public boolean isConnected() {
-        return server.hasConnection();
+        return server.hasConnection() || isSpectating() || resuming;
     }
 
     /**
@@ -335,7 +468,8 @@ public class PacmanController implements PacmanMazeController, NetworkController
     }
 
     /**
-     * This method gets called once an incoming connection is sent to the host.
+     * This method gets called once an incoming connection is sent to the host. The user
+     * is asked unless connections are accepted automatically ("AutoAccept").
      *
      * @param remoteSocketAddress the address of the remote side
      * @param port                the port of the remote side
@@ -343,17 +477,29 @@ public class PacmanController implements PacmanMazeController, NetworkController
      */
     @Override
     public boolean incomingConnection(SocketAddress remoteSocketAddress, int port) {
-        if (this.view.ask(
+        if (settings.getBoolean("AutoAccept", false) || this.view.ask(
             "<html>Receive an incoming connection from " + remoteSocketAddress.toString()
                 + ". <br> Do you want to connect?</html>")) {
             this.view.incomingConnection(remoteSocketAddress, port);
+            lobby.join(remoteSocketAddress);
             try {
                 this.server.confirmConnection(remoteSocketAddress);
+                long grace = TimeUnit.SECONDS.toMillis(
+                    settings.getInt("ResumeGrace", 15));
+                if (grace > 0) {
+                    this.server.send(remoteSocketAddress, Tags.SESSION,
+                        sessions.open(remoteSocketAddress), String.valueOf(grace));
+                }
                 if (networkMapLoaded) {
                     this.view.askForInput(1);
                     this.server.send(remoteSocketAddress, Tags.MAP,
                         settings.get("Maze", null));
                 }
+                if (lobby.getPhase() == Lobby.Phase.STARTED && startMessage != null) {
+                    // Joining a running game: catch up with it, watching
+                    this.server.send(remoteSocketAddress, startMessage);
+                    this.sendSnapshot(remoteSocketAddress);
+                }
             } catch (IOException e) {
                 this.view.alert("Failed to send confirm due to poor "
                     + "connection.");
@@ -375,6 +521,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
      */
     @Override
     public void closeServer() {
+        sessions.clear();
         try {
             this.server.closeAllConnection();
         } catch (IOException | SecurityException e) {
@@ -434,6 +581,8 @@ public class PacmanController implements PacmanMazeController, NetworkController
             this.view.alert(e.getMessage());
             return false;
         }
+        this.centerAddress = address;
+        this.centerPort = portNum;
         if (updateViewer) {
             this.view.updateConnectTo(address, portNum);
         }
@@ -447,7 +596,11 @@ public class PacmanController implements PacmanMazeController, NetworkController
     public void hostCloseConnection() {
         try {
             Logger.printlnf("Try to close all connection");
+            sessionToken = null;
+            resuming = false;
+            sessions.clear();
             this.server.closeAllConnection();
+            stopSpectating();
             if (isServerStarted()) {
                 this.server.restartListening();
                 this.view.restartListening();
@@ -469,21 +622,30 @@ public class PacmanController implements PacmanMazeController, NetworkController
     public void remoteCloseConnection(SocketAddress remoteSocketAddress) {
         if (remoteSocketAddress.equals(center)) {
             center = null;
-            view.alert(StringUtilities.makeHTML("Pacman connection is not available at "
-                + "this <br> time. Please try again later."));
-            view.reenableJoin();
-            restartGame();
+            spectator = null;
+            if (sessionToken != null && !resuming && centerAddress != null) {
+                resuming = true;
+                Thread thread = new Thread(this::resumeSession, "session-resume");
+                thread.setDaemon(true);
+                thread.start();
+                return;
+            }
+            resuming = false;
+            sessionToken = null;
+            hostLost();
         }
+        if (suspendSession(remoteSocketAddress)) {
+            return;
+        }
+        sessions.close(remoteSocketAddress);
         this.view.alert(
             "The remote side " + remoteSocketAddress + " has closed the connection.");
         // Set the agent to auto mode
-        String agentName = clientAddressToAgentNameMap.get(remoteSocketAddress);
+        String agentName = lobby.leave(remoteSocketAddress);
         if (agentName == null) {
-            Logger.err("clientAddressToAgentNameMap = %s", clientAddressToAgentNameMap);
+            Logger.err("lobby = %s", lobby);
             return;
         }
-        clientAddressToAgentNameMap.remove(remoteSocketAddress);
-        agentNameClientAddressMap.put(agentName, null);
         if (agentName.equals(PacmanAgent.NAMES[0])) {
             view.aiTakeOver(0);
         } else {
@@ -507,6 +669,21 @@ public class PacmanController implements PacmanMazeController, NetworkController
         }
         String[] tokens = message.split(",");
         String tag = tokens[0];
+        if (resuming && !tag.equals(Tags.RESUME_GOOD) && !tag.equals(Tags.RESUME_FAIL)) {
+            // Sent before the host took this client back; resent after
+            return;
+        }
+        if (Tags.SESSION_EVENTS.contains(tag) && from.equals(center)
+                && sessionToken != null) {
+            long received = sessionEvents.incrementAndGet();
+            if (received % ACK_INTERVAL == 0) {
+                try {
+                    server.send(center, Tags.ACK, String.valueOf(received));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
         switch (tag) {
             case SimpleP2PServer.Tags.CONFIRM_TAG:
                 // Remote confirmed
@@ -526,56 +703,30 @@ public class PacmanController implements PacmanMazeController, NetworkController
                     return;
                 }
                 String remoteSelectedAgentName = tokens[1];
-                if (agentNameClientAddressMap.get(remoteSelectedAgentName) != null) {
-                    // this agent is already chosen by someone
-                    if (!agentNameClientAddressMap.get(remoteSelectedAgentName)
-                        .equals(from)) {
-                        // the agent is selected by another client
-                        try {
-                            server.send(from,
-                                Tags.SELECT_FAIL, remoteSelectedAgentName,
-                                agentNameClientAddressMap.get(remoteSelectedAgentName)
-                                    .toString());
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    return;
+                String reason;
+                switch (lobby.select(from, remoteSelectedAgentName)) {
+                    case SELECTED:
+                        reason = null;
+                        break;
+                    case TAKEN:
+                        SocketAddress owner = lobby.getOwner(remoteSelectedAgentName);
+                        reason = Lobby.HOST.equals(owner) ? "host"
+                            : String.valueOf(owner);
+                        break;
+                    case UNKNOWN_AGENT:
+                        reason = "unknown host";
+                        break;
+                    default:
+                        reason = "game started";
                 }
-                if (remoteSelectedAgentName.equals(localhostSelectedAgentName)) {
-                    // this agent is selected by local host
-                    try {
+                try {
+                    if (reason == null) {
+                        server.send(from, Tags.SELECT_GOOD, remoteSelectedAgentName);
+                    } else {
                         server.send(from, Tags.SELECT_FAIL, remoteSelectedAgentName,
-                            "host");
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    return;
-                }
-                if (!agentNameClientAddressMap.containsKey(remoteSelectedAgentName)) {
-                    // Unknown agent selected
-                    updateAgentNameMap();
-                    Logger.printlnf("Update maps due to unknown agent name.");
-                    if (!agentNameClientAddressMap.containsKey(remoteSelectedAgentName)) {
-                        try {
-                            server.send(from, Tags.SELECT_FAIL, remoteSelectedAgentName,
-                                "unknown host");
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                        return;
+                            reason);
                     }
-                }
-                String oldAgentName = clientAddressToAgentNameMap.get(from);
-                if (oldAgentName != null) {
-                    agentNameClientAddressMap.put(oldAgentName, null);
-                }
-                agentNameClientAddressMap.put(remoteSelectedAgentName, from);
-                clientAddressToAgentNameMap.put(from, remoteSelectedAgentName);
-                try {
-                    server.send(from, Tags.SELECT_GOOD, remoteSelectedAgentName);
                 } catch (IOException e) {
-                    Logger.err("");
                     e.printStackTrace();
                 }
                 break;
@@ -613,15 +764,17 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 final String direction = tokens[1];
                 String agentName = tokens[2];
                 boolean isPacman = StringUtilities.isInteger(agentName);
+                if (!isKnownAgent(agentName)) {
+                    requestResync();
+                    break;
+                }
                 boolean shouldJump = false;
                 if (isServerNode()) {
                     // Only cares the info from who controls this agent
                     if (isPacman) {
-                        shouldJump = !from.equals(
-                            agentNameClientAddressMap.get(PacmanAgent.NAMES[0]));
+                        shouldJump = !from.equals(lobby.getOwner(PacmanAgent.NAMES[0]));
                     } else {
-                        shouldJump =
-                            !from.equals(agentNameClientAddressMap.get(agentName));
+                        shouldJump = !from.equals(lobby.getOwner(agentName));
                     }
                 }
                 if (shouldJump) {
@@ -639,12 +792,14 @@ public class PacmanController implements PacmanMazeController, NetworkController
                     for (SocketAddress connection : server.getClientList()) {
                         if (!connection.equals(from)) {
                             try {
-                                server.send(connection, message);
+                                server.sendUnreliable(connection,
+                                    Tags.DIRECTION + agentName, message);
                             } catch (IOException e) {
                                 e.printStackTrace();
                             }
                         }
                     }
+                    server.stream(message);
                 }
                 String x = tokens[3];
                 String y = tokens[4];
@@ -657,18 +812,19 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 }
                 agentName = tokens[1];
                 isPacman = StringUtilities.isInteger(agentName);
+                if (!isKnownAgent(agentName)) {
+                    requestResync();
+                    break;
+                }
                 x = tokens[2];
                 y = tokens[3];
                 shouldJump = false;
                 if (isServerNode()) {
                     // Only cares the info from who controls this agent
                     if (isPacman) {
-                        shouldJump =
-                            !from.equals(
-                                agentNameClientAddressMap.get(PacmanAgent.NAMES[0]));
+                        shouldJump = !from.equals(lobby.getOwner(PacmanAgent.NAMES[0]));
                     } else {
-                        shouldJump =
-                            !from.equals(agentNameClientAddressMap.get(agentName));
+                        shouldJump = !from.equals(lobby.getOwner(agentName));
                     }
                 }
                 if (shouldJump) {
@@ -687,12 +843,14 @@ public class PacmanController implements PacmanMazeController, NetworkController
                     for (SocketAddress connection : server.getClientList()) {
                         if (!connection.equals(from)) {
                             try {
-                                server.send(connection, message);
+                                server.sendUnreliable(connection,
+                                    Tags.LOCATION + agentName, message);
                             } catch (IOException e) {
                                 e.printStackTrace();
                             }
                         }
                     }
+                    server.stream(message);
                 }
                 break;
             case Tags.SCARE:
@@ -704,6 +862,11 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 int scaredTime = Integer.parseInt(tokens[2]);
                 maze.setGhostScared(ghostName, scaredTime);
                 view.setGhostScared(ghostName, scaredTime);
+                EventJournal.record(EventJournal.TYPE_SCARE, ghostName, scaredTime, 1, 0);
+                ReplayRecorder replay = recorder;
+                if (replay != null) {
+                    replay.scare(ghostName, scaredTime);
+                }
                 break;
             case Tags.EAT:
                 if (tokens.length < 2) {
@@ -711,6 +874,11 @@ public class PacmanController implements PacmanMazeController, NetworkController
                     return;
                 }
                 ghostName = tokens[1];
+                EventJournal.record(EventJournal.TYPE_EAT, ghostName, 1, 0, 0);
+                replay = recorder;
+                if (replay != null) {
+                    replay.eat(ghostName);
+                }
                 view.resetAgent(ghostName);
                 break;
             case Tags.DIE:
@@ -720,6 +888,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 }
                 int pacmanIndex = Integer.parseInt(tokens[1]);
                 int life = Integer.parseInt(tokens[2]);
+                EventJournal.record(EventJournal.TYPE_DIE, tokens[1], life, 1, 0);
 
                 this.view.resetAgent(pacmanIndex);
                 lives.set(life);
@@ -735,24 +904,92 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 boolean result = Boolean.parseBoolean(tokens[1]);
                 gameOver(result);
                 break;
+            case Tags.RESYNC:
+                if (isServerNode() && isAdvancedStart) {
+                    sendSnapshot(from);
+                }
+                break;
+            case Tags.SNAPSHOT:
+                this.applySnapshot(tokens);
+                break;
+            case Tags.HASH:
+                if (tokens.length < 3) {
+                    Logger.err("Length < 3");
+                    return;
+                }
+                if (isClientNode() && isAdvancedStart) {
+                    divergence.expect(Integer.parseInt(tokens[1]),
+                        Long.parseLong(tokens[2]));
+                }
+                break;
+            case Tags.SESSION:
+                if (tokens.length < 3) {
+                    Logger.err("Length < 3");
+                    return;
+                }
+                sessionToken = tokens[1];
+                sessionGrace = Long.parseLong(tokens[2]);
+                sessionEvents.set(0);
+                break;
+            case Tags.ACK:
+                if (tokens.length < 2) {
+                    Logger.err("Length < 2");
+                    return;
+                }
+                sessions.acknowledge(from, Long.parseLong(tokens[1]));
+                break;
+            case Tags.RESUME:
+                if (tokens.length < 3) {
+                    Logger.err("Length < 3");
+                    return;
+                }
+                this.resumeClient(from, tokens[1], Long.parseLong(tokens[2]));
+                break;
+            case Tags.RESUME_GOOD:
+                if (tokens.length < 3) {
+                    Logger.err("Length < 3");
+                    return;
+                }
+                sessionEvents.set(Long.parseLong(tokens[2]));
+                resuming = false;
+                view.notification("Reconnected to the host");
+                break;
+            case Tags.RESUME_FAIL:
+                Logger.err("Cannot resume the session: %s",
+                    tokens.length < 2 ? "unknown" : tokens[1]);
+                resuming = false;
+                sessionToken = null;
+                try {
+                    server.closeConnection(from);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                center = null;
+                hostLost();
+                break;
             default:
         }
     }
 
     /**
-     * Updates the map containing the relationship between each agent and the clients.
+     * Opens the lobby for the agents of the current maze, with the connected clients.
      */
-    private void updateAgentNameMap() {
+    private void resetLobby() {
+        List<String> agentNames = new ArrayList<>();
         for (int i = 0; i < Math.min(maze.getPacmanStartLocation().length,
             PacmanAgent.NAMES.length); i++) {
-            agentNameClientAddressMap.putIfAbsent(PacmanAgent.NAMES[i], null);
+            agentNames.add(PacmanAgent.NAMES[i]);
         }
         for (int i = 0; i < Math.min(maze.getGhostsStartLocation().length,
             GhostAgent.NAMES.length); i++) {
-            agentNameClientAddressMap.putIfAbsent(GhostAgent.NAMES[i], null);
+            agentNames.add(GhostAgent.NAMES[i]);
         }
+        lobby.reset(agentNames);
         for (SocketAddress address: server.getClientList()) {
-            clientAddressToAgentNameMap.putIfAbsent(address, null);
+            lobby.join(address);
+        }
+        if (localhostSelectedAgentName != null) {
+            lobby.select(Lobby.HOST, localhostSelectedAgentName);
         }
     }
 
@@ -772,7 +1009,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
      * @param agentName the name of the agent selected
      */
     public void sendAgentSelection(final String agentName) {
-        if (center != null) {
+        if (center != null && !isSpectating()) {
             try {
                 server.send(center, Tags.SELECT, agentName);
             } catch (IOException e) {
@@ -781,6 +1018,418 @@ public class PacmanController implements PacmanMazeController, NetworkController
         }
     }
 
+    // ==================================================================================
+    //                                     SPECTATORS
+    // ==================================================================================
+
+    /**
+     * Starts streaming the games of this host to spectators. A spectator relays the
+     * game it watches with this hub instead.
+     *
+     * @param port the port the spectators connect to; 0 for a free port
+     * @param fanOut the largest number of spectators sent to directly
+     * @return the port the spectators connect to; 0 if the hub cannot be started
+     */
+    public int startSpectatorHub(int port, int fanOut) {
+        if (spectatorHub != null) {
+            return spectatorHub.getPort();
+        }
+        SpectatorHub hub = new SpectatorHub(fanOut,
+            new HashSet<>(Arrays.asList(Tags.START, Tags.DIRECTION, Tags.LOCATION,
+                Tags.SCARE, Tags.EAT, Tags.DIE, Tags.GAME_OVER)),
+            new HashSet<>(Arrays.asList(Tags.DIRECTION, Tags.LOCATION, Tags.DIE)),
+            Tags.START, this::snapshotMessage);
+        try {
+            hub.start(port);
+        } catch (IOException e) {
+            Logger.println("ERROR:" + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+        spectatorHub = hub;
+        if (!isSpectating()) {
+            server.setSpectatorHub(hub);
+        }
+        return hub.getPort();
+    }
+
+    /**
+     * Watches the game streamed by a host or by another spectator, without playing.
+     * The game is relayed to the spectators of this side, if it streams.
+     *
+     * @param address the address of the host or spectator
+     * @param port the port it streams on
+     * @return if the game is watched
+     */
+    public boolean spectate(String address, int port) {
+        stopSpectating();
+        try {
+            this.server.closeAllConnection();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // A spectator takes no player, and only relays what it receives
+        this.server.closeServer();
+        this.server.setSpectatorHub(null);
+        SpectatorClient client = new SpectatorClient(this, spectatorHub);
+        try {
+            this.center = client.connect(address, port);
+        } catch (IOException | IllegalArgumentException e) {
+            this.view.alert("Cannot watch the game at " + address + ":" + port + ": "
+                + e.getMessage());
+            return false;
+        }
+        this.spectator = client;
+        this.localhostSelectedAgentName = null;
+        return true;
+    }
+
+    /**
+     * Checks if this side watches a game without playing.
+     *
+     * @return true if spectating
+     */
+    public boolean isSpectating() {
+        return spectator != null;
+    }
+
+    /**
+     * Stops watching the game, if spectating.
+     */
+    private void stopSpectating() {
+        SpectatorClient client = spectator;
+        if (client != null) {
+            spectator = null;
+            center = null;
+            client.close();
+        }
+    }
+
+    // ==================================================================================
+    //                                   STATE TRANSFER
+    // ==================================================================================
+
+    /**
+     * Sends the full state of the running game to a client.
+     *
+     * @param client the address of the client
+     */
+    private void sendSnapshot(SocketAddress client) {
+        String message = snapshotMessage();
+        if (message == null) {
+            return;
+        }
+        try {
+            server.send(client, message);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Makes the message of the full state of the running game, also sent to the
+     * spectators joining during the game.
+     *
+     * @return the message; {@code null} if no game runs
+     */
+    private String snapshotMessage() {
+        final Maze current = maze;
+        if (current == null || pristineMaze == null) {
+            return null;
+        }
+        List<String> message = new ArrayList<>();
+        message.add(Tags.SNAPSHOT);
+        message.addAll(GameState.capture(pristineMaze, current.snapshot(), scoresTotal,
+            lives.get()).encode());
+        return String.join(",", message);
+    }
+
+    /**
+     * Asks the server for the full state of the game, when this client finds it has
+     * diverged. Requests closer than a second to the previous one are ignored.
+     */
+    public void requestResync() {
+        if (!isClientNode() || isSpectating() || center == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastResyncRequest != 0 && now - lastResyncRequest < RESYNC_INTERVAL) {
+            return;
+        }
+        lastResyncRequest = now;
+        Logger.printlnf("Diverged from the server, asking for a snapshot");
+        try {
+            server.send(center, Tags.RESYNC);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replaces the state of the game with a snapshot sent by the server. The agent
+     * controlled on this side stays where it is.
+     *
+     * @param tokens tokens of the network message
+     */
+    private void applySnapshot(final String[] tokens) {
+        if (maze == null || pristineMaze == null || !isAdvancedStart) {
+            Logger.err("Snapshot received out of a game");
+            return;
+        }
+        GameState state;
+        try {
+            state = GameState.decode(tokens, 1);
+            state.applyItems(pristineMaze, maze);
+        } catch (IllegalArgumentException e) {
+            Logger.err("Illegal snapshot: %s", e.getMessage());
+            return;
+        }
+        RESYNCS.increment();
+        divergence.clear();
+        int scoresDiff = state.getScore() - scoresTotal;
+        scoresTotal = state.getScore();
+        view.updateScore(scoresTotal, scoresDiff);
+        lives.set(state.getLives());
+        view.updateLives(state.getLives());
+        for (Map.Entry<Integer, Integer> pacman: state.getPacmanScores().entrySet()) {
+            maze.setPacmanScore(pacman.getKey(), pacman.getValue());
+        }
+        for (Map.Entry<Integer, Coordinate> pacman
+                : state.getPacmanLocations().entrySet()) {
+            if (!PacmanAgent.NAMES[0].equals(localhostSelectedAgentName)
+                    && isKnownAgent(String.valueOf(pacman.getKey()))) {
+                view.immediateLocationChange(String.valueOf(pacman.getValue().getX()),
+                    String.valueOf(pacman.getValue().getY()),
+                    String.valueOf(pacman.getKey()));
+            }
+        }
+        Map<String, Integer> scaredTimes = maze.getGhostScaredTimes();
+        for (Map.Entry<String, Coordinate> ghost: state.getGhostLocations().entrySet()) {
+            String ghostName = ghost.getKey();
+            if (!isKnownAgent(ghostName)) {
+                continue;
+            }
+            if (!ghostName.equals(localhostSelectedAgentName)) {
+                view.immediateLocationChange(String.valueOf(ghost.getValue().getX()),
+                    String.valueOf(ghost.getValue().getY()), ghostName);
+            }
+            // A scare that ended on the server but not here ends too
+            int scaredTime = state.getGhostScaredTimes().getOrDefault(ghostName, 0);
+            boolean wasScared = scaredTimes.getOrDefault(ghostName, 0) > 0;
+            if (scaredTime > 0) {
+                maze.setGhostScared(ghostName, scaredTime);
+                view.setGhostScared(ghostName, scaredTime);
+            } else {
+                maze.resetGhost(ghostName);
+                if (wasScared) {
+                    view.setGhostScared(ghostName, 0);
+                }
+            }
+        }
+        view.repaint();
+        Logger.printlnf("Applied a snapshot: %d items eaten, score %d",
+            state.getEatenCount(), scoresTotal);
+    }
+
+    /**
+     * Sends the item hash to the clients every {@link #hashInterval} visits on the
+     * server, or remembers it to compare with the hashes of the server on a client.
+     */
+    private void exchangeHash() {
+        if (!isAdvancedStart || maze == null) {
+            return;
+        }
+        long hash;
+        int itemsLeft;
+        do {
+            hash = maze.getItemHash();
+            itemsLeft = maze.getFoodsNum() + maze.getPelletsNum();
+        } while (hash != maze.getItemHash());
+        if (isServerNode()) {
+            if (visits.incrementAndGet() % hashInterval == 0) {
+                try {
+                    server.broadcast(Tags.HASH, String.valueOf(itemsLeft),
+                        String.valueOf(hash));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } else if (isClientNode()) {
+            divergence.record(itemsLeft, hash);
+        }
+    }
+
+    /**
+     * Checks if an agent is in the game on this side.
+     *
+     * @param agentName the index of the pacman or the name of the ghost
+     * @return true if the agent is in the maze
+     */
+    private boolean isKnownAgent(String agentName) {
+        if (maze == null) {
+            return false;
+        }
+        if (StringUtilities.isInteger(agentName)) {
+            return maze.getPacmanLocation().containsKey(Integer.parseInt(agentName));
+        }
+        return maze.getGhostsLocation().containsKey(agentName);
+    }
+
+    // ==================================================================================
+    //                                       SESSIONS
+    // ==================================================================================
+
+    /**
+     * Sends an event of the game to every client, keeping it for the sessions so a
+     * client reconnecting gets it too.
+     *
+     * @param message the event. Multiple parts of the message will be joined by a
+     *                comma
+     * @throws IOException if an I/O error occurs when sending
+     */
+    private void broadcastEvent(String... message) throws IOException {
+        // A client taking back its session gets the event after the ones it missed
+        Set<SocketAddress> replaying = sessions.record(String.join(",", message));
+        if (replaying.isEmpty()) {
+            server.broadcast(message);
+            return;
+        }
+        server.stream(message);
+        for (SocketAddress client: server.getClientList()) {
+            if (!replaying.contains(client)) {
+                server.send(client, message);
+            }
+        }
+    }
+
+    /**
+     * Keeps the agent of a client whose connection dropped during a game for the
+     * grace window ("ResumeGrace", in seconds), then gives it to the AI.
+     *
+     * @param client the address of the connection of the client
+     * @return true if the session is suspended; false if the client cannot come back
+     */
+    private boolean suspendSession(SocketAddress client) {
+        long grace = TimeUnit.SECONDS.toMillis(settings.getInt("ResumeGrace", 15));
+        if (grace <= 0 || lobby.getPhase() != Lobby.Phase.STARTED
+                || lobby.getAgent(client) == null
+                || !sessions.suspend(client, TimeUnit.MILLISECONDS.toNanos(grace))) {
+            return false;
+        }
+        view.notification("Lost the connection with " + client + ", waiting for it to "
+            + "come back");
+        sessionTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                expireSession(client);
+            }
+        }, grace);
+        return true;
+    }
+
+    /**
+     * Gives the agent of a client to the AI if it has not come back.
+     *
+     * @param client the address of the connection the client had
+     */
+    private void expireSession(SocketAddress client) {
+        if (!sessions.expire(client)) {
+            return;
+        }
+        this.view.notification("The remote side " + client + " did not come back.");
+        String agentName = lobby.leave(client);
+        if (agentName == null) {
+            return;
+        }
+        if (agentName.equals(PacmanAgent.NAMES[0])) {
+            view.aiTakeOver(0);
+        } else {
+            view.aiTakeOver(agentName);
+        }
+        view.updateClientListPanel();
+    }
+
+    /**
+     * Takes back a client reconnecting with the token of its session: it controls its
+     * agent again and gets the events it missed, then a snapshot of the game.
+     *
+     * @param client the address of the new connection of the client
+     * @param token the token of the session
+     * @param received the number of events the client has received
+     */
+    private void resumeClient(SocketAddress client, String token, long received) {
+        try {
+            SessionTable.Resumed resumed = sessions.resume(token, client, received);
+            if (resumed == null) {
+                server.send(client, Tags.RESUME_FAIL, "unknown or expired session");
+                return;
+            }
+            // The previous connection may not have been found dead yet
+            server.closeConnection(resumed.getPrevious());
+            String agentName = lobby.rejoin(resumed.getPrevious(), client);
+            Logger.printlnf("%s came back as %s with %s", client,
+                resumed.getPrevious(), agentName);
+            server.send(client, Tags.RESUME_GOOD, String.valueOf(agentName),
+                String.valueOf(resumed.getBase()));
+            List<String> events = resumed.getEvents();
+            while (!events.isEmpty()) {
+                for (String event: events) {
+                    server.send(client, event);
+                }
+                // The events recorded meanwhile were not sent to this client live
+                events = sessions.catchUp(client);
+            }
+            if (lobby.getPhase() == Lobby.Phase.STARTED && isAdvancedStart) {
+                this.sendSnapshot(client);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        view.updateClientListPanel();
+    }
+
+    /**
+     * Reconnects to the host after the connection dropped, until the host takes this
+     * client back or the grace window of the session is over.
+     */
+    private void resumeSession() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sessionGrace);
+        view.notification("Lost the connection with the host, reconnecting...");
+        while (resuming && System.nanoTime() < deadline) {
+            try {
+                SocketAddress host = server.connectTo(centerAddress, centerPort);
+                center = host;
+                server.send(host, Tags.RESUME, sessionToken,
+                    String.valueOf(sessionEvents.get()));
+                // The host answers with RESUME_GOOD or RESUME_FAIL
+                return;
+            } catch (IOException | SecurityException | IllegalArgumentException e) {
+                Logger.printlnf("Cannot reconnect yet: %s", e.getMessage());
+            }
+            try {
+                Thread.sleep(RESUME_RETRY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (resuming) {
+            resuming = false;
+            sessionToken = null;
+            hostLost();
+        }
+    }
+
+    /**
+     * Tells the user the host is gone and goes back to the lobby.
+     */
+    private void hostLost() {
+        view.alert(StringUtilities.makeHTML("Pacman connection is not available at "
+            + "this <br> time. Please try again later."));
+        view.reenableJoin();
+        restartGame();
+    }
+
     // ==================================================================================
     //                                    QUICK START GAME
     // ==================================================================================
@@ -795,6 +1444,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
         if (this.load(mazeName, filename)) {
             view.setTitle(mazeName);
             view.start(maze);
+            this.startRecording();
             this.addPacman();
             this.addGhosts();
         }
@@ -806,11 +1456,13 @@ public class PacmanController implements PacmanMazeController, NetworkController
     public void addPacman() {
         List<Coordinate> pacman = Arrays.asList(maze.getPacmanStartLocation());
         // Use Fisher-Yates shuffle algorithm to get a random order list
-        Collections.shuffle(pacman, ThreadLocalRandom.current());
+        Collections.shuffle(pacman, random);
         this.maze.pacmanVisit(0, pacman.get(0).getX(),
             pacman.get(0).getY());
+        this.recordVisit("0", pacman.get(0).getX(), pacman.get(0).getY());
         this.view.addPacman(maze, pacman.get(0).getX(), pacman.get(0).getY(), 0,
-            new AStarAlgorithm(maze), true, false);
+            algorithmFactory.createAlgorithm(SupportedAlgorithms.A_STAR_ALGORITHM), true,
+            false);
     }
 
     /**
@@ -819,12 +1471,18 @@ public class PacmanController implements PacmanMazeController, NetworkController
     public void addGhosts() {
         List<Coordinate> ghosts = Arrays.asList(maze.getGhostsStartLocation());
         // Use Fisher-Yates shuffle algorithm to get a random order list
-        Collections.shuffle(ghosts, ThreadLocalRandom.current());
+        Collections.shuffle(ghosts, random);
         for (int i = 0; i < Math.min(ghosts.size(), GhostAgent.NAMES.length); i++) {
             this.maze.ghostVisit(GhostAgent.NAMES[i], ghosts.get(i).getX(),
                 ghosts.get(i).getY());
+            this.recordVisit(GhostAgent.NAMES[i], ghosts.get(i).getX(),
+                ghosts.get(i).getY());
+            this.algorithmFactory.bindGhost(GhostAgent.NAMES[i],
+                SupportedAlgorithms.A_STAR_ALGORITHM);
             this.view.addGhost(maze, ghosts.get(i).getX(), ghosts.get(i).getY(),
-                GhostAgent.NAMES[i], new AStarAlgorithm(maze), false, false);
+                GhostAgent.NAMES[i],
+                algorithmFactory.createAlgorithm(SupportedAlgorithms.A_STAR_ALGORITHM),
+                false, false);
         }
     }
 
@@ -861,18 +1519,18 @@ public class PacmanController implements PacmanMazeController, NetworkController
             return;
         }
         if (server.isListening() && server.hasConnection()) {
-            for (SocketAddress address : clientAddressToAgentNameMap.keySet()) {
-                if (clientAddressToAgentNameMap.get(address) == null) {
-                    view.notification("User " + address + " is not ready.");
-                    try {
-                        server.send(address, Tags.HURRY);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                    return;
+            for (SocketAddress address : lobby.getUnreadyClients()) {
+                view.notification("User " + address + " is not ready.");
+                try {
+                    server.send(address, Tags.HURRY);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
+                return;
             }
         }
+        // From now on, a selection fails instead of changing the agents in the game
+        lobby.start();
         view.askForInput(1);
         isAdvancedStart = true;
         // Start the game
@@ -884,24 +1542,26 @@ public class PacmanController implements PacmanMazeController, NetworkController
             view.setTitle(mazeName);
         }
         view.start(maze);
+        this.startRecording();
 
         // Add ghosts and pacman
-        AlgorithmFactory algorithmFactory = new AlgorithmFactory(maze);
         List<String> info = new ArrayList<>(Arrays.asList(Tags.START, mazeName));
 
         List<Coordinate> pacman = Arrays.asList(maze.getPacmanStartLocation());
         List<Coordinate> ghosts = Arrays.asList(maze.getGhostsStartLocation());
         // Use Fisher-Yates shuffle algorithm to get a random order list
-        Collections.shuffle(pacman, ThreadLocalRandom.current());
-        Collections.shuffle(ghosts, ThreadLocalRandom.current());
+        Collections.shuffle(pacman, random);
+        Collections.shuffle(ghosts, random);
         int pacmanNum = 0;
         int ghostNum = 0;
         for (AgentItemPanel selectionItem : agentItemPanels.values()) {
             boolean isSelf = selectedName.equals(selectionItem.getAgentName());
             if (Arrays.asList(PacmanAgent.NAMES).contains(selectionItem.getAgentName())) {
-                boolean isNetwork = agentNameClientAddressMap.get(PacmanAgent.NAMES[0]) != null;
+                boolean isNetwork = lobby.isRemote(PacmanAgent.NAMES[0]);
                 this.maze.pacmanVisit(pacmanNum, pacman.get(pacmanNum).getX(),
                     pacman.get(pacmanNum).getY());
+                this.recordVisit(String.valueOf(pacmanNum), pacman.get(pacmanNum).getX(),
+                    pacman.get(pacmanNum).getY());
                 this.view.addPacman(maze,
                     pacman.get(pacmanNum).getX(), pacman.get(pacmanNum).getY(), pacmanNum,
                     algorithmFactory.createAlgorithm(selectionItem.getAlgorithmName()),
@@ -913,9 +1573,13 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 pacmanNum++;
             } else {
                 String agentName = selectionItem.getAgentName();
-                boolean isNetwork = agentNameClientAddressMap.get(agentName) != null;
+                boolean isNetwork = lobby.isRemote(agentName);
                 this.maze.ghostVisit(agentName, ghosts.get(ghostNum).getX(),
                     ghosts.get(ghostNum).getY());
+                this.recordVisit(agentName, ghosts.get(ghostNum).getX(),
+                    ghosts.get(ghostNum).getY());
+                this.algorithmFactory.bindGhost(agentName,
+                    isSelf || isNetwork ? null : selectionItem.getAlgorithmName());
                 this.view.addGhost(maze, ghosts.get(ghostNum).getX(),
                     ghosts.get(ghostNum).getY(),
                     agentName,
@@ -929,9 +1593,12 @@ public class PacmanController implements PacmanMazeController, NetworkController
             }
         }
 
-        if (server.isListening() && server.hasConnection()) {
+        startMessage = info.toArray(new String[0]);
+        visits.set(0);
+        hashInterval = Math.max(1, settings.getInt("HashInterval", 20));
+        if ((server.isListening() && server.hasConnection()) || server.isStreaming()) {
             try {
-                server.broadcast(info.toArray(new String[0]));
+                server.broadcast(startMessage);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -957,11 +1624,12 @@ public class PacmanController implements PacmanMazeController, NetworkController
         load(mazeName, null);
         isAdvancedStart = true;
         view.start(maze);
+        this.startRecording();
 
+        divergence.clear();
         Logger.printlnf("Server started game, the local side is controlling %s",
             localhostSelectedAgentName);
         // Add ghosts and pacman
-        AlgorithmFactory algorithmFactory = new AlgorithmFactory(maze);
         for (int i = 2; i < tokens.length; i++) {
             String[] tokens2 = tokens[i].split("~");
             String agentName = tokens2[0];
@@ -971,8 +1639,9 @@ public class PacmanController implements PacmanMazeController, NetworkController
             Logger.printlnf("Adding %s at (%d, %d) using %s", agentName, x, y, algorithm);
             boolean isSelf = agentName.equals(localhostSelectedAgentName);
             if (StringUtilities.isInteger(agentName)) {
-                isSelf = localhostSelectedAgentName.equals(PacmanAgent.NAMES[0]);
+                isSelf = PacmanAgent.NAMES[0].equals(localhostSelectedAgentName);
                 this.maze.pacmanVisit(Integer.parseInt(agentName), x, y);
+                this.recordVisit(agentName, x, y);
                 this.view.addPacman(maze, x, y, Integer.parseInt(agentName),
                     algorithmFactory.createAlgorithm(algorithm),
                     isSelf, !isSelf);
@@ -981,6 +1650,8 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 }
             } else {
                 this.maze.ghostVisit(agentName, x, y);
+                this.recordVisit(agentName, x, y);
+                this.algorithmFactory.bindGhost(agentName, algorithm);
                 this.view.addGhost(maze, x, y, agentName,
                     algorithmFactory.createAlgorithm(algorithm), isSelf, !isSelf);
                 if (isSelf) {
@@ -988,6 +1659,9 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 }
             }
         }
+        if (isSpectating()) {
+            view.setTitle(mazeName + " (Spectating)");
+        }
         view.repaint();
     }
 
@@ -1002,10 +1676,55 @@ public class PacmanController implements PacmanMazeController, NetworkController
         view.preview(maze);
     }
 
+    /**
+     * Starts recording the game into a replay log if enabled in the settings
+     * ("RecordReplay"). Must be called after the maze is loaded and before any agent
+     * is added.
+     */
+    private void startRecording() {
+        EventJournal.record(EventJournal.TYPE_START,
+            !isConnected() ? "local" : isServerNode() ? "server" : "client", (int) seed,
+            (int) (seed >>> 32), mazeText == null ? 0 : mazeText.hashCode());
+        stopRecording();
+        if (!settings.getBoolean("RecordReplay", false)) {
+            return;
+        }
+        File file = new File(settings.get("ReplayDirectory", "replays"),
+            System.currentTimeMillis() + ".pmr");
+        try {
+            this.recorder = new ReplayRecorder(file, maze, mazeText, seed);
+            Logger.printlnf("Recording replay into %s", file);
+        } catch (IOException e) {
+            Logger.err("Failed to record replay: %s", e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops recording the game, if recording.
+     */
+    private void stopRecording() {
+        ReplayRecorder current = recorder;
+        if (current != null) {
+            current.close();
+            recorder = null;
+        }
+    }
+
+    /**
+     * Gets the listener that is notified of every command applied to an agent.
+     *
+     * @return the recorder of the current game; {@code null} if not recording
+     */
+    public AgentCommand.Listener getCommandListener() {
+        return recorder;
+    }
+
     /**
      * Goes back to the main menu and stops the game.
      */
     public void backToMainMenu() {
+        stopRecording();
         view.stopGame();
         lives = new AtomicInteger(totalLives);
         if (isAdvancedStart) {
@@ -1019,8 +1738,10 @@ public class PacmanController implements PacmanMazeController, NetworkController
      * Restarts the game with same configuration after gameplay ends.
      */
     private void restartGame() {
+        stopRecording();
         view.stopGame();
         this.lives = new AtomicInteger(totalLives);
+        lobby.reopen();
         if (isAdvancedStart) {
             this.showAdvancedStart();
         } else {
@@ -1032,6 +1753,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
      * Exits the game.
      */
     public void exit() {
+        stopRecording();
         view.stopGame();
         settings.putInt("TotalLives", totalLives);
         System.exit(0);
@@ -1055,6 +1777,35 @@ public class PacmanController implements PacmanMazeController, NetworkController
     @Override
     public void agentVisit(AbstractAgent agent, final int x,
         final int y) {
+        GameEvents.AgentVisit event = new GameEvents.AgentVisit();
+        event.begin();
+        int scoresDiff = visit(agent, x, y);
+        exchangeHash();
+        EventJournal.record(EventJournal.TYPE_VISIT, agent.getAgentName(), x, y,
+            scoresDiff);
+        if (scoresDiff != 0) {
+            EventJournal.record(EventJournal.TYPE_SCORE, agent.getAgentName(),
+                scoresTotal, scoresDiff, lives.get());
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.agent = agent.getAgentName();
+            event.x = x;
+            event.y = y;
+            event.scores = scoresDiff;
+            event.commit();
+        }
+    }
+
+    /**
+     * Handles an agent visiting a block, as told by {@link #agentVisit}.
+     *
+     * @param agent the agent of the move
+     * @param x the current x coordinate of agent
+     * @param y the current y coordinate of agent
+     * @return the scores earned
+     */
+    private int visit(AbstractAgent agent, final int x, final int y) {
         int scoresDiff = 0;
         if (agent instanceof PacmanAgent) {
             // If pellets is hit, scare the ghosts and turn pacman into ghost buster
@@ -1065,28 +1816,36 @@ public class PacmanController implements PacmanMazeController, NetworkController
             // Update location and scores
             scoresDiff += maze.pacmanVisit(((PacmanAgent) agent).getIndex(),
                 x, y);
+            recordVisit(ReplayRecorder.nameOf(agent), x, y);
             // Check if the curr location is the same as any ghost
-            for (String ghostName: maze.getVisibleGhostNames()) {
-                if (maze.getGhostsLocation().get(ghostName).equals(new Coordinate(x, y))) {
-                    if (maze.getGhostScaredTimes().get(ghostName) > 0) {
+            // Only the small agent maps are copied, not the whole maze
+            final Map<String, Coordinate> ghostLocations = maze.getGhostsLocation();
+            final Map<String, Integer> scaredTimes = maze.getGhostScaredTimes();
+            for (String ghostName: ghostLocations.keySet()) {
+                if (ghostLocations.get(ghostName).equals(new Coordinate(x, y))) {
+                    if (scaredTimes.getOrDefault(ghostName, 0) > 0) {
                         this.pacmanEat(ghostName);
                     } else {
                         this.pacmanDie(((PacmanAgent) agent).getIndex());
-                        return;
+                        return 0;
                     }
                 }
             }
         } else if (agent instanceof GhostAgent) {
             // Update location
             maze.ghostVisit(((GhostAgent) agent).getAgentName(), x, y);
+            recordVisit(ReplayRecorder.nameOf(agent), x, y);
             // If meet with a pacman
-            for (Integer pacmanIndex: maze.getPacmanLocation().keySet()) {
-                if (maze.getPacmanLocation().get(pacmanIndex).equals(new Coordinate(x, y))) {
-                    if (maze.getGhostScaredTimes().get(((GhostAgent) agent).getAgentName()) > 0) {
+            final Map<Integer, Coordinate> pacmanLocations = maze.getPacmanLocation();
+            final Map<String, Integer> scaredTimes = maze.getGhostScaredTimes();
+            for (Integer pacmanIndex: pacmanLocations.keySet()) {
+                if (pacmanLocations.get(pacmanIndex).equals(new Coordinate(x, y))) {
+                    if (scaredTimes
+                            .getOrDefault(((GhostAgent) agent).getAgentName(), 0) > 0) {
                         this.pacmanEat(((GhostAgent) agent).getAgentName());
                     } else {
                         this.pacmanDie(pacmanIndex);
-                        return;
+                        return 0;
                     }
                 }
             }
@@ -1097,12 +1856,27 @@ public class PacmanController implements PacmanMazeController, NetworkController
             if (maze.getFoodsNum() + maze.getPelletsNum() == 0) {
                 this.gameOver(true);
                 try {
-                    server.broadcast(Tags.GAME_OVER, String.valueOf(true));
+                    broadcastEvent(Tags.GAME_OVER, String.valueOf(true));
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             }
         }
+        return scoresDiff;
+    }
+
+    /**
+     * Records an agent entering a block, if recording.
+     *
+     * @param agentName the index of the pacman or the name of the ghost
+     * @param x the current x coordinate of agent
+     * @param y the current y coordinate of agent
+     */
+    private void recordVisit(String agentName, final int x, final int y) {
+        final ReplayRecorder replay = recorder;
+        if (replay != null) {
+            replay.visit(agentName, x, y);
+        }
     }
 
     /**
@@ -1111,7 +1885,9 @@ public class PacmanController implements PacmanMazeController, NetworkController
      * @param win if the user wins
      */
     public void gameOver(boolean win) {
+        EventJournal.record(EventJournal.TYPE_GAME_OVER, null, win ? 1 : 0, 0, 0);
         this.view.stopMoving();
+        stopRecording();
         Logger.printlnf("Game over");
         this.view.gameOver(win);
         int choice = this.view.showResultDialog(win);
@@ -1138,8 +1914,13 @@ public class PacmanController implements PacmanMazeController, NetworkController
             for (String ghostName : maze.getVisibleGhostNames()) {
                 maze.setGhostScared(ghostName, scaredTime);
                 view.setGhostScared(ghostName, scaredTime);
+                EventJournal.record(EventJournal.TYPE_SCARE, ghostName, scaredTime, 0, 0);
+                final ReplayRecorder replay = recorder;
+                if (replay != null) {
+                    replay.scare(ghostName, scaredTime);
+                }
                 try {
-                    server.broadcast(Tags.SCARE, ghostName, String.valueOf(scaredTime));
+                    broadcastEvent(Tags.SCARE, ghostName, String.valueOf(scaredTime));
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -1156,6 +1937,8 @@ public class PacmanController implements PacmanMazeController, NetworkController
      */
     private void pacmanDie(Integer pacmanIndex) {
         if (!isConnected() || isServerNode()) {
+            EventJournal.record(EventJournal.TYPE_DIE, String.valueOf(pacmanIndex),
+                lives.get() - 1, 0, 0);
             if (lives.get() > 1) {
                 lives.decrementAndGet();
                 this.view.resetAgent(pacmanIndex);
@@ -1163,14 +1946,14 @@ public class PacmanController implements PacmanMazeController, NetworkController
                 this.view.notification("Pacman died! It has " + lives.get() + " "
                     + "lives left");
                 try {
-                    server.broadcast(Tags.DIE, String.valueOf(pacmanIndex),
+                    broadcastEvent(Tags.DIE, String.valueOf(pacmanIndex),
                         String.valueOf(lives.get()));
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
             } else {
                 try {
-                    server.broadcast(Tags.GAME_OVER, String.valueOf(false));
+                    broadcastEvent(Tags.GAME_OVER, String.valueOf(false));
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -1188,9 +1971,14 @@ public class PacmanController implements PacmanMazeController, NetworkController
      */
     private void pacmanEat(String ghostName) {
         if (!isConnected() || isServerNode()) {
+            EventJournal.record(EventJournal.TYPE_EAT, ghostName, 0, 0, 0);
+            final ReplayRecorder replay = recorder;
+            if (replay != null) {
+                replay.eat(ghostName);
+            }
             view.resetAgent(ghostName);
             try {
-                server.broadcast(Tags.EAT, ghostName);
+                broadcastEvent(Tags.EAT, ghostName);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -1206,6 +1994,10 @@ public class PacmanController implements PacmanMazeController, NetworkController
      */
     @Override
     public void removeAgent(AbstractAgent agent) {
+        final ReplayRecorder replay = recorder;
+        if (replay != null) {
+            replay.remove(ReplayRecorder.nameOf(agent));
+        }
         if (agent instanceof PacmanAgent) {
             maze.removePacman(((PacmanAgent) agent).getIndex());
         } else if (agent instanceof GhostAgent) {
@@ -1222,24 +2014,25 @@ public class PacmanController implements PacmanMazeController, NetworkController
     @Override
     public void notifyDirectionChange(final Direction d, final AbstractAgent agent,
         int x, int y) {
-        if (!isConnected()) {
+        if (!isConnected() && !server.isStreaming()) {
             return;
         }
         try {
             if (agent instanceof PacmanAgent) {
-                if (!localhostSelectedAgentName.equals("pacman")) {
+                if (!PacmanAgent.NAMES[0].equals(localhostSelectedAgentName)) {
                     return;
                 }
-                this.server.broadcast(Tags.DIRECTION, d.name(),
-                    String.valueOf(((PacmanAgent) agent).getIndex()),
-                    String.valueOf(x), String.valueOf(y));
+                String index = String.valueOf(((PacmanAgent) agent).getIndex());
+                this.server.broadcastUnreliable(Tags.DIRECTION + index, Tags.DIRECTION,
+                    d.name(), index, String.valueOf(x), String.valueOf(y));
             } else {
                 if (!localhostSelectedAgentName.equals(((GhostAgent) agent).getAgentName())) {
                     return;
                 }
-                this.server.broadcast(Tags.DIRECTION, d.name(),
-                    ((GhostAgent) agent).getAgentName(),
-                    String.valueOf(x), String.valueOf(y));
+                String ghostName = ((GhostAgent) agent).getAgentName();
+                this.server.broadcastUnreliable(Tags.DIRECTION + ghostName,
+                    Tags.DIRECTION, d.name(), ghostName, String.valueOf(x),
+                    String.valueOf(y));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -1255,7 +2048,7 @@ public class PacmanController implements PacmanMazeController, NetworkController
      */
     @Override
     public void notifyLocationChange(final int x, final int y, final AbstractAgent agent) {
-        if (!isConnected()) {
+        if (!isConnected() && !server.isStreaming()) {
             return;
         }
         if (isClientNode()) {
@@ -1270,14 +2063,9 @@ public class PacmanController implements PacmanMazeController, NetworkController
             }
         }
         try {
-            if (agent instanceof PacmanAgent) {
-                this.server.broadcast(Tags.LOCATION,
-                    String.valueOf(((PacmanAgent) agent).getIndex()),
-                    String.valueOf(x), String.valueOf(y));
-            } else {
-                this.server.broadcast(Tags.LOCATION, ((GhostAgent) agent).getAgentName(),
-                    String.valueOf(x), String.valueOf(y));
-            }
+            String agentName = agent.getAgentName();
+            this.server.broadcastUnreliable(Tags.LOCATION + agentName, Tags.LOCATION,
+                agentName, String.valueOf(x), String.valueOf(y));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -1291,7 +2079,10 @@ public class PacmanController implements PacmanMazeController, NetworkController
      * @param updateView if the view should be updated
      */
     public void userSelected(final String agentName, boolean updateView) {
-        if (agentNameClientAddressMap.get(agentName) != null) {
+        if (agentName == null) {
+            lobby.release(Lobby.HOST);
+        } else if (lobby.getPhase() == Lobby.Phase.OPEN
+                && lobby.select(Lobby.HOST, agentName) == Lobby.Result.TAKEN) {
             view.notification("Cannot select agent \"" + agentName + "\": someone "
                 + "else is playing it.");
             view.unselectPlayer(agentName);
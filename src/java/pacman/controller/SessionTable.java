@@ -0,0 +1,338 @@
+package pacman.controller;
+
+import java.net.SocketAddress;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import pacman.util.Metrics;
+
+/**
+ * This class contains the sessions of the clients of a host, so a client whose
+ * connection drops can come back within a grace window and take its agent again.
+ *
+ * <p>Each client gets a random token when it connects. The host keeps, for each
+ * session, the events of the game sent since the client last acknowledged them
+ * (at most {@value #MAX_BUFFERED}). When the connection of a client drops during a
+ * game, its session is suspended instead of closed: the events still go into it, and
+ * a client presenting the token from a new connection before the window is over gets
+ * them back, with the number of events it had received telling where to start.
+ *
+ * <p>The events are sent outside the table. While the events of a resumed session
+ * are sent again, the session is replaying: the new events are not sent to it live,
+ * but handed out by {@link #catchUp(SocketAddress)} after the others, so the client
+ * gets each event once and in order.
+ *
+ * @version 1.0
+ */
+public final class SessionTable {
+    /** Contains the largest number of events kept for a session. */
+    public static final int MAX_BUFFERED = 256;
+
+    /** Contains the number of sessions resumed. */
+    private static final Metrics.Counter RESUMED =
+        Metrics.counter("network.session.resumed");
+
+    /** Contains the number of suspended sessions whose window ran out. */
+    private static final Metrics.Counter EXPIRED =
+        Metrics.counter("network.session.expired");
+
+    /** Contains the number of events dropped from full sessions. */
+    private static final Metrics.Counter OVERFLOWED =
+        Metrics.counter("network.session.overflowed");
+
+    /**
+     * This class contains the session of a client.
+     */
+    private static final class Session {
+        /** Contains the token of the session. */
+        private final String token;
+
+        /** Contains the address of the last connection of the client. */
+        private SocketAddress client;
+
+        /** Contains whether the connection of the client dropped. */
+        private boolean suspended;
+
+        /** Contains when the client can no longer come back, in nanoseconds. */
+        private long deadline;
+
+        /** Contains the events not acknowledged yet, oldest first. */
+        private final Deque<String> events = new ArrayDeque<>();
+
+        /** Contains the number of events before the first one kept. */
+        private long base;
+
+        /** Contains whether the events are being sent again to the client. */
+        private boolean replaying;
+
+        /** Contains the number of events handed out to be sent again. */
+        private long replayed;
+
+        /**
+         * Creates a session.
+         *
+         * @param token the token of the session
+         * @param client the address of the connection of the client
+         */
+        Session(String token, SocketAddress client) {
+            this.token = token;
+            this.client = client;
+        }
+
+        /**
+         * Forgets the events the client has received.
+         *
+         * @param received the number of events the client has received
+         */
+        void acknowledge(long received) {
+            while (base < received && !events.isEmpty()) {
+                events.pollFirst();
+                base++;
+            }
+        }
+    }
+
+    /**
+     * This class contains a session taken back by a client.
+     */
+    public static final class Resumed {
+        /** Contains the address of the previous connection of the client. */
+        private final SocketAddress previous;
+
+        /** Contains the number of events before the first one to send again. */
+        private final long base;
+
+        /** Contains the events to send again, oldest first. */
+        private final List<String> events;
+
+        /**
+         * Creates a resumed session.
+         *
+         * @param previous the address of the previous connection of the client
+         * @param base the number of events before the first one to send again
+         * @param events the events to send again
+         */
+        private Resumed(SocketAddress previous, long base, List<String> events) {
+            this.previous = previous;
+            this.base = base;
+            this.events = Collections.unmodifiableList(events);
+        }
+
+        /**
+         * Gets the address of the previous connection of the client.
+         *
+         * @return the address of the previous connection
+         */
+        public SocketAddress getPrevious() {
+            return previous;
+        }
+
+        /**
+         * Gets the number of events before the first one to send again. It is larger
+         * than the number the client received if the events between were dropped.
+         *
+         * @return the number of events
+         */
+        public long getBase() {
+            return base;
+        }
+
+        /**
+         * Gets the events to send again.
+         *
+         * @return the events, oldest first
+         */
+        public List<String> getEvents() {
+            return events;
+        }
+    }
+
+    /** Contains the generator of the tokens. */
+    private final SecureRandom random = new SecureRandom();
+
+    /** Contains the sessions by token. */
+    private final Map<String, Session> byToken = new HashMap<>();
+
+    /** Contains the sessions by the address of the connection of the client. */
+    private final Map<SocketAddress, Session> byClient = new HashMap<>();
+
+    /**
+     * Opens a session for a new client, closing the one it had with this address.
+     *
+     * @param client the address of the connection of the client
+     * @return the token of the session
+     */
+    public synchronized String open(SocketAddress client) {
+        close(client);
+        byte[] bytes = new byte[16];
+        String token;
+        do {
+            random.nextBytes(bytes);
+            StringBuilder builder = new StringBuilder(32);
+            for (byte b: bytes) {
+                builder.append(String.format("%02x", b));
+            }
+            token = builder.toString();
+        } while (byToken.containsKey(token));
+        Session session = new Session(token, client);
+        byToken.put(token, session);
+        byClient.put(client, session);
+        return token;
+    }
+
+    /**
+     * Closes the session of a client, if any.
+     *
+     * @param client the address of the connection of the client
+     */
+    public synchronized void close(SocketAddress client) {
+        Session session = byClient.remove(client);
+        if (session != null) {
+            byToken.remove(session.token);
+        }
+    }
+
+    /**
+     * Closes all the sessions.
+     */
+    public synchronized void clear() {
+        byToken.clear();
+        byClient.clear();
+    }
+
+    /**
+     * Keeps an event of the game for every session, suspended ones included.
+     *
+     * @param event the event, as sent
+     * @return the addresses of the clients the event must not be sent to live, as
+     *         their sessions are replaying
+     */
+    public synchronized Set<SocketAddress> record(String event) {
+        Set<SocketAddress> replaying = new HashSet<>();
+        for (Session session: byToken.values()) {
+            session.events.addLast(event);
+            if (session.events.size() > MAX_BUFFERED) {
+                session.events.pollFirst();
+                session.base++;
+                OVERFLOWED.increment();
+            }
+            if (session.replaying) {
+                replaying.add(session.client);
+            }
+        }
+        return replaying;
+    }
+
+    /**
+     * Forgets the events a client has received.
+     *
+     * @param client the address of the connection of the client
+     * @param received the number of events the client has received
+     */
+    public synchronized void acknowledge(SocketAddress client, long received) {
+        Session session = byClient.get(client);
+        if (session != null) {
+            session.acknowledge(received);
+        }
+    }
+
+    /**
+     * Suspends the session of a client whose connection dropped.
+     *
+     * @param client the address of the connection of the client
+     * @param grace how long the client can come back, in nanoseconds
+     * @return true if the client has a session
+     */
+    public synchronized boolean suspend(SocketAddress client, long grace) {
+        Session session = byClient.get(client);
+        if (session == null) {
+            return false;
+        }
+        session.suspended = true;
+        session.replaying = false;
+        session.deadline = System.nanoTime() + grace;
+        return true;
+    }
+
+    /**
+     * Closes the session of a client if it is still suspended, once its window is
+     * over.
+     *
+     * @param client the address of the connection the client had
+     * @return true if the session was suspended and is now closed
+     */
+    public synchronized boolean expire(SocketAddress client) {
+        Session session = byClient.get(client);
+        if (session == null || !session.suspended) {
+            return false;
+        }
+        close(client);
+        EXPIRED.increment();
+        return true;
+    }
+
+    /**
+     * Gives a session back to a client coming back on a new connection. The session
+     * opened for the new connection is closed. The session is replaying until
+     * {@link #catchUp(SocketAddress)} has nothing more to hand out.
+     *
+     * @param token the token of the session
+     * @param client the address of the new connection
+     * @param received the number of events the client has received
+     * @return the session taken back; {@code null} if the token is unknown or its
+     *         window is over
+     */
+    public synchronized Resumed resume(String token, SocketAddress client,
+                                       long received) {
+        Session session = byToken.get(token);
+        if (session == null || session.client.equals(client)
+                || (session.suspended && System.nanoTime() > session.deadline)) {
+            return null;
+        }
+        close(client);
+        SocketAddress previous = session.client;
+        byClient.remove(previous);
+        session.client = client;
+        session.suspended = false;
+        byClient.put(client, session);
+        session.acknowledge(received);
+        session.replaying = true;
+        session.replayed = session.base + session.events.size();
+        RESUMED.increment();
+        return new Resumed(previous, session.base, new ArrayList<>(session.events));
+    }
+
+    /**
+     * Hands out the events recorded for a replaying session since they were last
+     * handed out. Once there is none, the session is no longer replaying and the new
+     * events are sent to the client live.
+     *
+     * @param client the address of the new connection of the client
+     * @return the events to send, oldest first; empty if the client is caught up
+     */
+    public synchronized List<String> catchUp(SocketAddress client) {
+        Session session = byClient.get(client);
+        if (session == null || !session.replaying) {
+            return Collections.emptyList();
+        }
+        List<String> late = new ArrayList<>();
+        Iterator<String> events = session.events.iterator();
+        for (long i = session.base; events.hasNext(); i++) {
+            String event = events.next();
+            if (i >= session.replayed) {
+                late.add(event);
+            }
+        }
+        session.replayed = session.base + session.events.size();
+        session.replaying = !late.isEmpty();
+        return late;
+    }
+}
@@ -1,9 +1,14 @@
 package pacman.model;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Represents a direction of moving in the maze.
  *
- * @version 1.1
+ * @version 1.2
  */
 public enum Direction {
     /** Direction up. */
@@ -17,6 +22,81 @@ public enum Direction {
     /** Stops. */
     STOP;
 
+    /** Contains the mask of the four moves, without {@link #STOP}. */
+    public static final int MOVES_MASK = 0b01111;
+
+    /** Contains the mask of all the directions, including {@link #STOP}. */
+    public static final int ALL_MASK = 0b11111;
+
+    /** Contains all the directions, so that {@link #values()} is not cloned. */
+    private static final Direction[] VALUES = values();
+
+    /**
+     * Contains the directions of each mask (bit {@code i} for the direction of ordinal
+     * {@code i}), in the order of {@link #values()}.
+     */
+    private static final Direction[][] BY_MASK = new Direction[ALL_MASK + 1][];
+
+    /** Contains the unmodifiable list of the directions of each mask. */
+    private static final List<List<Direction>> LISTS_BY_MASK;
+
+    static {
+        List<List<Direction>> lists = new ArrayList<>();
+        for (int mask = 0; mask <= ALL_MASK; mask++) {
+            Direction[] directions = new Direction[Integer.bitCount(mask)];
+            int i = 0;
+            for (Direction d: VALUES) {
+                if ((mask & d.getMask()) != 0) {
+                    directions[i++] = d;
+                }
+            }
+            BY_MASK[mask] = directions;
+            lists.add(Collections.unmodifiableList(Arrays.asList(directions)));
+        }
+        LISTS_BY_MASK = Collections.unmodifiableList(lists);
+    }
+
+    /**
+     * Gets the direction of an ordinal without cloning {@link #values()}.
+     *
+     * @param ordinal the ordinal of the direction
+     * @return the direction
+     */
+    public static Direction of(int ordinal) {
+        return VALUES[ordinal];
+    }
+
+    /**
+     * Gets the directions of a mask. The array is shared and must not be modified.
+     *
+     * @param mask a mask of directions, bit {@code i} for the direction of ordinal
+     *             {@code i}
+     * @return the directions, in the order of {@link #values()}
+     */
+    public static Direction[] fromMask(int mask) {
+        return BY_MASK[mask & ALL_MASK];
+    }
+
+    /**
+     * Gets the directions of a mask as an unmodifiable list, shared by all callers.
+     *
+     * @param mask a mask of directions, bit {@code i} for the direction of ordinal
+     *             {@code i}
+     * @return the directions, in the order of {@link #values()}
+     */
+    public static List<Direction> listFromMask(int mask) {
+        return LISTS_BY_MASK.get(mask & ALL_MASK);
+    }
+
+    /**
+     * Gets the bit of the direction in a mask of directions.
+     *
+     * @return {@code 1 << ordinal()}
+     */
+    public int getMask() {
+        return 1 << ordinal();
+    }
+
     /**
      * Gets the next direction in clockwise rotation.
      *
@@ -0,0 +1,372 @@
+package pacman.model;
+
+import java.util.Arrays;
+
+/**
+ * This class is a field containing, for every block of a maze, the length of the
+ * shortest walk (around walls) to the closest of a set of sources, for example the
+ * foods or the normal ghosts. It is built once by a multi-source BFS and then
+ * repaired incrementally when a source is added or removed, so reading it is always
+ * O(1) and updating it only touches the blocks whose closest source changed.
+ *
+ * <p>Every block remembers the source it is closest to, and the blocks of a source
+ * are connected to it. Removing a source only visits the blocks that belonged to it,
+ * flooding them from the source; they are then re-reached from the blocks around
+ * them, in order of distance. Adding a source runs a BFS from it that stops as soon
+ * as it is no closer than what is already known.
+ *
+ * <p>The field is owned by a {@link Maze}, which is the only one that updates it.
+ * The readers never lock: they read an immutable {@link View}, copied from the field
+ * by the first reader after an update. All methods are thread safe.
+ *
+ * @version 1.0
+ */
+public class DistanceField {
+    /** Contains the distance of a block that cannot reach any source. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /** Contains the owner of a block that cannot reach any source. */
+    private static final int NO_OWNER = -1;
+
+    /** Contains the width of the maze. */
+    private final int width;
+
+    /** Contains the height of the maze. */
+    private final int height;
+
+    /** Contains if each block (y * width + x) can be walked on. */
+    private final boolean[] open;
+
+    /** Contains the distance from each block to the closest source. */
+    private final int[] distance;
+
+    /** Contains the block of the closest source of each block. */
+    private final int[] owner;
+
+    /** Contains the number of sources on each block. */
+    private final int[] sources;
+
+    /** Contains the number of blocks having at least one source. */
+    private int sourceBlocks;
+
+    /** Contains the queue of blocks, reused by every update. */
+    private final int[] queue;
+
+    /** Contains the view of the current values; {@code null} if not copied yet. */
+    private volatile View view;
+
+    /**
+     * This class is a copy of the values of a field at one time, never changed once
+     * built, so it is read without locks.
+     */
+    public static final class View {
+        /** Contains the width of the maze. */
+        private final int width;
+
+        /** Contains the height of the maze. */
+        private final int height;
+
+        /** Contains the distance from each block to the closest source. */
+        private final int[] distance;
+
+        /** Contains the block of the closest source of each block. */
+        private final int[] owner;
+
+        /** Contains if the field has no source. */
+        private final boolean empty;
+
+        /**
+         * Copies the values of a field.
+         *
+         * @param field the field, locked by the caller
+         */
+        private View(DistanceField field) {
+            this.width = field.width;
+            this.height = field.height;
+            this.distance = field.distance.clone();
+            this.owner = field.owner.clone();
+            this.empty = field.sourceBlocks == 0;
+        }
+
+        /**
+         * Gets the distance from a block to the closest source.
+         *
+         * @param x the x coordinate of the block
+         * @param y the y coordinate of the block
+         * @return the number of steps to the closest source; {@link #UNREACHABLE} if
+         *      there is no reachable source or the block is a wall or out of bounds
+         */
+        public int get(int x, int y) {
+            if (x < 0 || x >= width || y < 0 || y >= height) {
+                return UNREACHABLE;
+            }
+            return distance[y * width + x];
+        }
+
+        /**
+         * Gets the closest source of a block.
+         *
+         * @param x the x coordinate of the block
+         * @param y the y coordinate of the block
+         * @return the coordinate of the closest source; {@code null} if none
+         */
+        public Coordinate getClosestSource(int x, int y) {
+            if (x < 0 || x >= width || y < 0 || y >= height
+                    || owner[y * width + x] == NO_OWNER) {
+                return null;
+            }
+            int source = owner[y * width + x];
+            return new Coordinate(source % width, source / width);
+        }
+
+        /**
+         * Checks if the field had no source.
+         *
+         * @return {@code true} if there was no source
+         */
+        public boolean isEmpty() {
+            return empty;
+        }
+    }
+
+    /**
+     * Creates a field with no source.
+     *
+     * @param width the width of the maze
+     * @param height the height of the maze
+     * @param open if each block (y * width + x) can be walked on
+     */
+    DistanceField(int width, int height, boolean[] open) {
+        this.width = width;
+        this.height = height;
+        this.open = open;
+        this.distance = new int[width * height];
+        this.owner = new int[width * height];
+        this.sources = new int[width * height];
+        this.queue = new int[width * height];
+        Arrays.fill(distance, UNREACHABLE);
+        Arrays.fill(owner, NO_OWNER);
+    }
+
+    /**
+     * Gets the distance from a block to the closest source.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @return the number of steps to the closest source; {@link #UNREACHABLE} if there
+     *      is no reachable source or the block is a wall or out of bounds
+     */
+    public int get(int x, int y) {
+        return view().get(x, y);
+    }
+
+    /**
+     * Gets the closest source of a block.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @return the coordinate of the closest source; {@code null} if none
+     */
+    public Coordinate getClosestSource(int x, int y) {
+        return view().getClosestSource(x, y);
+    }
+
+    /**
+     * Checks if the field has no source.
+     *
+     * @return {@code true} if there is no source
+     */
+    public boolean isEmpty() {
+        return view().isEmpty();
+    }
+
+    /**
+     * Gets the current values of the field, which do not change with later updates.
+     *
+     * @return the view of the current values
+     */
+    public View view() {
+        View current = view;
+        return current != null ? current : copy();
+    }
+
+    /**
+     * Copies the current values into a view, unless another reader just did.
+     *
+     * @return the view of the current values
+     */
+    private synchronized View copy() {
+        if (view == null) {
+            view = new View(this);
+        }
+        return view;
+    }
+
+    /**
+     * Sets all the sources at once and rebuilds the field with a multi-source BFS.
+     *
+     * @param coordinates the sources
+     */
+    synchronized void reset(Iterable<Coordinate> coordinates) {
+        Arrays.fill(distance, UNREACHABLE);
+        Arrays.fill(owner, NO_OWNER);
+        Arrays.fill(sources, 0);
+        sourceBlocks = 0;
+        int tail = 0;
+        for (Coordinate c: coordinates) {
+            int i = c.getY() * width + c.getX();
+            if (sources[i]++ == 0 && open[i]) {
+                sourceBlocks++;
+                distance[i] = 0;
+                owner[i] = i;
+                queue[tail++] = i;
+            }
+        }
+        spread(0, tail);
+        view = null;
+    }
+
+    /**
+     * Adds a source to a block.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     */
+    synchronized void addSource(int x, int y) {
+        int i = y * width + x;
+        if (sources[i]++ > 0 || !open[i]) {
+            return;
+        }
+        sourceBlocks++;
+        distance[i] = 0;
+        owner[i] = i;
+        queue[0] = i;
+        spread(0, 1);
+        view = null;
+    }
+
+    /**
+     * Removes a source from a block.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     */
+    synchronized void removeSource(int x, int y) {
+        int removed = y * width + x;
+        if (sources[removed] == 0 || --sources[removed] > 0 || !open[removed]) {
+            return;
+        }
+        sourceBlocks--;
+        view = null;
+        // Invalidate the blocks that were closest to the removed source, flooding
+        // them from the source, as every one has a neighbor one step closer to it
+        int invalid = 0;
+        owner[removed] = NO_OWNER;
+        distance[removed] = UNREACHABLE;
+        queue[invalid++] = removed;
+        for (int k = 0; k < invalid; k++) {
+            for (int side = 0; side < 4; side++) {
+                int n = neighbor(queue[k], side);
+                if (n >= 0 && owner[n] == removed) {
+                    owner[n] = NO_OWNER;
+                    distance[n] = UNREACHABLE;
+                    queue[invalid++] = n;
+                }
+            }
+        }
+        // Re-reach them from the valid blocks around them, closest first
+        long[] seeds = new long[invalid];
+        int seedNum = 0;
+        for (int k = 0; k < invalid; k++) {
+            int i = queue[k];
+            int best = UNREACHABLE;
+            int bestOwner = NO_OWNER;
+            for (int side = 0; side < 4; side++) {
+                int n = neighbor(i, side);
+                if (n >= 0 && distance[n] != UNREACHABLE && distance[n] + 1 < best) {
+                    best = distance[n] + 1;
+                    bestOwner = owner[n];
+                }
+            }
+            if (bestOwner != NO_OWNER) {
+                distance[i] = best;
+                owner[i] = bestOwner;
+                seeds[seedNum++] = ((long) best << 32) | i;
+            }
+        }
+        Arrays.sort(seeds, 0, seedNum);
+        // BFS from the seeds, merging them in as the frontier reaches their distance
+        int head = 0;
+        int tail = 0;
+        int next = 0;
+        while (next < seedNum || head < tail) {
+            if (head == tail || (next < seedNum
+                    && (int) (seeds[next] >>> 32) <= distance[queue[head]])) {
+                int i = (int) seeds[next++];
+                if (distance[i] == (int) (seeds[next - 1] >>> 32)) {
+                    queue[tail++] = i;
+                }
+                continue;
+            }
+            tail = relax(queue[head++], tail);
+        }
+    }
+
+    /**
+     * Runs a BFS from the blocks in the queue, updating every block that gets closer.
+     *
+     * @param head the index of the first block in the queue
+     * @param tail the index after the last block in the queue
+     */
+    private void spread(int head, int tail) {
+        while (head < tail) {
+            tail = relax(queue[head++], tail);
+        }
+    }
+
+    /**
+     * Updates the neighbors of a block that get closer through it and appends them to
+     * the queue.
+     *
+     * @param i the block
+     * @param tail the index after the last block in the queue
+     * @return the new index after the last block in the queue
+     */
+    private int relax(int i, int tail) {
+        int d = distance[i] + 1;
+        for (int side = 0; side < 4; side++) {
+            int n = neighbor(i, side);
+            if (n >= 0 && d < distance[n]) {
+                distance[n] = d;
+                owner[n] = owner[i];
+                queue[tail++] = n;
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Gets an open neighbor of a block.
+     *
+     * @param i the block
+     * @param side the side of the neighbor: 0 up, 1 down, 2 left, 3 right
+     * @return the neighbor; -1 if it is a wall or out of bounds
+     */
+    private int neighbor(int i, int side) {
+        int n;
+        switch (side) {
+            case 0:
+                n = i >= width ? i - width : -1;
+                break;
+            case 1:
+                n = i + width < open.length ? i + width : -1;
+                break;
+            case 2:
+                n = i % width > 0 ? i - 1 : -1;
+                break;
+            default:
+                n = i % width < width - 1 ? i + 1 : -1;
+        }
+        return n >= 0 && open[n] ? n : -1;
+    }
+}
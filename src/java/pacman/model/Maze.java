@@ -1,13 +1,18 @@
 package pacman.model;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import pacman.util.Logger;
 
 /**
@@ -16,7 +21,15 @@ import pacman.util.Logger;
  * cell: (x,y) represents the position on the map with x horizontal y vertical and the
  * origin (0,0) in the upper left corner.
  *
- * @version 1.0
+ * <p>The maze is shared by the Swing timers of every agent, the scared-time timers
+ * and the network reader threads, so all the state is kept in concurrent
+ * collections and every mutation is atomic on its own. Eating a food or a pellet
+ * is claimed by removing it from its concurrent set, so two agents visiting the
+ * same block at the same time never score it twice. Readers never lock: an
+ * algorithm that needs several values that agree with each other should take a
+ * {@link #snapshot()} instead of calling the individual getters.
+ *
+ * @version 1.1
  */
 public class Maze {
 
@@ -56,6 +69,21 @@ public class Maze {
     /** Contains the locations for walls in the maze. */
     protected final Set<Coordinate> walls;
 
+    /** Contains the distance from each block to the closest food. */
+    protected final DistanceField foodField;
+
+    /** Contains the distance from each block to the closest pellet. */
+    protected final DistanceField pelletField;
+
+    /** Contains the distance from each block to the closest ghost that is not scared. */
+    protected final DistanceField ghostField;
+
+    /**
+     * Contains the location of each ghost counted as a source of {@link #ghostField};
+     * guarded by {@link #ghostField}.
+     */
+    private final Map<String, Coordinate> ghostFieldSources;
+
     /** Represents that the cell is out of bounds. */
     public static final int INVALID = -2;
 
@@ -114,6 +142,27 @@ public class Maze {
      */
     private final int[][] data;
 
+    /**
+     * Contains the legal moves from each block (y * width + x), as a mask of
+     * {@link Direction#getMask()} without {@link Direction#STOP}.
+     */
+    private final byte[] legalMasks;
+
+    /** Contains the number of mutations applied to the maze so far. */
+    private final AtomicLong version;
+
+    /** Contains the hash of the foods and pellets left, see {@link #getItemHash()}. */
+    private final AtomicLong itemHash;
+
+    /** Contains the number of mutations that are currently in progress. */
+    private final AtomicInteger writers;
+
+    /** Contains the number of times an optimistic read is tried before settling. */
+    private static final int READ_ATTEMPTS = 8;
+
+    /** Contains the last snapshot taken, reused while the version is unchanged. */
+    private volatile MazeSnapshot lastSnapshot;
+
     /**
      * This is the constructor of the grid, which creates a board with specified
      * initial values.
@@ -139,8 +188,8 @@ public class Maze {
         this.height = height;
         this.width = width;
         this.data = data;
-        this.foods = new HashSet<>();
-        this.pellets = new HashSet<>();
+        this.foods = ConcurrentHashMap.newKeySet();
+        this.pellets = ConcurrentHashMap.newKeySet();
         this.walls = new HashSet<>();
         for (int y = 0; y < this.data.length; y++) {
             for (int x = 0; x < this.data[y].length; x++) {
@@ -153,13 +202,40 @@ public class Maze {
                 }
             }
         }
+        boolean[] open = new boolean[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                open[y * width + x] = this.data[y][x] >= EMPTY;
+            }
+        }
+        this.legalMasks = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                updateLegalMask(x, y);
+            }
+        }
+        this.foodField = new DistanceField(width, height, open);
+        this.foodField.reset(foods);
+        this.pelletField = new DistanceField(width, height, open);
+        this.pelletField.reset(pellets);
+        this.ghostField = new DistanceField(width, height, open);
+        this.ghostFieldSources = new HashMap<>();
         this.pacmanStartLocations = pacmanStartLocations;
-        this.pacmanLocations = new HashMap<>();
-        this.pacmanScores = new HashMap<>();
+        this.pacmanLocations = new ConcurrentHashMap<>();
+        this.pacmanScores = new ConcurrentHashMap<>();
         this.ghostStartLocations = ghostStartLocations;
-        this.ghostLocations = new HashMap<>();
-        this.ghostScaredTimes = new HashMap<>();
-        this.ghostScaredTimers = new HashMap<>();
+        this.ghostLocations = new ConcurrentHashMap<>();
+        this.ghostScaredTimes = new ConcurrentHashMap<>();
+        this.ghostScaredTimers = new ConcurrentHashMap<>();
+        this.version = new AtomicLong(0);
+        this.writers = new AtomicInteger(0);
+        this.itemHash = new AtomicLong(0);
+        for (Coordinate food: foods) {
+            toggleItem(food.getX(), food.getY(), FOOD);
+        }
+        for (Coordinate pellet: pellets) {
+            toggleItem(pellet.getX(), pellet.getY(), PELLET);
+        }
         this.checkRep();
     }
 
@@ -198,6 +274,137 @@ public class Maze {
         }
     }
 
+    /**
+     * Marks the beginning of a mutation so that concurrent snapshots can detect it.
+     */
+    private void beginWrite() {
+        writers.incrementAndGet();
+    }
+
+    /**
+     * Marks the end of a mutation and publishes a new version of the maze.
+     */
+    private void endWrite() {
+        version.incrementAndGet();
+        writers.decrementAndGet();
+    }
+
+    /**
+     * Gets a Zobrist hash of the foods and pellets left: the exclusive or of a fixed
+     * random key for each item on each block. It is updated in constant time when an
+     * item is eaten or put back, and two mazes loaded from the same text have the
+     * same hash exactly when the same items are left, up to collisions of 64-bit
+     * keys.
+     *
+     * @return the hash of the items left
+     */
+    public long getItemHash() {
+        return itemHash.get();
+    }
+
+    /**
+     * Gets the key of an item on a block in {@link #getItemHash()}, derived from the
+     * block and the item alone so that every side of a game has the same keys.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param item {@link #FOOD} or {@link #PELLET}
+     * @return the key
+     */
+    public static long itemKey(int x, int y, int item) {
+        // SplitMix64 finalizer, which spreads close inputs over all the bits
+        long z = ((long) y << 32 | (x & 0xFFFFFFFFL)) * 0x9E3779B97F4A7C15L + item;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Adds an item to {@link #itemHash} or takes it out.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param item {@link #FOOD} or {@link #PELLET}
+     */
+    private void toggleItem(int x, int y, int item) {
+        long key = itemKey(x, y, item);
+        itemHash.accumulateAndGet(key, (hash, k) -> hash ^ k);
+    }
+
+    /**
+     * Gets the version of the maze, which increases after every mutation.
+     *
+     * @return the current version of the maze
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Takes a consistent, immutable copy of the dynamic state of the maze. The copy
+     * is optimistic: it is retried if any mutation happened while copying, and the
+     * result is cached until the next mutation, so repeated calls within the same
+     * tick are free.
+     *
+     * @return a snapshot of the dynamic state of the maze
+     */
+    public MazeSnapshot snapshot() {
+        MazeSnapshot cached = lastSnapshot;
+        long currVersion = version.get();
+        if (cached != null && cached.getVersion() == currVersion) {
+            return cached;
+        }
+        MazeSnapshot snapshot = null;
+        for (int attempt = 0; attempt < READ_ATTEMPTS && snapshot == null; attempt++) {
+            currVersion = version.get();
+            if (writers.get() != 0) {
+                Thread.yield();
+                continue;
+            }
+            MazeSnapshot copy = new MazeSnapshot(currVersion, pacmanLocations,
+                pacmanScores, ghostLocations, ghostScaredTimes, foods, pellets);
+            if (writers.get() == 0 && version.get() == currVersion) {
+                snapshot = copy;
+            }
+        }
+        if (snapshot == null) {
+            // Heavy contention: settle for a weakly consistent copy, tagged with the
+            // version before copying and not cached, so the next call tries again
+            currVersion = version.get();
+            return new MazeSnapshot(currVersion, pacmanLocations, pacmanScores,
+                ghostLocations, ghostScaredTimes, foods, pellets);
+        }
+        lastSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Reads several parts of the maze so that they agree with each other, such as
+     * the agents and the distance fields, without copying the whole maze as
+     * {@link #snapshot()} does. The read is optimistic: it is retried if any mutation
+     * happened meanwhile, and settles for a weakly consistent result under heavy
+     * contention.
+     *
+     * @param reader the read, without side effects, as it may run several times
+     * @param <T> the type of the result
+     * @return the result of the read
+     */
+    public <T> T readConsistently(Supplier<T> reader) {
+        T result = null;
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            long currVersion = version.get();
+            if (writers.get() != 0) {
+                Thread.yield();
+                continue;
+            }
+            result = reader.get();
+            if (writers.get() == 0 && version.get() == currVersion) {
+                return result;
+            }
+        }
+        return result != null ? result : reader.get();
+    }
+
     /**
      * This function gets the height of the maze.
      *
@@ -334,7 +541,9 @@ public class Maze {
     }
 
     /**
-     * This function will get a copy of food locations.
+     * This function will get a live, read-only view of food locations. The view is
+     * weakly consistent: iterating it while pacman is eating never throws, but may
+     * or may not reflect the foods eaten during the iteration.
      *
      * @requires None
      * @modifies None
@@ -342,7 +551,7 @@ public class Maze {
      * @return a set containing all locations of foods in this maze
      */
     public Set<Coordinate> getFoods() {
-        return this.foods;
+        return Collections.unmodifiableSet(this.foods);
     }
 
     /**
@@ -476,17 +685,81 @@ public class Maze {
         return surroundings;
     }
 
+    /**
+     * Sets the content of a block, keeping the legal moves of the blocks around it up
+     * to date if it turns into a wall or out of one.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param value the new content of the block
+     */
+    private void set(int x, int y, int value) {
+        boolean wasValid = this.data[y][x] >= EMPTY;
+        this.data[y][x] = value;
+        if (wasValid != value >= EMPTY) {
+            updateLegalMask(x, y);
+            for (Direction d: Direction.fromMask(Direction.MOVES_MASK)) {
+                int nx = x + d.getDirectionX();
+                int ny = y + d.getDirectionY();
+                if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
+                    updateLegalMask(nx, ny);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the legal moves from a block.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     */
+    private void updateLegalMask(int x, int y) {
+        int mask = 0;
+        for (Direction d: Direction.fromMask(Direction.MOVES_MASK)) {
+            if (isValidDirection(x, y, d)) {
+                mask |= d.getMask();
+            }
+        }
+        legalMasks[y * width + x] = (byte) mask;
+    }
+
+    /**
+     * Gets the legal moves from a block as a mask, to be iterated without allocating.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the mask of {@link Direction#getMask()} of the legal moves, without
+     *      {@link Direction#STOP}; 0 if out of bounds
+     */
+    public int getLegalMask(int x, int y) {
+        if (y < 0 || y >= height || x < 0 || x >= width) {
+            return 0;
+        }
+        return legalMasks[y * width + x];
+    }
+
+    /**
+     * Gets the legal moves from a block including stop as a mask.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the mask of {@link Direction#getMask()} of the legal moves, with
+     *      {@link Direction#STOP} if the block itself is valid
+     */
+    public int getLegalMaskIncludeStop(int x, int y) {
+        return getLegalMask(x, y) | (isValidBlock(x, y) ? Direction.STOP.getMask() : 0);
+    }
+
     /**
      * Gets the local directions for an agent.
      *
      * @param x the x coordinate
      * @param y the y coordinate
-     * @return the legal directions from the coordinate
+     * @return the legal directions from the coordinate, as a shared unmodifiable list
      */
     public List<Direction> getLegalActions(int x, int y) {
-        List<Direction> actions = getLegalActionsIncludeStop(x, y);
-        actions.remove(Direction.STOP);
-        return actions;
+        return Direction.listFromMask(getLegalMask(x, y));
     }
 
     /**
@@ -494,16 +767,10 @@ public class Maze {
      *
      * @param x the x coordinate
      * @param y the y coordinate
-     * @return the legal directions from the coordinate
+     * @return the legal directions from the coordinate, as a shared unmodifiable list
      */
     public List<Direction> getLegalActionsIncludeStop(int x, int y) {
-        List<Direction> actions = new ArrayList<>();
-        for (Direction d: Direction.values()) {
-            if (isValidDirection(x, y, d)) {
-                actions.add(d);
-            }
-        }
-        return actions;
+        return Direction.listFromMask(getLegalMaskIncludeStop(x, y));
     }
 
     /**
@@ -530,7 +797,7 @@ public class Maze {
      * @param y the y coordinate of the block
      * @requires None
      * @modifies {@link #data}, {@link #foods}, {@link #pellets},
-     *          {@link #pacmanLocations}, {@link #pacmanScores}
+     *          {@link #pacmanLocations}, {@link #pacmanScores}, {@link #itemHash}
      * @effects food/pellet located on the specified block is removed
      *          pacman index is added to locations and scores if not added before
      *          pacman location updated
@@ -542,38 +809,125 @@ public class Maze {
                 new Coordinate(x, y));
             return 0;
         }
-        if (!this.pacmanScores.containsKey(index)) {
-            this.pacmanScores.put(index, 0);
-        }
-        this.pacmanLocations.put(index, new Coordinate(x, y));
-        int scores = 0;
-        switch (this.get(x, y)) {
-            case FOOD:
-                foods.remove(new Coordinate(x, y));
+        final Coordinate location = new Coordinate(x, y);
+        beginWrite();
+        try {
+            this.pacmanLocations.put(index, location);
+            int scores = 0;
+            // Whoever removes the item from its set is the one that eats it
+            if (foods.remove(location)) {
                 scores += SCORES[FOOD];
-                break;
-            case PELLET:
-                pellets.remove(new Coordinate(x, y));
+                foodField.removeSource(x, y);
+                toggleItem(x, y, FOOD);
+            } else if (pellets.remove(location)) {
                 scores += SCORES[PELLET];
-                break;
-            case EMPTY:
-            case PACMAN:
+                pelletField.removeSource(x, y);
+                toggleItem(x, y, PELLET);
+            } else {
                 scores += SCORES[EMPTY];
-                break;
-            default:
-                break;
-        }
-        this.data[y][x] = EMPTY;
-        for (String ghostName: ghostLocations.keySet()) {
-            if (ghostLocations.get(ghostName).equals(new Coordinate(x, y))) {
-                if (ghostScaredTimes.get(ghostName) > 0) {
+            }
+            this.set(x, y, EMPTY);
+            for (Map.Entry<String, Coordinate> ghost: ghostLocations.entrySet()) {
+                if (ghost.getValue().equals(location)
+                        && ghostScaredTimes.getOrDefault(ghost.getKey(), 0) > 0) {
                     scores += SCORES[SCARED_GHOST];
                 }
             }
+            this.pacmanScores.merge(index, scores, Integer::sum);
+            return scores;
+        } finally {
+            endWrite();
         }
+    }
 
-        this.pacmanScores.put(index, this.pacmanScores.getOrDefault(index, 0) + scores);
-        return scores;
+    /**
+     * Removes the food or pellet located on a block without giving any scores, for
+     * example when restoring the maze from a recorded state.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @requires None
+     * @modifies {@link #data}, {@link #foods}, {@link #pellets}, {@link #itemHash}
+     * @effects food/pellet located on the specified block is removed
+     */
+    public void clearBlock(final int x, final int y) {
+        if (!this.isValidBlock(x, y)) {
+            return;
+        }
+        final Coordinate location = new Coordinate(x, y);
+        beginWrite();
+        try {
+            if (foods.remove(location)) {
+                foodField.removeSource(x, y);
+                toggleItem(x, y, FOOD);
+            }
+            if (pellets.remove(location)) {
+                pelletField.removeSource(x, y);
+                toggleItem(x, y, PELLET);
+            }
+            this.set(x, y, EMPTY);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Puts a food or pellet back on a block, for example when the maze has diverged
+     * from the state of the server.
+     *
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     * @param item {@link #FOOD} or {@link #PELLET}
+     * @requires the block is not a wall
+     * @modifies {@link #data}, {@link #foods}, {@link #pellets}, {@link #itemHash}
+     * @effects the block contains the item and nothing else
+     */
+    public void restoreBlock(final int x, final int y, final int item) {
+        if (!this.isValidBlock(x, y) || (item != FOOD && item != PELLET)) {
+            return;
+        }
+        final Coordinate location = new Coordinate(x, y);
+        beginWrite();
+        try {
+            if (item == FOOD && foods.add(location)) {
+                foodField.addSource(x, y);
+                toggleItem(x, y, FOOD);
+            }
+            if (item == FOOD && pellets.remove(location)) {
+                pelletField.removeSource(x, y);
+                toggleItem(x, y, PELLET);
+            }
+            if (item == PELLET && pellets.add(location)) {
+                pelletField.addSource(x, y);
+                toggleItem(x, y, PELLET);
+            }
+            if (item == PELLET && foods.remove(location)) {
+                foodField.removeSource(x, y);
+                toggleItem(x, y, FOOD);
+            }
+            this.set(x, y, item);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Overrides the score of a pacman, for example when restoring the maze from a
+     * recorded state.
+     *
+     * @param index the index of the pacman
+     * @param score the new score of the pacman
+     * @requires None
+     * @modifies {@link #pacmanScores}
+     * @effects the score of the pacman is replaced
+     */
+    public void setPacmanScore(final int index, final int score) {
+        beginWrite();
+        try {
+            this.pacmanScores.put(index, score);
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -585,7 +939,12 @@ public class Maze {
      * @effects pacman index is removed from locations and scores
      */
     public void removePacman(int index) {
-        this.pacmanLocations.remove(index);
+        beginWrite();
+        try {
+            this.pacmanLocations.remove(index);
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -600,11 +959,15 @@ public class Maze {
      *      added before; ghost location is updated
      */
     public void ghostVisit(final String name, final int x, final int y) {
-        if (!this.ghostLocations.containsKey(name)) {
+        beginWrite();
+        try {
             // first time visit (aka "add")
-            this.ghostScaredTimes.put(name, 0);
+            this.ghostScaredTimes.putIfAbsent(name, 0);
+            this.ghostLocations.put(name, new Coordinate(x, y));
+            updateGhostField(name);
+        } finally {
+            endWrite();
         }
-        this.ghostLocations.put(name, new Coordinate(x, y));
     }
 
     /**
@@ -616,7 +979,13 @@ public class Maze {
      * @effects ghost name is removed from locations and scared times
      */
     public void removeGhost(String name) {
-        this.ghostLocations.remove(name);
+        beginWrite();
+        try {
+            this.ghostLocations.remove(name);
+            updateGhostField(name);
+        } finally {
+            endWrite();
+        }
     }
 
     /**
@@ -626,22 +995,54 @@ public class Maze {
      * @param defaultScaredTime the default scared time duration
      */
     public void setGhostScared(String ghostName, int defaultScaredTime) {
-        final int[] scaredTime = {defaultScaredTime};
-        ghostScaredTimes.put(ghostName, scaredTime[0]);
-        Timer countDownGhostBuster = new Timer();
+        final AtomicInteger scaredTime = new AtomicInteger(defaultScaredTime);
+        beginWrite();
+        try {
+            ghostScaredTimes.put(ghostName, scaredTime.get());
+            updateGhostField(ghostName);
+        } finally {
+            endWrite();
+        }
+        Timer countDownGhostBuster = new Timer(true);
         countDownGhostBuster.scheduleAtFixedRate(new TimerTask() {
             /**
              * The action to be performed by this timer task.
              */
             public void run() {
-                scaredTime[0]--;
-                ghostScaredTimes.put(ghostName, scaredTime[0]);
+                beginWrite();
+                try {
+                    ghostScaredTimes.put(ghostName, scaredTime.decrementAndGet());
+                    updateGhostField(ghostName);
+                } finally {
+                    endWrite();
+                }
             }
         }, 1000, 1000);
-        if (ghostScaredTimers.get(ghostName) != null) {
-            ghostScaredTimers.get(ghostName).cancel();
+        Timer previous = ghostScaredTimers.put(ghostName, countDownGhostBuster);
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * Sets the remaining scared time of a ghost without starting a count down, for
+     * example when the time is driven by a recorded clock instead of a timer.
+     *
+     * @param ghostName the name of the ghost
+     * @param scaredTime the remaining scared time
+     */
+    public void setGhostScaredTime(String ghostName, int scaredTime) {
+        Timer previous = ghostScaredTimers.remove(ghostName);
+        if (previous != null) {
+            previous.cancel();
+        }
+        beginWrite();
+        try {
+            ghostScaredTimes.put(ghostName, scaredTime);
+            updateGhostField(ghostName);
+        } finally {
+            endWrite();
         }
-        ghostScaredTimers.put(ghostName, countDownGhostBuster);
     }
 
     /**
@@ -650,9 +1051,76 @@ public class Maze {
      * @param ghostName the name of a ghost
      */
     public void resetGhost(String ghostName) {
-        ghostScaredTimers.get(ghostName).cancel();
-        ghostScaredTimers.put(ghostName, null);
-        ghostScaredTimes.put(ghostName, 0);
+        Timer previous = ghostScaredTimers.remove(ghostName);
+        if (previous != null) {
+            previous.cancel();
+        }
+        beginWrite();
+        try {
+            ghostScaredTimes.put(ghostName, 0);
+            updateGhostField(ghostName);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Moves a ghost in {@link #ghostField} to its current location, or takes it out
+     * if it is scared or not in the maze anymore.
+     *
+     * @param ghostName the name of the ghost
+     */
+    private void updateGhostField(String ghostName) {
+        synchronized (ghostField) {
+            Coordinate location = ghostLocations.get(ghostName);
+            Coordinate wanted = location != null
+                && ghostScaredTimes.getOrDefault(ghostName, 0) <= 0 ? location : null;
+            Coordinate current = ghostFieldSources.get(ghostName);
+            if (Objects.equals(wanted, current)) {
+                return;
+            }
+            // Add first so that the blocks around move to the new source cheaply
+            if (wanted != null) {
+                ghostField.addSource(wanted.getX(), wanted.getY());
+                ghostFieldSources.put(ghostName, wanted);
+            } else {
+                ghostFieldSources.remove(ghostName);
+            }
+            if (current != null) {
+                ghostField.removeSource(current.getX(), current.getY());
+            }
+        }
+    }
+
+    /**
+     * Gets the distance from each block to the closest food, following the corridors
+     * of the maze. It is kept up to date as the foods are eaten.
+     *
+     * @return the distance field of the foods
+     */
+    public DistanceField getFoodDistanceField() {
+        return foodField;
+    }
+
+    /**
+     * Gets the distance from each block to the closest pellet, following the
+     * corridors of the maze. It is kept up to date as the pellets are eaten.
+     *
+     * @return the distance field of the pellets
+     */
+    public DistanceField getPelletDistanceField() {
+        return pelletField;
+    }
+
+    /**
+     * Gets the distance from each block to the closest ghost that is not scared,
+     * following the corridors of the maze. It is kept up to date as the ghosts move
+     * and get scared.
+     *
+     * @return the distance field of the normal ghosts
+     */
+    public DistanceField getGhostDistanceField() {
+        return ghostField;
     }
 
     /**
@@ -674,9 +1142,9 @@ public class Maze {
      * @return {@code true} if the pacman loses and {@code false} otherwise
      */
     public boolean isLose(int x, int y) {
-        for (String ghostName: ghostLocations.keySet()) {
-            if (ghostLocations.get(ghostName).equals(new Coordinate(x, y))
-                    && ghostScaredTimes.get(ghostName) <= 0) {
+        for (Map.Entry<String, Coordinate> ghost: ghostLocations.entrySet()) {
+            if (ghost.getValue().getX() == x && ghost.getValue().getY() == y
+                    && ghostScaredTimes.getOrDefault(ghost.getKey(), 0) <= 0) {
                 return true;
             }
         }
@@ -0,0 +1,154 @@
+package pacman.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is an immutable copy of the dynamic state of a {@link Maze} (agents,
+ * scores, scared times, foods and pellets) taken at one version of the maze. It lets
+ * algorithms read several values that are consistent with each other while the
+ * maze keeps being changed by other threads.
+ *
+ * @version 1.0
+ */
+public class MazeSnapshot {
+    /** Contains the version of the maze when the snapshot was taken. */
+    private final long version;
+
+    /** Contains the locations for pacman. */
+    private final Map<Integer, Coordinate> pacmanLocations;
+
+    /** Contains the scores for each pacman. */
+    private final Map<Integer, Integer> pacmanScores;
+
+    /** Contains the locations for ghosts. */
+    private final Map<String, Coordinate> ghostLocations;
+
+    /** Contains the remaining scared time for each ghost in the maze. */
+    private final Map<String, Integer> ghostScaredTimes;
+
+    /** Contains the locations for foods in the maze. */
+    private final Set<Coordinate> foods;
+
+    /** Contains the locations for pellets in the maze. */
+    private final Set<Coordinate> pellets;
+
+    /**
+     * Creates a new snapshot by copying the given collections.
+     *
+     * @param version the version of the maze
+     * @param pacmanLocations the locations for pacman
+     * @param pacmanScores the scores for each pacman
+     * @param ghostLocations the locations for ghosts
+     * @param ghostScaredTimes the remaining scared time for each ghost
+     * @param foods the locations for foods
+     * @param pellets the locations for pellets
+     */
+    MazeSnapshot(long version, Map<Integer, Coordinate> pacmanLocations,
+                 Map<Integer, Integer> pacmanScores,
+                 Map<String, Coordinate> ghostLocations,
+                 Map<String, Integer> ghostScaredTimes,
+                 Set<Coordinate> foods, Set<Coordinate> pellets) {
+        this.version = version;
+        this.pacmanLocations = Collections.unmodifiableMap(new HashMap<>(pacmanLocations));
+        this.pacmanScores = Collections.unmodifiableMap(new HashMap<>(pacmanScores));
+        this.ghostLocations = Collections.unmodifiableMap(new HashMap<>(ghostLocations));
+        this.ghostScaredTimes = Collections.unmodifiableMap(new HashMap<>(ghostScaredTimes));
+        this.foods = Collections.unmodifiableSet(new HashSet<>(foods));
+        this.pellets = Collections.unmodifiableSet(new HashSet<>(pellets));
+    }
+
+    /**
+     * Gets the version of the maze when the snapshot was taken.
+     *
+     * @return the version of the maze
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the locations of all visible pacman.
+     *
+     * @return the locations of all visible pacman
+     */
+    public Map<Integer, Coordinate> getPacmanLocations() {
+        return pacmanLocations;
+    }
+
+    /**
+     * Gets the scores of all pacman.
+     *
+     * @return the scores of all pacman
+     */
+    public Map<Integer, Integer> getPacmanScores() {
+        return pacmanScores;
+    }
+
+    /**
+     * Gets the locations of all visible ghosts.
+     *
+     * @return the locations of all visible ghosts
+     */
+    public Map<String, Coordinate> getGhostLocations() {
+        return ghostLocations;
+    }
+
+    /**
+     * Gets the remaining scared time of all ghosts.
+     *
+     * @return the remaining scared time of all ghosts
+     */
+    public Map<String, Integer> getGhostScaredTimes() {
+        return ghostScaredTimes;
+    }
+
+    /**
+     * Gets the locations of all remaining foods.
+     *
+     * @return the locations of all remaining foods
+     */
+    public Set<Coordinate> getFoods() {
+        return foods;
+    }
+
+    /**
+     * Gets the locations of all remaining pellets.
+     *
+     * @return the locations of all remaining pellets
+     */
+    public Set<Coordinate> getPellets() {
+        return pellets;
+    }
+
+    /**
+     * Check the state of the snapshot to see if the pacman wins.
+     *
+     * @param x the current x coordinate of the agent
+     * @param y the current y coordinate of the agent
+     * @return {@code true} if the pacman wins and {@code false} otherwise
+     */
+    public boolean isWin(int x, int y) {
+        return foods.contains(new Coordinate(x, y)) && foods.size() == 1;
+    }
+
+    /**
+     * Check the state of the snapshot to see if the pacman loses.
+     *
+     * @param x the current x coordinate of the agent
+     * @param y the current y coordinate of the agent
+     * @return {@code true} if the pacman loses and {@code false} otherwise
+     */
+    public boolean isLose(int x, int y) {
+        for (Map.Entry<String, Coordinate> ghost: ghostLocations.entrySet()) {
+            if (ghost.getValue().getX() == x && ghost.getValue().getY() == y
+                    && ghostScaredTimes.getOrDefault(ghost.getKey(), 0) <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,116 @@
+package pacman.network;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class creates the threads serving the connections: the readers of the peers
+ * and of the UDP channel, the listeners, and the readers and writers of the
+ * spectators. They spend their life blocked on a socket or a queue, so on Java 21 and
+ * later they can be virtual threads, which take a few hundred bytes each instead of a
+ * stack of their own, and a host can keep thousands of idle peers. Otherwise they are
+ * platform threads, as before.
+ *
+ * <p>The game is built for Java 11, so the virtual threads are created by reflection.
+ * They are off until {@link #useVirtualThreads()} is called, before the servers are
+ * created.
+ *
+ * @version 1.0
+ */
+public final class ConnectionThreads {
+    /** Contains whether the new threads are virtual. */
+    private static volatile boolean virtual = false;
+
+    /** Hide the constructor. */
+    private ConnectionThreads() {}
+
+    /**
+     * Makes the threads created from now on virtual, if this Java has virtual threads.
+     *
+     * @return true if the threads are virtual; false if this Java is older than 21
+     */
+    public static boolean useVirtualThreads() {
+        virtual = factory("probe-") != null;
+        return virtual;
+    }
+
+    /**
+     * Checks if the new threads are virtual.
+     *
+     * @return true if the threads are virtual
+     */
+    public static boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Creates an executor running each task on a thread of its own while it runs.
+     *
+     * @param name the prefix of the names of the threads
+     * @return a virtual thread per task executor, or a cached pool of platform threads
+     */
+    static ExecutorService newExecutor(String name) {
+        ThreadFactory factory = virtual ? factory(name + "-") : null;
+        if (factory != null) {
+            try {
+                Method method = Executors.class.getMethod("newThreadPerTaskExecutor",
+                    ThreadFactory.class);
+                return (ExecutorService) method.invoke(null, factory);
+            } catch (NoSuchMethodException | IllegalAccessException
+                    | InvocationTargetException e) {
+                e.printStackTrace();
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Starts a daemon thread. Virtual threads are always daemons.
+     *
+     * @param task the task of the thread
+     * @param name the name of the thread
+     * @return the thread started
+     */
+    static Thread startDaemon(Runnable task, String name) {
+        ThreadFactory factory = virtual ? factory(name) : null;
+        Thread thread = factory == null ? new Thread(task, name)
+            : factory.newThread(task);
+        if (!thread.isDaemon()) {
+            thread.setDaemon(true);
+        }
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Gets a factory of virtual threads, as {@code Thread.ofVirtual().name(...)
+     * .factory()}.
+     *
+     * @param name the name of the threads, followed by a counter if it ends with "-"
+     * @return the factory; {@code null} if this Java has no virtual threads
+     */
+    private static ThreadFactory factory(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            if (name.endsWith("-")) {
+                builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, name, 0L);
+            } else {
+                builder = builderClass.getMethod("name", String.class)
+                    .invoke(builder, name);
+            }
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ClassNotFoundException | NoSuchMethodException
+                | InvocationTargetException e) {
+            // Older than Java 21, or a preview not enabled in Java 19 and 20
+            return null;
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package pacman.network;
 
+import java.awt.SecondaryLoop;
+import java.awt.Toolkit;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.DataInputStream;
@@ -19,12 +21,20 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
 import pacman.controller.NetworkController;
+import pacman.replay.EventJournal;
+import pacman.util.GameEvents;
 import pacman.util.Logger;
+import pacman.util.Metrics;
 
 /**
  * This class implements a simple P2P server that connects with other instances of
@@ -33,6 +43,21 @@ import pacman.util.Logger;
  * @version 1.0
  */
 public class SimpleP2PServer {
+    /** Contains the time taken to send a message. */
+    private static final Metrics.Histogram SEND_TIME = Metrics.histogram("network.send");
+
+    /** Contains the number of messages being sent. */
+    private static final Metrics.Gauge SEND_PENDING =
+        Metrics.gauge("network.send.pending");
+
+    /** Contains the time taken to handle a received message. */
+    private static final Metrics.Histogram RECEIVE_TIME =
+        Metrics.histogram("network.receive");
+
+    /** Contains the number of bytes received and waiting to be read. */
+    private static final Metrics.Gauge RECEIVE_BACKLOG =
+        Metrics.gauge("network.receive.backlog");
+
     /**
      * Contains the controller of this application.
      */
@@ -57,7 +82,16 @@ public class SimpleP2PServer {
      * Contains a socket that will be used to communicate between local host and the
      * remote side.
      */
-    private final HashMap<SocketAddress, Socket> connectionSockets;
+    private final Map<SocketAddress, Socket> connectionSockets;
+
+    /**
+     * Contains the connections accepted by the server socket and waiting for the
+     * controller to let them in, so that accepting never waits for the user.
+     */
+    private final BlockingQueue<Socket> pendingConnections;
+
+    /** Contains if the thread letting in the pending connections is started. */
+    private final AtomicBoolean isAdmitting;
 
     /**
      * Contains the maximum number of client in this server.
@@ -69,6 +103,27 @@ public class SimpleP2PServer {
      */
     private final AtomicBoolean isListening;
 
+    /** Contains the hub streaming the messages broadcast; {@code null} if none. */
+    private volatile SpectatorHub spectatorHub;
+
+    /** Contains the channel of the unreliable messages; {@code null} if TCP only. */
+    private volatile UdpChannel udp;
+
+    /** Contains the largest number of connections waiting to be let in. */
+    public static final int MAX_PENDING_CONNECTIONS = 16;
+
+    /** Contains the longest time in milliseconds the readers take to stop on closing. */
+    public static final long CLOSE_TIMEOUT = 1000;
+
+    /**
+     * Contains the socket of each connection read from, from the time its reader is
+     * submitted until it stops; notified when one stops.
+     */
+    private final Map<SocketAddress, Socket> readers = new HashMap<>();
+
+    /** Contains the socket the current thread reads from, if a reader. */
+    private final ThreadLocal<Socket> reading = new ThreadLocal<>();
+
     /**
      * Contains the tags for network messages.
      */
@@ -77,6 +132,12 @@ public class SimpleP2PServer {
          *  Network protocol tag, see {@link #listen()}.
          */
         public static final String CONFIRM_TAG = "[CONFIRM]";
+
+        /**
+         *  Network protocol tag announcing the UDP port of the sender, see
+         *  {@link #openUdp()}.
+         */
+        public static final String UDP_TAG = "[UDP]";
     }
 
     /**
@@ -105,9 +166,11 @@ public class SimpleP2PServer {
         this.controller = controller;
         this.maxConnections = maxClientNum;
         this.isListening = new AtomicBoolean(false);
-        this.inputExecutor = Executors.newCachedThreadPool();
-        this.outputExecutor = Executors.newCachedThreadPool();
-        this.connectionSockets = new HashMap<>();
+        this.inputExecutor = ConnectionThreads.newExecutor("p2p-listen");
+        this.outputExecutor = ConnectionThreads.newExecutor("p2p-read");
+        this.connectionSockets = new ConcurrentHashMap<>();
+        this.pendingConnections = new ArrayBlockingQueue<>(MAX_PENDING_CONNECTIONS);
+        this.isAdmitting = new AtomicBoolean(false);
     }
 
     /**
@@ -286,7 +349,14 @@ public class SimpleP2PServer {
             throw new SocketException("Socket is closed");
         }
 
-        Logger.println("Waiting for connection on " + getLocalIP() + ":" + getLocalPort());
+        String localIP;
+        try {
+            localIP = getLocalIP();
+        } catch (IOException e) {
+            // Offline, for example when testing over loopback
+            localIP = "localhost";
+        }
+        Logger.println("Waiting for connection on " + localIP + ":" + getLocalPort());
 
         while (true) {
             Socket newConnectionSocket;
@@ -299,15 +369,51 @@ public class SimpleP2PServer {
             // client accepted
             Logger.printlnf("Receive connection on %s",
                     newConnectionSocket.getRemoteSocketAddress());
-            if (connectionSockets.size() + 2 > maxConnections || !isListening.get()) {
+            if (connectionSockets.size() + pendingConnections.size() + 2 > maxConnections
+                    || !isListening.get()
+                    || !pendingConnections.offer(newConnectionSocket)) {
                 newConnectionSocket.close();
                 continue;
             }
+            if (isAdmitting.compareAndSet(false, true)) {
+                this.inputExecutor.submit(this::admitConnections);
+            }
+        }
+    }
+
+    /**
+     * Lets in the pending connections one by one, in the order they were accepted,
+     * asking the controller for each one.
+     */
+    private void admitConnections() {
+        while (true) {
+            Socket newConnectionSocket;
+            try {
+                newConnectionSocket = pendingConnections.take();
+            } catch (InterruptedException e) {
+                isAdmitting.set(false);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!isListening.get()) {
+                try {
+                    newConnectionSocket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             this.connectionSockets.put(newConnectionSocket.getRemoteSocketAddress(),
                 newConnectionSocket);
-            if (this.controller.incomingConnection(newConnectionSocket.getRemoteSocketAddress(),
-                    newConnectionSocket.getPort())) {
-                this.outputExecutor.submit(() -> acceptMessage(newConnectionSocket));
+            try {
+                if (this.controller.incomingConnection(
+                        newConnectionSocket.getRemoteSocketAddress(),
+                        newConnectionSocket.getPort())) {
+                    announceUdp(newConnectionSocket.getRemoteSocketAddress());
+                    startReading(newConnectionSocket);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
             }
         }
     }
@@ -383,7 +489,8 @@ public class SimpleP2PServer {
         Logger.printlnf("Connect to %s", outgoingSocket.getRemoteSocketAddress());
         this.connectionSockets.put(outgoingSocket.getRemoteSocketAddress(),
             outgoingSocket);
-        this.outputExecutor.submit(() -> acceptMessage(outgoingSocket));
+        announceUdp(outgoingSocket.getRemoteSocketAddress());
+        startReading(outgoingSocket);
         return outgoingSocket.getRemoteSocketAddress();
     }
 
@@ -394,23 +501,89 @@ public class SimpleP2PServer {
      * @throws IOException if an I/O error occurs when closing this socket.
      */
     public void closeConnection(SocketAddress remoteSocketAddress) throws IOException {
-        if (this.connectionSockets.containsKey(remoteSocketAddress)) {
+        Socket socket = this.connectionSockets.remove(remoteSocketAddress);
+        UdpChannel channel = udp;
+        if (channel != null) {
+            channel.removePeer(remoteSocketAddress);
+        }
+        if (socket != null) {
             Logger.printlnf("Close connect with %s", remoteSocketAddress);
-            this.connectionSockets.get(remoteSocketAddress).close();
+            socket.close();
         }
-        this.connectionSockets.remove(remoteSocketAddress);
     }
 
     /**
-     * This method closes all connections between local host and remote hosts.
+     * This method closes all connections between local host and remote hosts, and
+     * waits for their readers to stop, so no message is handled after it returns. On
+     * the event dispatch thread, another thread waits while the events are handled,
+     * so the interface does not freeze.
      *
      * @throws IOException if an I/O error occurs when closing this socket.
      */
     public void closeAllConnection() throws IOException {
-        for (SocketAddress address: new HashSet<>(this.connectionSockets.keySet())) {
+        Set<SocketAddress> closed = new HashSet<>(this.connectionSockets.keySet());
+        for (SocketAddress address: closed) {
             Logger.printlnf("Closing address %s", address);
             closeConnection(address);
         }
+        if (!SwingUtilities.isEventDispatchThread()) {
+            awaitReaders(closed);
+            return;
+        }
+        SecondaryLoop loop = Toolkit.getDefaultToolkit().getSystemEventQueue()
+            .createSecondaryLoop();
+        Thread waiter = new Thread(() -> {
+            try {
+                awaitReaders(closed);
+            } finally {
+                loop.exit();
+            }
+        }, "p2p-close");
+        waiter.setDaemon(true);
+        waiter.start();
+        loop.enter();
+    }
+
+    /**
+     * Waits for the readers of some connections to stop, for at most
+     * {@link #CLOSE_TIMEOUT} milliseconds.
+     *
+     * @param closed the addresses of the connections
+     */
+    private void awaitReaders(Set<SocketAddress> closed) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT);
+        synchronized (readers) {
+            while (isReading(closed)) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    Logger.err("Readers still running after %d ms", CLOSE_TIMEOUT);
+                    return;
+                }
+                try {
+                    readers.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if another thread still reads from one of some connections.
+     *
+     * @param addresses the addresses of the connections
+     * @return true if a reader of the connections, other than the caller, is
+     *         submitted or runs
+     */
+    private boolean isReading(Set<SocketAddress> addresses) {
+        for (SocketAddress address: addresses) {
+            Socket socket = readers.get(address);
+            if (socket != null && socket != reading.get()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -420,6 +593,10 @@ public class SimpleP2PServer {
      */
     public void remoteCloseConnection(Socket client) {
         this.connectionSockets.remove(client.getRemoteSocketAddress());
+        UdpChannel channel = udp;
+        if (channel != null) {
+            channel.removePeer(client.getRemoteSocketAddress());
+        }
         this.controller.remoteCloseConnection(client.getRemoteSocketAddress());
     }
 
@@ -433,6 +610,41 @@ public class SimpleP2PServer {
      * @param client the socket connecting the server and a specified client
      */
     public void acceptMessage(Socket client) {
+        SocketAddress address = client.getRemoteSocketAddress();
+        synchronized (readers) {
+            readers.put(address, client);
+        }
+        reading.set(client);
+        try {
+            readMessages(client);
+        } finally {
+            reading.remove();
+            synchronized (readers) {
+                readers.remove(address, client);
+                readers.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Submits the reader of a connection, registered first so that closing waits for
+     * it even before it runs.
+     *
+     * @param client the socket connecting the server and a specified client
+     */
+    private void startReading(Socket client) {
+        synchronized (readers) {
+            readers.put(client.getRemoteSocketAddress(), client);
+        }
+        this.outputExecutor.submit(() -> acceptMessage(client));
+    }
+
+    /**
+     * This method receives messages from the remote side until the connection closes.
+     *
+     * @param client the socket connecting the server and a specified client
+     */
+    private void readMessages(Socket client) {
         // takes input from the client socket
         DataInputStream in;
         try {
@@ -450,8 +662,29 @@ public class SimpleP2PServer {
         while (!line.equals("CLOSE")) {
             try {
                 line = in.readUTF();
+                RECEIVE_BACKLOG.set(in.available());
+                if (EventJournal.isOpen()) {
+                    EventJournal.recordMessage(EventJournal.TYPE_NET_IN,
+                        GameEvents.tagOf(line), GameEvents.sizeOf(line),
+                        client.getRemoteSocketAddress());
+                }
+                if (line.startsWith(Tags.UDP_TAG + ",")) {
+                    addUdpPeer(client.getRemoteSocketAddress(), line);
+                    continue;
+                }
+                long start = System.nanoTime();
+                GameEvents.MessageReceived event = new GameEvents.MessageReceived();
+                event.begin();
                 controller.receiveRemoteMessage(client.getRemoteSocketAddress(),
                     line);
+                RECEIVE_TIME.recordSince(start);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.tag = GameEvents.tagOf(line);
+                    event.bytes = GameEvents.sizeOf(line);
+                    event.peer = String.valueOf(client.getRemoteSocketAddress());
+                    event.commit();
+                }
             } catch (RuntimeException e) {
                 e.printStackTrace();
             } catch (IOException i) {
@@ -480,11 +713,34 @@ public class SimpleP2PServer {
                 + "\" without connection.");
             return;
         }
-        DataOutputStream out = new DataOutputStream(
-            this.connectionSockets.get(target).getOutputStream());
-        out.writeUTF(String.join(",", message));
-        Logger.printColor(Logger.ANSI_YELLOW, 1, "-> %s: %s",
-            connectionSockets.get(target).getRemoteSocketAddress(), Arrays.toString(message));
+        long start = System.nanoTime();
+        GameEvents.MessageSent event = new GameEvents.MessageSent();
+        event.begin();
+        String line = String.join(",", message);
+        SEND_PENDING.add(1);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                this.connectionSockets.get(target).getOutputStream());
+            out.writeUTF(line);
+        } finally {
+            SEND_PENDING.add(-1);
+            SEND_TIME.recordSince(start);
+        }
+        if (EventJournal.isOpen()) {
+            EventJournal.recordMessage(EventJournal.TYPE_NET_OUT,
+                message.length == 0 ? "" : message[0], GameEvents.sizeOf(line), target);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.tag = message.length == 0 ? "" : message[0];
+            event.bytes = GameEvents.sizeOf(line);
+            event.peer = String.valueOf(target);
+            event.commit();
+        }
+        if (Logger.isEnabled(Logger.Level.DEBUG)) {
+            Logger.printColor(Logger.ANSI_YELLOW, 1, "-> %s: %s", target,
+                Arrays.toString(message));
+        }
     }
 
     /**
@@ -496,6 +752,7 @@ public class SimpleP2PServer {
      *              output stream or if the socket is not connected.
      */
     public void broadcast(String... message) throws IOException {
+        stream(message);
         if (this.connectionSockets.isEmpty()) {
             return;
         }
@@ -503,4 +760,157 @@ public class SimpleP2PServer {
             send(client.getRemoteSocketAddress(), message);
         }
     }
+
+    // ==================================================================================
+    //                                   SPECTATORS
+    // ==================================================================================
+
+    /**
+     * Sets the hub streaming the messages broadcast to the spectators.
+     *
+     * @param hub the started hub; {@code null} to stop streaming
+     */
+    public void setSpectatorHub(SpectatorHub hub) {
+        this.spectatorHub = hub;
+    }
+
+    /**
+     * Checks if the messages broadcast are streamed to spectators.
+     *
+     * @return true if a hub is set
+     */
+    public boolean isStreaming() {
+        return spectatorHub != null;
+    }
+
+    /**
+     * Streams a message to the spectators, if any, without sending it to the remote
+     * hosts. {@link #broadcast(String...)} streams the messages itself.
+     *
+     * @param message the message. Multiple parts of the message will be joined by a
+     *                comma
+     */
+    public void stream(String... message) {
+        SpectatorHub hub = spectatorHub;
+        if (hub != null) {
+            hub.publish(message);
+        }
+    }
+
+    // ==================================================================================
+    //                                      UDP
+    // ==================================================================================
+
+    /**
+     * Opens a UDP channel for the messages sent with
+     * {@link #sendUnreliable(SocketAddress, String, String...)}. The channel is used
+     * with the remote hosts that have one too: each side announces its UDP port over
+     * TCP ({@link Tags#UDP_TAG}) when connected, so it should be opened before
+     * connecting.
+     *
+     * @throws SocketException if no UDP port can be bound
+     */
+    public void openUdp() throws SocketException {
+        if (udp == null) {
+            udp = new UdpChannel(0, controller::receiveRemoteMessage);
+            Logger.printlnf("UDP channel on port %d", udp.getPort());
+        }
+    }
+
+    /**
+     * Closes the UDP channel, if open. The moves are sent over TCP from then on.
+     */
+    public void closeUdp() {
+        UdpChannel channel = udp;
+        udp = null;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks if messages can be sent to a remote host over UDP.
+     *
+     * @param target the address of the remote host
+     * @return true if both sides have a UDP channel
+     */
+    public boolean hasUdp(SocketAddress target) {
+        UdpChannel channel = udp;
+        return channel != null && channel.hasPeer(target);
+    }
+
+    /**
+     * Sends a message that a newer one with the same key makes useless, such as where
+     * an agent is, over UDP if the remote host has a UDP channel and over TCP
+     * otherwise. Over UDP, the message may be lost, and is dropped if a newer one
+     * with the same key has been received.
+     *
+     * @param target the target to receive this message
+     * @param key what the message updates, such as the tag and the agent of a move
+     * @param message the message that is about to be sent. Multiple parts of the
+     *                 message will be joined by a comma
+     * @throws IOException  if an I/O error occurs when sending the message
+     */
+    public void sendUnreliable(SocketAddress target, String key, String... message)
+            throws IOException {
+        UdpChannel channel = udp;
+        if (channel == null || !channel.send(target, key, String.join(",", message))) {
+            send(target, message);
+        }
+    }
+
+    /**
+     * Sends a message that a newer one with the same key makes useless to every remote
+     * host and the spectators, see {@link #sendUnreliable(SocketAddress, String,
+     * String...)}.
+     *
+     * @param key what the message updates, such as the tag and the agent of a move
+     * @param message the message that is about to be sent. Multiple parts of the
+     *                message will be joined by a comma
+     * @throws IOException  if an I/O error occurs when sending the message
+     */
+    public void broadcastUnreliable(String key, String... message) throws IOException {
+        stream(message);
+        for (SocketAddress target: this.connectionSockets.keySet()) {
+            sendUnreliable(target, key, message);
+        }
+    }
+
+    /**
+     * Tells a remote host the UDP port of this side, if it has a UDP channel.
+     *
+     * @param target the address of the remote host
+     */
+    private void announceUdp(SocketAddress target) {
+        UdpChannel channel = udp;
+        if (channel == null) {
+            return;
+        }
+        try {
+            send(target, Tags.UDP_TAG, String.valueOf(channel.getPort()));
+        } catch (IOException e) {
+            Logger.println("ERROR:" + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Registers the UDP port a remote host announced, if this side has a UDP channel.
+     *
+     * @param from the address of the remote host
+     * @param line the announcement, {@code [UDP],<port>}
+     */
+    private void addUdpPeer(SocketAddress from, String line) {
+        UdpChannel channel = udp;
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.addPeer(from, UdpChannel.addressOf(from,
+                Integer.parseInt(line.substring(Tags.UDP_TAG.length() + 1))));
+            Logger.printlnf("Sending movements to %s over UDP", from);
+        } catch (IllegalArgumentException e) {
+            Logger.err("Illegal UDP announcement \"%s\" from %s", line, from);
+        }
+    }
 }
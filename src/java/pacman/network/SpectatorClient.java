@@ -0,0 +1,156 @@
+package pacman.network;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import pacman.controller.NetworkController;
+import pacman.util.Logger;
+
+/**
+ * This class watches a game streamed by a {@link SpectatorHub}. It is read-only: it
+ * never sends a message of the game, and passes the messages received to the
+ * controller as if they came from the host. If given a hub, it relays the frames to
+ * the spectators of the hub as they are, so it can take the spectators the hub above
+ * redirects to it.
+ *
+ * @version 1.0
+ */
+public final class SpectatorClient {
+    /** Contains the largest number of redirections followed when connecting. */
+    public static final int MAX_REDIRECTS = 16;
+
+    /** Contains the controller of this application. */
+    private final NetworkController controller;
+
+    /** Contains the hub relaying the stream; {@code null} if not relayed. */
+    private final SpectatorHub relay;
+
+    /** Contains the socket connected to the hub above; {@code null} if closed. */
+    private volatile Socket socket;
+
+    /**
+     * Creates a spectator. It watches nothing until connected.
+     *
+     * @param controller the controller receiving the messages of the game
+     * @param relay the started hub relaying the stream; {@code null} if not relayed
+     */
+    public SpectatorClient(NetworkController controller, SpectatorHub relay) {
+        this.controller = controller;
+        this.relay = relay;
+    }
+
+    /**
+     * Connects to a hub, following its redirections, and starts watching.
+     *
+     * @param address the address of the hub
+     * @param port the port of the hub
+     * @return the address of the hub streaming to this spectator
+     * @throws IOException if no hub takes this spectator
+     * @modifies socket
+     * @effects the messages of the game are passed to the controller
+     */
+    public SocketAddress connect(String address, int port) throws IOException {
+        close();
+        for (int i = 0; i <= MAX_REDIRECTS; i++) {
+            Socket s = new Socket();
+            DataInputStream in;
+            String[] answer;
+            try {
+                s.connect(new InetSocketAddress(address, port),
+                    SpectatorHub.HANDSHAKE_TIMEOUT);
+                s.setTcpNoDelay(true);
+                s.setSoTimeout(SpectatorHub.HANDSHAKE_TIMEOUT);
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                out.writeUTF(String.join(",", SpectatorHub.SPECTATE,
+                    String.valueOf(relay == null ? 0 : relay.getPort())));
+                in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                answer = in.readUTF().split(",");
+                // The stream is idle between games
+                s.setSoTimeout(0);
+            } catch (IOException e) {
+                s.close();
+                throw e;
+            }
+            if (answer[0].equals(SpectatorHub.WELCOME)) {
+                Logger.printlnf("Watching the game from %s", s.getRemoteSocketAddress());
+                socket = s;
+                ConnectionThreads.startDaemon(() -> receive(s, in), "spectator-receive");
+                return s.getRemoteSocketAddress();
+            }
+            s.close();
+            if (!answer[0].equals(SpectatorHub.REDIRECT) || answer.length < 3) {
+                throw new IOException("The game has too many spectators.");
+            }
+            Logger.printlnf("Redirected to %s:%s", answer[1], answer[2]);
+            address = answer[1];
+            port = Integer.parseInt(answer[2]);
+        }
+        throw new IOException("Too many redirections.");
+    }
+
+    /**
+     * Checks if this spectator is watching a game.
+     *
+     * @return true if connected to a hub
+     */
+    public boolean isConnected() {
+        return socket != null;
+    }
+
+    /**
+     * Stops watching. The controller is not told.
+     */
+    public void close() {
+        Socket s = socket;
+        socket = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Reads the frames from the hub until the connection is closed, relaying them
+     * and passing their messages to the controller.
+     *
+     * @param s the socket connected to the hub
+     * @param in the stream from the hub
+     */
+    private void receive(Socket s, DataInputStream in) {
+        SocketAddress from = s.getRemoteSocketAddress();
+        try {
+            while (true) {
+                byte[] frame = SpectatorHub.readFrame(in);
+                List<String> messages = Arrays.asList(
+                    SpectatorHub.decompress(frame).split("\n"));
+                if (relay != null) {
+                    relay.relay(frame, messages);
+                }
+                for (String message: messages) {
+                    try {
+                        controller.receiveRemoteMessage(from, message);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (IOException | DataFormatException e) {
+            Logger.printlnf("Stream from %s closed: %s", from, e.getMessage());
+        }
+        if (socket == s) {
+            // Closed by the hub, not by this side
+            close();
+            controller.remoteCloseConnection(from);
+        }
+    }
+}
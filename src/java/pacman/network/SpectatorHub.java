@@ -0,0 +1,595 @@
+package pacman.network;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import pacman.util.GameEvents;
+import pacman.util.Logger;
+import pacman.util.Metrics;
+
+/**
+ * This class streams a game to read-only spectators.
+ *
+ * <p>The messages of the game are batched for {@value #FLUSH_MILLIS} ms and each
+ * batch is compressed once into a frame with a preset dictionary of the words of the
+ * protocol, so a frame is decoded on its own and a relay passes it on without
+ * decompressing it again. A hub sends to at most {@code fanOut} spectators; a
+ * spectator connecting to a full hub is redirected to one of the spectators, which
+ * relays the stream with a hub of its own. The spectators thus form a tree, and no
+ * node uploads the stream more than {@code fanOut} times, however many watch.
+ *
+ * <p>Every spectator has its own queue of frames and its own thread writing them, so
+ * a slow spectator never holds up the game or the other spectators; one that falls
+ * {@value #MAX_QUEUED_FRAMES} frames behind is dropped. A spectator joining in the
+ * middle of a game first receives the last start message, the latest message of
+ * each kept tag and agent, and then the current state of the game, for what the kept
+ * messages do not tell, such as the items eaten.
+ *
+ * <p>The protocol on the port of the hub: the spectator sends
+ * {@code writeUTF("[SPECTATE],<relay port>")}, with 0 as the port if it does not
+ * relay, and the hub answers {@code writeUTF("[WELCOME]")},
+ * {@code writeUTF("[REDIRECT],<address>,<port>")} or {@code writeUTF("[FULL]")}.
+ * After a welcome, the hub sends frames, each an int length followed by the deflated
+ * messages, one per line.
+ *
+ * @version 1.0
+ */
+public final class SpectatorHub {
+    /** Contains the default number of spectators a hub sends to. */
+    public static final int DEFAULT_FAN_OUT = 4;
+
+    /** Contains the time in milliseconds the messages are batched for. */
+    public static final long FLUSH_MILLIS = 50;
+
+    /** Contains the number of characters after which a batch is sent at once. */
+    public static final int MAX_BATCH = 16 * 1024;
+
+    /** Contains the number of frames a spectator can fall behind before dropped. */
+    public static final int MAX_QUEUED_FRAMES = 64;
+
+    /** Contains the largest frame accepted, compressed or not. */
+    static final int MAX_FRAME = 1 << 20;
+
+    /** Contains the greeting of a spectator. */
+    static final String SPECTATE = "[SPECTATE]";
+
+    /** Contains the answer of a hub taking a spectator. */
+    static final String WELCOME = "[WELCOME]";
+
+    /** Contains the answer of a full hub sending the spectator to a relay. */
+    static final String REDIRECT = "[REDIRECT]";
+
+    /** Contains the answer of a full hub without any relay. */
+    static final String FULL = "[FULL]";
+
+    /** Contains the time in milliseconds each side has for the handshake. */
+    static final int HANDSHAKE_TIMEOUT = 5000;
+
+    /** Contains the words the frames are likely to contain, most frequent last. */
+    private static final byte[] DICTIONARY = ("[START],[GAME_OVER],[SCARE],[EAT],[DIE],"
+        + "pink,red,yellow,blue,[DIRECTION],UP,DOWN,LEFT,RIGHT,\n[LOCATION],0,1,2,3,4,"
+        + "5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,\n[LOCATION],0,")
+        .getBytes(StandardCharsets.US_ASCII);
+
+    /** Contains the number of spectators sent to directly. */
+    private static final Metrics.Gauge CHILDREN = Metrics.gauge("spectator.children");
+
+    /** Contains the number of spectators dropped for falling behind. */
+    private static final Metrics.Counter DROPPED = Metrics.counter("spectator.dropped");
+
+    /** Contains the number of bytes of the messages before compression. */
+    private static final Metrics.Counter RAW_BYTES = Metrics.counter("spectator.raw");
+
+    /** Contains the number of bytes of the frames. */
+    private static final Metrics.Counter FRAME_BYTES =
+        Metrics.counter("spectator.frames");
+
+    /**
+     * This class contains a spectator the hub sends to.
+     */
+    private final class Child {
+        /** Contains the socket connected to the spectator. */
+        private final Socket socket;
+
+        /** Contains the frames waiting to be sent. */
+        private final BlockingQueue<byte[]> frames =
+            new ArrayBlockingQueue<>(MAX_QUEUED_FRAMES);
+
+        /** Contains the port the spectator relays on; 0 if it does not relay. */
+        private int relayPort;
+
+        /** Contains the thread sending to the spectator; {@code null} if not started. */
+        private volatile Thread writer;
+
+        /**
+         * Creates a spectator.
+         *
+         * @param socket the socket connected to the spectator
+         */
+        Child(Socket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Greets the spectator, then sends it the frames until it is closed.
+         */
+        void run() {
+            // Set before checking the socket, so that a removal either is seen here
+            // or interrupts the wait for the next frame
+            writer = Thread.currentThread();
+            try {
+                DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+                if (!greet(out)) {
+                    return;
+                }
+                while (!socket.isClosed()) {
+                    writeFrame(out, frames.take());
+                }
+            } catch (IOException | InterruptedException e) {
+                Logger.printlnf("Spectator %s closed: %s",
+                    socket.getRemoteSocketAddress(), e.getMessage());
+            } finally {
+                remove(this);
+            }
+        }
+
+        /**
+         * Reads the greeting of the spectator and answers it.
+         *
+         * @param out the stream to the spectator
+         * @return true if the spectator is taken, false if it is sent away
+         * @throws IOException if the spectator cannot be read or written
+         */
+        private boolean greet(DataOutputStream out) throws IOException {
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            String[] tokens = new DataInputStream(socket.getInputStream()).readUTF()
+                .split(",");
+            socket.setSoTimeout(0);
+            if (!tokens[0].equals(SPECTATE)) {
+                throw new IOException("Unknown greeting " + tokens[0]);
+            }
+            try {
+                relayPort = tokens.length > 1 ? Integer.parseInt(tokens[1]) : 0;
+            } catch (NumberFormatException e) {
+                relayPort = 0;
+            }
+            String answer = admit(this);
+            out.writeUTF(answer);
+            out.flush();
+            Logger.printlnf("Spectator %s: %s", socket.getRemoteSocketAddress(), answer);
+            return answer.equals(WELCOME);
+        }
+    }
+
+    /** Contains the largest number of spectators sent to directly. */
+    private final int fanOut;
+
+    /** Contains the tags streamed; {@code null} for all. */
+    private final Set<String> streamedTags;
+
+    /** Contains the tags of the messages kept for spectators joining late. */
+    private final Set<String> keptTags;
+
+    /** Contains the tag of the message starting a game, which clears the kept ones. */
+    private final String startTag;
+
+    /** Contains the message of the current state of the game; {@code null} if none. */
+    private final Supplier<String> snapshot;
+
+    /** Contains the spectators sent to directly. Guarded by itself. */
+    private final List<Child> children = new ArrayList<>();
+
+    /**
+     * Contains the messages kept for spectators joining late, by tag and agent, the
+     * latest last. Guarded by {@link #children}.
+     */
+    private final Map<String, String> kept = new LinkedHashMap<>();
+
+    /** Contains the messages waiting to be batched. Guarded by itself. */
+    private final StringBuilder batch = new StringBuilder();
+
+    /** Contains the number of redirections, for spreading them over the relays. */
+    private int redirections;
+
+    /** Contains the server socket the spectators connect to. */
+    private ServerSocket serverSocket;
+
+    /** Contains if the hub is closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a hub. It takes no spectator until started.
+     *
+     * @param fanOut the largest number of spectators sent to directly
+     * @param streamedTags the tags of the messages streamed; {@code null} for all
+     * @param keptTags the tags of the messages kept, the latest of each agent, for
+     *                 the spectators joining late
+     * @param startTag the tag of the message starting a game
+     * @param snapshot gives the message of the current state of the game, sent to the
+     *                 spectators joining during a game after the kept messages, or
+     *                 {@code null} if there is no game; {@code null} to send none
+     * @requires fanOut &gt; 0
+     */
+    public SpectatorHub(int fanOut, Set<String> streamedTags, Set<String> keptTags,
+                        String startTag, Supplier<String> snapshot) {
+        this.fanOut = fanOut;
+        this.streamedTags = streamedTags;
+        this.keptTags = keptTags;
+        this.startTag = startTag;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Starts taking spectators and sending them the messages published.
+     *
+     * @param port the port to listen on; 0 for a free port
+     * @throws IOException if the port cannot be listened on
+     * @modifies serverSocket
+     * @effects spectators can connect to the port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(port);
+        startDaemon(this::acceptLoop, "spectator-accept");
+        startDaemon(this::batchLoop, "spectator-batch");
+        Logger.printlnf("Streaming to spectators on port %d", getPort());
+    }
+
+    /**
+     * Gets the port the spectators connect to.
+     *
+     * @return the port; 0 if not started
+     */
+    public synchronized int getPort() {
+        return serverSocket == null ? 0 : serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the number of spectators sent to directly, not counting those they relay
+     * to.
+     *
+     * @return the number of spectators
+     */
+    public int getSpectatorCount() {
+        synchronized (children) {
+            return children.size();
+        }
+    }
+
+    /**
+     * Publishes a message of the game to the spectators, if its tag is streamed. It
+     * only appends to the batch, so it is cheap enough to call from the game.
+     *
+     * @param message the message, whose parts are joined by a comma
+     */
+    public void publish(String... message) {
+        String line = String.join(",", message);
+        if (closed || (streamedTags != null
+                && !streamedTags.contains(GameEvents.tagOf(line)))) {
+            return;
+        }
+        synchronized (batch) {
+            batch.append(line).append('\n');
+            if (batch.length() >= MAX_BATCH) {
+                batch.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Relays a frame received from the hub above to the spectators below, without
+     * compressing it again.
+     *
+     * @param frame the frame
+     * @param messages the messages of the frame
+     */
+    void relay(byte[] frame, List<String> messages) {
+        if (!closed) {
+            deliver(frame, messages);
+        }
+    }
+
+    /**
+     * Closes the hub and disconnects the spectators.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            if (serverSocket != null) {
+                try {
+                    serverSocket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        synchronized (batch) {
+            batch.notifyAll();
+        }
+        List<Child> all;
+        synchronized (children) {
+            all = new ArrayList<>(children);
+        }
+        for (Child child: all) {
+            remove(child);
+        }
+    }
+
+    /**
+     * Takes the spectators connecting, each on its own thread, until closed.
+     */
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Child child = new Child(socket);
+                startDaemon(child::run, "spectator-" + socket.getRemoteSocketAddress());
+            } catch (SocketException e) {
+                // Closed from another thread
+                break;
+            } catch (IOException e) {
+                Logger.println("ERROR:" + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Sends a frame of the batched messages every {@link #FLUSH_MILLIS} ms, or at
+     * once when the batch is large, until closed.
+     */
+    private void batchLoop() {
+        while (!closed) {
+            String text;
+            synchronized (batch) {
+                try {
+                    batch.wait(FLUSH_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (batch.length() == 0) {
+                    continue;
+                }
+                text = batch.toString();
+                batch.setLength(0);
+            }
+            byte[] frame = compress(text);
+            RAW_BYTES.add(text.length());
+            FRAME_BYTES.add(frame.length);
+            deliver(frame, Arrays.asList(text.split("\n")));
+        }
+    }
+
+    /**
+     * Queues a frame to every spectator, dropping those too far behind.
+     *
+     * @param frame the frame
+     * @param messages the messages of the frame
+     */
+    private void deliver(byte[] frame, List<String> messages) {
+        List<Child> late = new ArrayList<>();
+        synchronized (children) {
+            for (String message: messages) {
+                keep(message);
+            }
+            for (Child child: children) {
+                if (!child.frames.offer(frame)) {
+                    late.add(child);
+                }
+            }
+        }
+        for (Child child: late) {
+            DROPPED.increment();
+            Logger.printlnf("Dropping spectator %s: too far behind",
+                child.socket.getRemoteSocketAddress());
+            remove(child);
+        }
+    }
+
+    /**
+     * Keeps a message for the spectators joining late, if its tag is kept.
+     *
+     * @param message the message
+     * @requires the caller holds the lock of {@link #children}
+     */
+    private void keep(String message) {
+        String[] tokens = message.split(",", 3);
+        if (tokens[0].equals(startTag)) {
+            kept.clear();
+            kept.put(tokens[0], message);
+        } else if (keptTags.contains(tokens[0])) {
+            String key = tokens.length > 1 ? tokens[0] + tokens[1] : tokens[0];
+            kept.remove(key);
+            kept.put(key, message);
+        }
+    }
+
+    /**
+     * Takes a spectator that has greeted the hub, or chooses where to send it.
+     *
+     * @param child the spectator
+     * @return the answer to the spectator
+     */
+    private String admit(Child child) {
+        synchronized (children) {
+            if (closed) {
+                return FULL;
+            }
+            if (children.size() < fanOut) {
+                if (!kept.isEmpty()) {
+                    // Taken under the lock, so that no frame comes between
+                    List<String> messages = new ArrayList<>(kept.values());
+                    String state = snapshot == null || !kept.containsKey(startTag)
+                        ? null : snapshot.get();
+                    if (state != null) {
+                        messages.add(state);
+                    }
+                    child.frames.offer(compress(String.join("\n", messages)));
+                }
+                children.add(child);
+                CHILDREN.set(children.size());
+                return WELCOME;
+            }
+            List<Child> relays = new ArrayList<>();
+            for (Child c: children) {
+                if (c.relayPort > 0) {
+                    relays.add(c);
+                }
+            }
+            if (relays.isEmpty()) {
+                return FULL;
+            }
+            Child relay = relays.get(redirections++ % relays.size());
+            return String.join(",", REDIRECT,
+                relay.socket.getInetAddress().getHostAddress(),
+                String.valueOf(relay.relayPort));
+        }
+    }
+
+    /**
+     * Stops sending to a spectator and closes its connection.
+     *
+     * @param child the spectator
+     */
+    private void remove(Child child) {
+        synchronized (children) {
+            if (children.remove(child)) {
+                CHILDREN.set(children.size());
+            }
+        }
+        try {
+            child.socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Wake the writer up if it waits for a frame that will never come
+        Thread writer = child.writer;
+        if (writer != null && writer != Thread.currentThread()) {
+            writer.interrupt();
+        }
+    }
+
+    /**
+     * Starts a daemon thread, virtual if enabled, so that idle spectators are cheap.
+     *
+     * @param task the task of the thread
+     * @param name the name of the thread
+     */
+    private static void startDaemon(Runnable task, String name) {
+        ConnectionThreads.startDaemon(task, name);
+    }
+
+    // ==================================================================================
+    //                                     FRAMES
+    // ==================================================================================
+
+    /**
+     * Compresses messages into a frame.
+     *
+     * @param text the messages, one per line
+     * @return the frame
+     */
+    static byte[] compress(String text) {
+        byte[] input = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses a frame.
+     *
+     * @param frame the frame
+     * @return the messages, one per line
+     * @throws DataFormatException if the frame is corrupt or too large
+     */
+    static String decompress(byte[] frame) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(frame);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(frame.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new DataFormatException("Truncated frame");
+                    }
+                }
+                out.write(buffer, 0, length);
+                if (out.size() > MAX_FRAME) {
+                    throw new DataFormatException("Frame over " + MAX_FRAME + " bytes");
+                }
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes a frame.
+     *
+     * @param out the stream to write to
+     * @param frame the frame
+     * @throws IOException if the stream cannot be written
+     */
+    static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    /**
+     * Reads a frame.
+     *
+     * @param in the stream to read from
+     * @return the frame
+     * @throws IOException if the stream cannot be read or the frame is too large
+     */
+    static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME) {
+            throw new IOException("Illegal frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,241 @@
+package pacman.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import pacman.replay.EventJournal;
+import pacman.util.GameEvents;
+import pacman.util.Logger;
+import pacman.util.Metrics;
+
+/**
+ * This class sends messages to the peers of a {@link SimpleP2PServer} over UDP,
+ * for the updates where a newer message makes the older ones useless, such as where
+ * an agent is. Unlike TCP, a lost packet does not hold back the packets after it;
+ * it is simply never received.
+ *
+ * <p>A packet is a sequence number (long), a key (UTF) and the message (UTF). The
+ * sequence numbers of a sender only grow, and a packet is dropped if a packet of the
+ * same sender with the same key and a larger number has been received, so a late
+ * packet never undoes a newer one. The peers are known by the address of their TCP
+ * connection: the UDP address of a peer is registered once it announces it over
+ * TCP, and the messages received are passed on with the TCP address.
+ *
+ * @version 1.0
+ */
+public final class UdpChannel {
+    /** Contains the largest packet sent; longer messages should go over TCP. */
+    public static final int MAX_PACKET = 512;
+
+    /** Contains the number of packets sent. */
+    private static final Metrics.Counter SENT = Metrics.counter("network.udp.sent");
+
+    /** Contains the number of packets received and passed on. */
+    private static final Metrics.Counter RECEIVED =
+        Metrics.counter("network.udp.received");
+
+    /** Contains the number of packets dropped as older than one received. */
+    private static final Metrics.Counter STALE = Metrics.counter("network.udp.stale");
+
+    /** Contains the socket of the channel. */
+    private final DatagramSocket socket;
+
+    /** Contains the sequence number of the last packet sent. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Contains the UDP address of each peer, by the address of its connection. */
+    private final Map<SocketAddress, SocketAddress> peers = new ConcurrentHashMap<>();
+
+    /** Contains the address of the connection of each peer, by its UDP address. */
+    private final Map<SocketAddress, SocketAddress> connections =
+        new ConcurrentHashMap<>();
+
+    /** Contains the largest sequence number received for each key, by UDP address. */
+    private final Map<SocketAddress, Map<String, Long>> received =
+        new ConcurrentHashMap<>();
+
+    /** Contains what the messages received are passed to. */
+    private final BiConsumer<SocketAddress, String> receiver;
+
+    /**
+     * Opens a channel and starts receiving.
+     *
+     * @param port the local port; 0 for a free port
+     * @param receiver what the messages received are passed to, with the address of
+     *                 the connection of the sender
+     * @throws SocketException if the port cannot be bound
+     */
+    public UdpChannel(int port, BiConsumer<SocketAddress, String> receiver)
+            throws SocketException {
+        this.socket = new DatagramSocket(port);
+        this.receiver = receiver;
+        ConnectionThreads.startDaemon(this::receiveLoop, "udp-receive");
+    }
+
+    /**
+     * Gets the local port of the channel.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Registers the UDP address of a peer, forgetting what it sent before.
+     *
+     * @param connection the address of the connection of the peer
+     * @param address the UDP address of the peer
+     */
+    public void addPeer(SocketAddress connection, SocketAddress address) {
+        removePeer(connection);
+        received.put(address, new ConcurrentHashMap<>());
+        connections.put(address, connection);
+        peers.put(connection, address);
+    }
+
+    /**
+     * Forgets a peer.
+     *
+     * @param connection the address of the connection of the peer
+     */
+    public void removePeer(SocketAddress connection) {
+        SocketAddress address = peers.remove(connection);
+        if (address != null) {
+            connections.remove(address);
+            received.remove(address);
+        }
+    }
+
+    /**
+     * Checks if the UDP address of a peer is known.
+     *
+     * @param connection the address of the connection of the peer
+     * @return true if messages can be sent to the peer over UDP
+     */
+    public boolean hasPeer(SocketAddress connection) {
+        return peers.containsKey(connection);
+    }
+
+    /**
+     * Sends a message to a peer, if its UDP address is known.
+     *
+     * @param connection the address of the connection of the peer
+     * @param key what the message updates, such as the tag and the agent of a move;
+     *            a message is dropped if a newer one with the same key has been
+     *            received
+     * @param message the message
+     * @return true if sent; false if the peer is unknown or the message too long
+     * @throws IOException if the packet cannot be sent
+     */
+    public boolean send(SocketAddress connection, String key, String message)
+            throws IOException {
+        SocketAddress address = peers.get(connection);
+        if (address == null) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(sequence.incrementAndGet());
+        out.writeUTF(key);
+        out.writeUTF(message);
+        if (bytes.size() > MAX_PACKET) {
+            return false;
+        }
+        socket.send(new DatagramPacket(bytes.toByteArray(), bytes.size(), address));
+        SENT.increment();
+        if (EventJournal.isOpen()) {
+            EventJournal.recordMessage(EventJournal.TYPE_NET_OUT,
+                GameEvents.tagOf(message), bytes.size(), connection);
+        }
+        return true;
+    }
+
+    /**
+     * Closes the channel.
+     */
+    public void close() {
+        socket.close();
+    }
+
+    /**
+     * Receives the packets until the channel is closed, passing on those that are
+     * from a known peer and newer than the ones received.
+     */
+    private void receiveLoop() {
+        byte[] buffer = new byte[MAX_PACKET];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (!socket.isClosed()) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (IOException e) {
+                // Closed from another thread
+                break;
+            }
+            SocketAddress address = packet.getSocketAddress();
+            SocketAddress connection = connections.get(address);
+            Map<String, Long> last = received.get(address);
+            if (connection == null || last == null) {
+                continue;
+            }
+            long seq;
+            String key;
+            String message;
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    buffer, packet.getOffset(), packet.getLength()));
+                seq = in.readLong();
+                key = in.readUTF();
+                message = in.readUTF();
+            } catch (IOException e) {
+                Logger.err("Malformed packet from %s", address);
+                continue;
+            }
+            if (last.getOrDefault(key, 0L) >= seq) {
+                STALE.increment();
+                continue;
+            }
+            last.put(key, seq);
+            RECEIVED.increment();
+            if (EventJournal.isOpen()) {
+                EventJournal.recordMessage(EventJournal.TYPE_NET_IN,
+                    GameEvents.tagOf(message), packet.getLength(), connection);
+            }
+            try {
+                receiver.accept(connection, message);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Makes the UDP address of a peer from the address of its connection and the
+     * port it announced.
+     *
+     * @param connection the address of the connection of the peer
+     * @param port the UDP port of the peer
+     * @return the UDP address of the peer
+     * @throws IllegalArgumentException if the connection has no IP address
+     */
+    static SocketAddress addressOf(SocketAddress connection, int port) {
+        if (!(connection instanceof InetSocketAddress)
+                || ((InetSocketAddress) connection).getAddress() == null) {
+            throw new IllegalArgumentException("No IP address for " + connection);
+        }
+        return new InetSocketAddress(((InetSocketAddress) connection).getAddress(),
+            port);
+    }
+}
@@ -0,0 +1,212 @@
+package pacman.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps an always-on journal of what happened in the game, for finding out
+ * afterwards why a multiplayer game went out of sync. Unlike a replay log, it is
+ * written whether or not the game is recorded, and only keeps the last
+ * {@link #DEFAULT_CAPACITY} events. The game opens it at launch, in the same file
+ * every time, unless it is turned off.
+ *
+ * <p>The journal is a memory-mapped file of fixed-size records used as a ring: the
+ * operating system writes the pages to the file, even if the game crashes, and
+ * writing a record is a few stores into memory with no lock, no allocation and no
+ * system call. The file starts with a header of {@value #HEADER_SIZE} bytes
+ * ({@link #MAGIC}, {@link #FORMAT_VERSION}, the size of a record, the number of
+ * records and the time the journal was opened), followed by big-endian records of
+ * {@value #RECORD_SIZE} bytes:
+ * <ul>
+ * <li>sequence number (long) - 1 for the first record, 0 while being written;</li>
+ * <li>time (long) - nanoseconds since the journal was opened;</li>
+ * <li>type (int) - one of the {@code TYPE_} constants;</li>
+ * <li>three values (int) - see the type;</li>
+ * <li>text (16 bytes) - the name of the agent or the tag of the message, in
+ *     ISO-8859-1, truncated and padded with zeros.</li>
+ * </ul>
+ * {@link JournalDecoder} prints a journal.
+ *
+ * @version 1.0
+ */
+public final class EventJournal {
+    /** Contains the first four bytes of every journal ("PMJL"). */
+    public static final int MAGIC = 0x504D4A4C;
+
+    /** Contains the version of the format. */
+    public static final short FORMAT_VERSION = 1;
+
+    /** Contains the size of the header. */
+    public static final int HEADER_SIZE = 32;
+
+    /** Contains the size of a record. */
+    public static final int RECORD_SIZE = 48;
+
+    /** Contains the number of bytes of the text of a record. */
+    public static final int TEXT_SIZE = 16;
+
+    /** Contains the default number of records kept, about 3 MB. */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /** A game starts: low and high bits of the seed, hash of the maze; the role. */
+    public static final int TYPE_START = 1;
+
+    /** An agent enters a block: x, y, scores earned; the agent. */
+    public static final int TYPE_VISIT = 2;
+
+    /** The scores change: total, difference, lives; the pacman. */
+    public static final int TYPE_SCORE = 3;
+
+    /** A ghost is scared: seconds, 1 if told by the server; the ghost. */
+    public static final int TYPE_SCARE = 4;
+
+    /** A scared ghost is eaten: 1 if told by the server; the ghost. */
+    public static final int TYPE_EAT = 5;
+
+    /** A pacman dies: lives left, 1 if told by the server; the pacman. */
+    public static final int TYPE_DIE = 6;
+
+    /** A message is received: bytes, port and IPv4 address of the peer; the tag. */
+    public static final int TYPE_NET_IN = 7;
+
+    /** A message is sent: bytes, port and IPv4 address of the peer; the tag. */
+    public static final int TYPE_NET_OUT = 8;
+
+    /** The game is over: 1 if won. */
+    public static final int TYPE_GAME_OVER = 9;
+
+    /** Contains the records of the open journal; {@code null} if none. */
+    private static volatile MappedByteBuffer records;
+
+    /** Contains the number of records of the open journal. */
+    private static int capacity;
+
+    /** Contains the value of {@link System#nanoTime()} when the journal was opened. */
+    private static long startNanos;
+
+    /** Contains the sequence number of the last record claimed. */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    /** Hide the constructor. */
+    private EventJournal() {}
+
+    /**
+     * Opens a journal, replacing the journal open, if any. The file is emptied.
+     *
+     * @param file the file of the journal
+     * @param recordNum the number of records kept
+     * @throws IOException if the file cannot be created or mapped
+     * @requires recordNum &gt; 0
+     * @modifies records, capacity, startNanos
+     * @effects the events are recorded into the file
+     */
+    public static synchronized void open(File file, int recordNum) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        long size = HEADER_SIZE + (long) RECORD_SIZE * recordNum;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putShort(4, FORMAT_VERSION);
+            buffer.putShort(6, (short) RECORD_SIZE);
+            buffer.putInt(8, recordNum);
+            buffer.putLong(12, System.currentTimeMillis());
+            records = null;
+            capacity = recordNum;
+            startNanos = System.nanoTime();
+            SEQUENCE.set(0);
+            records = buffer;
+        }
+    }
+
+    /**
+     * Stops recording into the journal. The file keeps the records.
+     */
+    public static synchronized void close() {
+        MappedByteBuffer buffer = records;
+        records = null;
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Checks if a journal is open.
+     *
+     * @return true if the events are recorded
+     */
+    public static boolean isOpen() {
+        return records != null;
+    }
+
+    /**
+     * Records an event, if a journal is open. Thread safe; the oldest record is
+     * overwritten when the journal is full.
+     *
+     * @param type the type of the event, one of the {@code TYPE_} constants
+     * @param text the name of the agent or the tag of the message; may be {@code null}
+     * @param a the first value
+     * @param b the second value
+     * @param c the third value
+     */
+    public static void record(int type, String text, int a, int b, int c) {
+        ByteBuffer buffer = records;
+        if (buffer == null) {
+            return;
+        }
+        long seq = SEQUENCE.incrementAndGet();
+        int offset = HEADER_SIZE + (int) ((seq - 1) % capacity) * RECORD_SIZE;
+        // The sequence number is written last, so a record cut by a crash is skipped
+        buffer.putLong(offset, 0);
+        buffer.putLong(offset + 8, System.nanoTime() - startNanos);
+        buffer.putInt(offset + 16, type);
+        buffer.putInt(offset + 20, a);
+        buffer.putInt(offset + 24, b);
+        buffer.putInt(offset + 28, c);
+        int length = text == null ? 0 : Math.min(text.length(), TEXT_SIZE);
+        for (int i = 0; i < TEXT_SIZE; i++) {
+            buffer.put(offset + 32 + i, i < length ? (byte) text.charAt(i) : 0);
+        }
+        buffer.putLong(offset, seq);
+    }
+
+    /**
+     * Records a network message, if a journal is open.
+     *
+     * @param type {@link #TYPE_NET_IN} or {@link #TYPE_NET_OUT}
+     * @param tag the tag of the message
+     * @param bytes the length of the message
+     * @param peer the address of the remote side
+     */
+    public static void recordMessage(int type, String tag, int bytes,
+                                     SocketAddress peer) {
+        if (records == null) {
+            return;
+        }
+        int port = 0;
+        int address = 0;
+        if (peer instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) peer;
+            port = inet.getPort();
+            if (inet.getAddress() instanceof Inet4Address) {
+                for (byte part: inet.getAddress().getAddress()) {
+                    address = (address << 8) | (part & 0xFF);
+                }
+            }
+        }
+        record(type, tag, bytes, port, address);
+    }
+}
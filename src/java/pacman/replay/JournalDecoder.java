@@ -0,0 +1,169 @@
+package pacman.replay;
+
+import static pacman.replay.EventJournal.FORMAT_VERSION;
+import static pacman.replay.EventJournal.HEADER_SIZE;
+import static pacman.replay.EventJournal.MAGIC;
+import static pacman.replay.EventJournal.TEXT_SIZE;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * This class prints a journal written by {@link EventJournal}, oldest record first,
+ * one line per record. It reads the file of a running or crashed game as well.
+ *
+ * @version 1.0
+ */
+public final class JournalDecoder {
+    /** Contains the names of the types of the records, indexed by type. */
+    private static final String[] TYPE_NAMES = {"?", "START", "VISIT", "SCORE", "SCARE",
+        "EAT", "DIE", "NET_IN", "NET_OUT", "GAME_OVER"};
+
+    /**
+     * Contains a record of a journal.
+     */
+    private static final class Record {
+        /** Contains the sequence number. */
+        private final long seq;
+
+        /** Contains the nanoseconds since the journal was opened. */
+        private final long nanos;
+
+        /** Contains the type. */
+        private final int type;
+
+        /** Contains the first value. */
+        private final int a;
+
+        /** Contains the second value. */
+        private final int b;
+
+        /** Contains the third value. */
+        private final int c;
+
+        /** Contains the text. */
+        private final String text;
+
+        /**
+         * Reads a record.
+         *
+         * @param buffer the journal
+         * @param offset the offset of the record
+         */
+        Record(ByteBuffer buffer, int offset) {
+            this.seq = buffer.getLong(offset);
+            this.nanos = buffer.getLong(offset + 8);
+            this.type = buffer.getInt(offset + 16);
+            this.a = buffer.getInt(offset + 20);
+            this.b = buffer.getInt(offset + 24);
+            this.c = buffer.getInt(offset + 28);
+            int length = 0;
+            while (length < TEXT_SIZE && buffer.get(offset + 32 + length) != 0) {
+                length++;
+            }
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(offset + 32 + i);
+            }
+            this.text = new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Formats the values of the record according to its type.
+         *
+         * @return the values of the record
+         */
+        private String values() {
+            switch (type) {
+                case EventJournal.TYPE_START:
+                    return String.format("seed=%d maze=%08x",
+                        ((long) b << 32) | (a & 0xFFFFFFFFL), c);
+                case EventJournal.TYPE_VISIT:
+                    return String.format("x=%d y=%d scores=%d", a, b, c);
+                case EventJournal.TYPE_SCORE:
+                    return String.format("total=%d diff=%d lives=%d", a, b, c);
+                case EventJournal.TYPE_SCARE:
+                    return String.format("seconds=%d remote=%b", a, b != 0);
+                case EventJournal.TYPE_EAT:
+                    return String.format("remote=%b", a != 0);
+                case EventJournal.TYPE_DIE:
+                    return String.format("lives=%d remote=%b", a, b != 0);
+                case EventJournal.TYPE_NET_IN:
+                case EventJournal.TYPE_NET_OUT:
+                    return String.format("bytes=%d peer=%d.%d.%d.%d:%d", a, c >>> 24,
+                        (c >>> 16) & 0xFF, (c >>> 8) & 0xFF, c & 0xFF, b);
+                case EventJournal.TYPE_GAME_OVER:
+                    return String.format("win=%b", a != 0);
+                default:
+                    return String.format("a=%d b=%d c=%d", a, b, c);
+            }
+        }
+    }
+
+    /** Hide the constructor. */
+    private JournalDecoder() {}
+
+    /**
+     * Prints a journal.
+     *
+     * @param filename the path to the journal
+     * @param out the stream to print to
+     * @throws IOException if the file cannot be read or is not a journal
+     */
+    public static void decode(String filename, PrintStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filename)));
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("\"" + filename + "\" is not an event journal.");
+        }
+        short version = buffer.getShort(4);
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+        int recordSize = buffer.getShort(6);
+        int recordNum = buffer.getInt(8);
+        long startTime = buffer.getLong(12);
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < recordNum; i++) {
+            int offset = HEADER_SIZE + i * recordSize;
+            if (offset + recordSize > buffer.limit()) {
+                break;
+            }
+            if (buffer.getLong(offset) > 0) {
+                records.add(new Record(buffer, offset));
+            }
+        }
+        records.sort(Comparator.comparingLong(r -> r.seq));
+        out.printf("# Journal opened at %s, %d of %d records%n",
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(startTime)),
+            records.size(), recordNum);
+        for (Record r: records) {
+            String type = r.type > 0 && r.type < TYPE_NAMES.length ? TYPE_NAMES[r.type]
+                : TYPE_NAMES[0];
+            out.printf("%10d %12.3f ms %-9s %-16s %s%n", r.seq, r.nanos / 1e6, type,
+                r.text, r.values());
+        }
+    }
+
+    /**
+     * Prints a journal to the console.
+     *
+     * @param args the path to the journal
+     * @throws IOException if the journal cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: JournalDecoder <journal file>");
+            return;
+        }
+        decode(args[0], System.out);
+    }
+}
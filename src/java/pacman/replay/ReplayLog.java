@@ -0,0 +1,360 @@
+package pacman.replay;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is an in-memory view of a replay log written by {@link ReplayRecorder}.
+ *
+ * <p>The log is an append-only stream of big-endian records. It starts with a header
+ * ({@link #MAGIC}, {@link #FORMAT_VERSION}, the seed used to place the agents, the
+ * start time and the text of the maze), followed by records that all start with a
+ * one-byte tag:
+ * <ul>
+ * <li>{@link #TAG_AGENT}: id (byte), name (UTF) - declares an agent;</li>
+ * <li>{@link #TAG_VISIT}: id (byte), x (short), y (short), time (int) - an agent
+ *     enters a block, which advances the replay by one frame;</li>
+ * <li>{@link #TAG_COMMAND}: id (byte), tick (int), type (byte), source (byte),
+ *     direction (byte), x (short), y (short) - a command applied to an agent;</li>
+ * <li>{@link #TAG_REMOVE}: id (byte) - an agent leaves the maze;</li>
+ * <li>{@link #TAG_SCARE}: id (byte), seconds (short), time (int) - a ghost is
+ *     scared;</li>
+ * <li>{@link #TAG_EAT}: id (byte) - a scared ghost is eaten;</li>
+ * <li>{@link #TAG_KEYFRAME}: frame (int), time (int), foods and pellets (bitmaps of
+ *     the blocks), pacman and ghosts - the full state used for seeking.</li>
+ * </ul>
+ * Times are milliseconds since the start of the recording.
+ *
+ * @version 1.0
+ */
+public class ReplayLog {
+    /** Contains the first four bytes of every replay log ("PMRP"). */
+    public static final int MAGIC = 0x504D5250;
+
+    /** Contains the version of the format. */
+    public static final short FORMAT_VERSION = 1;
+
+    /** Tag of a record declaring an agent. */
+    public static final byte TAG_AGENT = 0;
+
+    /** Tag of a record of an agent entering a block. */
+    public static final byte TAG_VISIT = 1;
+
+    /** Tag of a record of a command applied to an agent. */
+    public static final byte TAG_COMMAND = 2;
+
+    /** Tag of a record of an agent leaving the maze. */
+    public static final byte TAG_REMOVE = 3;
+
+    /** Tag of a record of a scared ghost. */
+    public static final byte TAG_SCARE = 4;
+
+    /** Tag of a record of an eaten ghost. */
+    public static final byte TAG_EAT = 5;
+
+    /** Tag of a record containing the full state of the game. */
+    public static final byte TAG_KEYFRAME = 6;
+
+    /**
+     * Contains a record in the log, except keyframes and agent declarations.
+     */
+    public static final class Event {
+        /** Contains the tag of the record. */
+        final byte tag;
+
+        /** Contains the name of the agent. */
+        final String agent;
+
+        /** Contains the x coordinate, or -1. */
+        final int x;
+
+        /** Contains the y coordinate, or -1. */
+        final int y;
+
+        /** Contains the time of the record, or -1. */
+        final int time;
+
+        /** Contains the scared seconds or the command tick, or -1. */
+        final int value;
+
+        /**
+         * Creates a new event.
+         *
+         * @param tag the tag of the record
+         * @param agent the name of the agent
+         * @param x the x coordinate
+         * @param y the y coordinate
+         * @param time the time of the record
+         * @param value the scared seconds or the command tick
+         */
+        Event(byte tag, String agent, int x, int y, int time, int value) {
+            this.tag = tag;
+            this.agent = agent;
+            this.x = x;
+            this.y = y;
+            this.time = time;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Contains the full state of the game at a certain frame.
+     */
+    public static final class Keyframe {
+        /** Contains the frame of the keyframe. */
+        final int frame;
+
+        /** Contains the time of the keyframe. */
+        final int time;
+
+        /** Contains the index in {@link #events} where the keyframe is located. */
+        final int eventIndex;
+
+        /** Contains the blocks (y * width + x) still having a food. */
+        final BitSet foods;
+
+        /** Contains the blocks (y * width + x) still having a pellet. */
+        final BitSet pellets;
+
+        /** Contains the x, y and score of each pacman. */
+        final Map<Integer, int[]> pacman;
+
+        /** Contains the x, y and remaining scared time of each ghost. */
+        final Map<String, int[]> ghosts;
+
+        /**
+         * Creates a new keyframe.
+         *
+         * @param frame the frame of the keyframe
+         * @param time the time of the keyframe
+         * @param eventIndex the index where the keyframe is located
+         * @param foods the blocks still having a food
+         * @param pellets the blocks still having a pellet
+         * @param pacman the x, y and score of each pacman
+         * @param ghosts the x, y and remaining scared time of each ghost
+         */
+        Keyframe(int frame, int time, int eventIndex, BitSet foods, BitSet pellets,
+                 Map<Integer, int[]> pacman, Map<String, int[]> ghosts) {
+            this.frame = frame;
+            this.time = time;
+            this.eventIndex = eventIndex;
+            this.foods = foods;
+            this.pellets = pellets;
+            this.pacman = pacman;
+            this.ghosts = ghosts;
+        }
+    }
+
+    /** Contains the seed used to place the agents. */
+    private final long seed;
+
+    /** Contains the time when the recording started. */
+    private final long startTime;
+
+    /** Contains the text of the maze. */
+    private final String mazeText;
+
+    /** Contains all the events in the order they are recorded. */
+    private final List<Event> events;
+
+    /** Contains all the keyframes in the order they are recorded. */
+    private final List<Keyframe> keyframes;
+
+    /** Contains the number of frames (visits) in the log. */
+    private final int frameCount;
+
+    /**
+     * Reads a whole replay log. A truncated last record (for example if the game
+     * crashed while recording) is ignored.
+     *
+     * @param filename the path to the replay log
+     * @throws IOException if the file cannot be read or is not a replay log
+     */
+    public ReplayLog(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("\"" + filename + "\" is not a replay log.");
+            }
+            short version = in.readShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported replay version " + version);
+            }
+            this.seed = in.readLong();
+            this.startTime = in.readLong();
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            this.mazeText = new String(text, StandardCharsets.UTF_8);
+            this.events = new ArrayList<>();
+            this.keyframes = new ArrayList<>();
+            this.frameCount = readRecords(in);
+        }
+    }
+
+    /**
+     * Reads all the records after the header.
+     *
+     * @param in the input stream
+     * @return the number of frames read
+     * @throws IOException if an I/O error occurs
+     */
+    private int readRecords(DataInputStream in) throws IOException {
+        Map<Byte, String> agents = new HashMap<>();
+        int frames = 0;
+        try {
+            while (true) {
+                byte tag = in.readByte();
+                switch (tag) {
+                    case TAG_AGENT:
+                        byte id = in.readByte();
+                        agents.put(id, in.readUTF());
+                        break;
+                    case TAG_VISIT:
+                        String agent = agents.get(in.readByte());
+                        int x = in.readShort();
+                        int y = in.readShort();
+                        events.add(new Event(tag, agent, x, y, in.readInt(), -1));
+                        frames++;
+                        break;
+                    case TAG_COMMAND:
+                        agent = agents.get(in.readByte());
+                        int tick = in.readInt();
+                        in.readByte();  // type
+                        in.readByte();  // source
+                        in.readByte();  // direction
+                        x = in.readShort();
+                        y = in.readShort();
+                        events.add(new Event(tag, agent, x, y, -1, tick));
+                        break;
+                    case TAG_REMOVE:
+                    case TAG_EAT:
+                        events.add(new Event(tag, agents.get(in.readByte()), -1, -1, -1,
+                            -1));
+                        break;
+                    case TAG_SCARE:
+                        agent = agents.get(in.readByte());
+                        int seconds = in.readShort();
+                        events.add(new Event(tag, agent, -1, -1, in.readInt(), seconds));
+                        break;
+                    case TAG_KEYFRAME:
+                        keyframes.add(readKeyframe(in, agents));
+                        break;
+                    default:
+                        throw new IOException("Unknown record tag " + tag);
+                }
+            }
+        } catch (EOFException e) {
+            // End of the log (or a truncated last record)
+        }
+        return frames;
+    }
+
+    /**
+     * Reads a keyframe record.
+     *
+     * @param in the input stream
+     * @param agents the names of the declared agents
+     * @return the keyframe
+     * @throws IOException if an I/O error occurs
+     */
+    private Keyframe readKeyframe(DataInputStream in, Map<Byte, String> agents)
+        throws IOException {
+        int frame = in.readInt();
+        int time = in.readInt();
+        BitSet foods = readBitSet(in);
+        BitSet pellets = readBitSet(in);
+        Map<Integer, int[]> pacman = new HashMap<>();
+        int pacmanNum = in.readByte();
+        for (int i = 0; i < pacmanNum; i++) {
+            int index = in.readByte();
+            pacman.put(index, new int[]{in.readShort(), in.readShort(), in.readInt()});
+        }
+        Map<String, int[]> ghosts = new HashMap<>();
+        int ghostNum = in.readByte();
+        for (int i = 0; i < ghostNum; i++) {
+            String name = agents.get(in.readByte());
+            ghosts.put(name, new int[]{in.readShort(), in.readShort(), in.readShort()});
+        }
+        return new Keyframe(frame, time, events.size(), foods, pellets, pacman, ghosts);
+    }
+
+    /**
+     * Reads a bitmap written by {@link ReplayRecorder}.
+     *
+     * @param in the input stream
+     * @return the bitmap
+     * @throws IOException if an I/O error occurs
+     */
+    private static BitSet readBitSet(DataInputStream in) throws IOException {
+        long[] words = new long[in.readShort()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return BitSet.valueOf(words);
+    }
+
+    /**
+     * Gets the seed used to place the agents.
+     *
+     * @return the seed used to place the agents
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Gets the time when the recording started.
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets the text of the recorded maze.
+     *
+     * @return the text of the maze, as accepted by
+     *      {@link pacman.model.MazeFactory#readBoardFromString(String)}
+     */
+    public String getMazeText() {
+        return mazeText;
+    }
+
+    /**
+     * Gets the number of frames (visits) in the log.
+     *
+     * @return the number of frames in the log
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Gets all the events in the order they are recorded.
+     *
+     * @return all the events
+     */
+    List<Event> getEvents() {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Gets all the keyframes in the order they are recorded.
+     *
+     * @return all the keyframes
+     */
+    List<Keyframe> getKeyframes() {
+        return Collections.unmodifiableList(keyframes);
+    }
+}
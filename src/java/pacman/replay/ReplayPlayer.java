@@ -0,0 +1,338 @@
+package pacman.replay;
+
+import java.awt.BorderLayout;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import pacman.agents.MazePanel;
+import pacman.model.Maze;
+import pacman.model.MazeFactory;
+import pacman.util.StringUtilities;
+
+/**
+ * This class plays back a replay log. The game is re-simulated on a fresh
+ * {@link Maze} from the recorded visits, scares and eats, driven by the recorded clock
+ * instead of timers, so the result is the same at any speed. It can run headless at
+ * maximum speed or render into a {@link MazePanel}, and can seek to any frame by
+ * restoring the closest keyframe and re-simulating from it.
+ *
+ * <p>Usage: {@code java pacman.replay.ReplayPlayer <replay file> [--headless]}
+ *
+ * @version 1.0
+ */
+public class ReplayPlayer {
+    /** Contains the log being played. */
+    private final ReplayLog log;
+
+    /** Contains all the events of the log. */
+    private final List<ReplayLog.Event> events;
+
+    /** Contains the maze being re-simulated. */
+    private Maze maze;
+
+    /** Contains the index of the next event to apply. */
+    private int nextEvent;
+
+    /** Contains the number of frames applied. */
+    private int frame;
+
+    /** Contains the recorded time of the last applied frame. */
+    private int time;
+
+    /** Contains the recorded time when each scared ghost recovers. */
+    private final Map<String, Integer> scaredUntil;
+
+    /**
+     * Creates a player positioned at the beginning of a log.
+     *
+     * @param log the replay log
+     * @throws IOException if the recorded maze cannot be parsed
+     */
+    public ReplayPlayer(ReplayLog log) throws IOException {
+        this.log = log;
+        this.events = log.getEvents();
+        this.scaredUntil = new HashMap<>();
+        seek(0);
+    }
+
+    /**
+     * Gets the maze being re-simulated. Seeking replaces it.
+     *
+     * @return the maze at the current frame
+     */
+    public Maze getMaze() {
+        return maze;
+    }
+
+    /**
+     * Gets the current frame.
+     *
+     * @return the number of frames applied
+     */
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Gets the recorded time of the current frame.
+     *
+     * @return the milliseconds since the start of the recording
+     */
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * Checks if the playback reached the end of the log.
+     *
+     * @return {@code true} if there is no more event to apply
+     */
+    public boolean isFinished() {
+        return nextEvent >= events.size();
+    }
+
+    /**
+     * Gets the recorded time of the next frame.
+     *
+     * @return the recorded time of the next frame; {@link Integer#MAX_VALUE} if none
+     */
+    public int getNextFrameTime() {
+        for (int i = nextEvent; i < events.size(); i++) {
+            if (events.get(i).tag == ReplayLog.TAG_VISIT) {
+                return events.get(i).time;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Moves the playback to a frame by restoring the closest keyframe before it and
+     * re-simulating the frames in between.
+     *
+     * @param target the frame to go to
+     * @throws IOException if the recorded maze cannot be parsed
+     */
+    public void seek(int target) throws IOException {
+        maze = MazeFactory.readBoardFromString(log.getMazeText());
+        scaredUntil.clear();
+        nextEvent = 0;
+        frame = 0;
+        time = 0;
+        ReplayLog.Keyframe start = null;
+        for (ReplayLog.Keyframe keyframe: log.getKeyframes()) {
+            if (keyframe.frame <= target) {
+                start = keyframe;
+            }
+        }
+        if (start != null) {
+            restore(start);
+        }
+        while (frame < target && step()) {
+            // Re-simulate up to the target
+        }
+    }
+
+    /**
+     * Restores the state of a keyframe into the fresh maze.
+     *
+     * @param keyframe the keyframe
+     */
+    private void restore(ReplayLog.Keyframe keyframe) {
+        int width = maze.getWidth();
+        for (int y = 0; y < maze.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                int block = maze.get(x, y);
+                if ((block == Maze.FOOD && !keyframe.foods.get(y * width + x))
+                        || (block == Maze.PELLET && !keyframe.pellets.get(y * width + x))) {
+                    maze.clearBlock(x, y);
+                }
+            }
+        }
+        for (Map.Entry<Integer, int[]> pacman: keyframe.pacman.entrySet()) {
+            int[] state = pacman.getValue();
+            maze.pacmanVisit(pacman.getKey(), state[0], state[1]);
+            maze.setPacmanScore(pacman.getKey(), state[2]);
+        }
+        for (Map.Entry<String, int[]> ghost: keyframe.ghosts.entrySet()) {
+            int[] state = ghost.getValue();
+            maze.ghostVisit(ghost.getKey(), state[0], state[1]);
+            if (state[2] > 0) {
+                scaredUntil.put(ghost.getKey(), keyframe.time + state[2] * 1000);
+            }
+        }
+        nextEvent = keyframe.eventIndex;
+        frame = keyframe.frame;
+        time = keyframe.time;
+    }
+
+    /**
+     * Applies the events up to and including the next frame.
+     *
+     * @return {@code false} if the end of the log is reached before another frame
+     */
+    public boolean step() {
+        while (nextEvent < events.size()) {
+            ReplayLog.Event event = events.get(nextEvent++);
+            boolean isPacman = StringUtilities.isInteger(event.agent);
+            switch (event.tag) {
+                case ReplayLog.TAG_VISIT:
+                    time = event.time;
+                    updateScaredTimes();
+                    if (isPacman) {
+                        maze.pacmanVisit(Integer.parseInt(event.agent), event.x, event.y);
+                    } else {
+                        maze.ghostVisit(event.agent, event.x, event.y);
+                    }
+                    frame++;
+                    return true;
+                case ReplayLog.TAG_REMOVE:
+                    if (isPacman) {
+                        maze.removePacman(Integer.parseInt(event.agent));
+                    } else {
+                        maze.removeGhost(event.agent);
+                    }
+                    break;
+                case ReplayLog.TAG_SCARE:
+                    scaredUntil.put(event.agent, event.time + event.value * 1000);
+                    maze.setGhostScaredTime(event.agent, event.value);
+                    break;
+                case ReplayLog.TAG_EAT:
+                    scaredUntil.remove(event.agent);
+                    maze.setGhostScaredTime(event.agent, 0);
+                    break;
+                default:
+                    // Commands only change the facing of agents
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts down the scared time of the ghosts using the recorded clock.
+     */
+    private void updateScaredTimes() {
+        for (Map.Entry<String, Integer> ghost: scaredUntil.entrySet()) {
+            int remaining = Math.max(0, (ghost.getValue() - time + 999) / 1000);
+            maze.setGhostScaredTime(ghost.getKey(), remaining);
+        }
+    }
+
+    /**
+     * Re-simulates the whole log from the beginning as fast as possible.
+     *
+     * @return the maze at the end of the log
+     * @throws IOException if the recorded maze cannot be parsed
+     */
+    public Maze playHeadless() throws IOException {
+        seek(0);
+        while (step()) {
+            // Fast forward
+        }
+        return maze;
+    }
+
+    /**
+     * Shows the replay in a window with a play/pause button and a seek bar.
+     */
+    public void show() {
+        JFrame frame = new JFrame("Replay");
+        JPanel content = new JPanel(new BorderLayout());
+        JSlider seekBar = new JSlider(0, log.getFrameCount(), 0);
+        JButton playButton = new JButton("Play/Pause");
+        final MazePanel[] mazePanel = {createMazePanel()};
+        content.add(mazePanel[0], BorderLayout.CENTER);
+        final int[] clock = {0};
+        Timer timer = new Timer(40, e -> {
+            clock[0] += 40;
+            boolean changed = false;
+            while (getNextFrameTime() <= clock[0] && step()) {
+                changed = true;
+            }
+            if (changed) {
+                seekBar.setValue(getFrame());
+                mazePanel[0].repaint();
+            }
+            if (isFinished()) {
+                ((Timer) e.getSource()).stop();
+            }
+        });
+        playButton.addActionListener(e -> {
+            if (timer.isRunning()) {
+                timer.stop();
+            } else {
+                clock[0] = time;
+                timer.start();
+            }
+        });
+        seekBar.addChangeListener(e -> {
+            if (seekBar.getValueIsAdjusting() || seekBar.getValue() == getFrame()) {
+                return;
+            }
+            try {
+                seek(seekBar.getValue());
+            } catch (IOException ex) {
+                return;
+            }
+            clock[0] = time;
+            content.remove(mazePanel[0]);
+            mazePanel[0] = createMazePanel();
+            content.add(mazePanel[0], BorderLayout.CENTER);
+            content.revalidate();
+            content.repaint();
+        });
+        JPanel controls = new JPanel(new BorderLayout());
+        controls.add(playButton, BorderLayout.WEST);
+        controls.add(seekBar, BorderLayout.CENTER);
+        content.add(controls, BorderLayout.SOUTH);
+        frame.setContentPane(content);
+        frame.pack();
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.setLocationRelativeTo(null);
+        frame.setVisible(true);
+    }
+
+    /**
+     * Creates a maze panel showing the current maze with markers for agents.
+     *
+     * @return the maze panel
+     */
+    private MazePanel createMazePanel() {
+        MazePanel panel = new MazePanel(maze);
+        panel.setAgentMarkersVisible(true);
+        return panel;
+    }
+
+    /**
+     * Plays a replay log.
+     *
+     * @param args the path to the replay log, optionally followed by
+     *             {@code --headless}
+     * @throws IOException if the log cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ReplayPlayer <replay file> [--headless]");
+            return;
+        }
+        ReplayPlayer player = new ReplayPlayer(new ReplayLog(args[0]));
+        if (args.length > 1 && args[1].equals("--headless")) {
+            long start = System.nanoTime();
+            Maze result = player.playHeadless();
+            System.out.printf("%d frames re-simulated in %.2f ms (recorded %d s)%n",
+                player.getFrame(), (System.nanoTime() - start) / 1e6,
+                player.getTime() / 1000);
+            System.out.println("Scores: " + result.getPacmanScores());
+            System.out.println("Remaining foods: " + result.getFoodsNum()
+                + ", pellets: " + result.getPelletsNum());
+        } else {
+            SwingUtilities.invokeLater(player::show);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package pacman.replay;
+
+import static pacman.replay.ReplayLog.FORMAT_VERSION;
+import static pacman.replay.ReplayLog.MAGIC;
+import static pacman.replay.ReplayLog.TAG_AGENT;
+import static pacman.replay.ReplayLog.TAG_COMMAND;
+import static pacman.replay.ReplayLog.TAG_EAT;
+import static pacman.replay.ReplayLog.TAG_KEYFRAME;
+import static pacman.replay.ReplayLog.TAG_REMOVE;
+import static pacman.replay.ReplayLog.TAG_SCARE;
+import static pacman.replay.ReplayLog.TAG_VISIT;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import pacman.agents.AbstractAgent;
+import pacman.agents.AgentCommand;
+import pacman.agents.GhostAgent;
+import pacman.agents.PacmanAgent;
+import pacman.model.Coordinate;
+import pacman.model.Maze;
+import pacman.model.MazeSnapshot;
+import pacman.util.Logger;
+
+/**
+ * This class records a game into an append-only binary replay log. See
+ * {@link ReplayLog} for the format. All methods are thread safe; an I/O error stops
+ * the recording instead of interrupting the game.
+ *
+ * @version 1.0
+ */
+public class ReplayRecorder implements AgentCommand.Listener {
+    /** Contains the number of frames between two keyframes. */
+    public static final int KEYFRAME_INTERVAL = 256;
+
+    /** Contains the maze of the game. */
+    private final Maze maze;
+
+    /** Contains the output stream of the log; {@code null} once closed. */
+    private DataOutputStream out;
+
+    /** Contains the id of every declared agent. */
+    private final Map<String, Byte> agentIds;
+
+    /** Contains the time when the recording started. */
+    private final long startTime;
+
+    /** Contains the number of frames (visits) recorded. */
+    private int frames;
+
+    /**
+     * Starts recording a game.
+     *
+     * @param file the file to write the log into
+     * @param maze the maze of the game, before any agent is added
+     * @param mazeText the text of the maze
+     * @param seed the seed used to place the agents
+     * @throws IOException if the file cannot be created
+     */
+    public ReplayRecorder(File file, Maze maze, String mazeText, long seed)
+        throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        this.maze = maze;
+        this.agentIds = new HashMap<>();
+        this.startTime = System.currentTimeMillis();
+        this.out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file, false)));
+        byte[] text = mazeText.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeLong(seed);
+        out.writeLong(startTime);
+        out.writeInt(text.length);
+        out.write(text);
+    }
+
+    /**
+     * Gets the name used in the log for an agent: the index of a pacman or the name
+     * of a ghost, the same as in network messages.
+     *
+     * @param agent the agent
+     * @return the name of the agent
+     */
+    public static String nameOf(AbstractAgent agent) {
+        if (agent instanceof PacmanAgent) {
+            return String.valueOf(((PacmanAgent) agent).getIndex());
+        }
+        return ((GhostAgent) agent).getAgentName();
+    }
+
+    /**
+     * Gets the milliseconds since the recording started.
+     *
+     * @return the milliseconds since the recording started
+     */
+    private int now() {
+        return (int) (System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Gets the id of an agent, declaring it first if needed.
+     *
+     * @param name the name of the agent
+     * @return the id of the agent
+     * @throws IOException if an I/O error occurs
+     */
+    private byte idOf(String name) throws IOException {
+        Byte id = agentIds.get(name);
+        if (id == null) {
+            id = (byte) agentIds.size();
+            agentIds.put(name, id);
+            out.writeByte(TAG_AGENT);
+            out.writeByte(id);
+            out.writeUTF(name);
+        }
+        return id;
+    }
+
+    /**
+     * Stops the recording because of an I/O error.
+     *
+     * @param e the error
+     */
+    private void fail(IOException e) {
+        Logger.err("Replay recording stopped: %s", e.getMessage());
+        close();
+    }
+
+    /**
+     * Records an agent entering a block, which is one frame of the replay.
+     *
+     * @param agent the name of the agent
+     * @param x the x coordinate of the block
+     * @param y the y coordinate of the block
+     */
+    public synchronized void visit(String agent, int x, int y) {
+        if (out == null) {
+            return;
+        }
+        try {
+            byte id = idOf(agent);
+            out.writeByte(TAG_VISIT);
+            out.writeByte(id);
+            out.writeShort(x);
+            out.writeShort(y);
+            out.writeInt(now());
+            frames++;
+            if (frames % KEYFRAME_INTERVAL == 0) {
+                writeKeyframe();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Records an agent leaving the maze (dead or eaten).
+     *
+     * @param agent the name of the agent
+     */
+    public synchronized void remove(String agent) {
+        writeAgentEvent(TAG_REMOVE, agent);
+    }
+
+    /**
+     * Records a scared ghost being eaten.
+     *
+     * @param ghost the name of the ghost
+     */
+    public synchronized void eat(String ghost) {
+        writeAgentEvent(TAG_EAT, ghost);
+    }
+
+    /**
+     * Records a ghost being scared.
+     *
+     * @param ghost the name of the ghost
+     * @param seconds the scared time in seconds
+     */
+    public synchronized void scare(String ghost, int seconds) {
+        if (out == null) {
+            return;
+        }
+        try {
+            byte id = idOf(ghost);
+            out.writeByte(TAG_SCARE);
+            out.writeByte(id);
+            out.writeShort(seconds);
+            out.writeInt(now());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Gets called after a command is applied to an agent.
+     *
+     * @param agent the agent that applied the command
+     * @param tick the tick of the agent when the command is applied
+     * @param command the command that is applied
+     */
+    @Override
+    public synchronized void commandApplied(AbstractAgent agent, long tick,
+                                            AgentCommand command) {
+        if (out == null) {
+            return;
+        }
+        try {
+            byte id = idOf(nameOf(agent));
+            out.writeByte(TAG_COMMAND);
+            out.writeByte(id);
+            out.writeInt((int) tick);
+            out.writeByte(command.getType().ordinal());
+            out.writeByte(command.getSource().ordinal());
+            out.writeByte(command.getDirection() == null ? -1
+                : command.getDirection().ordinal());
+            out.writeShort(command.getX());
+            out.writeShort(command.getY());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes a record that only contains an agent.
+     *
+     * @param tag the tag of the record
+     * @param agent the name of the agent
+     */
+    private void writeAgentEvent(byte tag, String agent) {
+        if (out == null) {
+            return;
+        }
+        try {
+            byte id = idOf(agent);
+            out.writeByte(tag);
+            out.writeByte(id);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes the full state of the game so that the playback can seek to it.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeKeyframe() throws IOException {
+        MazeSnapshot state = maze.snapshot();
+        BitSet foods = new BitSet();
+        for (Coordinate food: state.getFoods()) {
+            foods.set(food.getY() * maze.getWidth() + food.getX());
+        }
+        BitSet pellets = new BitSet();
+        for (Coordinate pellet: state.getPellets()) {
+            pellets.set(pellet.getY() * maze.getWidth() + pellet.getX());
+        }
+        // Declare the agents before the keyframe so that it can refer to them
+        for (String ghost: state.getGhostLocations().keySet()) {
+            idOf(ghost);
+        }
+        out.writeByte(TAG_KEYFRAME);
+        out.writeInt(frames);
+        out.writeInt(now());
+        writeBitSet(foods);
+        writeBitSet(pellets);
+        out.writeByte(state.getPacmanLocations().size());
+        for (Map.Entry<Integer, Coordinate> pacman: state.getPacmanLocations().entrySet()) {
+            out.writeByte(pacman.getKey());
+            out.writeShort(pacman.getValue().getX());
+            out.writeShort(pacman.getValue().getY());
+            out.writeInt(state.getPacmanScores().getOrDefault(pacman.getKey(), 0));
+        }
+        out.writeByte(state.getGhostLocations().size());
+        for (Map.Entry<String, Coordinate> ghost: state.getGhostLocations().entrySet()) {
+            out.writeByte(agentIds.get(ghost.getKey()));
+            out.writeShort(ghost.getValue().getX());
+            out.writeShort(ghost.getValue().getY());
+            out.writeShort(state.getGhostScaredTimes().getOrDefault(ghost.getKey(), 0));
+        }
+    }
+
+    /**
+     * Writes a bitmap.
+     *
+     * @param bits the bitmap
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeBitSet(BitSet bits) throws IOException {
+        long[] words = bits.toLongArray();
+        out.writeShort(words.length);
+        for (long word: words) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Flushes and closes the log. Further records are ignored.
+     */
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            Logger.err("Failed to close the replay log: %s", e.getMessage());
+        }
+        out = null;
+    }
+}
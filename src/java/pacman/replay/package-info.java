@@ -0,0 +1,7 @@
+/**
+ * This package defines the recording of games into compact binary replay logs and the
+ * playback of those logs, either headless or rendered in a maze panel.
+ *
+ * @version 1.0
+ */
+package pacman.replay;
@@ -0,0 +1,216 @@
+package pacman.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Contains the Java Flight Recorder events of the game. They cost next to nothing
+ * when no recording is running; with one, for example
+ * {@code java -XX:StartFlightRecording=filename=pacman.jfr ...}, the recording shows
+ * where the time of every tick went.
+ *
+ * <p>An event measuring a duration is used as
+ * {@code event.begin(); ...; event.commit();}, filling its fields before the commit.
+ *
+ * @version 1.0
+ */
+public final class GameEvents {
+    /** Contains the category of all the events. */
+    private static final String CATEGORY = "Pacman";
+
+    /** Hide the constructor. */
+    private GameEvents() {}
+
+    /**
+     * Contains a tick of an agent: applying its commands, starting its move and, if
+     * it does not move, deciding its next move.
+     */
+    @Name("pacman.Tick")
+    @Label("Agent Tick")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Tick extends Event {
+        /** Contains the index of the pacman or the name of the ghost. */
+        @Label("Agent")
+        public String agent;
+
+        /** Contains the number of the tick. */
+        @Label("Tick")
+        public long tick;
+
+        /** Contains the direction of the agent during the tick. */
+        @Label("Direction")
+        public String direction;
+    }
+
+    /**
+     * Contains a decision of an algorithm.
+     */
+    @Name("pacman.Decision")
+    @Label("Algorithm Decision")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Decision extends Event {
+        /** Contains the index of the pacman or the name of the ghost. */
+        @Label("Agent")
+        public String agent;
+
+        /** Contains the name of the class of the algorithm. */
+        @Label("Algorithm")
+        public String algorithm;
+
+        /** Contains the number of nodes expanded by the search. */
+        @Label("Nodes Expanded")
+        @Description("0 for algorithms that do not search")
+        public long nodesExpanded;
+
+        /** Contains the move chosen. */
+        @Label("Decision")
+        public String decision;
+    }
+
+    /**
+     * Contains a paint of the maze.
+     */
+    @Name("pacman.Repaint")
+    @Label("Maze Repaint")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class Repaint extends Event {
+        /** Contains the width of the area painted. */
+        @Label("Width")
+        public int width;
+
+        /** Contains the height of the area painted. */
+        @Label("Height")
+        public int height;
+    }
+
+    /**
+     * Contains the handling of an agent entering a block: eating, collisions and the
+     * end of the game.
+     */
+    @Name("pacman.AgentVisit")
+    @Label("Agent Visit")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class AgentVisit extends Event {
+        /** Contains the index of the pacman or the name of the ghost. */
+        @Label("Agent")
+        public String agent;
+
+        /** Contains the x coordinate of the block. */
+        @Label("X")
+        public int x;
+
+        /** Contains the y coordinate of the block. */
+        @Label("Y")
+        public int y;
+
+        /** Contains the scores earned. */
+        @Label("Scores")
+        public int scores;
+    }
+
+    /**
+     * Contains a network message sent.
+     */
+    @Name("pacman.MessageSent")
+    @Label("Message Sent")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class MessageSent extends Event {
+        /** Contains the tag of the message. */
+        @Label("Tag")
+        public String tag;
+
+        /** Contains the length of the message. */
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+
+        /** Contains the address of the remote side. */
+        @Label("Peer")
+        public String peer;
+    }
+
+    /**
+     * Contains the handling of a network message received.
+     */
+    @Name("pacman.MessageReceived")
+    @Label("Message Received")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class MessageReceived extends Event {
+        /** Contains the tag of the message. */
+        @Label("Tag")
+        public String tag;
+
+        /** Contains the length of the message. */
+        @Label("Bytes")
+        @DataAmount
+        public int bytes;
+
+        /** Contains the address of the remote side. */
+        @Label("Peer")
+        public String peer;
+    }
+
+    /**
+     * Contains an agent coming back into the maze after being eaten.
+     */
+    @Name("pacman.Respawn")
+    @Label("Agent Respawn")
+    @Category(CATEGORY)
+    public static final class Respawn extends Event {
+        /** Contains the index of the pacman or the name of the ghost. */
+        @Label("Agent")
+        public String agent;
+
+        /** Contains the x coordinate of the block. */
+        @Label("X")
+        public int x;
+
+        /** Contains the y coordinate of the block. */
+        @Label("Y")
+        public int y;
+    }
+
+    /**
+     * Gets the tag of a network message: its first token.
+     *
+     * @param message the message
+     * @return the tag
+     */
+    public static String tagOf(String message) {
+        int comma = message.indexOf(',');
+        return comma < 0 ? message : message.substring(0, comma);
+    }
+
+    /**
+     * Gets the number of bytes a network message takes on the wire, as written by
+     * {@link java.io.DataOutputStream#writeUTF(String)}.
+     *
+     * @param message the message
+     * @return the length of the message in modified UTF-8, plus its 2 byte header
+     */
+    public static int sizeOf(String message) {
+        int bytes = 2;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                bytes += 1;
+            } else if (c <= 0x07FF) {
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
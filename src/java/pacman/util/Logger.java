@@ -1,20 +1,56 @@
 package pacman.util;
 
 import java.io.PrintStream;
+import java.util.Formatter;
 import java.util.IllegalFormatException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This is an utility to print logs.
  *
- * @version 1.0
+ * <p>Logging does not write on the calling thread, which is often the event dispatch
+ * thread or a socket reader. A log line is put into a preallocated ring buffer of
+ * {@value #CAPACITY} entries with its format string, its arguments and, if
+ * {@link #LOG_DETAIL}, its caller; a background thread formats and writes it. The
+ * level is checked before anything is captured, and callers building expensive
+ * arguments should check {@link #isEnabled(Level)} first. When the buffer is full,
+ * the line is dropped and counted in the {@code logger.dropped} metric rather than
+ * making the caller wait.
+ *
+ * <p>As the arguments are formatted later, they should not be changed after they are
+ * logged; an illegal format string is reported in place of the line.
+ *
+ * @version 1.1
  */
 public class Logger {
+    /** Contains the number of log lines the ring buffer holds, a power of two. */
+    public static final int CAPACITY = 4096;
+
+    /**
+     * This enum contains the levels of the logs, from the most verbose.
+     */
+    public enum Level {
+        /** The traffic of the game, such as every network message. */
+        DEBUG,
+
+        /** The events of the game. */
+        INFO,
+
+        /** The errors. */
+        ERROR
+    }
+
     /** Contains a flag that if log should be printed. */
     public static boolean LOG_ENABLED = false;
 
     /** Contains a flag that if stack trace should be printed. */
     public static boolean LOG_DETAIL = true;
 
+    /** Contains the lowest level of the logs printed. */
+    public static Level LOG_LEVEL = Level.DEBUG;
+
     /** Contains the stream for outputting the log. */
     public static PrintStream logger = System.out;
 
@@ -30,20 +66,74 @@ public class Logger {
     /** Prints in yello. */
     public static final String ANSI_YELLOW = "\u001B[33m";
 
+    /** Contains the walker finding the callers, which only builds the frames asked. */
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    /** Contains the entries of the ring buffer. */
+    private static final Entry[] RING = new Entry[CAPACITY];
+
+    /** Contains the sequence number of the next entry to claim. */
+    private static final AtomicLong CLAIMED = new AtomicLong();
+
+    /** Contains the sequence number of the next entry to write. */
+    private static volatile long written;
+
+    /** Contains the number of log lines dropped because the buffer was full. */
+    private static final Metrics.Counter DROPPED = Metrics.counter("logger.dropped");
+
+    /** Contains the thread writing the logs; {@code null} until the first log. */
+    private static Thread flusher;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Entry();
+        }
+    }
+
+    /** Hide the constructor. */
+    private Logger() {}
+
+    /**
+     * This class contains a log line waiting to be written.
+     */
+    private static final class Entry {
+        /** Contains the sequence number of the line once it can be written. */
+        private volatile long published = -1;
+
+        /** Contains the stream to write to. */
+        private PrintStream out;
+
+        /** Contains the caller; {@code null} if not printed. */
+        private StackWalker.StackFrame caller;
+
+        /** Contains the color of the text; {@code null} if none. */
+        private String color;
+
+        /** Contains the format string; {@code null} to print the arguments. */
+        private String format;
+
+        /** Contains the arguments. */
+        private Object[] args;
+    }
+
+    /**
+     * Checks if the logs of a level are printed.
+     *
+     * @param level the level
+     * @return true if the logs of the level are printed
+     */
+    public static boolean isEnabled(Level level) {
+        return LOG_ENABLED && level.compareTo(LOG_LEVEL) >= 0;
+    }
+
     /**
      * This function prints log to the console with the information of function callee.
      *
      * @param logs strings of log detail
      */
     public static void println(Object... logs) {
-        if (LOG_ENABLED) {
-            if (LOG_DETAIL) {
-                logger.print("[LOG] " + Thread.currentThread().getStackTrace()[2] + ": ");
-            }
-            for (Object log : logs) {
-                logger.print(log.toString() + " ");
-            }
-            logger.println();
+        if (isEnabled(Level.INFO)) {
+            publish(logger, caller(0), null, null, logs);
         }
     }
 
@@ -68,24 +158,10 @@ public class Logger {
      *         The behaviour on a
      *         <tt>null</tt> argument depends on the <a
      *         href="../pacman.util/Formatter.html#syntax">conversion</a>.
-     *
-     * @throws  IllegalFormatException
-     *          If a format string contains an illegal syntax, a format
-     *          specifier that is incompatible with the given arguments,
-     *          insufficient arguments given the format string, or other
-     *          illegal conditions.  For specification of all possible
-     *          formatting errors, see the <a
-     *          href="../pacman.util/Formatter.html#detail">Details</a> section of the
-     *          formatter class specification.
      */
-    public static void printlnf(String format, Object ... args)
-        throws IllegalFormatException {
-        if (LOG_ENABLED) {
-            if (LOG_DETAIL) {
-                logger.print("[LOG] " + Thread.currentThread().getStackTrace()[2] + ": ");
-            }
-            logger.printf(format, args);
-            logger.println();
+    public static void printlnf(String format, Object ... args) {
+        if (isEnabled(Level.INFO)) {
+            publish(logger, caller(0), null, format, args);
         }
     }
 
@@ -106,25 +182,10 @@ public class Logger {
      *         The behaviour on a
      *         <tt>null</tt> argument depends on the <a
      *         href="../pacman.util/Formatter.html#syntax">conversion</a>.
-     *
-     * @throws  IllegalFormatException
-     *          If a format string contains an illegal syntax, a format
-     *          specifier that is incompatible with the given arguments,
-     *          insufficient arguments given the format string, or other
-     *          illegal conditions.  For specification of all possible
-     *          formatting errors, see the <a
-     *          href="../pacman.util/Formatter.html#detail">Details</a> section of the
-     *          formatter class specification.
      */
-    public static void err(String format, Object ... args)
-        throws IllegalFormatException {
-        if (LOG_ENABLED) {
-            if (LOG_DETAIL) {
-                System.err.print("[LOG] " + Thread.currentThread().getStackTrace()[2]
-                    + ": ");
-            }
-            System.err.printf(format, args);
-            System.err.println();
+    public static void err(String format, Object ... args) {
+        if (isEnabled(Level.ERROR)) {
+            publish(System.err, caller(0), null, format, args);
         }
     }
 
@@ -150,25 +211,140 @@ public class Logger {
      *         The behaviour on a
      *         <tt>null</tt> argument depends on the <a
      *         href="../pacman.util/Formatter.html#syntax">conversion</a>.
+     */
+    public static void printColor(String color, int stack, String format,
+                                  Object ... args) {
+        if (isEnabled(Level.DEBUG)) {
+            publish(logger, caller(stack), color, format, args);
+        }
+    }
+
+    /**
+     * Waits until the logs already published are written, for at most a second.
+     */
+    public static void flush() {
+        long target = CLAIMED.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (written < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Gets the caller of a public method of the logger.
+     *
+     * @param stack the number of frames to skip above the caller
+     * @return the frame of the caller; {@code null} if not printed
+     */
+    private static StackWalker.StackFrame caller(int stack) {
+        if (!LOG_DETAIL) {
+            return null;
+        }
+        // Skips this method and the public method of the logger
+        return WALKER.walk(s -> s.skip(2 + stack).findFirst().orElse(null));
+    }
+
+    /**
+     * Puts a log line into the ring buffer, or drops it if the buffer is full.
+     *
+     * @param out the stream to write to
+     * @param caller the caller; {@code null} if not printed
+     * @param color the color of the text; {@code null} if none
+     * @param format the format string; {@code null} to print the arguments
+     * @param args the arguments
+     */
+    private static void publish(PrintStream out, StackWalker.StackFrame caller,
+                                String color, String format, Object[] args) {
+        startFlusher();
+        long seq;
+        do {
+            seq = CLAIMED.get();
+            if (seq - written >= CAPACITY) {
+                DROPPED.increment();
+                return;
+            }
+        } while (!CLAIMED.compareAndSet(seq, seq + 1));
+        Entry entry = RING[(int) seq & (CAPACITY - 1)];
+        entry.out = out;
+        entry.caller = caller;
+        entry.color = color;
+        entry.format = format;
+        entry.args = args;
+        entry.published = seq;
+    }
+
+    /**
+     * Starts the thread writing the logs, if not started.
+     */
+    private static synchronized void startFlusher() {
+        if (flusher != null) {
+            return;
+        }
+        flusher = new Thread(Logger::flushLoop, "logger-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush));
+    }
+
+    /**
+     * Writes the log lines in the order they were claimed, forever.
+     */
+    private static void flushLoop() {
+        StringBuilder line = new StringBuilder();
+        Formatter formatter = new Formatter(line);
+        while (true) {
+            long seq = written;
+            Entry entry = RING[(int) seq & (CAPACITY - 1)];
+            if (entry.published != seq) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            line.setLength(0);
+            format(entry, line, formatter);
+            entry.out.println(line);
+            entry.out = null;
+            entry.caller = null;
+            entry.color = null;
+            entry.format = null;
+            entry.args = null;
+            written = seq + 1;
+        }
+    }
+
+    /**
+     * Formats a log line.
      *
-     * @throws  IllegalFormatException
-     *          If a format string contains an illegal syntax, a format
-     *          specifier that is incompatible with the given arguments,
-     *          insufficient arguments given the format string, or other
-     *          illegal conditions.  For specification of all possible
-     *          formatting errors, see the <a
-     *          href="../pacman.util/Formatter.html#detail">Details</a> section of the
-     *          formatter class specification.
+     * @param entry the entry of the line
+     * @param line the builder to format into
+     * @param formatter the formatter writing into the builder
      */
-    public static void printColor(String color, int stack, String format, Object ... args)
-        throws IllegalFormatException {
-        if (LOG_ENABLED) {
-            if (LOG_DETAIL) {
-                logger.print("[LOG] " + Thread.currentThread().getStackTrace()[2 + stack]
-                    + ": " + color);
+    private static void format(Entry entry, StringBuilder line, Formatter formatter) {
+        if (entry.caller != null) {
+            line.append("[LOG] ").append(entry.caller.toStackTraceElement()).append(": ");
+        }
+        if (entry.color != null) {
+            line.append(entry.color);
+        }
+        int start = line.length();
+        try {
+            if (entry.format == null) {
+                for (Object log: entry.args) {
+                    line.append(log).append(' ');
+                }
+            } else {
+                formatter.format(entry.format, entry.args);
             }
-            logger.printf(format, args);
-            logger.println(ANSI_RESET);
+        } catch (IllegalFormatException e) {
+            line.setLength(start);
+            line.append("Illegal log format \"").append(entry.format).append("\": ")
+                .append(e.getMessage());
+        } catch (RuntimeException e) {
+            // An argument failed to print; the thread must keep writing the logs
+            line.setLength(start);
+            line.append("Failed to format the log: ").append(e);
+        }
+        if (entry.color != null) {
+            line.append(ANSI_RESET);
         }
     }
 }
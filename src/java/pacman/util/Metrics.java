@@ -0,0 +1,352 @@
+package pacman.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is a registry of the metrics of the hot paths of the game: counters, gauges
+ * and latency histograms, looked up by name. Recording never locks, so it can be done
+ * on the event dispatch thread and on the worker threads at every tick.
+ *
+ * <p>The histograms are log-linear, as in HdrHistogram: every power of two is split
+ * into {@value #SUB_BUCKETS} buckets, so a percentile is off by at most 1/16 of its
+ * value, whatever the range of the values.
+ *
+ * @version 1.0
+ */
+public final class Metrics {
+    /** Contains the number of bits of the sub bucket of a histogram. */
+    private static final int SUB_BITS = 4;
+
+    /** Contains the number of buckets each power of two is split into. */
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** Contains the counters by name. */
+    private static final ConcurrentMap<String, Counter> COUNTERS =
+        new ConcurrentHashMap<>();
+
+    /** Contains the gauges by name. */
+    private static final ConcurrentMap<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+
+    /** Contains the histograms by name. */
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS =
+        new ConcurrentHashMap<>();
+
+    /** Contains the thread dumping the metrics to a file; {@code null} if none. */
+    private static ScheduledExecutorService dumper;
+
+    /** Hide the constructor. */
+    private Metrics() {}
+
+    /**
+     * This class contains a count that only goes up.
+     */
+    public static final class Counter {
+        /** Contains the count. */
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Adds one to the count.
+         */
+        public void increment() {
+            count.increment();
+        }
+
+        /**
+         * Adds to the count.
+         *
+         * @param n the number to add
+         */
+        public void add(long n) {
+            count.add(n);
+        }
+
+        /**
+         * Gets the count.
+         *
+         * @return the count
+         */
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * This class contains a value that goes up and down, such as the length of a
+     * queue.
+     */
+    public static final class Gauge {
+        /** Contains the value. */
+        private final AtomicLong value = new AtomicLong();
+
+        /**
+         * Sets the value.
+         *
+         * @param newValue the new value
+         */
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        /**
+         * Adds to the value.
+         *
+         * @param delta the number to add, negative to subtract
+         */
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        /**
+         * Gets the value.
+         *
+         * @return the value
+         */
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * This class contains the distribution of a latency in nanoseconds.
+     */
+    public static final class Histogram {
+        /** Contains the number of values recorded in each bucket. */
+        private final AtomicLongArray buckets =
+            new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+        /** Contains the number of values recorded. */
+        private final LongAdder count = new LongAdder();
+
+        /** Contains the sum of the values recorded. */
+        private final LongAdder sum = new LongAdder();
+
+        /** Contains the largest value recorded. */
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Records a value.
+         *
+         * @param nanos the value in nanoseconds; negative values count as 0
+         */
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Records the time since a start.
+         *
+         * @param startNanos the value of {@link System#nanoTime()} at the start
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Gets the number of values recorded.
+         *
+         * @return the number of values recorded
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Gets the mean of the values recorded.
+         *
+         * @return the mean in nanoseconds; 0 if none
+         */
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * Gets the largest value recorded.
+         *
+         * @return the largest value in nanoseconds
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Gets a percentile of the values recorded.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the largest value of the bucket of the percentile in nanoseconds,
+         *      at most {@link #getMax()}; 0 if none
+         */
+        public long getPercentile(double percentile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(getMax(), lowestOf(i + 1) - 1);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * Gets the bucket of a value.
+         *
+         * @param value the value, not negative
+         * @return the index of the bucket
+         */
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * Gets the lowest value of a bucket.
+         *
+         * @param bucket the index of the bucket
+         * @return the lowest value of the bucket
+         */
+        private static long lowestOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        }
+    }
+
+    /**
+     * Gets a counter, creating it on the first call.
+     *
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new Counter());
+    }
+
+    /**
+     * Gets a gauge, creating it on the first call.
+     *
+     * @param name the name of the gauge
+     * @return the gauge
+     */
+    public static Gauge gauge(String name) {
+        return GAUGES.computeIfAbsent(name, k -> new Gauge());
+    }
+
+    /**
+     * Gets a latency histogram, creating it on the first call.
+     *
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /**
+     * Gets a report of all the metrics, one line per metric sorted by name, with the
+     * latencies in milliseconds.
+     *
+     * @return the lines of the report
+     */
+    public static String[] report() {
+        Map<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry: COUNTERS.entrySet()) {
+            lines.put(entry.getKey(), String.format("%-28s %d", entry.getKey(),
+                entry.getValue().get()));
+        }
+        for (Map.Entry<String, Gauge> entry: GAUGES.entrySet()) {
+            lines.put(entry.getKey(), String.format("%-28s %d", entry.getKey(),
+                entry.getValue().get()));
+        }
+        for (Map.Entry<String, Histogram> entry: HISTOGRAMS.entrySet()) {
+            Histogram h = entry.getValue();
+            lines.put(entry.getKey(), String.format(
+                "%-28s n=%d mean=%.3f p50=%.3f p99=%.3f max=%.3f", entry.getKey(),
+                h.getCount(), h.getMean() / 1e6, h.getPercentile(50) / 1e6,
+                h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        return lines.values().toArray(new String[0]);
+    }
+
+    /**
+     * Starts appending the report of the metrics to a file periodically, on a daemon
+     * thread. Replaces the previous dump, if any.
+     *
+     * @param file the file
+     * @param periodMillis the period in milliseconds; 0 or less disables the dump
+     * @requires None
+     * @modifies dumper
+     * @effects the report is appended to the file every period until the
+     *          application exits or {@link #stopDump()} is called
+     */
+    public static synchronized void startDump(File file, long periodMillis) {
+        stopDump();
+        if (periodMillis <= 0) {
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file), periodMillis, periodMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops appending the report of the metrics to a file.
+     */
+    public static synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+
+    /**
+     * Appends the report of the metrics to a file.
+     *
+     * @param file the file
+     */
+    private static void dump(File file) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            out.println("# " + new Date());
+            for (String line: report()) {
+                out.println(line);
+            }
+        } catch (IOException e) {
+            Logger.println("ERROR:" + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
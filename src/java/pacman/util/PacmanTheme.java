@@ -29,4 +29,13 @@ public class PacmanTheme {
 
     /** Color of a button when the mouse is pressed on. */
     public static Color BUTTON_PRESSED = new Color(189, 189, 189);
+
+    /** Color of a pacman marker in a replay. */
+    public static Color PACMAN_MARKER = new Color(255, 204, 0);
+
+    /** Color of a ghost marker in a replay. */
+    public static Color GHOST_MARKER = new Color(220, 40, 40);
+
+    /** Color of a scared ghost marker in a replay. */
+    public static Color SCARED_GHOST_MARKER = new Color(40, 80, 220);
 }
@@ -56,6 +56,7 @@ import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import javax.swing.border.EmptyBorder;
 import pacman.agents.AbstractAgent;
+import pacman.agents.AgentCommand;
 import pacman.agents.ControlledGhostAgent;
 import pacman.agents.ControlledPacmanAgent;
 import pacman.agents.GhostAgent;
@@ -106,6 +107,11 @@ public class GUIViewer extends JFrame implements UserInteraction {
      */
     private MazePanel mazePanel;
 
+    /**
+     * An overlay during the game showing the metrics, toggled by F3.
+     */
+    private MetricsOverlay metricsOverlay;
+
     /**
      * Text label during the game showing the score of the game.
      */
@@ -982,6 +988,27 @@ public class GUIViewer extends JFrame implements UserInteraction {
         mazePanel = new MazePanel(maze);
         gamePanel.add(mazePanel, BorderLayout.CENTER);
 
+        // Metrics over the maze, toggled by F3
+        if (metricsOverlay != null) {
+            metricsOverlay.dispose();
+        }
+        metricsOverlay = new MetricsOverlay();
+        metricsOverlay.setBounds(0, 0, mazePanel.getPreferredSize().width,
+            mazePanel.getPreferredSize().height);
+        mazePanel.add(metricsOverlay, 0);
+        KeyStroke metricsKey = KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0, false);
+        gamePanel.getInputMap(WHEN_IN_FOCUSED_WINDOW).put(metricsKey,
+            metricsKey.toString());
+        gamePanel.getActionMap().put(metricsKey.toString(), new AbstractAction() {
+            /**
+             * Invoked when an action occurs.
+             */
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                metricsOverlay.toggle();
+            }
+        });
+
         this.setContentPane(gamePanel);
         this.repaint();
         this.revalidate();
@@ -1011,6 +1038,7 @@ public class GUIViewer extends JFrame implements UserInteraction {
         } else {
             agent = new PacmanAgent(controller, maze, x, y, index, algorithm);
         }
+        agent.setCommandListener(controller.getCommandListener());
         mazePanel.addAgent(agent, true);
         pacmanAgents.put(index, agent);
     }
@@ -1038,6 +1066,7 @@ public class GUIViewer extends JFrame implements UserInteraction {
         } else {
             agent = new GhostAgent(controller, maze, x, y, name, algorithm);
         }
+        agent.setCommandListener(controller.getCommandListener());
         mazePanel.addAgent(agent, true);
         ghostAgents.put(name, agent);
     }
@@ -1107,6 +1136,9 @@ public class GUIViewer extends JFrame implements UserInteraction {
         }
         ghostAgents.clear();
         backgroundMusic.stop();
+        if (metricsOverlay != null) {
+            metricsOverlay.dispose();
+        }
         showStartUpInterface();
     }
 
@@ -1123,6 +1155,9 @@ public class GUIViewer extends JFrame implements UserInteraction {
         }
         ghostAgents.clear();
         backgroundMusic.stop();
+        if (metricsOverlay != null) {
+            metricsOverlay.dispose();
+        }
     }
 
     /**
@@ -1313,7 +1348,7 @@ public class GUIViewer extends JFrame implements UserInteraction {
     }
 
     /**
-     * Change the current moving direction of an agent immediately.
+     * Change the current moving direction of an agent at its next tick.
      *
      * @param direction the new direction
      * @param x the new x coordinate
@@ -1336,12 +1371,13 @@ public class GUIViewer extends JFrame implements UserInteraction {
                     + "ghostAgents = %s, agentName = %s",
                 pacmanAgents.toString(), ghostAgents.toString(), agentName);
         } else {
-            agent.networkChangeDirection(d, x, y);
+            agent.submitCommand(AgentCommand.networkDirection(d, Integer.parseInt(x),
+                Integer.parseInt(y)));
         }
     }
 
     /**
-     * Change the current location of an agent immediately.
+     * Change the current location of an agent at its next tick.
      *
      * @param x the new x coordinate
      * @param y the new y coordinate
@@ -1355,7 +1391,8 @@ public class GUIViewer extends JFrame implements UserInteraction {
         } else {
             agent = ghostAgents.get(agentName);
         }
-        agent.networkChangeLocation(x, y);
+        agent.submitCommand(AgentCommand.networkLocation(Integer.parseInt(x),
+            Integer.parseInt(y)));
     }
 
     /**
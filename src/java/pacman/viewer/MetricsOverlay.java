@@ -0,0 +1,83 @@
+package pacman.viewer;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+import pacman.util.Metrics;
+
+/**
+ * Contains a component drawn over the maze that shows the report of the
+ * {@link Metrics}, refreshed twice a second while visible.
+ *
+ * @version 1.0
+ */
+public class MetricsOverlay extends JComponent {
+    /** Contains the milliseconds between two refreshes. */
+    private static final int REFRESH_MILLIS = 500;
+
+    /** Contains the background behind the text. */
+    private static final Color BACKGROUND = new Color(0, 0, 0, 170);
+
+    /** Contains the font of the text. */
+    private static final Font FONT = new Font("Monospaced", Font.PLAIN, 11);
+
+    /** Contains the timer refreshing the overlay. */
+    private final Timer refresh;
+
+    /**
+     * Creates a hidden overlay.
+     */
+    public MetricsOverlay() {
+        setOpaque(false);
+        setVisible(false);
+        this.refresh = new Timer(REFRESH_MILLIS, e -> repaint());
+    }
+
+    /**
+     * Shows or hides the overlay.
+     *
+     * @return true if the overlay is now visible
+     */
+    public boolean toggle() {
+        setVisible(!isVisible());
+        if (isVisible()) {
+            refresh.start();
+        } else {
+            refresh.stop();
+        }
+        return isVisible();
+    }
+
+    /**
+     * Stops refreshing the overlay, for example when the game ends.
+     */
+    public void dispose() {
+        refresh.stop();
+    }
+
+    /**
+     * Draws the report of the metrics at the top left corner.
+     *
+     * @param g the <code>Graphics</code> object to protect
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        String[] lines = Metrics.report();
+        g.setFont(FONT);
+        FontMetrics fm = g.getFontMetrics();
+        int width = 0;
+        for (String line: lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        int lineHeight = fm.getHeight();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, width + 8, lineHeight * lines.length + 8);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 4, 4 + fm.getAscent() + i * lineHeight);
+        }
+    }
+}